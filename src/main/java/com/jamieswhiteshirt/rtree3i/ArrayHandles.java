@@ -0,0 +1,35 @@
+package com.jamieswhiteshirt.rtree3i;
+
+/**
+ * Handles which index a pair of on-heap arrays of keys and values. Handles are assigned in the order entries are
+ * written.
+ */
+final class ArrayHandles<K, V> implements BufferTree.HandleWriter<K, V>, BufferTree.HandleReader<K, V> {
+    private final Object[] keys;
+    private final Object[] values;
+    private int size = 0;
+
+    ArrayHandles(int capacity) {
+        this.keys = new Object[capacity];
+        this.values = new Object[capacity];
+    }
+
+    @Override
+    public long write(K key, V value) {
+        keys[size] = key;
+        values[size] = value;
+        return size++;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public K key(long handle) {
+        return (K) keys[(int) handle];
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public V value(long handle) {
+        return (V) values[(int) handle];
+    }
+}
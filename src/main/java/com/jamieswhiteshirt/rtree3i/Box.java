@@ -72,11 +72,11 @@ public final class Box {
     }
 
     /**
-     * Returns the volume of the bounding box
+     * Returns the volume of the bounding box, saturating at {@link Long#MAX_VALUE}.
      * @return the volume of the bounding box
      */
-    public int getVolume() {
-        return (x2 - x1) * (y2 - y1) * (z2 - z1);
+    public long getVolume() {
+        return Geometry.volume(this);
     }
 
     /**
@@ -141,25 +141,20 @@ public final class Box {
 
     /**
      * Returns the volume of the intersection of this bounding box and the other bounding box. If the intersection is
-     * empty or null, the volume is zero.
+     * empty or null, the volume is zero. Saturates at {@link Long#MAX_VALUE}.
      * @param r the other bounding box
      * @return the volume of the intersection of this bounding box and the other bounding box
      */
-    public int intersectionVolume(Box r) {
-        if (!intersectsClosed(r)) {
-            return 0;
-        } else {
-            return create(Math.max(x1, r.x1), Math.max(y1, r.y1), Math.max(z1, r.z1),
-                Math.min(x2, r.x2), Math.min(y2, r.y2), Math.min(z2, r.z2)).getVolume();
-        }
+    public long intersectionVolume(Box r) {
+        return Geometry.intersectionVolume(this, r);
     }
 
     /**
-     * Returns the surface area of this bounding box.
+     * Returns the surface area of this bounding box, saturating at {@link Long#MAX_VALUE}.
      * @return the surface area of this bounding box
      */
-    public int surfaceArea() {
-        return 2 * ((x2 - x1) * (y2 - y1) + (y2 - y1) * (z2 - z1) + (x2 - x1) * (z2 - z1));
+    public long surfaceArea() {
+        return Geometry.margin(this);
     }
 
     @Override
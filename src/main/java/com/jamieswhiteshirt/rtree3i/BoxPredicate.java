@@ -0,0 +1,59 @@
+package com.jamieswhiteshirt.rtree3i;
+
+import java.util.function.Predicate;
+
+/**
+ * A box predicate which is evaluated on the coordinates of a box. A map frozen with {@link RTreeMap#freezeOffHeap()}
+ * or opened from an {@link IndexFile} tests a BoxPredicate against the coordinates stored in its buffers, where any
+ * other box predicate needs a {@link Box} to be created for every node and entry it visits.
+ */
+@FunctionalInterface
+public interface BoxPredicate extends Predicate<Box> {
+
+    /**
+     * Evaluates this predicate on the box with the given coordinates.
+     * @param x1 minimum X value
+     * @param y1 minimum Y value
+     * @param z1 minimum Z value
+     * @param x2 maximum X value
+     * @param y2 maximum Y value
+     * @param z2 maximum Z value
+     * @return true if the box matches the predicate
+     */
+    boolean test(int x1, int y1, int z1, int x2, int y2, int z2);
+
+    @Override
+    default boolean test(Box box) {
+        return test(box.x1(), box.y1(), box.z1(), box.x2(), box.y2(), box.z2());
+    }
+
+    /**
+     * Returns a {@link BoxPredicate} matching all boxes.
+     * @return a {@link BoxPredicate} matching all boxes
+     */
+    static BoxPredicate all() {
+        return (x1, y1, z1, x2, y2, z2) -> true;
+    }
+
+    /**
+     * Returns a {@link BoxPredicate} matching the boxes which have a closed intersection with the box, like
+     * {@link Box#intersectsClosed(Box)}.
+     * @param r the box
+     * @return a {@link BoxPredicate} matching the boxes which have a closed intersection with the box
+     */
+    static BoxPredicate intersectsClosed(Box r) {
+        return (x1, y1, z1, x2, y2, z2) -> x1 < r.x2() && x2 > r.x1() && y1 < r.y2() && y2 > r.y1()
+            && z1 < r.z2() && z2 > r.z1();
+    }
+
+    /**
+     * Returns a {@link BoxPredicate} matching the boxes which have an open intersection with the box, like
+     * {@link Box#intersectsOpen(Box)}.
+     * @param r the box
+     * @return a {@link BoxPredicate} matching the boxes which have an open intersection with the box
+     */
+    static BoxPredicate intersectsOpen(Box r) {
+        return (x1, y1, z1, x2, y2, z2) -> x1 <= r.x2() && x2 >= r.x1() && y1 <= r.y2() && y2 >= r.y1()
+            && z1 <= r.z2() && z2 >= r.z1();
+    }
+}
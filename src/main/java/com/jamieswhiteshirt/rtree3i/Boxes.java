@@ -0,0 +1,149 @@
+package com.jamieswhiteshirt.rtree3i;
+
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Utility functions for boxes packed into a single int array, six ints per box in the order x1, y1, z1, x2, y2, z2.
+ * Nodes keep the boxes of their children packed next to the child array, so that scanning the children for
+ * containment or equality runs over contiguous memory instead of chasing a pointer to every {@link Box}.
+ */
+final class Boxes {
+
+    /**
+     * Number of ints used by a single packed box.
+     */
+    static final int STRIDE = 6;
+
+    private Boxes() {
+        // prevent instantiation
+    }
+
+    static <T> int[] pack(T[] items, Function<? super T, Box> boxMapper) {
+        int[] packed = new int[items.length * STRIDE];
+        for (int i = 0; i < items.length; i++) {
+            set(packed, i, boxMapper.apply(items[i]));
+        }
+        return packed;
+    }
+
+    static <T> int[] pack(List<T> items, Function<? super T, Box> boxMapper) {
+        int[] packed = new int[items.size() * STRIDE];
+        for (int i = 0; i < items.size(); i++) {
+            set(packed, i, boxMapper.apply(items.get(i)));
+        }
+        return packed;
+    }
+
+    static void set(int[] packed, int index, Box box) {
+        int offset = index * STRIDE;
+        packed[offset] = box.x1();
+        packed[offset + 1] = box.y1();
+        packed[offset + 2] = box.z1();
+        packed[offset + 3] = box.x2();
+        packed[offset + 4] = box.y2();
+        packed[offset + 5] = box.z2();
+    }
+
+    static Box get(int[] packed, int index) {
+        int offset = index * STRIDE;
+        return Box.create(packed[offset], packed[offset + 1], packed[offset + 2],
+            packed[offset + 3], packed[offset + 4], packed[offset + 5]);
+    }
+
+    /**
+     * Returns true if the packed box at the index fully contains the box.
+     */
+    static boolean contains(int[] packed, int index, Box box) {
+        int offset = index * STRIDE;
+        return packed[offset] <= box.x1() && packed[offset + 3] >= box.x2()
+            && packed[offset + 1] <= box.y1() && packed[offset + 4] >= box.y2()
+            && packed[offset + 2] <= box.z1() && packed[offset + 5] >= box.z2();
+    }
+
+    /**
+     * Returns true if the packed box at the index is equal to the box.
+     */
+    static boolean equals(int[] packed, int index, Box box) {
+        int offset = index * STRIDE;
+        return packed[offset] == box.x1() && packed[offset + 1] == box.y1() && packed[offset + 2] == box.z1()
+            && packed[offset + 3] == box.x2() && packed[offset + 4] == box.y2() && packed[offset + 5] == box.z2();
+    }
+
+    /**
+     * Returns the index of the first packed box at or after the index which is equal to the box, or -1 if there is
+     * none.
+     */
+    static int indexOf(int[] packed, Box box, int from) {
+        int x1 = box.x1(), y1 = box.y1(), z1 = box.z1(), x2 = box.x2(), y2 = box.y2(), z2 = box.z2();
+        for (int offset = from * STRIDE; offset < packed.length; offset += STRIDE) {
+            if (packed[offset] == x1 && packed[offset + 1] == y1 && packed[offset + 2] == z1
+                && packed[offset + 3] == x2 && packed[offset + 4] == y2 && packed[offset + 5] == z2) {
+                return offset / STRIDE;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Sets the packed box at the index to the minimum bounding box of the packed boxes a and b.
+     */
+    static void union(int[] packed, int index, int[] a, int aIndex, int[] b, int bIndex) {
+        int offset = index * STRIDE;
+        int aOffset = aIndex * STRIDE;
+        int bOffset = bIndex * STRIDE;
+        for (int i = 0; i < 3; i++) {
+            packed[offset + i] = Math.min(a[aOffset + i], b[bOffset + i]);
+            packed[offset + 3 + i] = Math.max(a[aOffset + 3 + i], b[bOffset + 3 + i]);
+        }
+    }
+
+    /**
+     * Returns the minimum bounding box of the boxes of the items.
+     */
+    static <T> Box mbb(T[] items, Function<? super T, Box> boxMapper) {
+        int minX1 = Integer.MAX_VALUE;
+        int minY1 = Integer.MAX_VALUE;
+        int minZ1 = Integer.MAX_VALUE;
+        int maxX2 = Integer.MIN_VALUE;
+        int maxY2 = Integer.MIN_VALUE;
+        int maxZ2 = Integer.MIN_VALUE;
+        for (T item : items) {
+            Box box = boxMapper.apply(item);
+            minX1 = Math.min(minX1, box.x1());
+            minY1 = Math.min(minY1, box.y1());
+            minZ1 = Math.min(minZ1, box.z1());
+            maxX2 = Math.max(maxX2, box.x2());
+            maxY2 = Math.max(maxY2, box.y2());
+            maxZ2 = Math.max(maxZ2, box.z2());
+        }
+        return Box.create(minX1, minY1, minZ1, maxX2, maxY2, maxZ2);
+    }
+
+    /**
+     * Returns the minimum bounding box of two boxes, reusing either box if it contains the other.
+     */
+    static Box union(Box a, Box b) {
+        if (a.contains(b)) return a;
+        if (b.contains(a)) return b;
+        return a.add(b);
+    }
+
+    /**
+     * Returns true if the inner box lies within the outer box grown by the margin on every side.
+     */
+    static boolean withinMargin(Box inner, Box outer, int margin) {
+        return (long) inner.x1() >= (long) outer.x1() - margin && (long) inner.x2() <= (long) outer.x2() + margin
+            && (long) inner.y1() >= (long) outer.y1() - margin && (long) inner.y2() <= (long) outer.y2() + margin
+            && (long) inner.z1() >= (long) outer.z1() - margin && (long) inner.z2() <= (long) outer.z2() + margin;
+    }
+
+    /**
+     * Returns true if the inner box touches a face of the outer box. If it does not, removing the inner box from a
+     * group bounded by the outer box cannot shrink the bounds of the group.
+     */
+    static boolean touchesFace(Box inner, Box outer) {
+        return inner.x1() == outer.x1() || inner.y1() == outer.y1() || inner.z1() == outer.z1()
+            || inner.x2() == outer.x2() || inner.y2() == outer.y2() || inner.z2() == outer.z2();
+    }
+}
@@ -3,184 +3,459 @@ package com.jamieswhiteshirt.rtree3i;
 import com.google.common.base.Preconditions;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
-import java.util.function.BiFunction;
-import java.util.function.Consumer;
+import java.util.function.BiConsumer;
+import java.util.function.BiPredicate;
+import java.util.function.Function;
 import java.util.function.Predicate;
-import java.util.stream.Collectors;
 
 final class Branch<K, V> implements Node<K, V> {
-    private final List<Node<K, V>> children;
+    private final Node<K, V>[] children;
+    private final PackedBoxes childBoxes;
     private final Box box;
     private final int size;
+    // the largest Hilbert value of the last child, computed when first asked for in a Hilbert-ordered tree
+    private Hilbert.Value hilbertValue;
+    // the highest repack score in the subtree, computed when first asked for, or NaN until then
+    private double worstScore = Double.NaN;
 
-    static <K, V> Branch<K, V> containing(List<Node<K, V>> children) {
-        return new Branch<>(children, Util.mbb(children.stream().map(Node::getBox).collect(Collectors.toList())));
+    static <K, V> Branch<K, V> containing(List<Node<K, V>> children, Configuration configuration) {
+        Preconditions.checkArgument(!children.isEmpty());
+        Node<K, V>[] array = toArray(children);
+        Box box = Boxes.mbb(array, Node::getBox);
+        return new Branch<>(array, PackedBoxes.pack(array, Node::getBox, box, configuration.isBoxCompressionEnabled()),
+            box);
     }
 
     Branch(List<Node<K, V>> children, Box box) {
-        Preconditions.checkArgument(!children.isEmpty());
+        this(toArray(children), box);
+    }
+
+    private Branch(Node<K, V>[] children, Box box) {
+        this(children, PackedBoxes.pack(children, Node::getBox, box, false), box);
+    }
+
+    private Branch(Node<K, V>[] children, PackedBoxes childBoxes, Box box) {
+        this(children, childBoxes, box, sizeOf(children));
+    }
+
+    private Branch(Node<K, V>[] children, PackedBoxes childBoxes, Box box, int size) {
+        Preconditions.checkArgument(children.length != 0);
         this.children = children;
+        this.childBoxes = childBoxes;
         this.box = box;
+        this.size = size;
+    }
+
+    private static int sizeOf(Node<?, ?>[] children) {
         int size = 0;
-        for (Node<K, V> child : children) {
+        for (Node<?, ?> child : children) {
             size += child.size();
         }
-        this.size = size;
+        return size;
     }
 
-    private List<Node<K, V>> makeNonLeaves(Groups<Node<K, V>> pair) {
+    @SuppressWarnings("unchecked")
+    private static <K, V> Node<K, V>[] toArray(List<Node<K, V>> children) {
+        return children.toArray(new Node[0]);
+    }
+
+    private List<Node<K, V>> makeNonLeaves(Groups<Node<K, V>> pair, Configuration configuration) {
         List<Node<K, V>> list = new ArrayList<>();
-        list.add(containing(pair.getGroup1().getEntries()));
-        list.add(containing(pair.getGroup2().getEntries()));
+        list.add(containing(pair.getGroup1().getEntries(), configuration));
+        list.add(containing(pair.getGroup2().getEntries(), configuration));
         return list;
     }
 
-    private Node<K, V> selectChildForPut(Box box, Configuration configuration) {
-        for (final Node<K, V> child : children) {
-            if (child.containsBucket(box)) {
-                return child;
+    private int selectChildForPut(Box box, Configuration configuration) {
+        for (int i = 0; i < children.length; i++) {
+            if (childBoxes.mayContain(i, box) && children[i].containsBucket(box)) {
+                return i;
+            }
+        }
+        return configuration.isHilbertOrdered() ? selectChildByHilbert(box) : selectChild(box, configuration);
+    }
+
+    /**
+     * Returns the index of the first child with a largest Hilbert value at least that of the box, or the last child if
+     * there is none.
+     */
+    private int selectChildByHilbert(Box box) {
+        Hilbert.Value value = Hilbert.of(box);
+        int from = 0;
+        int to = children.length - 1;
+        while (from < to) {
+            int mid = (from + to) >>> 1;
+            if (children[mid].hilbertValue().compareTo(value) < 0) {
+                from = mid + 1;
+            } else {
+                to = mid;
             }
         }
-        return configuration.getSelector().select(box, children);
+        return from;
+    }
+
+    private int selectChild(Box box, Configuration configuration) {
+        Node<K, V> child = configuration.getSelector().select(box, Arrays.asList(children));
+        for (int i = 0; i < children.length; i++) {
+            if (children[i] == child) {
+                return i;
+            }
+        }
+        throw new IllegalStateException("Selector returned a node which is not a child");
     }
 
     @Override
-    public List<Node<K, V>> put(Box box, Entry<K, V> entry, Configuration configuration) {
-        final Node<K, V> child = selectChildForPut(box, configuration);
-        List<Node<K, V>> list = child.put(box, entry, configuration);
-        List<Node<K, V>> children2 = Util.replace(children, child, list);
-        if (children2.size() <= configuration.getMaxChildren()) {
-            return Collections.singletonList(containing(children2));
+    public List<Node<K, V>> put(Box box, K key, V value, Configuration configuration,
+                                Reinsertion<K, V> reinsertion) {
+        int index = selectChildForPut(box, configuration);
+        return withReplacedChild(index, children[index].put(box, key, value, configuration, reinsertion),
+            configuration, reinsertion);
+    }
+
+    @Override
+    public List<Node<K, V>> putBucket(Bucket<K, V> bucket, Configuration configuration,
+                                      Reinsertion<K, V> reinsertion) {
+        int index = selectChildForPut(bucket.getBox(), configuration);
+        return withReplacedChild(index, children[index].putBucket(bucket, configuration, reinsertion),
+            configuration, reinsertion);
+    }
+
+    @Override
+    public List<Node<K, V>> putNode(Node<K, V> node, int height, Configuration configuration,
+                                    Reinsertion<K, V> reinsertion) {
+        if (height == 0) {
+            Node<K, V>[] array = Arrays.copyOf(children, children.length + 1);
+            array[children.length] = node;
+            return withChildren(array, Boxes.union(box, node.getBox()), size + node.size(), configuration,
+                reinsertion);
+        }
+        int index = selectChild(node.getBox(), configuration);
+        return withReplacedChild(index, children[index].putNode(node, height - 1, configuration, reinsertion), configuration,
+            reinsertion);
+    }
+
+    /**
+     * Returns this branch with the child at the index replaced by the nodes it was split into by a put. Unless children
+     * were removed for reinsertion, the nodes bound the old child, so the bounding box and size are updated from them
+     * alone.
+     */
+    private List<Node<K, V>> withReplacedChild(int index, List<Node<K, V>> nodes, Configuration configuration,
+                                               Reinsertion<K, V> reinsertion) {
+        if (configuration.isHilbertOrdered()) {
+            return Collections.singletonList(withHilbertChild(index, nodes.get(0), configuration));
+        }
+        int n = children.length - 1 + nodes.size();
+        Node<K, V>[] array = Arrays.copyOf(children, n);
+        Box mbb = box;
+        int size = this.size - children[index].size();
+        for (int i = 0; i < nodes.size(); i++) {
+            Node<K, V> node = nodes.get(i);
+            array[i == 0 ? index : children.length - 1 + i] = node;
+            mbb = Boxes.union(mbb, node.getBox());
+            size += node.size();
+        }
+        if (reinsertion != null && Boxes.touchesFace(children[index].getBox(), box)) {
+            // children removed for reinsertion below may have shrunk the child
+            mbb = Boxes.mbb(array, Node::getBox);
+        }
+        return withChildren(array, mbb, size, configuration, reinsertion);
+    }
+
+    /**
+     * Returns this Hilbert-ordered branch with the child at the index replaced by the node. If the node overflows, its
+     * children are shared with its next sibling, or its previous sibling if it is the last child, and the two are only
+     * split into three if both are full. The returned branch may overflow in turn, which is left to its parent.
+     */
+    @SuppressWarnings("unchecked")
+    private Branch<K, V> withHilbertChild(int index, Node<K, V> node, Configuration configuration) {
+        int maxChildren = configuration.getMaxChildren();
+        Node<K, V>[] array;
+        if (node.fanout() <= maxChildren) {
+            array = children.clone();
+            array[index] = node;
+        } else if (children.length == 1) {
+            array = toArray(Hilbert.distribute(node, null, 2, configuration));
         } else {
-            Groups<Node<K, V>> pair = configuration.getSplitter().split(children2,
-                configuration.getMinChildren(), Node::getBox);
-            return makeNonLeaves(pair);
+            int first = index + 1 < children.length ? index : index - 1;
+            Node<K, V> a = first == index ? node : children[first];
+            Node<K, V> b = first == index ? children[first + 1] : node;
+            int count = a.fanout() + b.fanout() <= 2 * maxChildren ? 2 : 3;
+            List<Node<K, V>> nodes = Hilbert.distribute(a, b, count, configuration);
+            array = new Node[children.length - 2 + count];
+            System.arraycopy(children, 0, array, 0, first);
+            for (int i = 0; i < count; i++) {
+                array[first + i] = nodes.get(i);
+            }
+            System.arraycopy(children, first + 2, array, first + count, children.length - first - 2);
         }
+        // redistribution keeps the entries and the bounding box of the node and its sibling together
+        Box mbb = Boxes.union(box, node.getBox());
+        PackedBoxes childBoxes = PackedBoxes.pack(array, Node::getBox, mbb, configuration.isBoxCompressionEnabled());
+        return new Branch<>(array, childBoxes, mbb, size - children[index].size() + node.size());
     }
 
-    @Override
-    public List<Node<K, V>> putBucket(Bucket<K, V> bucket, Configuration configuration) {
-        final Node<K, V> child = selectChildForPut(bucket.getBox(), configuration);
-        List<Node<K, V>> list = child.putBucket(bucket, configuration);
-        List<Node<K, V>> children2 = Util.replace(children, child, list);
-        if (children2.size() <= configuration.getMaxChildren()) {
-            return Collections.singletonList(containing(children2));
+    /**
+     * Returns a branch with the children, or the branches they are split into if there are too many children. If the
+     * children overflow for the first time at this level, the children farthest from the centre are removed for
+     * reinsertion instead.
+     */
+    private List<Node<K, V>> withChildren(Node<K, V>[] array, Box mbb, int size, Configuration configuration,
+                                          Reinsertion<K, V> reinsertion) {
+        if (array.length <= configuration.getMaxChildren()) {
+            PackedBoxes childBoxes = PackedBoxes.pack(array, Node::getBox, mbb,
+                configuration.isBoxCompressionEnabled());
+            return Collections.singletonList(new Branch<>(array, childBoxes, mbb, size));
+        } else if (reinsertion != null && reinsertion.overflow(array[0].calculateDepth())) {
+            int[] farthest = Reinsertion.farthest(array, Node::getBox, mbb, configuration.getReinsertCount());
+            for (int index : farthest) {
+                reinsertion.add(array[index]);
+                array[index] = null;
+            }
+            List<Node<K, V>> remaining = new ArrayList<>(array.length - farthest.length);
+            for (Node<K, V> child : array) {
+                if (child != null) remaining.add(child);
+            }
+            return Collections.singletonList(containing(remaining, configuration));
         } else {
-            Groups<Node<K, V>> pair = configuration.getSplitter().split(children2,
-                configuration.getMinChildren(), Node::getBox);
-            return makeNonLeaves(pair);
+            Groups<Node<K, V>> pair = configuration.getSplitter().split(Arrays.asList(array),
+                configuration.getMinChildren(), Node::getBox, box);
+            return makeNonLeaves(pair, configuration);
         }
     }
 
     @Override
     public NodeAndEntries<K, V> remove(Box box, Entry<K, V> entry, Configuration configuration) {
-        // the result of performing a remove of the given entry from this node
-        // will be that zero or more entries will be needed to be added back to
-        // the root of the tree (because num entries of their node fell below
-        // minChildren),
-        // zero or more children will need to be removed from this node,
-        // zero or more nodes to be added as children to this node(because
-        // entries have been deleted from them and they still have enough
-        // members to be active)
-        List<Bucket<K, V>> addTheseEntries = new ArrayList<>();
-        List<Node<K, V>> removeTheseNodes = new ArrayList<>();
-        List<Node<K, V>> addTheseNodes = new ArrayList<>();
+        return remove(box, child -> child.remove(box, entry, configuration), configuration);
+    }
+
+    @Override
+    public NodeAndEntries<K, V> remove(Box box, K key, Configuration configuration) {
+        return remove(box, child -> child.remove(box, key, configuration), configuration);
+    }
+
+    private NodeAndEntries<K, V> remove(Box box, Function<Node<K, V>, NodeAndEntries<K, V>> remover,
+                                        Configuration configuration) {
+        // the result of performing a remove from this node will be that zero
+        // or more entries will be needed to be added back to the root of the
+        // tree (because their leaf fell below minChildren and could not be
+        // merged with or borrow from a sibling), zero or more children will
+        // need to be removed from this node and zero or more children will
+        // need to be replaced (because entries have been deleted from them)
+        Node<K, V>[] array = null;
+        List<Bucket<K, V>> addTheseEntries = null;
+        List<Node<K, V>> underflowing = null;
         int countDeleted = 0;
+        int removed = 0;
+        int size = this.size;
+        boolean shrunk = false;
 
-        for (final Node<K, V> child : children) {
-            if (child.getBox().contains(box)) {
-                final NodeAndEntries<K, V> result = child.remove(box, entry, configuration);
-                if (result.getNode() != null) {
-                    if (result.getNode() != child) {
-                        // deletion occurred and child is above minChildren so
-                        // we update it
-                        addTheseNodes.add(result.getNode());
-                        removeTheseNodes.add(child);
+        for (int i = 0; i < children.length; i++) {
+            if (childBoxes.mayContain(i, box)) {
+                final Node<K, V> child = children[i];
+                final NodeAndEntries<K, V> result = remover.apply(child);
+                final Node<K, V> node = result.getNode();
+                if (node != child) {
+                    // deletion occurred, and the child is either updated or
+                    // empty
+                    if (array == null) {
+                        array = children.clone();
+                    }
+                    array[i] = node;
+                    if (node == null) {
+                        removed++;
+                    } else if (node.fanout() < configuration.getMinChildren()) {
+                        if (underflowing == null) {
+                            underflowing = new ArrayList<>(1);
+                        }
+                        underflowing.add(node);
+                    }
+                    size += (node != null ? node.size() : 0) - child.size();
+                    shrunk |= Boxes.touchesFace(child.getBox(), this.box);
+                    if (!result.getEntriesToAdd().isEmpty()) {
+                        if (addTheseEntries == null) {
+                            addTheseEntries = new ArrayList<>();
+                        }
                         addTheseEntries.addAll(result.getEntriesToAdd());
-                        countDeleted += result.countDeleted();
                     }
-                    // else nothing was deleted from that child
-                } else {
-                    // deletion occurred and brought child below minChildren
-                    // so we redistribute its entries
-                    removeTheseNodes.add(child);
-                    addTheseEntries.addAll(result.getEntriesToAdd());
                     countDeleted += result.countDeleted();
                 }
+                // else nothing was deleted from that child
             }
         }
-        if (removeTheseNodes.isEmpty()) {
+        if (array == null) {
             return new NodeAndEntries<>(this, Collections.emptyList(), 0);
-        } else {
-            List<Node<K, V>> nodes = Util.remove(children, removeTheseNodes);
-            nodes.addAll(addTheseNodes);
-            if (nodes.size() == 0) {
-                return new NodeAndEntries<>(null, addTheseEntries, countDeleted);
-            } else {
-                Branch<K, V> node = containing(nodes);
-                return new NodeAndEntries<>(node, addTheseEntries, countDeleted);
+        }
+        int n = children.length - removed;
+        if (removed != 0) {
+            Node<K, V>[] compacted = Arrays.copyOf(array, n);
+            int j = 0;
+            for (Node<K, V> node : array) {
+                if (node != null) compacted[j++] = node;
             }
+            array = compacted;
         }
+        if (underflowing != null) {
+            List<Node<K, V>> nodes = new ArrayList<>(Arrays.asList(array));
+            for (Node<K, V> node : underflowing) {
+                int index = indexOf(nodes, node);
+                // a sibling may already have taken the children of the node
+                if (index == -1) continue;
+                boolean condensed = node.isLeaf()
+                    ? condense(nodes, index, Node::getBuckets, Bucket::getBox,
+                        buckets -> Leaf.containing(buckets, configuration), configuration)
+                    : condense(nodes, index, Node::getChildren, Node::getBox,
+                        children -> containing(children, configuration), configuration);
+                if (!condensed && node.isLeaf()) {
+                    nodes.remove(index);
+                    size -= node.size();
+                    shrunk = true;
+                    if (addTheseEntries == null) {
+                        addTheseEntries = new ArrayList<>();
+                    }
+                    addTheseEntries.addAll(node.getBuckets());
+                }
+            }
+            array = toArray(nodes);
+            n = array.length;
+        }
+        List<Bucket<K, V>> entries = addTheseEntries != null ? addTheseEntries : Collections.emptyList();
+        if (n == 0) {
+            return new NodeAndEntries<>(null, entries, countDeleted);
+        }
+        // the bounding box can only shrink if a changed child touched it
+        Box mbb = shrunk ? Boxes.mbb(array, Node::getBox) : this.box;
+        PackedBoxes childBoxes = PackedBoxes.pack(array, Node::getBox, mbb, configuration.isBoxCompressionEnabled());
+        return new NodeAndEntries<>(new Branch<>(array, childBoxes, mbb, size), entries, countDeleted);
     }
 
     @Override
-    public NodeAndEntries<K, V> remove(Box box, K key, Configuration configuration) {
-        // the result of performing a remove of the given entry from this node
-        // will be that zero or more entries will be needed to be added back to
-        // the root of the tree (because num entries of their node fell below
-        // minChildren),
-        // zero or more children will need to be removed from this node,
-        // zero or more nodes to be added as children to this node(because
-        // entries have been deleted from them and they still have enough
-        // members to be active)
-        List<Bucket<K, V>> addTheseEntries = new ArrayList<>();
-        List<Node<K, V>> removeTheseNodes = new ArrayList<>();
-        List<Node<K, V>> addTheseNodes = new ArrayList<>();
-        int countDeleted = 0;
+    public List<Node<K, V>> compute(Box box, K key, Computation<K, V> computation, Configuration configuration,
+                                    Reinsertion<K, V> reinsertion) {
+        int index = selectChildForPut(box, configuration);
+        Node<K, V> child = children[index];
+        List<Node<K, V>> nodes = child.compute(box, key, computation, configuration, reinsertion);
+        if (nodes.size() == 1 && nodes.get(0) == child) {
+            return Collections.singletonList(this);
+        }
+        if (!computation.isRemoval()) {
+            return withReplacedChild(index, nodes, configuration, reinsertion);
+        }
+        // condense as a remove from the child would
+        NodeAndEntries<K, V> removed = new NodeAndEntries<>(nodes.isEmpty() ? null : nodes.get(0),
+            Collections.emptyList(), 1);
+        NodeAndEntries<K, V> result = remove(box, node -> node == child ? removed
+            : new NodeAndEntries<>(node, Collections.emptyList(), 0), configuration);
+        computation.addEntries(result.getEntriesToAdd());
+        return result.getNode() != null ? Collections.singletonList(result.getNode()) : Collections.emptyList();
+    }
 
-        for (final Node<K, V> child : children) {
-            if (child.getBox().contains(box)) {
-                final NodeAndEntries<K, V> result = child.remove(box, key, configuration);
-                if (result.getNode() != null) {
-                    if (result.getNode() != child) {
-                        // deletion occurred and child is above minChildren so
-                        // we update it
-                        addTheseNodes.add(result.getNode());
-                        removeTheseNodes.add(child);
-                        addTheseEntries.addAll(result.getEntriesToAdd());
-                        countDeleted += result.countDeleted();
-                    }
-                    // else nothing was deleted from that child
-                } else {
-                    // deletion occurred and brought child below minChildren
-                    // so we redistribute its entries
-                    removeTheseNodes.add(child);
-                    addTheseEntries.addAll(result.getEntriesToAdd());
-                    countDeleted += result.countDeleted();
+    @Override
+    public Branch<K, V> move(Box oldBox, K oldKey, Box newBox, K newKey, V value, Box bound,
+                             Configuration configuration) {
+        for (int i = 0; i < children.length; i++) {
+            if (childBoxes.mayContain(i, oldBox)) {
+                Node<K, V> child = children[i];
+                // the child may grow by the move margin, but only within this branch, so the boxes of the ancestors
+                // do not grow
+                Node<K, V> node = child.move(oldBox, oldKey, newBox, newKey, value, box, configuration);
+                if (node != null) {
+                    Node<K, V>[] array = children.clone();
+                    array[i] = node;
+                    Box mbb = Boxes.touchesFace(child.getBox(), box) ? Boxes.mbb(array, Node::getBox) : box;
+                    PackedBoxes childBoxes = PackedBoxes.pack(array, Node::getBox, mbb,
+                        configuration.isBoxCompressionEnabled());
+                    return new Branch<>(array, childBoxes, mbb, size);
                 }
             }
         }
-        if (removeTheseNodes.isEmpty()) {
-            return new NodeAndEntries<>(this, Collections.emptyList(), 0);
-        } else {
-            List<Node<K, V>> nodes = Util.remove(children, removeTheseNodes);
-            nodes.addAll(addTheseNodes);
-            if (nodes.size() == 0) {
-                return new NodeAndEntries<>(null, addTheseEntries, countDeleted);
+        return null;
+    }
+
+    private static <K, V> int indexOf(List<Node<K, V>> nodes, Node<K, V> node) {
+        for (int i = 0; i < nodes.size(); i++) {
+            if (nodes.get(i) == node) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Fixes the underflowing node at the index by merging it into the sibling with room for its items which needs the
+     * least volume increase to contain it. If no sibling has room, the node takes the items it is missing from the
+     * sibling with items to spare which needs the least volume increase. In a Hilbert-ordered tree only the adjacent
+     * siblings are considered, and items are merged and moved in order. Returns false if there is no such sibling.
+     */
+    private static <K, V, T> boolean condense(List<Node<K, V>> nodes, int index, Function<Node<K, V>, List<T>> items,
+                                              Function<T, Box> boxMapper, Function<List<T>, Node<K, V>> factory,
+                                              Configuration configuration) {
+        Node<K, V> node = nodes.get(index);
+        int maxChildren = configuration.getMaxChildren();
+        int minChildren = configuration.getMinChildren();
+        boolean hilbert = configuration.isHilbertOrdered();
+        int from = hilbert ? Math.max(0, index - 1) : 0;
+        int to = hilbert ? Math.min(nodes.size(), index + 2) : nodes.size();
+        int merge = -1;
+        int borrow = -1;
+        long mergeIncrease = Long.MAX_VALUE;
+        long borrowIncrease = Long.MAX_VALUE;
+        for (int i = from; i < to; i++) {
+            if (i == index) continue;
+            Node<K, V> sibling = nodes.get(i);
+            long increase = Geometry.volumeIncrease(sibling.getBox(), node.getBox());
+            if (sibling.fanout() + node.fanout() <= maxChildren) {
+                if (increase < mergeIncrease) {
+                    mergeIncrease = increase;
+                    merge = i;
+                }
+            } else if (sibling.fanout() - (minChildren - node.fanout()) >= minChildren && increase < borrowIncrease) {
+                borrowIncrease = increase;
+                borrow = i;
+            }
+        }
+        if (merge != -1) {
+            List<T> merged = new ArrayList<>(maxChildren);
+            merged.addAll(items.apply(merge < index ? nodes.get(merge) : node));
+            merged.addAll(items.apply(merge < index ? node : nodes.get(merge)));
+            nodes.set(merge, factory.apply(merged));
+            nodes.remove(index);
+            return true;
+        } else if (borrow != -1) {
+            List<T> kept = new ArrayList<>(items.apply(nodes.get(borrow)));
+            List<T> taken = new ArrayList<>(items.apply(node));
+            int count = minChildren - node.fanout();
+            if (hilbert && borrow < index) {
+                List<T> moved = kept.subList(kept.size() - count, kept.size());
+                taken.addAll(0, moved);
+                moved.clear();
+            } else if (hilbert) {
+                List<T> moved = kept.subList(0, count);
+                taken.addAll(moved);
+                moved.clear();
             } else {
-                Branch<K, V> node = containing(nodes);
-                return new NodeAndEntries<>(node, addTheseEntries, countDeleted);
+                // move the items which enlarge the node the least
+                Box box = node.getBox();
+                kept.sort(Comparator.comparingLong(item -> Geometry.volumeIncrease(box, boxMapper.apply(item))));
+                List<T> moved = kept.subList(0, count);
+                taken.addAll(moved);
+                moved.clear();
             }
+            nodes.set(borrow, factory.apply(kept));
+            nodes.set(index, factory.apply(taken));
+            return true;
         }
+        return false;
     }
 
     @Override
     public Entry<K, V> get(Box box, K key) {
-        for (final Node<K, V> child : children) {
-            if (child.getBox().contains(box)) {
-                Entry<K, V> entry = child.get(box, key);
+        for (int i = 0; i < children.length; i++) {
+            if (childBoxes.mayContain(i, box)) {
+                Entry<K, V> entry = children[i].get(box, key);
                 if (entry != null) return entry;
             }
         }
@@ -188,7 +463,7 @@ final class Branch<K, V> implements Node<K, V> {
     }
 
     @Override
-    public void forEach(Predicate<? super Box> boxPredicate, Consumer<? super Entry<K, V>> action) {
+    public void forEach(Predicate<? super Box> boxPredicate, BiConsumer<? super K, ? super V> action) {
         if (boxPredicate.test(box)) {
             for (final Node<K, V> child : children) {
                 child.forEach(boxPredicate, action);
@@ -197,7 +472,7 @@ final class Branch<K, V> implements Node<K, V> {
     }
 
     @Override
-    public boolean anyMatch(Predicate<? super Box> boxPredicate, Predicate<? super Entry<K, V>> entryPredicate) {
+    public boolean anyMatch(Predicate<? super Box> boxPredicate, BiPredicate<? super K, ? super V> entryPredicate) {
         if (boxPredicate.test(box)) {
             for (final Node<K, V> child : children) {
                 if (child.anyMatch(boxPredicate, entryPredicate)) {
@@ -209,24 +484,24 @@ final class Branch<K, V> implements Node<K, V> {
     }
 
     @Override
-    public boolean allMatch(Predicate<? super Box> boxPredicate, Predicate<? super Entry<K, V>> entryPredicate) {
+    public boolean allMatch(Predicate<? super Box> boxPredicate, BiPredicate<? super K, ? super V> entryPredicate) {
         if (boxPredicate.test(box)) {
             for (final Node<K, V> child : children) {
                 if (!child.allMatch(boxPredicate, entryPredicate)) {
                     return false;
                 }
             }
-            return true;
         }
-        return false;
+        return true;
     }
 
     @Override
-    public <T> T reduce(Predicate<? super Box> boxPredicate, T identity, BiFunction<T, Entry<K, V>, T> operator) {
+    public <T> T reduce(Predicate<? super Box> boxPredicate, T identity,
+                        Accumulator<T, ? super K, ? super V> accumulator) {
         if (boxPredicate.test(box)) {
             T acc = identity;
             for (final Node<K, V> child : children) {
-                acc = child.reduce(boxPredicate, acc, operator);
+                acc = child.reduce(boxPredicate, acc, accumulator);
             }
             return acc;
         }
@@ -234,7 +509,7 @@ final class Branch<K, V> implements Node<K, V> {
     }
 
     @Override
-    public int count(Predicate<? super Box> boxPredicate, Predicate<? super Entry<K, V>> entryPredicate) {
+    public int count(Predicate<? super Box> boxPredicate, BiPredicate<? super K, ? super V> entryPredicate) {
         if (boxPredicate.test(box)) {
             int count = 0;
             for (final Node<K, V> child : children) {
@@ -248,8 +523,8 @@ final class Branch<K, V> implements Node<K, V> {
     @Override
     public boolean contains(Box box, Entry<K, V> entry) {
         if (this.box.contains(box)) {
-            for (final Node<K, V> child : children) {
-                if (child.contains(box, entry)) {
+            for (int i = 0; i < children.length; i++) {
+                if (childBoxes.mayContain(i, box) && children[i].contains(box, entry)) {
                     return true;
                 }
             }
@@ -260,8 +535,8 @@ final class Branch<K, V> implements Node<K, V> {
     @Override
     public boolean containsBucket(Box box) {
         if (this.box.contains(box)) {
-            for (final Node<K, V> child : children) {
-                if (child.containsBucket(box)) {
+            for (int i = 0; i < children.length; i++) {
+                if (childBoxes.mayContain(i, box) && children[i].containsBucket(box)) {
                     return true;
                 }
             }
@@ -271,7 +546,7 @@ final class Branch<K, V> implements Node<K, V> {
 
     @Override
     public int calculateDepth() {
-        return children.get(0).calculateDepth() + 1;
+        return children[0].calculateDepth() + 1;
     }
 
     @Override
@@ -289,6 +564,44 @@ final class Branch<K, V> implements Node<K, V> {
         return false;
     }
 
+    @Override
+    public int fanout() {
+        return children.length;
+    }
+
+    @Override
+    public Hilbert.Value hilbertValue() {
+        Hilbert.Value value = hilbertValue;
+        if (value == null) {
+            value = children[children.length - 1].hilbertValue();
+            hilbertValue = value;
+        }
+        return value;
+    }
+
+    @Override
+    public double worstScore(Configuration configuration) {
+        double score = worstScore;
+        if (Double.isNaN(score)) {
+            score = Repacker.score(this, configuration);
+            for (Node<K, V> child : children) {
+                score = Math.max(score, child.worstScore(configuration));
+            }
+            worstScore = score;
+        }
+        return score;
+    }
+
+    @Override
+    public List<Node<K, V>> getChildren() {
+        return Collections.unmodifiableList(Arrays.asList(children));
+    }
+
+    @Override
+    public List<Bucket<K, V>> getBuckets() {
+        return Collections.emptyList();
+    }
+
     @Override
     public String asString(String margin) {
         StringBuilder s = new StringBuilder();
@@ -2,9 +2,8 @@ package com.jamieswhiteshirt.rtree3i;
 
 import java.util.Collections;
 import java.util.List;
-import java.util.function.BiFunction;
-import java.util.function.Consumer;
-import java.util.function.Predicate;
+import java.util.function.BiConsumer;
+import java.util.function.BiPredicate;
 
 final class Bucket<K, V> {
     private final Box box;
@@ -27,6 +26,10 @@ final class Bucket<K, V> {
         return box;
     }
 
+    public List<Entry<K, V>> getEntries() {
+        return entries;
+    }
+
     public Bucket<K, V> put(Entry<K, V> entry) {
         for (Entry<K, V> existingEntry : entries) {
             if (existingEntry.getKey().equals(entry.getKey())) {
@@ -67,40 +70,42 @@ final class Bucket<K, V> {
         return null;
     }
 
-    public void forEach(Consumer<? super Entry<K, V>> action) {
-        entries.forEach(action);
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        for (final Entry<K, V> entry : entries) {
+            action.accept(entry.getKey(), entry.getValue());
+        }
     }
 
-    public boolean anyMatch(Predicate<? super Entry<K, V>> entryPredicate) {
+    public boolean anyMatch(BiPredicate<? super K, ? super V> entryPredicate) {
         for (final Entry<K, V> entry : entries) {
-            if (entryPredicate.test(entry)) {
+            if (entryPredicate.test(entry.getKey(), entry.getValue())) {
                 return true;
             }
         }
         return false;
     }
 
-    public boolean allMatch(Predicate<? super Entry<K, V>> entryPredicate) {
+    public boolean allMatch(BiPredicate<? super K, ? super V> entryPredicate) {
         for (final Entry<K, V> entry : entries) {
-            if (!entryPredicate.test(entry)) {
+            if (!entryPredicate.test(entry.getKey(), entry.getValue())) {
                 return false;
             }
         }
         return true;
     }
 
-    public <T> T reduce(T identity, BiFunction<T, Entry<K, V>, T> operator) {
+    public <T> T reduce(T identity, Searchable.Accumulator<T, ? super K, ? super V> accumulator) {
         T acc = identity;
         for (final Entry<K, V> entry : entries) {
-            acc = operator.apply(acc, entry);
+            acc = accumulator.apply(acc, entry.getKey(), entry.getValue());
         }
         return acc;
     }
 
-    public int count(Predicate<? super Entry<K, V>> entryPredicate) {
+    public int count(BiPredicate<? super K, ? super V> entryPredicate) {
         int count = 0;
         for (final Entry<K, V> entry : entries) {
-            if (entryPredicate.test(entry)) {
+            if (entryPredicate.test(entry.getKey(), entry.getValue())) {
                 count++;
             }
         }
@@ -0,0 +1,329 @@
+package com.jamieswhiteshirt.rtree3i;
+
+import com.google.common.base.Preconditions;
+
+import java.nio.ByteBuffer;
+import java.util.function.Predicate;
+
+/**
+ * An immutable tree stored in a sequence of byte buffers, in the layout described by {@link FrozenTree}. Nothing but
+ * the buffers and the handle resolver is kept on the heap; boxes and entries are read from the buffers as they are
+ * visited. A {@link BoxPredicate} is tested against the coordinates in the buffers, and any other box predicate
+ * against a {@link Box} created for each node and entry it visits.
+ * <p>
+ * The layout is a header followed by one 32 byte record per node and one 32 byte record per entry, all big-endian.
+ * <pre>
+ * header: int magic, int version, int nodeCount, int firstLeaf, int entryCount, 12 bytes reserved
+ * node:   int x1, y1, z1, x2, y2, z2, int childStart, int childEnd
+ * entry:  int x1, y1, z1, x2, y2, z2, long handle
+ * </pre>
+ * The child range of a branch indexes node records, and the child range of a leaf indexes entry records. Keys and
+ * values are not stored in the records; each entry holds a handle which is resolved by a {@link HandleReader}.
+ * <p>
+ * A single {@link ByteBuffer} is limited to 2 GiB, so the layout is split into segments of {@link #SEGMENT_SIZE}
+ * bytes. The segment size is a multiple of the record size, so records never straddle two segments.
+ */
+final class BufferTree<K, V> extends FrozenTree<K, V> {
+    static final int MAGIC = 0x52334958;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 32;
+    static final int RECORD_SIZE = 32;
+    static final int SEGMENT_SHIFT = 30;
+    static final int SEGMENT_SIZE = 1 << SEGMENT_SHIFT;
+    private static final int SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+    /**
+     * Stores the key and value of an entry somewhere and returns a handle to them.
+     */
+    interface HandleWriter<K, V> {
+        long write(K key, V value);
+    }
+
+    /**
+     * Resolves the handles stored by a {@link HandleWriter}.
+     */
+    interface HandleReader<K, V> {
+        K key(long handle);
+
+        V value(long handle);
+    }
+
+    private final ByteBuffer[] segments;
+    private final HandleReader<K, V> handles;
+    private final int nodeCount;
+    private final int firstLeaf;
+    private final int entryCount;
+
+    /**
+     * Returns the number of bytes needed to store the tree.
+     */
+    static long sizeOf(FlatTree<?, ?> tree) {
+        return sizeOf(tree.nodeCount(), tree.size());
+    }
+
+    private static long sizeOf(int nodeCount, int entryCount) {
+        return HEADER_SIZE + ((long) nodeCount + entryCount) * RECORD_SIZE;
+    }
+
+    /**
+     * Allocates direct buffers of the given total size, split into segments.
+     */
+    static ByteBuffer[] allocateDirect(long size) {
+        ByteBuffer[] segments = new ByteBuffer[(int) ((size + SEGMENT_SIZE - 1) >> SEGMENT_SHIFT)];
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = ByteBuffer.allocateDirect((int) Math.min(SEGMENT_SIZE, size - ((long) i << SEGMENT_SHIFT)));
+        }
+        return segments;
+    }
+
+    /**
+     * Writes the tree into the segments, starting at the beginning of the first segment. The segments must hold at
+     * least {@link #sizeOf(FlatTree)} bytes.
+     */
+    static <K, V> void write(FlatTree<K, V> tree, ByteBuffer[] segments, HandleWriter<K, V> handles) {
+        int nodeCount = tree.nodeCount();
+        writeHeader(segments[0], nodeCount, tree.firstLeaf(), tree.size());
+        for (int i = 0; i < nodeCount; i++) {
+            long position = nodePosition(i);
+            ByteBuffer segment = segments[(int) (position >> SEGMENT_SHIFT)];
+            int offset = (int) (position & SEGMENT_MASK);
+            putBox(segment, offset, tree.nodeBox(i));
+            segment.putInt(offset + 24, tree.childStart(i));
+            segment.putInt(offset + 28, tree.childEnd(i));
+        }
+        for (int i = 0; i < tree.size(); i++) {
+            long position = entryPosition(nodeCount, i);
+            ByteBuffer segment = segments[(int) (position >> SEGMENT_SHIFT)];
+            int offset = (int) (position & SEGMENT_MASK);
+            putBox(segment, offset, tree.entryBox(i));
+            segment.putLong(offset + 24, handles.write(tree.key(i), tree.value(i)));
+        }
+    }
+
+    /**
+     * Writes the header of a tree without nodes, which is how an empty map is stored. The buffer must hold at least
+     * {@link #HEADER_SIZE} bytes.
+     */
+    static void writeEmpty(ByteBuffer header) {
+        writeHeader(header, 0, 0, 0);
+    }
+
+    private static void writeHeader(ByteBuffer header, int nodeCount, int firstLeaf, int entryCount) {
+        header.putInt(0, MAGIC);
+        header.putInt(4, VERSION);
+        header.putInt(8, nodeCount);
+        header.putInt(12, firstLeaf);
+        header.putInt(16, entryCount);
+    }
+
+    /**
+     * Checks the header against the size of the segments, so that a truncated or corrupt buffer is rejected up front
+     * rather than failing with an {@link IndexOutOfBoundsException} when a query reaches past its end.
+     */
+    private static void checkHeader(ByteBuffer[] segments) {
+        ByteBuffer header = segments[0];
+        Preconditions.checkArgument(header.limit() >= HEADER_SIZE && header.getInt(0) == MAGIC,
+            "Not an R-tree index");
+        Preconditions.checkArgument(header.getInt(4) == VERSION, "Unsupported index version %s", header.getInt(4));
+        int nodeCount = header.getInt(8), firstLeaf = header.getInt(12), entryCount = header.getInt(16);
+        if (nodeCount == 0) {
+            Preconditions.checkArgument(entryCount == 0, "Corrupt index header");
+        } else {
+            Preconditions.checkArgument(nodeCount > 0 && firstLeaf >= 0 && firstLeaf < nodeCount && entryCount > 0,
+                "Corrupt index header");
+            long size = ((long) (segments.length - 1) << SEGMENT_SHIFT) + segments[segments.length - 1].limit();
+            Preconditions.checkArgument(sizeOf(nodeCount, entryCount) <= size, "Index is truncated");
+        }
+    }
+
+    /**
+     * Returns true if the segments hold a tree without nodes.
+     */
+    static boolean isEmpty(ByteBuffer[] segments) {
+        checkHeader(segments);
+        return segments[0].getInt(8) == 0;
+    }
+
+    /**
+     * Returns a buffer of the bytes starting at a position in the segments, with its position and limit set around
+     * them. Unlike records, the bytes may straddle two segments, in which case they are copied.
+     */
+    static ByteBuffer slice(ByteBuffer[] segments, long position, int length) {
+        ByteBuffer segment = segments[(int) (position >> SEGMENT_SHIFT)];
+        int offset = (int) (position & SEGMENT_MASK);
+        if (offset + length <= segment.limit()) {
+            ByteBuffer slice = segment.duplicate();
+            slice.limit(offset + length);
+            slice.position(offset);
+            return slice;
+        }
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            long p = position + i;
+            bytes[i] = segments[(int) (p >> SEGMENT_SHIFT)].get((int) (p & SEGMENT_MASK));
+        }
+        return ByteBuffer.wrap(bytes);
+    }
+
+    /**
+     * Reads a long starting at a position in the segments. Unlike records, the long may straddle two segments.
+     */
+    static long getLong(ByteBuffer[] segments, long position) {
+        ByteBuffer segment = segments[(int) (position >> SEGMENT_SHIFT)];
+        int offset = (int) (position & SEGMENT_MASK);
+        if (offset + 8 <= segment.limit()) {
+            return segment.getLong(offset);
+        }
+        return slice(segments, position, 8).getLong();
+    }
+
+    private static void putBox(ByteBuffer segment, int offset, Box box) {
+        segment.putInt(offset, box.x1());
+        segment.putInt(offset + 4, box.y1());
+        segment.putInt(offset + 8, box.z1());
+        segment.putInt(offset + 12, box.x2());
+        segment.putInt(offset + 16, box.y2());
+        segment.putInt(offset + 20, box.z2());
+    }
+
+    private static long nodePosition(int node) {
+        return HEADER_SIZE + (long) node * RECORD_SIZE;
+    }
+
+    private static long entryPosition(int nodeCount, int entry) {
+        return HEADER_SIZE + ((long) nodeCount + entry) * RECORD_SIZE;
+    }
+
+    /**
+     * Reads a tree from segments written by {@link #write(FlatTree, ByteBuffer[], HandleWriter)}. Only the header is
+     * read; the records are read when the tree is queried.
+     */
+    BufferTree(ByteBuffer[] segments, HandleReader<K, V> handles) {
+        checkHeader(segments);
+        ByteBuffer header = segments[0];
+        Preconditions.checkArgument(header.getInt(8) > 0, "Index is empty");
+        this.segments = segments;
+        this.handles = handles;
+        this.nodeCount = header.getInt(8);
+        this.firstLeaf = header.getInt(12);
+        this.entryCount = header.getInt(16);
+        // the children of the root follow it, and the last leaf ends with the last entry
+        int rootEnd = childEnd(0);
+        Preconditions.checkArgument(firstLeaf == 0
+                ? childStart(0) == 0 && rootEnd == entryCount
+                : childStart(0) == 1 && rootEnd > 1 && rootEnd <= nodeCount,
+            "Corrupt index records");
+        Preconditions.checkArgument(childEnd(nodeCount - 1) == entryCount, "Corrupt index records");
+    }
+
+    /**
+     * Returns the number of bytes taken by the header and records of the tree.
+     */
+    long recordsSize() {
+        return sizeOf(nodeCount, entryCount);
+    }
+
+    /**
+     * Returns the handle stored in the record of an entry.
+     */
+    long handle(int entry) {
+        return getLong(entryPosition(nodeCount, entry) + 24);
+    }
+
+    private int getInt(long position) {
+        return segments[(int) (position >> SEGMENT_SHIFT)].getInt((int) (position & SEGMENT_MASK));
+    }
+
+    private long getLong(long position) {
+        return segments[(int) (position >> SEGMENT_SHIFT)].getLong((int) (position & SEGMENT_MASK));
+    }
+
+    private Box getBox(long position) {
+        ByteBuffer segment = segments[(int) (position >> SEGMENT_SHIFT)];
+        int offset = (int) (position & SEGMENT_MASK);
+        return Box.create(segment.getInt(offset), segment.getInt(offset + 4), segment.getInt(offset + 8),
+            segment.getInt(offset + 12), segment.getInt(offset + 16), segment.getInt(offset + 20));
+    }
+
+    private boolean matches(long position, Predicate<? super Box> boxPredicate) {
+        if (boxPredicate instanceof BoxPredicate) {
+            ByteBuffer segment = segments[(int) (position >> SEGMENT_SHIFT)];
+            int offset = (int) (position & SEGMENT_MASK);
+            return ((BoxPredicate) boxPredicate).test(segment.getInt(offset), segment.getInt(offset + 4),
+                segment.getInt(offset + 8), segment.getInt(offset + 12), segment.getInt(offset + 16),
+                segment.getInt(offset + 20));
+        }
+        return boxPredicate.test(getBox(position));
+    }
+
+    private boolean contains(long position, Box box) {
+        ByteBuffer segment = segments[(int) (position >> SEGMENT_SHIFT)];
+        int offset = (int) (position & SEGMENT_MASK);
+        return segment.getInt(offset) <= box.x1() && segment.getInt(offset + 12) >= box.x2()
+            && segment.getInt(offset + 4) <= box.y1() && segment.getInt(offset + 16) >= box.y2()
+            && segment.getInt(offset + 8) <= box.z1() && segment.getInt(offset + 20) >= box.z2();
+    }
+
+    private boolean equals(long position, Box box) {
+        ByteBuffer segment = segments[(int) (position >> SEGMENT_SHIFT)];
+        int offset = (int) (position & SEGMENT_MASK);
+        return segment.getInt(offset) == box.x1() && segment.getInt(offset + 4) == box.y1()
+            && segment.getInt(offset + 8) == box.z1() && segment.getInt(offset + 12) == box.x2()
+            && segment.getInt(offset + 16) == box.y2() && segment.getInt(offset + 20) == box.z2();
+    }
+
+    @Override
+    int firstLeaf() {
+        return firstLeaf;
+    }
+
+    @Override
+    int childStart(int node) {
+        return getInt(nodePosition(node) + 24);
+    }
+
+    @Override
+    int childEnd(int node) {
+        return getInt(nodePosition(node) + 28);
+    }
+
+    @Override
+    boolean nodeMatches(int node, Predicate<? super Box> boxPredicate) {
+        return matches(nodePosition(node), boxPredicate);
+    }
+
+    @Override
+    boolean entryMatches(int entry, Predicate<? super Box> boxPredicate) {
+        return matches(entryPosition(nodeCount, entry), boxPredicate);
+    }
+
+    @Override
+    boolean nodeContains(int node, Box box) {
+        return contains(nodePosition(node), box);
+    }
+
+    @Override
+    boolean entryEquals(int entry, Box box) {
+        return equals(entryPosition(nodeCount, entry), box);
+    }
+
+    @Override
+    K key(int entry) {
+        return handles.key(handle(entry));
+    }
+
+    @Override
+    V value(int entry) {
+        return handles.value(handle(entry));
+    }
+
+    @Override
+    public Box getBox() {
+        return getBox(nodePosition(0));
+    }
+
+    @Override
+    public int size() {
+        return entryCount;
+    }
+}
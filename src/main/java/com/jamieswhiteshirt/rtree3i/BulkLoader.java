@@ -0,0 +1,179 @@
+package com.jamieswhiteshirt.rtree3i;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Builds a tree from a set of entries at once with Sort-Tile-Recursive packing. The items of each level are sorted by
+ * the x of their centres and cut into slabs, each slab is sorted by y and cut into strips, and each strip is sorted by
+ * z and cut into nodes which are as evenly filled as possible. The nodes are packed into the next level the same way
+ * until one node is left.
+ * <p>
+ * A Hilbert-ordered tree is instead packed by sorting the buckets by their {@link Hilbert} values and cutting them
+ * into leaves in this order, which keeps the order of the levels above as well.
+ */
+final class BulkLoader {
+
+    private BulkLoader() {
+        // prevent instantiation
+    }
+
+    /**
+     * Groups entries with equal boxes into buckets.
+     */
+    static <K, V> List<Bucket<K, V>> buckets(Iterable<Entry<K, V>> entries, Function<? super K, Box> keyBoxMapper) {
+        Map<Box, List<Entry<K, V>>> byBox = new LinkedHashMap<>();
+        for (Entry<K, V> entry : entries) {
+            byBox.computeIfAbsent(keyBoxMapper.apply(entry.getKey()), box -> new ArrayList<>(1)).add(entry);
+        }
+        List<Bucket<K, V>> buckets = new ArrayList<>(byBox.size());
+        for (Map.Entry<Box, List<Entry<K, V>>> bucket : byBox.entrySet()) {
+            buckets.add(Bucket.of(bucket.getKey(), bucket.getValue()));
+        }
+        return buckets;
+    }
+
+    /**
+     * Returns the root of a tree holding the buckets, or null if there are none. The boxes of the buckets must be
+     * distinct.
+     */
+    static <K, V> Node<K, V> load(List<Bucket<K, V>> buckets, Configuration configuration) {
+        if (buckets.isEmpty()) {
+            return null;
+        }
+        int maxChildren = configuration.getMaxChildren();
+        boolean hilbert = configuration.isHilbertOrdered();
+        List<Node<K, V>> nodes = new ArrayList<>();
+        List<List<Bucket<K, V>>> leaves;
+        if (hilbert) {
+            List<Bucket<K, V>> sorted = new ArrayList<>(buckets);
+            Hilbert.sort(sorted, Bucket::getBox);
+            leaves = cut(sorted, groupCount(sorted.size(), maxChildren));
+        } else {
+            leaves = pack(new ArrayList<>(buckets), Bucket::getBox, groupCount(buckets.size(), maxChildren));
+        }
+        for (List<Bucket<K, V>> group : leaves) {
+            nodes.add(Leaf.containing(group, configuration));
+        }
+        while (nodes.size() > 1) {
+            List<Node<K, V>> parents = new ArrayList<>();
+            List<List<Node<K, V>>> groups = hilbert
+                ? cut(nodes, groupCount(nodes.size(), maxChildren))
+                : pack(nodes, Node::getBox, groupCount(nodes.size(), maxChildren));
+            for (List<Node<K, V>> group : groups) {
+                parents.add(Branch.containing(group, configuration));
+            }
+            nodes = parents;
+        }
+        return nodes.get(0);
+    }
+
+    /**
+     * Returns a subtree of the depth holding the buckets, where a depth of 1 is a leaf. The buckets are packed top
+     * down, giving each node as few children as are needed for its descendants to hold its buckets, but at least
+     * minChildren if there are enough buckets for every node below to have at least minChildren as well. The boxes of
+     * the buckets must be distinct, and there must be at most maxChildren to the power of depth buckets.
+     */
+    static <K, V> Node<K, V> load(List<Bucket<K, V>> buckets, int depth, Configuration configuration) {
+        List<Bucket<K, V>> items = new ArrayList<>(buckets);
+        if (configuration.isHilbertOrdered()) {
+            Hilbert.sort(items, Bucket::getBox);
+        }
+        return loadSorted(items, depth, configuration);
+    }
+
+    private static <K, V> Node<K, V> loadSorted(List<Bucket<K, V>> buckets, int depth, Configuration configuration) {
+        if (depth == 1) {
+            return Leaf.containing(buckets, configuration);
+        }
+        int n = buckets.size();
+        int maxChildren = configuration.getMaxChildren();
+        int minChildren = configuration.getMinChildren();
+        // every child can hold up to capacity buckets, and needs at least minimum to have minChildren in each node
+        long capacity = 1;
+        long minimum = 1;
+        for (int i = 1; i < depth; i++) {
+            capacity = Geometry.multiply(capacity, maxChildren);
+            minimum = Geometry.multiply(minimum, minChildren);
+        }
+        long needed = (n + capacity - 1) / capacity;
+        long count = Math.min(Math.min(maxChildren, n), Math.max(minChildren, needed));
+        // the groups differ in size by at most one, so none is smaller than n / count
+        count = Math.max(needed, Math.min(count, Math.max(1, n / minimum)));
+        List<List<Bucket<K, V>>> groups = configuration.isHilbertOrdered()
+            ? cut(buckets, (int) count)
+            : pack(buckets, Bucket::getBox, (int) count);
+        List<Node<K, V>> children = new ArrayList<>(groups.size());
+        for (List<Bucket<K, V>> group : groups) {
+            children.add(loadSorted(group, depth - 1, configuration));
+        }
+        return Branch.containing(children, configuration);
+    }
+
+    /**
+     * Sorts the items in tile order and cuts them into count groups with sizes differing by at most one. With s the
+     * cube root of count rounded up, the items are cut into slabs of s * s groups by x, each slab into strips of s
+     * groups by y, and each strip into groups by z, so that no group spans two strips.
+     */
+    static <T> List<List<T>> pack(List<T> items, Function<? super T, Box> boxMapper, int count) {
+        int n = items.size();
+        int slabs = (int) Math.ceil(Math.cbrt(count));
+        int slabGroups = slabs * slabs;
+        items.sort(Comparator.comparingLong(item -> centre2X(boxMapper.apply(item))));
+        List<List<T>> groups = new ArrayList<>(count);
+        for (int slabStart = 0; slabStart < count; slabStart += slabGroups) {
+            int slabEnd = Math.min(count, slabStart + slabGroups);
+            List<T> slab = items.subList(offset(n, count, slabStart), offset(n, count, slabEnd));
+            slab.sort(Comparator.comparingLong(item -> centre2Y(boxMapper.apply(item))));
+            for (int stripStart = slabStart; stripStart < slabEnd; stripStart += slabs) {
+                int stripEnd = Math.min(slabEnd, stripStart + slabs);
+                List<T> strip = items.subList(offset(n, count, stripStart), offset(n, count, stripEnd));
+                strip.sort(Comparator.comparingLong(item -> centre2Z(boxMapper.apply(item))));
+                for (int i = stripStart; i < stripEnd; i++) {
+                    groups.add(new ArrayList<>(items.subList(offset(n, count, i), offset(n, count, i + 1))));
+                }
+            }
+        }
+        return groups;
+    }
+
+    /**
+     * Cuts the items in order into count groups with sizes differing by at most one.
+     */
+    static <T> List<List<T>> cut(List<T> items, int count) {
+        int n = items.size();
+        List<List<T>> groups = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            groups.add(new ArrayList<>(items.subList(offset(n, count, i), offset(n, count, i + 1))));
+        }
+        return groups;
+    }
+
+    /**
+     * Returns the index of the first of n items in the group at the index when they are cut into count groups with
+     * sizes differing by at most one.
+     */
+    private static int offset(int n, int count, int index) {
+        return index * (n / count) + Math.min(index, n % count);
+    }
+
+    private static int groupCount(int n, int maxChildren) {
+        return (n + maxChildren - 1) / maxChildren;
+    }
+
+    private static long centre2X(Box box) {
+        return (long) box.x1() + box.x2();
+    }
+
+    private static long centre2Y(Box box) {
+        return (long) box.y1() + box.y2();
+    }
+
+    private static long centre2Z(Box box) {
+        return (long) box.z1() + box.z2();
+    }
+}
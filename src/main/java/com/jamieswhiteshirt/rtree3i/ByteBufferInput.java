@@ -0,0 +1,120 @@
+package com.jamieswhiteshirt.rtree3i;
+
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A {@link DataInput} reading the remaining bytes of a big-endian {@link ByteBuffer}, so a {@link Codec} can decode
+ * straight from a buffer without copying its bytes to the heap first.
+ */
+final class ByteBufferInput implements DataInput {
+    private final ByteBuffer buffer;
+
+    ByteBufferInput(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    private ByteBuffer require(int length) throws EOFException {
+        if (buffer.remaining() < length) {
+            throw new EOFException();
+        }
+        return buffer;
+    }
+
+    @Override
+    public void readFully(byte[] b) throws IOException {
+        readFully(b, 0, b.length);
+    }
+
+    @Override
+    public void readFully(byte[] b, int off, int len) throws IOException {
+        require(len).get(b, off, len);
+    }
+
+    @Override
+    public int skipBytes(int n) {
+        int skipped = Math.max(0, Math.min(n, buffer.remaining()));
+        buffer.position(buffer.position() + skipped);
+        return skipped;
+    }
+
+    @Override
+    public boolean readBoolean() throws IOException {
+        return require(1).get() != 0;
+    }
+
+    @Override
+    public byte readByte() throws IOException {
+        return require(1).get();
+    }
+
+    @Override
+    public int readUnsignedByte() throws IOException {
+        return require(1).get() & 0xff;
+    }
+
+    @Override
+    public short readShort() throws IOException {
+        return require(2).getShort();
+    }
+
+    @Override
+    public int readUnsignedShort() throws IOException {
+        return require(2).getShort() & 0xffff;
+    }
+
+    @Override
+    public char readChar() throws IOException {
+        return require(2).getChar();
+    }
+
+    @Override
+    public int readInt() throws IOException {
+        return require(4).getInt();
+    }
+
+    @Override
+    public long readLong() throws IOException {
+        return require(8).getLong();
+    }
+
+    @Override
+    public float readFloat() throws IOException {
+        return require(4).getFloat();
+    }
+
+    @Override
+    public double readDouble() throws IOException {
+        return require(8).getDouble();
+    }
+
+    @Override
+    public String readLine() throws IOException {
+        if (!buffer.hasRemaining()) {
+            return null;
+        }
+        StringBuilder line = new StringBuilder();
+        while (buffer.hasRemaining()) {
+            char c = (char) (buffer.get() & 0xff);
+            if (c == '\n') {
+                break;
+            }
+            if (c == '\r') {
+                if (buffer.hasRemaining() && buffer.get(buffer.position()) == '\n') {
+                    buffer.get();
+                }
+                break;
+            }
+            line.append(c);
+        }
+        return line.toString();
+    }
+
+    @Override
+    public String readUTF() throws IOException {
+        return DataInputStream.readUTF(this);
+    }
+}
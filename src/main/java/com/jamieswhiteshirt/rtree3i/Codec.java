@@ -0,0 +1,29 @@
+package com.jamieswhiteshirt.rtree3i;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Encodes and decodes keys or values of an R-tree map when it is written to or read from storage. See {@link Codecs}
+ * for codecs of common types.
+ * @param <T> type of encoded objects
+ */
+public interface Codec<T> {
+
+    /**
+     * Writes the object to the output.
+     * @param object object to encode
+     * @param out output to write to
+     * @throws IOException if the output could not be written to
+     */
+    void encode(T object, DataOutput out) throws IOException;
+
+    /**
+     * Reads an object written by {@link #encode(Object, DataOutput)} from the input.
+     * @param in input to read from
+     * @return the decoded object
+     * @throws IOException if the input could not be read from
+     */
+    T decode(DataInput in) throws IOException;
+}
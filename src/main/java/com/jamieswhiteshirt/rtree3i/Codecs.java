@@ -0,0 +1,100 @@
+package com.jamieswhiteshirt.rtree3i;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * {@link Codec}s of common key and value types.
+ */
+public final class Codecs {
+
+    private Codecs() {
+        // prevent instantiation
+    }
+
+    private static final Codec<Box> BOX = new Codec<Box>() {
+        @Override
+        public void encode(Box box, DataOutput out) throws IOException {
+            out.writeInt(box.x1());
+            out.writeInt(box.y1());
+            out.writeInt(box.z1());
+            out.writeInt(box.x2());
+            out.writeInt(box.y2());
+            out.writeInt(box.z2());
+        }
+
+        @Override
+        public Box decode(DataInput in) throws IOException {
+            return Box.create(in.readInt(), in.readInt(), in.readInt(), in.readInt(), in.readInt(), in.readInt());
+        }
+    };
+
+    private static final Codec<Integer> INTEGER = new Codec<Integer>() {
+        @Override
+        public void encode(Integer value, DataOutput out) throws IOException {
+            out.writeInt(value);
+        }
+
+        @Override
+        public Integer decode(DataInput in) throws IOException {
+            return in.readInt();
+        }
+    };
+
+    private static final Codec<Long> LONG = new Codec<Long>() {
+        @Override
+        public void encode(Long value, DataOutput out) throws IOException {
+            out.writeLong(value);
+        }
+
+        @Override
+        public Long decode(DataInput in) throws IOException {
+            return in.readLong();
+        }
+    };
+
+    private static final Codec<String> STRING = new Codec<String>() {
+        @Override
+        public void encode(String value, DataOutput out) throws IOException {
+            out.writeUTF(value);
+        }
+
+        @Override
+        public String decode(DataInput in) throws IOException {
+            return in.readUTF();
+        }
+    };
+
+    /**
+     * Returns a {@link Codec} writing the six coordinates of a {@link Box} as ints.
+     * @return a {@link Codec} of boxes
+     */
+    public static Codec<Box> box() {
+        return BOX;
+    }
+
+    /**
+     * Returns a {@link Codec} writing non-null integers as four bytes.
+     * @return a {@link Codec} of integers
+     */
+    public static Codec<Integer> integer() {
+        return INTEGER;
+    }
+
+    /**
+     * Returns a {@link Codec} writing non-null longs as eight bytes.
+     * @return a {@link Codec} of longs
+     */
+    public static Codec<Long> longs() {
+        return LONG;
+    }
+
+    /**
+     * Returns a {@link Codec} writing non-null strings in modified UTF-8, as {@link DataOutput#writeUTF(String)}.
+     * @return a {@link Codec} of strings
+     */
+    public static Codec<String> string() {
+        return STRING;
+    }
+}
@@ -17,12 +17,12 @@ public final class Comparators {
     /**
      * A {@link Comparator} comparing the volume of the intersection between groups.
      */
-    public static Comparator<Groups<?>> groupsVolumeComparator = Comparator.comparing(Functions.groupsIntersectionVolume);
+    public static Comparator<Groups<?>> groupsVolumeComparator = Comparator.comparingLong(pair -> Geometry.intersectionVolume(pair.getGroup1().getBox(), pair.getGroup2().getBox()));
 
     /**
      * A {@link Comparator} comparing the sum of the volumes of groups.
      */
-    public static final Comparator<Groups<?>> groupsIntersectionVolumeComparator = Comparator.comparingInt(Groups::getVolumeSum);
+    public static final Comparator<Groups<?>> groupsIntersectionVolumeComparator = Comparator.comparingLong(Groups::getVolumeSum);
 
     /**
      * Returns a {@link Comparator} comparing the sum of overlap volumes between the list of boxes and the minimum
@@ -33,7 +33,7 @@ public final class Comparators {
      * bounding box containing both r and the comparator argument
      */
     public static Comparator<Box> overlapVolumeComparator(final Box r, final List<Box> list) {
-        return Comparator.comparing(Functions.overlapVolume(r, list));
+        return Comparator.comparingLong(g -> Functions.overlapVolumeSum(g, r, list));
     }
 
     /**
@@ -44,7 +44,7 @@ public final class Comparators {
      * both r and the comparator argument
      */
     public static Comparator<Box> volumeIncreaseComparator(final Box r) {
-        return Comparator.comparing(Functions.volumeIncrease(r));
+        return Comparator.comparingLong(g -> Geometry.volumeIncrease(g, r));
     }
 
     /**
@@ -53,6 +53,6 @@ public final class Comparators {
      * @return a {@link Comparator} comparing the volume of the minimum bounding box containing both r and the box
      */
     public static Comparator<Box> volumeComparator(final Box r) {
-        return Comparator.comparingInt(g -> g.add(r).getVolume());
+        return Comparator.comparingLong(g -> Geometry.unionVolume(g, r));
     }
 }
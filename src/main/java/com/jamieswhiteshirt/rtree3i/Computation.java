@@ -0,0 +1,56 @@
+package com.jamieswhiteshirt.rtree3i;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiFunction;
+
+/**
+ * The state of a compute during a single descent of the tree. The leaf holding the bucket of the key computes the new
+ * value from the current value with the function, and either puts or removes the entry. The nodes on the way up split
+ * after a put or condense after a removal, as a put or a remove would.
+ */
+final class Computation<K, V> {
+    private final BiFunction<? super K, ? super V, ? extends V> function;
+    private boolean removal = false;
+    private List<Bucket<K, V>> entriesToAdd = null;
+
+    /**
+     * Constructs a computation with a function computing the new value from the key and the current value, which is
+     * null if the key is not mapped. The function returns null to remove the mapping.
+     */
+    Computation(BiFunction<? super K, ? super V, ? extends V> function) {
+        this.function = function;
+    }
+
+    V apply(K key, V value) {
+        return function.apply(key, value);
+    }
+
+    /**
+     * Marks the computation as a removal, after which the nodes on the way up condense rather than split.
+     */
+    void remove() {
+        removal = true;
+    }
+
+    boolean isRemoval() {
+        return removal;
+    }
+
+    /**
+     * Adds the buckets of nodes dissolved by a removal, to be put again from the root.
+     */
+    void addEntries(List<Bucket<K, V>> buckets) {
+        if (buckets.isEmpty()) {
+            return;
+        }
+        if (entriesToAdd == null) {
+            entriesToAdd = new ArrayList<>();
+        }
+        entriesToAdd.addAll(buckets);
+    }
+
+    List<Bucket<K, V>> getEntriesToAdd() {
+        return entriesToAdd != null ? entriesToAdd : new ArrayList<>(0);
+    }
+}
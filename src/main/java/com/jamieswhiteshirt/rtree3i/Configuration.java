@@ -11,6 +11,10 @@ public final class Configuration {
     private final int minChildren;
     private final Splitter splitter;
     private final Selector selector;
+    private final boolean boxCompression;
+    private final int reinsertCount;
+    private final boolean hilbertOrdered;
+    private final int moveMargin;
 
     /**
      * Constructor.
@@ -20,15 +24,86 @@ public final class Configuration {
      * @param splitter algorithm to split children across two new nodes
      */
     public Configuration(int minChildren, int maxChildren, Selector selector, Splitter splitter) {
+        this(minChildren, maxChildren, selector, splitter, false);
+    }
+
+    /**
+     * Constructor.
+     * @param minChildren minimum number of children per node, at least 1
+     * @param maxChildren maximum number of children per node, at least 3
+     * @param selector algorithm to select search paths
+     * @param splitter algorithm to split children across two new nodes
+     * @param boxCompression whether nodes store the boxes of their children as compressed offsets
+     */
+    public Configuration(int minChildren, int maxChildren, Selector selector, Splitter splitter,
+                         boolean boxCompression) {
+        this(minChildren, maxChildren, selector, splitter, boxCompression, 0);
+    }
+
+    /**
+     * Constructor.
+     * @param minChildren minimum number of children per node, at least 1
+     * @param maxChildren maximum number of children per node, at least 3
+     * @param selector algorithm to select search paths
+     * @param splitter algorithm to split children across two new nodes
+     * @param boxCompression whether nodes store the boxes of their children as compressed offsets
+     * @param reinsertCount number of children removed and reinserted on the first overflow at each level of a put, or
+     *                      0 to always split, at most maxChildren + 1 - minChildren
+     */
+    public Configuration(int minChildren, int maxChildren, Selector selector, Splitter splitter,
+                         boolean boxCompression, int reinsertCount) {
+        this(minChildren, maxChildren, selector, splitter, boxCompression, reinsertCount, false);
+    }
+
+    /**
+     * Constructor.
+     * @param minChildren minimum number of children per node, at least 1
+     * @param maxChildren maximum number of children per node, at least 3
+     * @param selector algorithm to select search paths
+     * @param splitter algorithm to split children across two new nodes
+     * @param boxCompression whether nodes store the boxes of their children as compressed offsets
+     * @param reinsertCount number of children removed and reinserted on the first overflow at each level of a put, or
+     *                      0 to always split, at most maxChildren + 1 - minChildren
+     * @param hilbertOrdered whether nodes are kept in Hilbert order instead of using the selector and splitter, which
+     *                       requires reinsertCount to be 0
+     */
+    public Configuration(int minChildren, int maxChildren, Selector selector, Splitter splitter,
+                         boolean boxCompression, int reinsertCount, boolean hilbertOrdered) {
+        this(minChildren, maxChildren, selector, splitter, boxCompression, reinsertCount, hilbertOrdered, 0);
+    }
+
+    /**
+     * Constructor.
+     * @param minChildren minimum number of children per node, at least 1
+     * @param maxChildren maximum number of children per node, at least 3
+     * @param selector algorithm to select search paths
+     * @param splitter algorithm to split children across two new nodes
+     * @param boxCompression whether nodes store the boxes of their children as compressed offsets
+     * @param reinsertCount number of children removed and reinserted on the first overflow at each level of a put, or
+     *                      0 to always split, at most maxChildren + 1 - minChildren
+     * @param hilbertOrdered whether nodes are kept in Hilbert order instead of using the selector and splitter, which
+     *                       requires reinsertCount to be 0
+     * @param moveMargin distance by which a leaf may grow on each side to move an entry in place, at least 0
+     */
+    public Configuration(int minChildren, int maxChildren, Selector selector, Splitter splitter,
+                         boolean boxCompression, int reinsertCount, boolean hilbertOrdered, int moveMargin) {
         Preconditions.checkNotNull(splitter);
         Preconditions.checkNotNull(selector);
         Preconditions.checkArgument(maxChildren > 2);
         Preconditions.checkArgument(minChildren >= 1);
         Preconditions.checkArgument(minChildren < maxChildren);
+        Preconditions.checkArgument(reinsertCount >= 0);
+        Preconditions.checkArgument(reinsertCount <= maxChildren + 1 - minChildren);
+        Preconditions.checkArgument(!hilbertOrdered || reinsertCount == 0);
+        Preconditions.checkArgument(moveMargin >= 0);
         this.selector = selector;
         this.maxChildren = maxChildren;
         this.minChildren = minChildren;
         this.splitter = splitter;
+        this.boxCompression = boxCompression;
+        this.reinsertCount = reinsertCount;
+        this.hilbertOrdered = hilbertOrdered;
+        this.moveMargin = moveMargin;
     }
 
     /**
@@ -63,4 +138,44 @@ public final class Configuration {
         return selector;
     }
 
+    /**
+     * Returns whether nodes store the boxes of their children as byte or short offsets relative to the node box
+     * instead of as absolute ints.
+     * @return whether nodes store the boxes of their children as compressed offsets
+     */
+    public boolean isBoxCompressionEnabled() {
+        return boxCompression;
+    }
+
+    /**
+     * Returns the number of children farthest from the centre of a node which are removed and reinserted from the root
+     * the first time a node overflows at each level during a put, as in the R*-tree. If 0, overflowing nodes are always
+     * split.
+     * @return the number of children to reinsert on overflow
+     */
+    public int getReinsertCount() {
+        return reinsertCount;
+    }
+
+    /**
+     * Returns whether the buckets of each leaf and the children of each branch are kept sorted by the {@link Hilbert}
+     * value of the centres of their boxes, as in the Hilbert R-tree. A put then descends into the first child with a
+     * largest Hilbert value at least that of the box, and a node which overflows shares its children with a sibling,
+     * only splitting the two into three if both are full. The selector and splitter are not used.
+     * @return whether the tree is Hilbert-ordered
+     */
+    public boolean isHilbertOrdered() {
+        return hilbertOrdered;
+    }
+
+    /**
+     * Returns the distance by which the box of a leaf may grow on each side when {@link RTreeMap#move} moves an entry
+     * within the leaf. A move which would grow the leaf further removes the entry and puts it again instead, so
+     * repeated moves do not stretch leaves far beyond their entries.
+     * @return the distance by which a leaf may grow to move an entry in place
+     */
+    public int getMoveMargin() {
+        return moveMargin;
+    }
+
 }
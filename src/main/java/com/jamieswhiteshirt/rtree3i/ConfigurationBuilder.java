@@ -22,11 +22,24 @@ public final class ConfigurationBuilder {
      * quadratic split and R*-tree split.
      */
     private static final double DEFAULT_FILLING_FACTOR = 0.4;
+    /**
+     * According to the R*-tree paper, reinserting 30% of the children of an
+     * overflowing node yields the best performance.
+     */
+    private static final double DEFAULT_REINSERT_FACTOR = 0.3;
+    /**
+     * Entries moving by unit steps across the edge of their leaf still move in place.
+     */
+    private static final int DEFAULT_MOVE_MARGIN = 1;
     private Integer maxChildren = null;
     private Integer minChildren = null;
     private Splitter splitter = new QuadraticSplitter();
     private Selector selector = new MinimalVolumeIncreaseSelector();
     private boolean star = false;
+    private boolean boxCompression = false;
+    private boolean forcedReinsertion = false;
+    private boolean hilbert = false;
+    private int moveMargin = DEFAULT_MOVE_MARGIN;
 
     /**
      * Constructs a configuration builder.
@@ -75,6 +88,31 @@ public final class ConfigurationBuilder {
         return this;
     }
 
+    /**
+     * Sets whether nodes store the boxes of their children as byte or short offsets relative to the node box. This
+     * reduces the memory used by nodes and fits more child boxes per cache line, at the cost of decoding offsets when
+     * the boxes are tested. Nodes too wide for exact short offsets store widened boxes, so a positive test is
+     * confirmed against the exact box.
+     * @param boxCompression whether to compress the boxes of children
+     * @return builder
+     */
+    public ConfigurationBuilder boxCompression(boolean boxCompression) {
+        this.boxCompression = boxCompression;
+        return this;
+    }
+
+    /**
+     * Sets whether the first overflow of a node at each level during a put removes the 30% of its children farthest
+     * from its centre and reinserts them from the root, as in the R*-tree, instead of splitting the node. This costs
+     * more per put but keeps the tree from degrading under long runs of inserts.
+     * @param forcedReinsertion whether to reinsert children on the first overflow at each level
+     * @return builder
+     */
+    public ConfigurationBuilder forcedReinsertion(boolean forcedReinsertion) {
+        this.forcedReinsertion = forcedReinsertion;
+        return this;
+    }
+
     /**
      * Sets the splitter to {@link RStarSplitter} and selector to {@link RStarSelector} and defaults to minChildren=10.
      * @return builder
@@ -86,6 +124,43 @@ public final class ConfigurationBuilder {
         return this;
     }
 
+    /**
+     * Sets the splitter to {@link RevisedRStarSplitter} and selector to {@link RevisedRStarSelector}, the revised
+     * R*-tree, with the same defaults as {@link #star()}.
+     * @return builder
+     */
+    public ConfigurationBuilder revisedStar() {
+        selector = new RevisedRStarSelector();
+        splitter = new RevisedRStarSplitter();
+        star = true;
+        return this;
+    }
+
+    /**
+     * Sets the tree to keep its nodes sorted by the Hilbert values of the centres of their boxes, as in the Hilbert
+     * R-tree. Puts descend by Hilbert value, and an overflowing node shares its children with a sibling, only
+     * splitting the two into three if both are full. This keeps nodes nearly full and makes puts cheap and
+     * predictable, which suits maps of small boxes inserted in bulk. The selector and splitter are not used, and
+     * forced reinsertion cannot be enabled.
+     * @return builder
+     */
+    public ConfigurationBuilder hilbert() {
+        hilbert = true;
+        return this;
+    }
+
+    /**
+     * Sets the distance by which the box of a leaf may grow on each side when an entry is moved within it by
+     * {@link RTreeMap#move}. Moves which would grow the leaf further remove the entry and put it again, which costs
+     * more but keeps the leaf tight. Defaults to 1.
+     * @param moveMargin the distance by which a leaf may grow to move an entry in place, at least 0
+     * @return builder
+     */
+    public ConfigurationBuilder moveMargin(int moveMargin) {
+        this.moveMargin = moveMargin;
+        return this;
+    }
+
     /**
      * Builds the {@link Configuration}.
      * @return the {@link Configuration}
@@ -95,7 +170,13 @@ public final class ConfigurationBuilder {
             maxChildren = star ? MAX_CHILDREN_DEFAULT_STAR : MAX_CHILDREN_DEFAULT_GUTTMAN;
         if (minChildren == null)
             minChildren = (int) Math.round(maxChildren * DEFAULT_FILLING_FACTOR);
-        return new Configuration(minChildren, maxChildren, selector, splitter);
+        int reinsertCount = 0;
+        if (forcedReinsertion) {
+            reinsertCount = Math.max(1, Math.min(maxChildren + 1 - minChildren,
+                (int) Math.round(maxChildren * DEFAULT_REINSERT_FACTOR)));
+        }
+        return new Configuration(minChildren, maxChildren, selector, splitter, boxCompression, reinsertCount,
+            hilbert, moveMargin);
     }
 
 }
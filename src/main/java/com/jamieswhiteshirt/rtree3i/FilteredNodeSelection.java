@@ -4,13 +4,13 @@ import java.util.function.*;
 import java.util.stream.Collector;
 
 final class FilteredNodeSelection<K, V, T> implements Selection<T> {
-    private final Node<K, V> node;
+    private final Searchable<K, V> node;
     private final Predicate<? super Box> boxPredicate;
     private final Predicate<? super T> filter;
-    private final Function<Entry<K, V>, T> entryValueMapper;
+    private final BiFunction<? super K, ? super V, ? extends T> entryValueMapper;
 
-    FilteredNodeSelection(Node<K, V> node, Predicate<? super Box> boxPredicate, Predicate<? super T> filter,
-                                  Function<Entry<K, V>, T> entryMappper) {
+    FilteredNodeSelection(Searchable<K, V> node, Predicate<? super Box> boxPredicate, Predicate<? super T> filter,
+                                  BiFunction<? super K, ? super V, ? extends T> entryMappper) {
         this.node = node;
         this.boxPredicate = boxPredicate;
         this.filter = filter;
@@ -25,53 +25,53 @@ final class FilteredNodeSelection<K, V, T> implements Selection<T> {
 
     @Override
     public void forEach(Consumer<? super T> action) {
-        node.forEach(boxPredicate, entry -> {
-            T value = entryValueMapper.apply(entry);
-            if (filter.test(value)) {
-                action.accept(value);
+        node.forEach(boxPredicate, (key, value) -> {
+            T mapped = entryValueMapper.apply(key, value);
+            if (filter.test(mapped)) {
+                action.accept(mapped);
             }
         });
     }
 
     @Override
     public boolean anyMatch(Predicate<? super T> predicate) {
-        return node.anyMatch(boxPredicate, entry -> {
-            T value = entryValueMapper.apply(entry);
-            return filter.test(value) && predicate.test(value);
+        return node.anyMatch(boxPredicate, (key, value) -> {
+            T mapped = entryValueMapper.apply(key, value);
+            return filter.test(mapped) && predicate.test(mapped);
         });
     }
 
     @Override
     public boolean allMatch(Predicate<? super T> predicate) {
-        return node.allMatch(boxPredicate, entry -> {
-            T value = entryValueMapper.apply(entry);
-            return !filter.test(value) || predicate.test(value);
+        return node.allMatch(boxPredicate, (key, value) -> {
+            T mapped = entryValueMapper.apply(key, value);
+            return !filter.test(mapped) || predicate.test(mapped);
         });
     }
 
     @Override
     public boolean noneMatch(Predicate<? super T> predicate) {
-        return !node.anyMatch(boxPredicate, entry -> {
-            T value = entryValueMapper.apply(entry);
-            return !filter.test(value) || predicate.test(value);
+        return !node.anyMatch(boxPredicate, (key, value) -> {
+            T mapped = entryValueMapper.apply(key, value);
+            return filter.test(mapped) && predicate.test(mapped);
         });
     }
 
     @Override
     public T reduce(T identity, BinaryOperator<T> accumulator) {
-        return node.reduce(boxPredicate, identity, (acc, entry) -> {
-            T value = entryValueMapper.apply(entry);
-            return filter.test(value) ? accumulator.apply(acc, value) : acc;
+        return node.reduce(boxPredicate, identity, (acc, key, value) -> {
+            T mapped = entryValueMapper.apply(key, value);
+            return filter.test(mapped) ? accumulator.apply(acc, mapped) : acc;
         });
     }
 
     @Override
     public <R> R collect(Supplier<R> supplier, BiConsumer<R, ? super T> accumulator, BiConsumer<R, R> combiner) {
         R container = supplier.get();
-        node.forEach(boxPredicate, entry -> {
-            T value = entryValueMapper.apply(entry);
-            if (filter.test(value)) {
-                accumulator.accept(container, value);
+        node.forEach(boxPredicate, (key, value) -> {
+            T mapped = entryValueMapper.apply(key, value);
+            if (filter.test(mapped)) {
+                accumulator.accept(container, mapped);
             }
         });
         return container;
@@ -80,10 +80,10 @@ final class FilteredNodeSelection<K, V, T> implements Selection<T> {
     @Override
     public <R, A> R collect(Collector<? super T, A, R> collector) {
         A container = collector.supplier().get();
-        node.forEach(boxPredicate, entry -> {
-            T value = entryValueMapper.apply(entry);
-            if (filter.test(value)) {
-                collector.accumulator().accept(container, value);
+        node.forEach(boxPredicate, (key, value) -> {
+            T mapped = entryValueMapper.apply(key, value);
+            if (filter.test(mapped)) {
+                collector.accumulator().accept(container, mapped);
             }
         });
         return collector.finisher().apply(container);
@@ -91,7 +91,7 @@ final class FilteredNodeSelection<K, V, T> implements Selection<T> {
 
     @Override
     public int count() {
-        return node.count(boxPredicate, entry -> filter.test(entryValueMapper.apply(entry)));
+        return node.count(boxPredicate, (key, value) -> filter.test(entryValueMapper.apply(key, value)));
     }
 
     @Override
@@ -101,6 +101,6 @@ final class FilteredNodeSelection<K, V, T> implements Selection<T> {
 
     @Override
     public boolean isNotEmpty() {
-        return node.anyMatch(boxPredicate, entry -> filter.test(entryValueMapper.apply(entry)));
+        return node.anyMatch(boxPredicate, (key, value) -> filter.test(entryValueMapper.apply(key, value)));
     }
 }
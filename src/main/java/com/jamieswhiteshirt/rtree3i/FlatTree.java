@@ -0,0 +1,154 @@
+package com.jamieswhiteshirt.rtree3i;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * An immutable tree compiled into flat arrays, in the layout described by {@link FrozenTree}. Keys and values are
+ * kept in separate arrays, and the boxes of the nodes and buckets are shared with the tree that was frozen rather than
+ * copied, so box predicates are tested without creating a box. The coordinates of the boxes are also packed into int
+ * arrays for the containment and equality tests done by get and contains.
+ */
+final class FlatTree<K, V> extends FrozenTree<K, V> {
+    private final int firstLeaf;
+    // start and end of the child range of each node
+    private final int[] ranges;
+    private final Box[] nodeBoxes;
+    private final int[] nodeBounds;
+    private final Box[] entryBoxes;
+    private final int[] entryBounds;
+    private final Object[] keys;
+    private final Object[] values;
+
+    static <K, V> FlatTree<K, V> of(Node<K, V> root) {
+        List<Node<K, V>> nodes = new ArrayList<>();
+        nodes.add(root);
+        int firstLeaf = -1;
+        for (int i = 0; i < nodes.size(); i++) {
+            Node<K, V> node = nodes.get(i);
+            if (node.isLeaf()) {
+                if (firstLeaf == -1) firstLeaf = i;
+            } else {
+                nodes.addAll(node.getChildren());
+            }
+        }
+        int nodeCount = nodes.size();
+        int[] ranges = new int[nodeCount * 2];
+        Box[] nodeBoxes = new Box[nodeCount];
+        int[] nodeBounds = new int[nodeCount * Boxes.STRIDE];
+        int next = 1;
+        for (int i = 0; i < firstLeaf; i++) {
+            Node<K, V> node = nodes.get(i);
+            nodeBoxes[i] = node.getBox();
+            Boxes.set(nodeBounds, i, node.getBox());
+            ranges[i * 2] = next;
+            next += node.getChildren().size();
+            ranges[i * 2 + 1] = next;
+        }
+        int entryCount = root.size();
+        Box[] entryBoxes = new Box[entryCount];
+        int[] entryBounds = new int[entryCount * Boxes.STRIDE];
+        Object[] keys = new Object[entryCount];
+        Object[] values = new Object[entryCount];
+        int entry = 0;
+        for (int i = firstLeaf; i < nodeCount; i++) {
+            Node<K, V> node = nodes.get(i);
+            nodeBoxes[i] = node.getBox();
+            Boxes.set(nodeBounds, i, node.getBox());
+            ranges[i * 2] = entry;
+            for (Bucket<K, V> bucket : node.getBuckets()) {
+                for (Entry<K, V> e : bucket.getEntries()) {
+                    entryBoxes[entry] = bucket.getBox();
+                    Boxes.set(entryBounds, entry, bucket.getBox());
+                    keys[entry] = e.getKey();
+                    values[entry] = e.getValue();
+                    entry++;
+                }
+            }
+            ranges[i * 2 + 1] = entry;
+        }
+        return new FlatTree<>(firstLeaf, ranges, nodeBoxes, nodeBounds, entryBoxes, entryBounds, keys, values);
+    }
+
+    private FlatTree(int firstLeaf, int[] ranges, Box[] nodeBoxes, int[] nodeBounds, Box[] entryBoxes,
+                     int[] entryBounds, Object[] keys, Object[] values) {
+        this.firstLeaf = firstLeaf;
+        this.ranges = ranges;
+        this.nodeBoxes = nodeBoxes;
+        this.nodeBounds = nodeBounds;
+        this.entryBoxes = entryBoxes;
+        this.entryBounds = entryBounds;
+        this.keys = keys;
+        this.values = values;
+    }
+
+    int nodeCount() {
+        return nodeBoxes.length;
+    }
+
+    @Override
+    int firstLeaf() {
+        return firstLeaf;
+    }
+
+    Box nodeBox(int node) {
+        return nodeBoxes[node];
+    }
+
+    @Override
+    int childStart(int node) {
+        return ranges[node * 2];
+    }
+
+    @Override
+    int childEnd(int node) {
+        return ranges[node * 2 + 1];
+    }
+
+    Box entryBox(int index) {
+        return entryBoxes[index];
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    K key(int index) {
+        return (K) keys[index];
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    V value(int index) {
+        return (V) values[index];
+    }
+
+    @Override
+    boolean nodeMatches(int node, Predicate<? super Box> boxPredicate) {
+        return boxPredicate.test(nodeBoxes[node]);
+    }
+
+    @Override
+    boolean entryMatches(int entry, Predicate<? super Box> boxPredicate) {
+        return boxPredicate.test(entryBoxes[entry]);
+    }
+
+    @Override
+    boolean nodeContains(int node, Box box) {
+        return Boxes.contains(nodeBounds, node, box);
+    }
+
+    @Override
+    boolean entryEquals(int entry, Box box) {
+        return Boxes.equals(entryBounds, entry, box);
+    }
+
+    @Override
+    public Box getBox() {
+        return nodeBox(0);
+    }
+
+    @Override
+    public int size() {
+        return keys.length;
+    }
+}
@@ -0,0 +1,166 @@
+package com.jamieswhiteshirt.rtree3i;
+
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Immutable, query-only snapshot of an {@link RTreeMap}, created by {@link RTreeMap#freeze()} or
+ * {@link RTreeMap#freezeOffHeap()}. The nodes are compiled into flat arrays or a buffer in breadth-first order instead
+ * of a graph of node objects, which uses less memory and makes searches cheaper. The snapshot supports the same queries
+ * as the {@link RTreeMap} it was created from. A snapshot stored off-heap reads the boxes from its buffers, so its
+ * queries are cheapest with a {@link BoxPredicate}, which is tested without creating a {@link Box}.
+ * @param <K> the type of keys maintained by this map
+ * @param <V> the type of mapped values
+ */
+public final class FrozenRTreeMap<K, V> {
+    private final FrozenTree<K, V> tree;
+    private final Function<? super K, Box> keyBoxMapper;
+
+    FrozenRTreeMap(FrozenTree<K, V> tree, Function<? super K, Box> keyBoxMapper) {
+        this.tree = tree;
+        this.keyBoxMapper = keyBoxMapper;
+    }
+
+    /**
+     * Returns a {@link Selection} of all keys.
+     * @return a {@link Selection} of all keys
+     */
+    public Selection<K> keys() {
+        return keys(BoxPredicate.all());
+    }
+
+    /**
+     * Returns a {@link Selection} of keys matching the given box predicate.
+     * @param boxPredicate predicate applied to bounding boxes in the map. The predicate is expected to have this
+     *                     property: For all boxes B, if the predicate matches B, it must match all boxes containing B.
+     * @return a {@link Selection} of keys matching the given box predicates
+     */
+    public Selection<K> keys(Predicate<? super Box> boxPredicate) {
+        return tree != null ? NodeSelection.create(tree, boxPredicate, (key, value) -> key) : EmptySelection.create();
+    }
+
+    /**
+     * Returns a {@link Selection} of all values.
+     * @return a {@link Selection} of all values
+     */
+    public Selection<V> values() {
+        return values(BoxPredicate.all());
+    }
+
+    /**
+     * Returns a {@link Selection} of values matching the given box predicate.
+     * @param boxPredicate predicate applied to bounding boxes in the map. The predicate is expected to have this
+     *                     property: For all boxes B, if the predicate matches B, it must match all boxes containing B.
+     * @return a {@link Selection} of values matching the given box predicates
+     */
+    public Selection<V> values(Predicate<? super Box> boxPredicate) {
+        return tree != null ? NodeSelection.create(tree, boxPredicate, (key, value) -> value) : EmptySelection.create();
+    }
+
+    /**
+     * Returns a {@link Selection} of all entries.
+     * @return a {@link Selection} of all entries
+     */
+    public Selection<Entry<K, V>> entries() {
+        return entries(BoxPredicate.all());
+    }
+
+    /**
+     * Returns a {@link Selection} of entries matching the given box predicate.
+     * @param boxPredicate predicate applied to bounding boxes in the map. The predicate is expected to have this
+     *                     property: For all boxes B, if the predicate matches B, it must match all boxes containing B.
+     * @return a {@link Selection} of entries matching the given box predicates
+     */
+    public Selection<Entry<K, V>> entries(Predicate<? super Box> boxPredicate) {
+        return tree != null ? NodeSelection.create(tree, boxPredicate, Entry::of) : EmptySelection.create();
+    }
+
+    /**
+     * Performs the action on the key and value of each entry. Unlike iterating the {@link #entries()}, this does not
+     * create an {@link Entry} for each entry.
+     * @param action action to perform on the key and value of each entry
+     */
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        forEach(BoxPredicate.all(), action);
+    }
+
+    /**
+     * Performs the action on the key and value of each entry matching the given box predicate. Unlike iterating the
+     * {@link #entries(Predicate)}, this does not create an {@link Entry} for each entry.
+     * @param boxPredicate predicate applied to bounding boxes in the map. The predicate is expected to have this
+     *                     property: For all boxes B, if the predicate matches B, it must match all boxes containing B.
+     * @param action action to perform on the key and value of each entry
+     */
+    public void forEach(Predicate<? super Box> boxPredicate, BiConsumer<? super K, ? super V> action) {
+        if (tree != null) {
+            tree.forEach(boxPredicate, action);
+        }
+    }
+
+    /**
+     * Returns the depth of the tree the map was frozen from.
+     * @return depth of the R-tree
+     */
+    public int calculateDepth() {
+        return tree != null ? tree.calculateDepth() : 0;
+    }
+
+    /**
+     * Returns <tt>true</tt> if this map contains the entry.
+     * @param entry entry whose presence in this map is to be tested
+     * @return <tt>true</tt> if this map contains the entry
+     */
+    public boolean contains(Entry<K, V> entry) {
+        return tree != null && tree.contains(keyBoxMapper.apply(entry.getKey()), entry);
+    }
+
+    /**
+     * Returns the value to which the specified key is mapped, or {@code null} if this map contains no mapping for the
+     * key.
+     * @param key the key whose associated value will be returned
+     * @return the value to which the specified key is mapped, or {@code null} if this map contains no mapping for the
+     *         key
+     */
+    public V get(K key) {
+        if (tree != null) {
+            Entry<K, V> entry = tree.get(keyBoxMapper.apply(key), key);
+            return entry != null ? entry.getValue() : null;
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * Returns <tt>true</tt> if this map contains a mapping for the specified key.
+     * @param key key whose presence in this map is to be tested
+     * @return <tt>true</tt> if this map contains a mapping for the specified key
+     */
+    public boolean containsKey(K key) {
+        return tree != null && tree.get(keyBoxMapper.apply(key), key) != null;
+    }
+
+    /**
+     * If the map has no entries returns null, otherwise returns the minimum bounding box of all entries in the map.
+     * @return minimum bounding box of all entries in the map
+     */
+    public Box getMbb() {
+        return tree != null ? tree.getBox() : null;
+    }
+
+    /**
+     * Returns true if and only if the map is empty of entries.
+     * @return is map empty
+     */
+    public boolean isEmpty() {
+        return tree == null;
+    }
+
+    /**
+     * Returns the number of entries in the map.
+     * @return the number of entries
+     */
+    public int size() {
+        return tree != null ? tree.size() : 0;
+    }
+}
@@ -0,0 +1,201 @@
+package com.jamieswhiteshirt.rtree3i;
+
+import java.util.Objects;
+import java.util.function.BiConsumer;
+import java.util.function.BiPredicate;
+import java.util.function.Predicate;
+
+/**
+ * A non-empty, immutable tree backing a {@link FrozenRTreeMap}. Nodes are numbered in breadth-first order, so all
+ * branches come before all leaves, and the children of each node are a contiguous range. For a branch the range
+ * indexes nodes, and for a leaf it indexes entries. The searches are implemented once over this layout; subclasses
+ * only decide where the child ranges, bounds, keys and values are stored and how boxes are tested against them.
+ *
+ * @param <K> entry key type
+ * @param <V> entry value type
+ */
+abstract class FrozenTree<K, V> implements Searchable<K, V> {
+
+    /**
+     * Returns the index of the first leaf. Every node before it is a branch.
+     */
+    abstract int firstLeaf();
+
+    abstract int childStart(int node);
+
+    abstract int childEnd(int node);
+
+    /**
+     * Returns true if the bounding box of the node matches the box predicate.
+     */
+    abstract boolean nodeMatches(int node, Predicate<? super Box> boxPredicate);
+
+    /**
+     * Returns true if the bounding box of the entry matches the box predicate.
+     */
+    abstract boolean entryMatches(int entry, Predicate<? super Box> boxPredicate);
+
+    /**
+     * Returns true if the bounding box of the node contains the box.
+     */
+    abstract boolean nodeContains(int node, Box box);
+
+    /**
+     * Returns true if the bounding box of the entry is equal to the box.
+     */
+    abstract boolean entryEquals(int entry, Box box);
+
+    abstract K key(int entry);
+
+    abstract V value(int entry);
+
+    public abstract Box getBox();
+
+    public abstract int size();
+
+    private boolean isLeaf(int node) {
+        return node >= firstLeaf();
+    }
+
+    public int calculateDepth() {
+        int depth = 1;
+        for (int node = 0; !isLeaf(node); node = childStart(node)) {
+            depth++;
+        }
+        return depth;
+    }
+
+    public Entry<K, V> get(Box box, K key) {
+        return nodeContains(0, box) ? get(0, box, key) : null;
+    }
+
+    private Entry<K, V> get(int node, Box box, K key) {
+        int start = childStart(node), end = childEnd(node);
+        if (isLeaf(node)) {
+            for (int i = start; i < end; i++) {
+                if (entryEquals(i, box)) {
+                    K existing = key(i);
+                    if (existing.equals(key)) {
+                        return Entry.of(existing, value(i));
+                    }
+                }
+            }
+        } else {
+            for (int i = start; i < end; i++) {
+                if (nodeContains(i, box)) {
+                    Entry<K, V> entry = get(i, box, key);
+                    if (entry != null) return entry;
+                }
+            }
+        }
+        return null;
+    }
+
+    public boolean contains(Box box, Entry<K, V> entry) {
+        Entry<K, V> existing = get(box, entry.getKey());
+        return existing != null && Objects.equals(existing.getValue(), entry.getValue());
+    }
+
+    @Override
+    public void forEach(Predicate<? super Box> boxPredicate, BiConsumer<? super K, ? super V> action) {
+        forEach(0, boxPredicate, action);
+    }
+
+    private void forEach(int node, Predicate<? super Box> boxPredicate, BiConsumer<? super K, ? super V> action) {
+        if (nodeMatches(node, boxPredicate)) {
+            int start = childStart(node), end = childEnd(node);
+            if (isLeaf(node)) {
+                for (int i = start; i < end; i++) {
+                    if (entryMatches(i, boxPredicate)) {
+                        action.accept(key(i), value(i));
+                    }
+                }
+            } else {
+                for (int i = start; i < end; i++) {
+                    forEach(i, boxPredicate, action);
+                }
+            }
+        }
+    }
+
+    @Override
+    public boolean anyMatch(Predicate<? super Box> boxPredicate, BiPredicate<? super K, ? super V> entryPredicate) {
+        return anyMatch(0, boxPredicate, entryPredicate);
+    }
+
+    private boolean anyMatch(int node, Predicate<? super Box> boxPredicate,
+                             BiPredicate<? super K, ? super V> entryPredicate) {
+        if (nodeMatches(node, boxPredicate)) {
+            int start = childStart(node), end = childEnd(node);
+            if (isLeaf(node)) {
+                for (int i = start; i < end; i++) {
+                    if (entryMatches(i, boxPredicate) && entryPredicate.test(key(i), value(i))) {
+                        return true;
+                    }
+                }
+            } else {
+                for (int i = start; i < end; i++) {
+                    if (anyMatch(i, boxPredicate, entryPredicate)) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public boolean allMatch(Predicate<? super Box> boxPredicate, BiPredicate<? super K, ? super V> entryPredicate) {
+        return !anyMatch(0, boxPredicate, entryPredicate.negate());
+    }
+
+    @Override
+    public <T> T reduce(Predicate<? super Box> boxPredicate, T identity,
+                        Accumulator<T, ? super K, ? super V> accumulator) {
+        return reduce(0, boxPredicate, identity, accumulator);
+    }
+
+    private <T> T reduce(int node, Predicate<? super Box> boxPredicate, T identity,
+                         Accumulator<T, ? super K, ? super V> accumulator) {
+        T acc = identity;
+        if (nodeMatches(node, boxPredicate)) {
+            int start = childStart(node), end = childEnd(node);
+            if (isLeaf(node)) {
+                for (int i = start; i < end; i++) {
+                    if (entryMatches(i, boxPredicate)) {
+                        acc = accumulator.apply(acc, key(i), value(i));
+                    }
+                }
+            } else {
+                for (int i = start; i < end; i++) {
+                    acc = reduce(i, boxPredicate, acc, accumulator);
+                }
+            }
+        }
+        return acc;
+    }
+
+    @Override
+    public int count(Predicate<? super Box> boxPredicate, BiPredicate<? super K, ? super V> entryPredicate) {
+        return count(0, boxPredicate, entryPredicate);
+    }
+
+    private int count(int node, Predicate<? super Box> boxPredicate, BiPredicate<? super K, ? super V> entryPredicate) {
+        int count = 0;
+        if (nodeMatches(node, boxPredicate)) {
+            int start = childStart(node), end = childEnd(node);
+            if (isLeaf(node)) {
+                for (int i = start; i < end; i++) {
+                    if (entryMatches(i, boxPredicate) && entryPredicate.test(key(i), value(i))) {
+                        count++;
+                    }
+                }
+            } else {
+                for (int i = start; i < end; i++) {
+                    count += count(i, boxPredicate, entryPredicate);
+                }
+            }
+        }
+        return count;
+    }
+}
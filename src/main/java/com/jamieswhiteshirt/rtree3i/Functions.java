@@ -15,7 +15,7 @@ public final class Functions {
     /**
      * A {@link Function} returning the volume of the intersection between groups.
      */
-    public static Function<Groups<?>, Integer> groupsIntersectionVolume = pair -> pair.getGroup1().getBox().intersectionVolume(pair.getGroup2().getBox());
+    public static Function<Groups<?>, Long> groupsIntersectionVolume = pair -> Geometry.intersectionVolume(pair.getGroup1().getBox(), pair.getGroup2().getBox());
 
     /**
      * Returns a {@link Function} returning the sum of overlap volumes between the list of boxes and the minimum
@@ -25,15 +25,16 @@ public final class Functions {
      * @return a {@link Function} returning the sum of overlap volumes between the list of boxes and the minimum
      * bounding box containing both r and the comparator argument
      */
-    public static Function<Box, Integer> overlapVolume(final Box r, final List<Box> list) {
-        return g -> {
-            Box gPlusR = g.add(r);
-            int m = 0;
-            for (Box other : list) {
-                m += gPlusR.intersectionVolume(other);
-            }
-            return m;
-        };
+    public static Function<Box, Long> overlapVolume(final Box r, final List<Box> list) {
+        return g -> overlapVolumeSum(g, r, list);
+    }
+
+    static long overlapVolumeSum(Box g, Box r, List<Box> list) {
+        long m = 0;
+        for (int i = 0; i < list.size(); i++) {
+            m = Geometry.add(m, Geometry.overlapVolume(g, r, list.get(i)));
+        }
+        return m;
     }
 
     /**
@@ -41,8 +42,8 @@ public final class Functions {
      * @param r box with the mimimum volume
      * @return a {@link Function} returning the volume of the minimum bounding box containing both r and the box
      */
-    public static Function<Box, Integer> volumeIncrease(final Box r) {
-        return g -> g.add(r).getVolume() - g.getVolume();
+    public static Function<Box, Long> volumeIncrease(final Box r) {
+        return g -> Geometry.volumeIncrease(g, r);
     }
 
 }
@@ -0,0 +1,286 @@
+package com.jamieswhiteshirt.rtree3i;
+
+import java.util.Arrays;
+
+/**
+ * Volume, overlap and margin computations on boxes for {@link Selector}s and {@link Splitter}s. Unlike the equivalent
+ * compositions of {@link Box} methods, these work directly on the coordinates and never create intermediate boxes, so
+ * they can be called for every pair of candidates without allocating.
+ * <p>
+ * All results are longs computed from the extents of the boxes as longs, so boxes spanning most of the int range do not
+ * overflow. Products and sums which would still exceed the range of a long saturate at {@link Long#MAX_VALUE} rather
+ * than wrapping around, so the heuristics keep ordering such boxes as larger than all others.
+ */
+final class Geometry {
+
+    private Geometry() {
+        // prevent instantiation
+    }
+
+    /**
+     * Returns the volume of the box.
+     */
+    static long volume(Box a) {
+        return volume(a.x1(), a.y1(), a.z1(), a.x2(), a.y2(), a.z2());
+    }
+
+    /**
+     * Returns the volume of the box with the coordinates.
+     */
+    static long volume(int x1, int y1, int z1, int x2, int y2, int z2) {
+        return multiply(multiply((long) x2 - x1, (long) y2 - y1), (long) z2 - z1);
+    }
+
+    /**
+     * Returns the volume of the packed box at the index.
+     */
+    static long volume(int[] packed, int index) {
+        int o = index * Boxes.STRIDE;
+        return volume(packed[o], packed[o + 1], packed[o + 2], packed[o + 3], packed[o + 4], packed[o + 5]);
+    }
+
+    /**
+     * Returns the volume of the minimum bounding box containing both boxes.
+     */
+    static long unionVolume(Box a, Box b) {
+        return volume(Math.min(a.x1(), b.x1()), Math.min(a.y1(), b.y1()), Math.min(a.z1(), b.z1()),
+            Math.max(a.x2(), b.x2()), Math.max(a.y2(), b.y2()), Math.max(a.z2(), b.z2()));
+    }
+
+    /**
+     * Returns the volume of the minimum bounding box containing the packed boxes a and b.
+     */
+    static long unionVolume(int[] a, int aIndex, int[] b, int bIndex) {
+        int ao = aIndex * Boxes.STRIDE;
+        int bo = bIndex * Boxes.STRIDE;
+        return volume(Math.min(a[ao], b[bo]), Math.min(a[ao + 1], b[bo + 1]), Math.min(a[ao + 2], b[bo + 2]),
+            Math.max(a[ao + 3], b[bo + 3]), Math.max(a[ao + 4], b[bo + 4]), Math.max(a[ao + 5], b[bo + 5]));
+    }
+
+    /**
+     * Returns how much the volume of the first box increases if it is enlarged to contain the second box.
+     */
+    static long volumeIncrease(Box a, Box b) {
+        return Math.max(0L, unionVolume(a, b) - volume(a));
+    }
+
+    /**
+     * Returns the volume of the intersection of both boxes, or zero if they do not have a closed intersection.
+     */
+    static long intersectionVolume(Box a, Box b) {
+        return intersectionVolume(a.x1(), a.y1(), a.z1(), a.x2(), a.y2(), a.z2(), b);
+    }
+
+    /**
+     * Returns the volume of the intersection of the minimum bounding box containing the first two boxes with the third
+     * box, or zero if they do not have a closed intersection.
+     */
+    static long overlapVolume(Box a, Box b, Box other) {
+        return intersectionVolume(Math.min(a.x1(), b.x1()), Math.min(a.y1(), b.y1()), Math.min(a.z1(), b.z1()),
+            Math.max(a.x2(), b.x2()), Math.max(a.y2(), b.y2()), Math.max(a.z2(), b.z2()), other);
+    }
+
+    /**
+     * Returns the volume of the intersection of the packed boxes a and b, or zero if they do not have a closed
+     * intersection.
+     */
+    static long intersectionVolume(int[] a, int aIndex, int[] b, int bIndex) {
+        int ao = aIndex * Boxes.STRIDE;
+        int bo = bIndex * Boxes.STRIDE;
+        return intersectionVolume(a[ao], a[ao + 1], a[ao + 2], a[ao + 3], a[ao + 4], a[ao + 5],
+            b[bo], b[bo + 1], b[bo + 2], b[bo + 3], b[bo + 4], b[bo + 5]);
+    }
+
+    private static long intersectionVolume(int x1, int y1, int z1, int x2, int y2, int z2, Box b) {
+        return intersectionVolume(x1, y1, z1, x2, y2, z2, b.x1(), b.y1(), b.z1(), b.x2(), b.y2(), b.z2());
+    }
+
+    private static long intersectionVolume(int x1, int y1, int z1, int x2, int y2, int z2,
+                                           int bx1, int by1, int bz1, int bx2, int by2, int bz2) {
+        int ix1 = Math.max(x1, bx1);
+        int ix2 = Math.min(x2, bx2);
+        if (ix1 >= ix2) return 0;
+        int iy1 = Math.max(y1, by1);
+        int iy2 = Math.min(y2, by2);
+        if (iy1 >= iy2) return 0;
+        int iz1 = Math.max(z1, bz1);
+        int iz2 = Math.min(z2, bz2);
+        if (iz1 >= iz2) return 0;
+        return volume(ix1, iy1, iz1, ix2, iy2, iz2);
+    }
+
+    /**
+     * Returns the volume covered by at least one of the boxes. The boxes are swept along x and y, and the z intervals of
+     * the boxes covering each cell of the sweep are merged, which takes O(n^3 log n) time for n boxes.
+     */
+    static long unionVolume(Box[] boxes) {
+        int n = boxes.length;
+        int[] xs = new int[n * 2];
+        for (int i = 0; i < n; i++) {
+            xs[i * 2] = boxes[i].x1();
+            xs[i * 2 + 1] = boxes[i].x2();
+        }
+        Arrays.sort(xs);
+        Box[] slab = new Box[n];
+        int[] ys = new int[n * 2];
+        long[] intervals = new long[n];
+        long volume = 0;
+        for (int i = 0; i + 1 < xs.length; i++) {
+            int xa = xs[i];
+            int xb = xs[i + 1];
+            if (xa == xb) continue;
+            int slabSize = 0;
+            for (Box box : boxes) {
+                if (box.x1() <= xa && box.x2() >= xb) {
+                    ys[slabSize * 2] = box.y1();
+                    ys[slabSize * 2 + 1] = box.y2();
+                    slab[slabSize++] = box;
+                }
+            }
+            Arrays.sort(ys, 0, slabSize * 2);
+            long area = 0;
+            for (int j = 0; j + 1 < slabSize * 2; j++) {
+                int ya = ys[j];
+                int yb = ys[j + 1];
+                if (ya == yb) continue;
+                // pack each z interval into a long which sorts by the low end
+                int count = 0;
+                for (int k = 0; k < slabSize; k++) {
+                    Box box = slab[k];
+                    if (box.y1() <= ya && box.y2() >= yb) {
+                        intervals[count++] = (long) box.z1() << 32 | (box.z2() & 0xFFFFFFFFL);
+                    }
+                }
+                Arrays.sort(intervals, 0, count);
+                long length = 0;
+                long start = Long.MIN_VALUE;
+                long end = Long.MIN_VALUE;
+                for (int k = 0; k < count; k++) {
+                    long z1 = intervals[k] >> 32;
+                    long z2 = (int) intervals[k];
+                    if (z1 > end) {
+                        length += end - start;
+                        start = z1;
+                        end = z2;
+                    } else {
+                        end = Math.max(end, z2);
+                    }
+                }
+                length += end - start;
+                area = add(area, multiply((long) yb - ya, length));
+            }
+            volume = add(volume, multiply((long) xb - xa, area));
+        }
+        return volume;
+    }
+
+    /**
+     * Returns the margin of the box, which is its surface area.
+     */
+    static long margin(Box a) {
+        return margin((long) a.x2() - a.x1(), (long) a.y2() - a.y1(), (long) a.z2() - a.z1());
+    }
+
+    /**
+     * Returns the margin of the packed box at the index.
+     */
+    static long margin(int[] packed, int index) {
+        int o = index * Boxes.STRIDE;
+        return margin((long) packed[o + 3] - packed[o], (long) packed[o + 4] - packed[o + 1],
+            (long) packed[o + 5] - packed[o + 2]);
+    }
+
+    private static long margin(long dx, long dy, long dz) {
+        return multiply(2L, add(add(multiply(dx, dy), multiply(dy, dz)), multiply(dx, dz)));
+    }
+
+    /**
+     * Returns the perimeter of the box, measured as the sum of its extents. Unlike the volume and the margin, it is
+     * positive for boxes which are flat or points along some axes.
+     */
+    static long perimeter(Box a) {
+        return perimeter(a.x1(), a.y1(), a.z1(), a.x2(), a.y2(), a.z2());
+    }
+
+    /**
+     * Returns the perimeter of the packed box at the index.
+     */
+    static long perimeter(int[] packed, int index) {
+        int o = index * Boxes.STRIDE;
+        return perimeter(packed[o], packed[o + 1], packed[o + 2], packed[o + 3], packed[o + 4], packed[o + 5]);
+    }
+
+    private static long perimeter(int x1, int y1, int z1, int x2, int y2, int z2) {
+        return ((long) x2 - x1) + ((long) y2 - y1) + ((long) z2 - z1);
+    }
+
+    /**
+     * Returns the perimeter of the minimum bounding box containing both boxes.
+     */
+    static long unionPerimeter(Box a, Box b) {
+        return perimeter(Math.min(a.x1(), b.x1()), Math.min(a.y1(), b.y1()), Math.min(a.z1(), b.z1()),
+            Math.max(a.x2(), b.x2()), Math.max(a.y2(), b.y2()), Math.max(a.z2(), b.z2()));
+    }
+
+    /**
+     * Returns the perimeter of the intersection of both boxes, or zero if they do not intersect. Boxes which only touch
+     * intersect in a flat box.
+     */
+    static long intersectionPerimeter(Box a, Box b) {
+        return intersectionPerimeter(a.x1(), a.y1(), a.z1(), a.x2(), a.y2(), a.z2(), b);
+    }
+
+    /**
+     * Returns the perimeter of the intersection of the minimum bounding box containing the first two boxes with the
+     * third box, or zero if they do not intersect.
+     */
+    static long overlapPerimeter(Box a, Box b, Box other) {
+        return intersectionPerimeter(Math.min(a.x1(), b.x1()), Math.min(a.y1(), b.y1()), Math.min(a.z1(), b.z1()),
+            Math.max(a.x2(), b.x2()), Math.max(a.y2(), b.y2()), Math.max(a.z2(), b.z2()), other);
+    }
+
+    /**
+     * Returns the perimeter of the intersection of the packed boxes a and b, or zero if they do not intersect.
+     */
+    static long intersectionPerimeter(int[] a, int aIndex, int[] b, int bIndex) {
+        int ao = aIndex * Boxes.STRIDE;
+        int bo = bIndex * Boxes.STRIDE;
+        int ix1 = Math.max(a[ao], b[bo]);
+        int iy1 = Math.max(a[ao + 1], b[bo + 1]);
+        int iz1 = Math.max(a[ao + 2], b[bo + 2]);
+        int ix2 = Math.min(a[ao + 3], b[bo + 3]);
+        int iy2 = Math.min(a[ao + 4], b[bo + 4]);
+        int iz2 = Math.min(a[ao + 5], b[bo + 5]);
+        if (ix1 > ix2 || iy1 > iy2 || iz1 > iz2) return 0;
+        return perimeter(ix1, iy1, iz1, ix2, iy2, iz2);
+    }
+
+    private static long intersectionPerimeter(int x1, int y1, int z1, int x2, int y2, int z2, Box b) {
+        int ix1 = Math.max(x1, b.x1());
+        int iy1 = Math.max(y1, b.y1());
+        int iz1 = Math.max(z1, b.z1());
+        int ix2 = Math.min(x2, b.x2());
+        int iy2 = Math.min(y2, b.y2());
+        int iz2 = Math.min(z2, b.z2());
+        if (ix1 > ix2 || iy1 > iy2 || iz1 > iz2) return 0;
+        return perimeter(ix1, iy1, iz1, ix2, iy2, iz2);
+    }
+
+    /**
+     * Returns the product of two non-negative longs, or {@link Long#MAX_VALUE} if it overflows.
+     */
+    static long multiply(long a, long b) {
+        if ((a | b) >>> 31 != 0 && a != 0 && b > Long.MAX_VALUE / a) {
+            return Long.MAX_VALUE;
+        }
+        return a * b;
+    }
+
+    /**
+     * Returns the sum of two non-negative longs, or {@link Long#MAX_VALUE} if it overflows.
+     */
+    static long add(long a, long b) {
+        long sum = a + b;
+        return sum < 0 ? Long.MAX_VALUE : sum;
+    }
+}
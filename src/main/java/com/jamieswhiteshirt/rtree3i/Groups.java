@@ -9,8 +9,8 @@ public final class Groups<T> {
     private final Group<T> group2;
     // these non-final variable mean that this class is not thread-safe
     // because access to them is not synchronized
-    private int volumeSum = -1;
-    private final int marginSum;
+    private long volumeSum = -1;
+    private final long marginSum;
 
     /**
      * Constructs a set of both groups.
@@ -20,7 +20,7 @@ public final class Groups<T> {
     public Groups(Group<T> group1, Group<T> group2) {
         this.group1 = group1;
         this.group2 = group2;
-        this.marginSum = group1.getBox().surfaceArea() + group2.getBox().surfaceArea();
+        this.marginSum = Geometry.add(Geometry.margin(group1.getBox()), Geometry.margin(group2.getBox()));
     }
 
     /**
@@ -43,9 +43,9 @@ public final class Groups<T> {
      * Returns the sum of the volumes of the groups.
      * @return
      */
-    public int getVolumeSum() {
+    public long getVolumeSum() {
         if (volumeSum == -1)
-            volumeSum = group1.getBox().getVolume() + group2.getBox().getVolume();
+            volumeSum = Geometry.add(Geometry.volume(group1.getBox()), Geometry.volume(group2.getBox()));
         return volumeSum;
     }
 
@@ -53,7 +53,7 @@ public final class Groups<T> {
      * Returns the sum of the surface areas of the groups.
      * @return the sum of the surface areas of the groups
      */
-    public int getMarginSum() {
+    public long getMarginSum() {
         return marginSum;
     }
 
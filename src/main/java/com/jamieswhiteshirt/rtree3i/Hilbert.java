@@ -0,0 +1,147 @@
+package com.jamieswhiteshirt.rtree3i;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Hilbert values of boxes and the node operations of Hilbert-ordered trees. The Hilbert value of a box is the index of
+ * its centre along a three dimensional Hilbert curve over the whole int range, which takes 96 bits. It is handled as
+ * a long holding the high 64 bits and an int holding the low 32 bits, both compared as unsigned.
+ * <p>
+ * In a Hilbert-ordered tree the buckets of each leaf and the children of each branch are kept sorted by Hilbert value,
+ * so the largest Hilbert value of a node is that of its last bucket. A put descends into the first child with a
+ * largest Hilbert value at least the Hilbert value of the box. A node which overflows shares its children with a
+ * cooperating sibling, and the two are only split into three nodes if both are full.
+ */
+final class Hilbert {
+
+    /**
+     * A Hilbert value, held as its high 64 bits and its low 32 bits.
+     */
+    static final class Value implements Comparable<Value> {
+        final long high;
+        final int low;
+
+        Value(long high, int low) {
+            this.high = high;
+            this.low = low;
+        }
+
+        @Override
+        public int compareTo(Value other) {
+            return compare(high, low, other.high, other.low);
+        }
+    }
+
+    private Hilbert() {
+        // prevent instantiation
+    }
+
+    /**
+     * Compares two Hilbert values given as high and low bits.
+     */
+    static int compare(long highA, int lowA, long highB, int lowB) {
+        int result = Long.compareUnsigned(highA, highB);
+        return result != 0 ? result : Integer.compareUnsigned(lowA, lowB);
+    }
+
+    /**
+     * Sorts the items by the Hilbert values of their boxes, computing the value of each box once.
+     */
+    static <T> void sort(List<T> items, Function<? super T, Box> boxMapper) {
+        int n = items.size();
+        Value[] values = new Value[n];
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            values[i] = of(boxMapper.apply(items.get(i)));
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparing(i -> values[i]));
+        List<T> sorted = new ArrayList<>(n);
+        for (Integer i : order) {
+            sorted.add(items.get(i));
+        }
+        for (int i = 0; i < n; i++) {
+            items.set(i, sorted.get(i));
+        }
+    }
+
+    /**
+     * Returns the buckets or children of the nodes, in order, evenly distributed over count nodes of the same kind. The
+     * second node may be null.
+     */
+    static <K, V> List<Node<K, V>> distribute(Node<K, V> a, Node<K, V> b, int count, Configuration configuration) {
+        List<Node<K, V>> nodes = new ArrayList<>(count);
+        if (a.isLeaf()) {
+            List<Bucket<K, V>> buckets = new ArrayList<>(a.getBuckets());
+            if (b != null) buckets.addAll(b.getBuckets());
+            for (List<Bucket<K, V>> group : BulkLoader.cut(buckets, count)) {
+                nodes.add(Leaf.containing(group, configuration));
+            }
+        } else {
+            List<Node<K, V>> children = new ArrayList<>(a.getChildren());
+            if (b != null) children.addAll(b.getChildren());
+            for (List<Node<K, V>> group : BulkLoader.cut(children, count)) {
+                nodes.add(Branch.containing(group, configuration));
+            }
+        }
+        return nodes;
+    }
+
+    /**
+     * Returns the Hilbert value of the centre of the box. The centre is transformed into the transposed Hilbert index
+     * after Skilling, whose bits are then interleaved.
+     */
+    static Value of(Box box) {
+        // flip the sign bits so that the coordinates order as unsigned ints
+        int x = centre(box.x1(), box.x2()) ^ Integer.MIN_VALUE;
+        int y = centre(box.y1(), box.y2()) ^ Integer.MIN_VALUE;
+        int z = centre(box.z1(), box.z2()) ^ Integer.MIN_VALUE;
+        for (int q = Integer.MIN_VALUE; q != 1; q >>>= 1) {
+            int p = q - 1;
+            if ((x & q) != 0) {
+                x ^= p;
+            }
+            if ((y & q) != 0) {
+                x ^= p;
+            } else {
+                int t = (x ^ y) & p;
+                x ^= t;
+                y ^= t;
+            }
+            if ((z & q) != 0) {
+                x ^= p;
+            } else {
+                int t = (x ^ z) & p;
+                x ^= t;
+                z ^= t;
+            }
+        }
+        y ^= x;
+        z ^= y;
+        int t = 0;
+        for (int q = Integer.MIN_VALUE; q != 1; q >>>= 1) {
+            if ((z & q) != 0) {
+                t ^= q - 1;
+            }
+        }
+        x ^= t;
+        y ^= t;
+        z ^= t;
+        // shift the interleaved bits through 96 bits held in a long and an int
+        long highBits = 0;
+        int lowBits = 0;
+        for (int bit = 31; bit >= 0; bit--) {
+            highBits = highBits << 3 | lowBits >>> 29;
+            lowBits = lowBits << 3 | (x >>> bit & 1) << 2 | (y >>> bit & 1) << 1 | z >>> bit & 1;
+        }
+        return new Value(highBits, lowBits);
+    }
+
+    private static int centre(int low, int high) {
+        return (int) (((long) low + high) >> 1);
+    }
+}
@@ -0,0 +1,210 @@
+package com.jamieswhiteshirt.rtree3i;
+
+import com.google.common.base.Preconditions;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Function;
+
+/**
+ * Reads and writes R-tree maps as memory-mapped index files. An index file holds the nodes of the tree in the
+ * breadth-first layout of {@link RTreeMap#freezeOffHeap()}, followed by the keys and values encoded with a
+ * {@link Codec}. Opening an index file only maps it into memory and checks the header and a few records against the
+ * size of the file, so it takes the same time regardless of the size of the map. The operating system loads pages of
+ * the file as queries touch them.
+ * <p>
+ * Keys and values are decoded each time an entry is visited by a query, so codecs should be cheap. They are decoded
+ * straight from the mapped file, without copying.
+ */
+public final class IndexFile {
+
+    private IndexFile() {
+        // prevent instantiation
+    }
+
+    /**
+     * Writes the map to an index file, replacing the file if it exists.
+     * @param map map to write
+     * @param path path of the index file
+     * @param keyCodec codec of keys
+     * @param valueCodec codec of values
+     * @param <K> the type of keys maintained by the map
+     * @param <V> the type of mapped values
+     * @throws IOException if the file could not be written
+     */
+    public static <K, V> void write(RTreeMap<K, V> map, Path path, Codec<? super K> keyCodec,
+                                    Codec<? super V> valueCodec) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            FlatTree<K, V> tree = map.flatten();
+            if (tree == null) {
+                ByteBuffer header = ByteBuffer.allocate(BufferTree.HEADER_SIZE);
+                BufferTree.writeEmpty(header);
+                while (header.hasRemaining()) {
+                    channel.write(header);
+                }
+            } else {
+                long indexSize = BufferTree.sizeOf(tree);
+                long[] handles = writeData(tree, channel, indexSize, keyCodec, valueCodec);
+                MappedByteBuffer[] segments = map(channel, FileChannel.MapMode.READ_WRITE, indexSize);
+                BufferTree.write(tree, segments, new BufferTree.HandleWriter<K, V>() {
+                    private int next = 0;
+
+                    @Override
+                    public long write(K key, V value) {
+                        return handles[next++];
+                    }
+                });
+                for (MappedByteBuffer segment : segments) {
+                    segment.force();
+                }
+            }
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Writes the keys and values of the entries after the index, in entry order, and returns their handles. Each entry
+     * is stored as the lengths of the encoded key and value followed by the encoded key and value. The handle of an
+     * entry is its position in the file.
+     */
+    private static <K, V> long[] writeData(FlatTree<K, V> tree, FileChannel channel, long position,
+                                           Codec<? super K> keyCodec, Codec<? super V> valueCodec) throws IOException {
+        long[] handles = new long[tree.size()];
+        channel.position(position);
+        // the channel is closed by the caller
+        OutputStream channelOut = Channels.newOutputStream(channel);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(channelOut));
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        DataOutputStream bufferOut = new DataOutputStream(buffer);
+        for (int i = 0; i < handles.length; i++) {
+            buffer.reset();
+            keyCodec.encode(tree.key(i), bufferOut);
+            int keyLength = buffer.size();
+            valueCodec.encode(tree.value(i), bufferOut);
+            handles[i] = position;
+            out.writeInt(keyLength);
+            out.writeInt(buffer.size() - keyLength);
+            buffer.writeTo(out);
+            position += 8 + buffer.size();
+        }
+        out.flush();
+        return handles;
+    }
+
+    /**
+     * Opens an index file of a map with {@link Box} keys.
+     * @param path path of the index file
+     * @param valueCodec codec of values
+     * @param <V> the type of mapped values
+     * @return a query-only map reading from the index file
+     * @throws IOException if the file could not be opened or is not an index file
+     */
+    public static <V> FrozenRTreeMap<Box, V> open(Path path, Codec<V> valueCodec) throws IOException {
+        return open(path, Codecs.box(), valueCodec, Function.identity());
+    }
+
+    /**
+     * Opens an index file. The file is mapped into memory and stays mapped for as long as the returned map is
+     * reachable. The key-box mapper must be the one of the map the file was written from.
+     * @param path path of the index file
+     * @param keyCodec codec of keys
+     * @param valueCodec codec of values
+     * @param keyBoxMapper key-box mapper
+     * @param <K> the type of keys maintained by the map
+     * @param <V> the type of mapped values
+     * @return a query-only map reading from the index file
+     * @throws IOException if the file could not be opened or is not an index file
+     */
+    public static <K, V> FrozenRTreeMap<K, V> open(Path path, Codec<K> keyCodec, Codec<V> valueCodec,
+                                                   Function<? super K, Box> keyBoxMapper) throws IOException {
+        MappedByteBuffer[] segments;
+        long size;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            size = channel.size();
+            if (size < BufferTree.HEADER_SIZE) {
+                throw new IOException("Not an R-tree index: " + path);
+            }
+            segments = map(channel, FileChannel.MapMode.READ_ONLY, size);
+        }
+        try {
+            if (BufferTree.isEmpty(segments)) {
+                return new FrozenRTreeMap<>(null, keyBoxMapper);
+            }
+            BufferTree<K, V> tree = new BufferTree<>(segments, new MappedHandles<>(segments, keyCodec, valueCodec));
+            checkData(tree, segments, size);
+            return new FrozenRTreeMap<>(tree, keyBoxMapper);
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e.getMessage() + ": " + path, e);
+        }
+    }
+
+    /**
+     * Checks that the data of the first entry starts right after the records and that the data of the last entry ends
+     * at the end of the file, which is where {@link #write} puts them. This rejects truncated files and files whose
+     * records and data do not line up without reading every entry.
+     */
+    private static void checkData(BufferTree<?, ?> tree, ByteBuffer[] segments, long size) {
+        long dataStart = tree.recordsSize();
+        Preconditions.checkArgument(tree.handle(0) == dataStart, "Corrupt entry data");
+        long last = tree.handle(tree.size() - 1);
+        Preconditions.checkArgument(last >= dataStart && last <= size - 8, "Corrupt entry data");
+        long lengths = BufferTree.getLong(segments, last);
+        int keyLength = (int) (lengths >>> 32), valueLength = (int) lengths;
+        Preconditions.checkArgument(keyLength >= 0 && valueLength >= 0 && last + 8 + keyLength + valueLength == size,
+            "Corrupt entry data");
+    }
+
+    private static MappedByteBuffer[] map(FileChannel channel, FileChannel.MapMode mode, long size)
+        throws IOException {
+        MappedByteBuffer[] segments = new MappedByteBuffer[(int) ((size + BufferTree.SEGMENT_SIZE - 1)
+            >> BufferTree.SEGMENT_SHIFT)];
+        for (int i = 0; i < segments.length; i++) {
+            long position = (long) i << BufferTree.SEGMENT_SHIFT;
+            segments[i] = channel.map(mode, position, Math.min(BufferTree.SEGMENT_SIZE, size - position));
+        }
+        return segments;
+    }
+
+    private static final class MappedHandles<K, V> implements BufferTree.HandleReader<K, V> {
+        private final ByteBuffer[] segments;
+        private final Codec<K> keyCodec;
+        private final Codec<V> valueCodec;
+
+        MappedHandles(ByteBuffer[] segments, Codec<K> keyCodec, Codec<V> valueCodec) {
+            this.segments = segments;
+            this.keyCodec = keyCodec;
+            this.valueCodec = valueCodec;
+        }
+
+        private <T> T decode(Codec<T> codec, long position, int length) {
+            try {
+                return codec.decode(new ByteBufferInput(BufferTree.slice(segments, position, length)));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public K key(long handle) {
+            long lengths = BufferTree.getLong(segments, handle);
+            return decode(keyCodec, handle + 8, (int) (lengths >>> 32));
+        }
+
+        @Override
+        public V value(long handle) {
+            long lengths = BufferTree.getLong(segments, handle);
+            return decode(valueCodec, handle + 8 + (int) (lengths >>> 32), (int) lengths);
+        }
+    }
+}
@@ -5,88 +5,371 @@ import com.google.common.base.Preconditions;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
-import java.util.function.BiFunction;
-import java.util.function.Consumer;
+import java.util.Objects;
+import java.util.function.BiConsumer;
+import java.util.function.BiPredicate;
 import java.util.function.Predicate;
-import java.util.stream.Collectors;
 
+/**
+ * A leaf node storing its buckets as parallel arrays. A slot holding a single entry stores the key and value directly
+ * in {@link #keys} and {@link #values}. Only slots with a box shared by several keys use a {@link Bucket} in
+ * {@link #shared}. {@link Entry} objects are created on demand when they are asked for.
+ */
 final class Leaf<K, V> implements Node<K, V> {
 
-    private final List<Bucket<K, V>> buckets;
+    private final Box[] boxes;
+    private final PackedBoxes bucketBoxes;
+    private final Object[] keys;
+    private final Object[] values;
+    // null unless at least one slot holds several entries
+    private final Bucket<K, V>[] shared;
     private final Box box;
+    private final int size;
+    // the Hilbert value of the last bucket, computed when first asked for in a Hilbert-ordered tree
+    private Hilbert.Value hilbertValue;
 
-    static <K, V> Leaf<K, V> containing(List<Bucket<K, V>> buckets) {
-        return new Leaf<>(buckets, Util.mbb(buckets.stream().map(Bucket::getBox).collect(Collectors.toList())));
+    static <K, V> Leaf<K, V> containing(List<Bucket<K, V>> buckets, Configuration configuration) {
+        return new Leaf<>(buckets, null, configuration.isBoxCompressionEnabled());
     }
 
-    static <K, V> Leaf<K, V> containing(Bucket<K, V> bucket) {
-        return new Leaf<>(Collections.singletonList(bucket), bucket.getBox());
+    static <K, V> Leaf<K, V> containing(Bucket<K, V> bucket, Configuration configuration) {
+        return new Leaf<>(Collections.singletonList(bucket), bucket.getBox(), configuration.isBoxCompressionEnabled());
+    }
+
+    static <K, V> Leaf<K, V> containing(Box box, K key, V value, Configuration configuration) {
+        Box[] boxes = { box };
+        return new Leaf<>(boxes, PackedBoxes.pack(boxes, b -> b, box, configuration.isBoxCompressionEnabled()),
+            new Object[] { key }, new Object[] { value }, null, box, 1);
     }
 
     Leaf(List<Bucket<K, V>> buckets, Box box) {
+        this(buckets, box, false);
+    }
+
+    /**
+     * Constructs a leaf holding the buckets. If box is null, the minimum bounding box is computed.
+     */
+    @SuppressWarnings("unchecked")
+    private Leaf(List<Bucket<K, V>> buckets, Box box, boolean compressBoxes) {
         Preconditions.checkArgument(!buckets.isEmpty());
-        this.buckets = buckets;
+        int n = buckets.size();
+        Box[] boxes = new Box[n];
+        Object[] keys = new Object[n];
+        Object[] values = new Object[n];
+        Bucket<K, V>[] shared = null;
+        int size = 0;
+        for (int i = 0; i < n; i++) {
+            Bucket<K, V> bucket = buckets.get(i);
+            boxes[i] = bucket.getBox();
+            size += bucket.size();
+            if (bucket.size() == 1) {
+                Entry<K, V> entry = bucket.getEntries().get(0);
+                keys[i] = entry.getKey();
+                values[i] = entry.getValue();
+            } else {
+                if (shared == null) shared = new Bucket[n];
+                shared[i] = bucket;
+            }
+        }
+        if (box == null) box = Boxes.mbb(boxes, b -> b);
+        this.boxes = boxes;
+        this.bucketBoxes = PackedBoxes.pack(boxes, b -> b, box, compressBoxes);
+        this.keys = keys;
+        this.values = values;
+        this.shared = shared;
         this.box = box;
+        this.size = size;
     }
 
-    private List<Node<K, V>> makeLeaves(Groups<Bucket<K, V>> pair) {
-        List<Node<K, V>> list = new ArrayList<>();
-        list.add(containing(pair.getGroup1().getEntries()));
-        list.add(containing(pair.getGroup2().getEntries()));
-        return list;
+    private Leaf(Box[] boxes, PackedBoxes bucketBoxes, Object[] keys, Object[] values, Bucket<K, V>[] shared, Box box,
+                 int size) {
+        Preconditions.checkArgument(boxes.length != 0);
+        this.boxes = boxes;
+        this.bucketBoxes = bucketBoxes;
+        this.keys = keys;
+        this.values = values;
+        this.shared = shared;
+        this.box = box;
+        this.size = size;
     }
 
-    @Override
-    public List<Node<K, V>> put(Box box, Entry<K, V> entry, Configuration configuration) {
-        for (Bucket<K, V> bucket : buckets) {
-            if (bucket.getBox().equals(box)) {
-                return Collections.singletonList(containing(Util.replace(buckets, bucket, bucket.put(entry))));
+    private int indexOf(Box box) {
+        for (int i = bucketBoxes.indexOf(box, 0); i != -1; i = bucketBoxes.indexOf(box, i + 1)) {
+            if (bucketBoxes.isExact() || boxes[i].equals(box)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private boolean isShared(int index) {
+        return shared != null && shared[index] != null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private K key(int index) {
+        return (K) keys[index];
+    }
+
+    @SuppressWarnings("unchecked")
+    private V value(int index) {
+        return (V) values[index];
+    }
+
+    private Entry<K, V> entry(int index) {
+        return Entry.of(key(index), value(index));
+    }
+
+    private Bucket<K, V> bucket(int index) {
+        return isShared(index) ? shared[index] : Bucket.of(boxes[index], entry(index));
+    }
+
+    private int slotSize(int index) {
+        return isShared(index) ? shared[index].size() : 1;
+    }
+
+    /**
+     * Returns a copy of this leaf with the slot at the index holding the entries of the bucket. Boxes are shared with
+     * this leaf since they are unchanged.
+     */
+    @SuppressWarnings("unchecked")
+    private Leaf<K, V> withSlot(int index, Bucket<K, V> bucket) {
+        Object[] keys = this.keys.clone();
+        Object[] values = this.values.clone();
+        Bucket<K, V>[] shared = this.shared != null ? this.shared.clone() : null;
+        if (bucket.size() == 1) {
+            Entry<K, V> entry = bucket.getEntries().get(0);
+            keys[index] = entry.getKey();
+            values[index] = entry.getValue();
+            if (shared != null) shared[index] = null;
+        } else {
+            keys[index] = null;
+            values[index] = null;
+            if (shared == null) shared = new Bucket[keys.length];
+            shared[index] = bucket;
+        }
+        return new Leaf<>(boxes, bucketBoxes, keys, values, shared, box, size - slotSize(index) + bucket.size());
+    }
+
+    private Leaf<K, V> withValue(int index, V value) {
+        Object[] values = this.values.clone();
+        values[index] = value;
+        return new Leaf<>(boxes, bucketBoxes, keys, values, shared, box, size);
+    }
+
+    /**
+     * Returns a copy of this leaf with a slot added for the entry, or for the bucket if it is not null. The slot is
+     * appended, unless the tree is Hilbert-ordered, in which case it is inserted after the slots with a Hilbert value
+     * at most that of the box.
+     */
+    @SuppressWarnings("unchecked")
+    private Leaf<K, V> withAddedSlot(Box box, K key, V value, Bucket<K, V> bucket, Configuration configuration) {
+        int n = boxes.length;
+        Hilbert.Value hilbertValue = configuration.isHilbertOrdered() ? Hilbert.of(box) : null;
+        int at = hilbertValue != null ? hilbertPosition(hilbertValue) : n;
+        Box[] boxes = new Box[n + 1];
+        System.arraycopy(this.boxes, 0, boxes, 0, at);
+        System.arraycopy(this.boxes, at, boxes, at + 1, n - at);
+        boxes[at] = box;
+        Box mbb = Boxes.union(this.box, box);
+        Object[] keys = new Object[n + 1];
+        System.arraycopy(this.keys, 0, keys, 0, at);
+        System.arraycopy(this.keys, at, keys, at + 1, n - at);
+        Object[] values = new Object[n + 1];
+        System.arraycopy(this.values, 0, values, 0, at);
+        System.arraycopy(this.values, at, values, at + 1, n - at);
+        Bucket<K, V>[] shared = null;
+        if (this.shared != null || bucket != null) {
+            shared = new Bucket[n + 1];
+            if (this.shared != null) {
+                System.arraycopy(this.shared, 0, shared, 0, at);
+                System.arraycopy(this.shared, at, shared, at + 1, n - at);
             }
         }
-        Bucket<K, V> bucket = Bucket.of(box, entry);
-        final List<Bucket<K, V>> newBuckets = Util.add(buckets, bucket);
-        if (newBuckets.size() <= configuration.getMaxChildren()) {
-            return Collections.singletonList(containing(newBuckets));
+        if (bucket != null) {
+            shared[at] = bucket;
         } else {
-            Groups<Bucket<K, V>> pair = configuration.getSplitter().split(newBuckets, configuration.getMinChildren(), Bucket::getBox);
-            return makeLeaves(pair);
+            keys[at] = key;
+            values[at] = value;
+        }
+        PackedBoxes bucketBoxes = PackedBoxes.pack(boxes, b -> b, mbb, configuration.isBoxCompressionEnabled());
+        Leaf<K, V> leaf = new Leaf<>(boxes, bucketBoxes, keys, values, shared, mbb,
+            size + (bucket != null ? bucket.size() : 1));
+        if (hilbertValue != null) {
+            leaf.hilbertValue = at == n ? hilbertValue : this.hilbertValue;
+        }
+        return leaf;
+    }
+
+    /**
+     * Returns the index of the first slot with a Hilbert value greater than the value.
+     */
+    private int hilbertPosition(Hilbert.Value value) {
+        if (hilbertValue().compareTo(value) <= 0) {
+            return boxes.length;
+        }
+        int from = 0;
+        int to = boxes.length - 1;
+        while (from < to) {
+            int mid = (from + to) >>> 1;
+            if (Hilbert.of(boxes[mid]).compareTo(value) <= 0) {
+                from = mid + 1;
+            } else {
+                to = mid;
+            }
+        }
+        return from;
+    }
+
+    /**
+     * Returns a leaf with the slots at the indices. If box is null, the minimum bounding box is computed.
+     */
+    @SuppressWarnings("unchecked")
+    private Leaf<K, V> select(List<Integer> indices, Box box, Configuration configuration) {
+        int n = indices.size();
+        Box[] boxes = new Box[n];
+        Object[] keys = new Object[n];
+        Object[] values = new Object[n];
+        Bucket<K, V>[] shared = null;
+        int size = 0;
+        for (int i = 0; i < n; i++) {
+            int index = indices.get(i);
+            boxes[i] = this.boxes[index];
+            keys[i] = this.keys[index];
+            values[i] = this.values[index];
+            size += slotSize(index);
+            if (isShared(index)) {
+                if (shared == null) shared = new Bucket[n];
+                shared[i] = this.shared[index];
+            }
+        }
+        if (box == null) box = Boxes.mbb(boxes, b -> b);
+        PackedBoxes bucketBoxes = PackedBoxes.pack(boxes, b -> b, box, configuration.isBoxCompressionEnabled());
+        return new Leaf<>(boxes, bucketBoxes, keys, values, shared, box, size);
+    }
+
+    /**
+     * Returns a copy of this leaf without the slot at the index. The bounding box is only recomputed if the box of the
+     * slot touches it.
+     */
+    @SuppressWarnings("unchecked")
+    private Leaf<K, V> withoutSlot(int index, Configuration configuration) {
+        int n = boxes.length - 1;
+        Box[] boxes = new Box[n];
+        System.arraycopy(this.boxes, 0, boxes, 0, index);
+        System.arraycopy(this.boxes, index + 1, boxes, index, n - index);
+        Object[] keys = new Object[n];
+        System.arraycopy(this.keys, 0, keys, 0, index);
+        System.arraycopy(this.keys, index + 1, keys, index, n - index);
+        Object[] values = new Object[n];
+        System.arraycopy(this.values, 0, values, 0, index);
+        System.arraycopy(this.values, index + 1, values, index, n - index);
+        Bucket<K, V>[] shared = null;
+        if (this.shared != null) {
+            shared = new Bucket[n];
+            System.arraycopy(this.shared, 0, shared, 0, index);
+            System.arraycopy(this.shared, index + 1, shared, index, n - index);
+        }
+        Box mbb = Boxes.touchesFace(this.boxes[index], box) ? Boxes.mbb(boxes, b -> b) : box;
+        PackedBoxes bucketBoxes = PackedBoxes.pack(boxes, b -> b, mbb, configuration.isBoxCompressionEnabled());
+        return new Leaf<>(boxes, bucketBoxes, keys, values, shared, mbb, size - slotSize(index));
+    }
+
+    private List<Node<K, V>> splitIfNecessary(Leaf<K, V> leaf, Configuration configuration,
+                                              Reinsertion<K, V> reinsertion) {
+        if (leaf.boxes.length <= configuration.getMaxChildren() || configuration.isHilbertOrdered()) {
+            // an overflowing leaf of a Hilbert-ordered tree is split by its parent together with a sibling
+            return Collections.singletonList(leaf);
+        } else if (reinsertion != null && reinsertion.overflow(0)) {
+            int[] farthest = Reinsertion.farthest(leaf.boxes, b -> b, leaf.box, configuration.getReinsertCount());
+            boolean[] removed = new boolean[leaf.boxes.length];
+            for (int index : farthest) {
+                removed[index] = true;
+                reinsertion.add(leaf.bucket(index));
+            }
+            List<Integer> indices = new ArrayList<>(leaf.boxes.length - farthest.length);
+            for (int i = 0; i < leaf.boxes.length; i++) {
+                if (!removed[i]) indices.add(i);
+            }
+            return Collections.singletonList(leaf.select(indices, null, configuration));
+        } else {
+            List<Integer> indices = new ArrayList<>(leaf.boxes.length);
+            for (int i = 0; i < leaf.boxes.length; i++) {
+                indices.add(i);
+            }
+            Groups<Integer> pair = configuration.getSplitter().split(indices, configuration.getMinChildren(),
+                index -> leaf.boxes[index], box);
+            List<Node<K, V>> list = new ArrayList<>(2);
+            list.add(leaf.select(pair.getGroup1().getEntries(), pair.getGroup1().getBox(), configuration));
+            list.add(leaf.select(pair.getGroup2().getEntries(), pair.getGroup2().getBox(), configuration));
+            return list;
         }
     }
 
     @Override
-    public List<Node<K, V>> putBucket(Bucket<K, V> bucket, Configuration configuration) {
-        for (Bucket<K, V> existingBucket : buckets) {
-            if (existingBucket.getBox().equals(bucket.getBox())) {
-                return Collections.singletonList(containing(Util.replace(buckets, existingBucket, bucket)));
+    public List<Node<K, V>> put(Box box, K key, V value, Configuration configuration,
+                                Reinsertion<K, V> reinsertion) {
+        return put(indexOf(box), box, key, value, configuration, reinsertion);
+    }
+
+    private List<Node<K, V>> put(int index, Box box, K key, V value, Configuration configuration,
+                                 Reinsertion<K, V> reinsertion) {
+        if (index != -1) {
+            if (isShared(index)) {
+                return Collections.singletonList(withSlot(index, shared[index].put(Entry.of(key, value))));
+            } else if (keys[index].equals(key)) {
+                return Collections.singletonList(withValue(index, value));
+            } else {
+                return Collections.singletonList(withSlot(index, Bucket.of(box, entry(index)).put(Entry.of(key, value))));
             }
         }
-        final List<Bucket<K, V>> newBuckets = Util.add(buckets, bucket);
-        if (newBuckets.size() <= configuration.getMaxChildren()) {
-            return Collections.singletonList(containing(newBuckets));
+        return splitIfNecessary(withAddedSlot(box, key, value, null, configuration), configuration, reinsertion);
+    }
+
+    @Override
+    public List<Node<K, V>> putBucket(Bucket<K, V> bucket, Configuration configuration,
+                                      Reinsertion<K, V> reinsertion) {
+        int index = indexOf(bucket.getBox());
+        if (index != -1) {
+            return Collections.singletonList(withSlot(index, bucket));
+        }
+        if (bucket.size() == 1) {
+            Entry<K, V> entry = bucket.getEntries().get(0);
+            Leaf<K, V> leaf = withAddedSlot(bucket.getBox(), entry.getKey(), entry.getValue(), null, configuration);
+            return splitIfNecessary(leaf, configuration, reinsertion);
         } else {
-            Groups<Bucket<K, V>> pair = configuration.getSplitter().split(newBuckets, configuration.getMinChildren(), Bucket::getBox);
-            return makeLeaves(pair);
+            return splitIfNecessary(withAddedSlot(bucket.getBox(), null, null, bucket, configuration), configuration,
+                reinsertion);
         }
     }
 
     @Override
-    public NodeAndEntries<K, V> remove(Box box, Entry<K, V> entry, Configuration configuration) {
-        for (Bucket<K, V> bucket : buckets) {
-            if (bucket.getBox().equals(box)) {
-                Bucket<K, V> newBucket = bucket.remove(entry);
-                List<Bucket<K, V>> newBuckets;
-                if (newBucket == null) {
-                    newBuckets = Util.remove(buckets, bucket);
-                } else {
-                    newBuckets = Util.replace(buckets, bucket, newBucket);
-                }
+    public List<Node<K, V>> putNode(Node<K, V> node, int height, Configuration configuration,
+                                    Reinsertion<K, V> reinsertion) {
+        throw new IllegalStateException("Cannot put a node into a leaf");
+    }
 
-                if (newBuckets.size() >= configuration.getMinChildren()) {
-                    Leaf<K, V> node = newBuckets.isEmpty() ? null : containing(newBuckets);
-                    return new NodeAndEntries<>(node, Collections.emptyList(), 1);
-                } else {
-                    return new NodeAndEntries<>(null, newBuckets, 1);
+    private NodeAndEntries<K, V> removeSlot(int index, Bucket<K, V> newBucket, Configuration configuration) {
+        if (newBucket != null) {
+            return new NodeAndEntries<>(withSlot(index, newBucket), Collections.emptyList(), 1);
+        } else {
+            // a leaf which underflows is merged with a sibling, or reinserted, by its parent
+            Leaf<K, V> node = boxes.length == 1 ? null : withoutSlot(index, configuration);
+            return new NodeAndEntries<>(node, Collections.emptyList(), 1);
+        }
+    }
+
+    @Override
+    public NodeAndEntries<K, V> remove(Box box, Entry<K, V> entry, Configuration configuration) {
+        int index = indexOf(box);
+        if (index != -1) {
+            if (isShared(index)) {
+                Bucket<K, V> bucket = shared[index];
+                if (bucket.contains(entry)) {
+                    return removeSlot(index, bucket.remove(entry), configuration);
                 }
+            } else if (keys[index].equals(entry.getKey()) && Objects.equals(values[index], entry.getValue())) {
+                return removeSlot(index, null, configuration);
             }
         }
         return new NodeAndEntries<>(this, Collections.emptyList(), 0);
@@ -94,54 +377,109 @@ final class Leaf<K, V> implements Node<K, V> {
 
     @Override
     public NodeAndEntries<K, V> remove(Box box, K key, Configuration configuration) {
-        for (Bucket<K, V> bucket : buckets) {
-            if (bucket.getBox().equals(box)) {
-                Bucket<K, V> newBucket = bucket.remove(key);
-                List<Bucket<K, V>> newBuckets;
-                if (newBucket == null) {
-                    newBuckets = Util.remove(buckets, bucket);
-                } else {
-                    newBuckets = Util.replace(buckets, bucket, newBucket);
-                }
-
-                if (newBuckets.size() >= configuration.getMinChildren()) {
-                    Leaf<K, V> node = newBuckets.isEmpty() ? null : containing(newBuckets);
-                    return new NodeAndEntries<>(node, Collections.emptyList(), 1);
-                } else {
-                    return new NodeAndEntries<>(null, newBuckets, 1);
+        int index = indexOf(box);
+        if (index != -1) {
+            if (isShared(index)) {
+                Bucket<K, V> bucket = shared[index];
+                if (bucket.get(key) != null) {
+                    return removeSlot(index, bucket.remove(key), configuration);
                 }
+            } else if (keys[index].equals(key)) {
+                return removeSlot(index, null, configuration);
             }
         }
         return new NodeAndEntries<>(this, Collections.emptyList(), 0);
     }
 
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<Node<K, V>> compute(Box box, K key, Computation<K, V> computation, Configuration configuration,
+                                    Reinsertion<K, V> reinsertion) {
+        int index = indexOf(box);
+        V current = null;
+        if (index != -1) {
+            if (isShared(index)) {
+                Entry<K, V> entry = shared[index].get(key);
+                current = entry != null ? entry.getValue() : null;
+            } else if (keys[index].equals(key)) {
+                current = (V) values[index];
+            }
+        }
+        V value = computation.apply(key, current);
+        // an absent key which is not given a value is unchanged too
+        if (value == current) {
+            return Collections.singletonList(this);
+        }
+        if (value != null) {
+            return put(index, box, key, value, configuration, reinsertion);
+        }
+        computation.remove();
+        Node<K, V> node = removeSlot(index, isShared(index) ? shared[index].remove(key) : null, configuration)
+            .getNode();
+        return node != null ? Collections.singletonList(node) : Collections.emptyList();
+    }
+
+    @Override
+    public Leaf<K, V> move(Box oldBox, K oldKey, Box newBox, K newKey, V value, Box bound,
+                           Configuration configuration) {
+        if (configuration.isHilbertOrdered()) {
+            // the slot would have to move to keep the Hilbert order
+            return null;
+        }
+        int index = indexOf(oldBox);
+        if (index == -1 || isShared(index) || !keys[index].equals(oldKey)) {
+            return null;
+        }
+        Box[] boxes = this.boxes.clone();
+        boxes[index] = newBox;
+        Box mbb = Boxes.touchesFace(oldBox, box) ? Boxes.mbb(boxes, b -> b) : Boxes.union(box, newBox);
+        if (!Boxes.withinMargin(mbb, box, configuration.getMoveMargin()) || bound != null && !bound.contains(mbb)) {
+            return null;
+        }
+        Object[] keys = this.keys.clone();
+        keys[index] = newKey;
+        Object[] values = this.values.clone();
+        values[index] = value;
+        PackedBoxes bucketBoxes = PackedBoxes.pack(boxes, b -> b, mbb, configuration.isBoxCompressionEnabled());
+        return new Leaf<>(boxes, bucketBoxes, keys, values, shared, mbb, size);
+    }
+
     @Override
     public Entry<K, V> get(Box box, K key) {
-        for (Bucket<K, V> bucket : buckets) {
-            if (bucket.getBox().equals(box)) {
-                return bucket.get(key);
+        int index = indexOf(box);
+        if (index != -1) {
+            if (isShared(index)) {
+                return shared[index].get(key);
+            } else if (keys[index].equals(key)) {
+                return entry(index);
             }
         }
         return null;
     }
 
     @Override
-    public void forEach(Predicate<? super Box> boxPredicate, Consumer<? super Entry<K, V>> action) {
+    public void forEach(Predicate<? super Box> boxPredicate, BiConsumer<? super K, ? super V> action) {
         if (boxPredicate.test(box)) {
-            for (final Bucket<K, V> bucket : buckets) {
-                if (boxPredicate.test(bucket.getBox())) {
-                    bucket.forEach(action);
+            for (int i = 0; i < boxes.length; i++) {
+                if (boxPredicate.test(boxes[i])) {
+                    if (isShared(i)) {
+                        shared[i].forEach(action);
+                    } else {
+                        action.accept(key(i), value(i));
+                    }
                 }
             }
         }
     }
 
     @Override
-    public boolean anyMatch(Predicate<? super Box> boxPredicate, Predicate<? super Entry<K, V>> entryPredicate) {
+    public boolean anyMatch(Predicate<? super Box> boxPredicate, BiPredicate<? super K, ? super V> entryPredicate) {
         if (boxPredicate.test(box)) {
-            for (final Bucket<K, V> bucket : buckets) {
-                if (boxPredicate.test(bucket.getBox()) && bucket.anyMatch(entryPredicate)) {
-                    return true;
+            for (int i = 0; i < boxes.length; i++) {
+                if (boxPredicate.test(boxes[i])) {
+                    if (isShared(i) ? shared[i].anyMatch(entryPredicate) : entryPredicate.test(key(i), value(i))) {
+                        return true;
+                    }
                 }
             }
         }
@@ -149,25 +487,27 @@ final class Leaf<K, V> implements Node<K, V> {
     }
 
     @Override
-    public boolean allMatch(Predicate<? super Box> boxPredicate, Predicate<? super Entry<K, V>> entryPredicate) {
+    public boolean allMatch(Predicate<? super Box> boxPredicate, BiPredicate<? super K, ? super V> entryPredicate) {
         if (boxPredicate.test(box)) {
-            for (final Bucket<K, V> bucket : buckets) {
-                if (!boxPredicate.test(bucket.getBox()) && !bucket.allMatch(entryPredicate)) {
-                    return false;
+            for (int i = 0; i < boxes.length; i++) {
+                if (boxPredicate.test(boxes[i])) {
+                    if (!(isShared(i) ? shared[i].allMatch(entryPredicate) : entryPredicate.test(key(i), value(i)))) {
+                        return false;
+                    }
                 }
             }
-            return true;
         }
-        return false;
+        return true;
     }
 
     @Override
-    public <T> T reduce(Predicate<? super Box> boxPredicate, T identity, BiFunction<T, Entry<K, V>, T> operator) {
+    public <T> T reduce(Predicate<? super Box> boxPredicate, T identity,
+                        Accumulator<T, ? super K, ? super V> accumulator) {
         if (boxPredicate.test(box)) {
             T acc = identity;
-            for (final Bucket<K, V> bucket : buckets) {
-                if (boxPredicate.test(bucket.getBox())) {
-                    acc = bucket.reduce(acc, operator);
+            for (int i = 0; i < boxes.length; i++) {
+                if (boxPredicate.test(boxes[i])) {
+                    acc = isShared(i) ? shared[i].reduce(acc, accumulator) : accumulator.apply(acc, key(i), value(i));
                 }
             }
             return acc;
@@ -176,12 +516,16 @@ final class Leaf<K, V> implements Node<K, V> {
     }
 
     @Override
-    public int count(Predicate<? super Box> boxPredicate, Predicate<? super Entry<K, V>> entryPredicate) {
+    public int count(Predicate<? super Box> boxPredicate, BiPredicate<? super K, ? super V> entryPredicate) {
         if (boxPredicate.test(box)) {
             int count = 0;
-            for (final Bucket<K, V> bucket : buckets) {
-                if (boxPredicate.test(bucket.getBox())) {
-                    count += bucket.count(entryPredicate);
+            for (int i = 0; i < boxes.length; i++) {
+                if (boxPredicate.test(boxes[i])) {
+                    if (isShared(i)) {
+                        count += shared[i].count(entryPredicate);
+                    } else if (entryPredicate.test(key(i), value(i))) {
+                        count++;
+                    }
                 }
             }
             return count;
@@ -192,9 +536,12 @@ final class Leaf<K, V> implements Node<K, V> {
     @Override
     public boolean contains(Box box, Entry<K, V> entry) {
         if (this.box.contains(box)) {
-            for (final Bucket<K, V> bucket : buckets) {
-                if (bucket.getBox().equals(box)) {
-                    return bucket.contains(entry);
+            int index = indexOf(box);
+            if (index != -1) {
+                if (isShared(index)) {
+                    return shared[index].contains(entry);
+                } else {
+                    return keys[index].equals(entry.getKey()) && Objects.equals(values[index], entry.getValue());
                 }
             }
         }
@@ -203,12 +550,7 @@ final class Leaf<K, V> implements Node<K, V> {
 
     @Override
     public boolean containsBucket(Box box) {
-        if (this.box.contains(box)) {
-            for (final Bucket<K, V> bucket : buckets) {
-                if (bucket.getBox().equals(box)) return true;
-            }
-        }
-        return false;
+        return this.box.contains(box) && indexOf(box) != -1;
     }
 
     @Override
@@ -223,10 +565,6 @@ final class Leaf<K, V> implements Node<K, V> {
 
     @Override
     public int size() {
-        int size = 0;
-        for (final Bucket<K, V> bucket : buckets) {
-            size += bucket.size();
-        }
         return size;
     }
 
@@ -235,6 +573,40 @@ final class Leaf<K, V> implements Node<K, V> {
         return true;
     }
 
+    @Override
+    public int fanout() {
+        return boxes.length;
+    }
+
+    @Override
+    public Hilbert.Value hilbertValue() {
+        Hilbert.Value value = hilbertValue;
+        if (value == null) {
+            value = Hilbert.of(boxes[boxes.length - 1]);
+            hilbertValue = value;
+        }
+        return value;
+    }
+
+    @Override
+    public double worstScore(Configuration configuration) {
+        return 0;
+    }
+
+    @Override
+    public List<Node<K, V>> getChildren() {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public List<Bucket<K, V>> getBuckets() {
+        List<Bucket<K, V>> buckets = new ArrayList<>(boxes.length);
+        for (int i = 0; i < boxes.length; i++) {
+            buckets.add(bucket(i));
+        }
+        return buckets;
+    }
+
     @Override
     public String asString(String margin) {
         StringBuilder s = new StringBuilder();
@@ -242,7 +614,7 @@ final class Leaf<K, V> implements Node<K, V> {
         s.append("mbb=");
         s.append(getBox());
         s.append('\n');
-        for (Bucket<K, V> bucket : buckets) {
+        for (Bucket<K, V> bucket : getBuckets()) {
             s.append(margin).append("  ").append(bucket.toString());
         }
         return s.toString();
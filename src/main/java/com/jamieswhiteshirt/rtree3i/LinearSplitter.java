@@ -0,0 +1,119 @@
+package com.jamieswhiteshirt.rtree3i;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * An O(n) time splitter after Guttman's linear split. It produces somewhat worse trees than {@link QuadraticSplitter}
+ * and {@link RStarSplitter}, which makes queries slower, but it splits much faster with large numbers of children.
+ */
+public final class LinearSplitter implements Splitter {
+
+    @Override
+    public <T> Groups<T> split(List<T> items, int minSize, Function<T, Box> boxMapper) {
+        Preconditions.checkArgument(items.size() >= 2);
+        final int n = items.size();
+        final Box[] boxes = new Box[n];
+        for (int i = 0; i < n; i++) {
+            boxes[i] = boxMapper.apply(items.get(i));
+        }
+
+        // start the two groups with the pair of items which are the furthest
+        // apart along any axis
+        final int[] seeds = pickSeeds(boxes);
+        final List<T> group1 = new ArrayList<>(n - 1);
+        final List<T> group2 = new ArrayList<>(n - 1);
+        group1.add(items.get(seeds[0]));
+        group2.add(items.get(seeds[1]));
+        Box mbb1 = boxes[seeds[0]];
+        Box mbb2 = boxes[seeds[1]];
+
+        // assign the remaining items in order to the group which needs the
+        // least volume increase to contain them, unless a group needs all
+        // remaining items to reach the minimum size
+        final int minGroupSize = Math.min(minSize, n / 2);
+        int remaining = n - 2;
+        for (int i = 0; i < n; i++) {
+            if (i == seeds[0] || i == seeds[1]) continue;
+            final Box box = boxes[i];
+            final boolean toGroup1;
+            if (group1.size() + remaining <= minGroupSize) {
+                toGroup1 = true;
+            } else if (group2.size() + remaining <= minGroupSize) {
+                toGroup1 = false;
+            } else {
+                long increase1 = Geometry.volumeIncrease(mbb1, box);
+                long increase2 = Geometry.volumeIncrease(mbb2, box);
+                if (increase1 != increase2) {
+                    toGroup1 = increase1 < increase2;
+                } else {
+                    long volume1 = Geometry.volume(mbb1);
+                    long volume2 = Geometry.volume(mbb2);
+                    toGroup1 = volume1 != volume2 ? volume1 < volume2 : group1.size() <= group2.size();
+                }
+            }
+            if (toGroup1) {
+                group1.add(items.get(i));
+                mbb1 = Boxes.union(mbb1, box);
+            } else {
+                group2.add(items.get(i));
+                mbb2 = Boxes.union(mbb2, box);
+            }
+            remaining--;
+        }
+        return new Groups<>(new Group<>(group1, mbb1), new Group<>(group2, mbb2));
+    }
+
+    /**
+     * Returns the indices of the two boxes with the greatest separation along any axis, normalized by the extent of all
+     * boxes along that axis. The separation along an axis is the distance between the box with the highest low side and
+     * the box with the lowest high side.
+     */
+    static int[] pickSeeds(Box[] boxes) {
+        int[] seeds = { 0, 1 };
+        double bestSeparation = Double.NEGATIVE_INFINITY;
+        for (int axis = 0; axis < 3; axis++) {
+            int highestLow = 0;
+            int minLow = Integer.MAX_VALUE;
+            int maxHigh = Integer.MIN_VALUE;
+            for (int i = 0; i < boxes.length; i++) {
+                int low = low(boxes[i], axis);
+                int high = high(boxes[i], axis);
+                if (low > low(boxes[highestLow], axis)) highestLow = i;
+                if (low < minLow) minLow = low;
+                if (high > maxHigh) maxHigh = high;
+            }
+            int lowestHigh = highestLow == 0 ? 1 : 0;
+            for (int i = 0; i < boxes.length; i++) {
+                if (i != highestLow && high(boxes[i], axis) < high(boxes[lowestHigh], axis)) lowestHigh = i;
+            }
+            double extent = Math.max(1L, (long) maxHigh - minLow);
+            double separation = ((long) low(boxes[highestLow], axis) - high(boxes[lowestHigh], axis)) / extent;
+            if (separation > bestSeparation) {
+                bestSeparation = separation;
+                seeds[0] = lowestHigh;
+                seeds[1] = highestLow;
+            }
+        }
+        return seeds;
+    }
+
+    private static int low(Box box, int axis) {
+        switch (axis) {
+            case 0: return box.x1();
+            case 1: return box.y1();
+            default: return box.z1();
+        }
+    }
+
+    private static int high(Box box, int axis) {
+        switch (axis) {
+            case 0: return box.x2();
+            case 1: return box.y2();
+            default: return box.z2();
+        }
+    }
+}
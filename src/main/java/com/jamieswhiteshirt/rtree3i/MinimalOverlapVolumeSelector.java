@@ -1,26 +1,97 @@
 package com.jamieswhiteshirt.rtree3i;
 
-import static com.jamieswhiteshirt.rtree3i.Comparators.overlapVolumeComparator;
-import static com.jamieswhiteshirt.rtree3i.Comparators.volumeComparator;
-import static com.jamieswhiteshirt.rtree3i.Comparators.volumeIncreaseComparator;
-
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.List;
-import java.util.stream.Collectors;
+
+import com.google.common.base.Preconditions;
 
 /**
  * A selector that selects the minimum node by {@link Comparators#overlapVolumeComparator},
- * {@link Comparators#volumeComparator(Box)} then {@link Comparators#volumeIncreaseComparator(Box)}.
+ * {@link Comparators#volumeIncreaseComparator(Box)} then {@link Comparators#volumeComparator(Box)}.
+ * <p>
+ * Computing the overlap of a node with all other nodes is quadratic in the number of nodes. The selector can be limited
+ * to the nodes with the least volume increase, which are the nodes likely to be selected anyway, so only their overlap
+ * is computed.
  */
 public final class MinimalOverlapVolumeSelector implements Selector {
+    private final int candidates;
+
+    /**
+     * Constructs a selector which computes the overlap of all nodes.
+     */
+    public MinimalOverlapVolumeSelector() {
+        this(Integer.MAX_VALUE);
+    }
+
+    /**
+     * Constructs a selector which only computes the overlap of the candidates nodes with the least volume increase, then
+     * the least volume.
+     * @param candidates the number of nodes to compute the overlap of, at least 1
+     */
+    public MinimalOverlapVolumeSelector(int candidates) {
+        Preconditions.checkArgument(candidates >= 1);
+        this.candidates = candidates;
+    }
 
     @Override
     public <K, V> Node<K, V> select(Box box, List<Node<K, V>> nodes) {
-        List<Box> boxes = nodes.stream().map(Node::getBox).collect(Collectors.toList());
-        Comparator<Box> boxComparator = overlapVolumeComparator(box, boxes).thenComparing(volumeIncreaseComparator(box))
-                .thenComparing(volumeComparator(box));
-        return Collections.min(nodes, Comparator.comparing(Node::getBox, boxComparator));
+        if (nodes.size() <= candidates) {
+            return select(box, nodes, null, nodes.size());
+        }
+        // the candidate indices ordered by volume increase then volume
+        final int[] top = new int[candidates];
+        final long[] topIncrease = new long[candidates];
+        final long[] topVolume = new long[candidates];
+        int count = 0;
+        for (int i = 0; i < nodes.size(); i++) {
+            Box nodeBox = nodes.get(i).getBox();
+            long volume = Geometry.unionVolume(nodeBox, box);
+            long increase = Geometry.volumeIncrease(nodeBox, box);
+            int position = count;
+            while (position > 0 && (increase < topIncrease[position - 1]
+                || increase == topIncrease[position - 1] && volume < topVolume[position - 1])) {
+                position--;
+            }
+            if (position == candidates) continue;
+            int end = Math.min(count, candidates - 1);
+            System.arraycopy(top, position, top, position + 1, end - position);
+            System.arraycopy(topIncrease, position, topIncrease, position + 1, end - position);
+            System.arraycopy(topVolume, position, topVolume, position + 1, end - position);
+            top[position] = i;
+            topIncrease[position] = increase;
+            topVolume[position] = volume;
+            if (count < candidates) count++;
+        }
+        return select(box, nodes, top, count);
+    }
+
+    /**
+     * Selects the minimum node of the nodes at the indices, or of the first count nodes if indices is null. The
+     * overlap is computed against all nodes.
+     */
+    private static <K, V> Node<K, V> select(Box box, List<Node<K, V>> nodes, int[] indices, int count) {
+        Node<K, V> best = null;
+        long bestOverlap = Long.MAX_VALUE;
+        long bestIncrease = Long.MAX_VALUE;
+        long bestVolume = Long.MAX_VALUE;
+        for (int c = 0; c < count; c++) {
+            Node<K, V> node = nodes.get(indices != null ? indices[c] : c);
+            Box nodeBox = node.getBox();
+            long overlap = 0;
+            for (int j = 0; j < nodes.size(); j++) {
+                overlap = Geometry.add(overlap, Geometry.overlapVolume(nodeBox, box, nodes.get(j).getBox()));
+            }
+            if (best != null && overlap > bestOverlap) continue;
+            long volume = Geometry.unionVolume(nodeBox, box);
+            long increase = Geometry.volumeIncrease(nodeBox, box);
+            if (best == null || overlap < bestOverlap || increase < bestIncrease
+                || increase == bestIncrease && volume < bestVolume) {
+                best = node;
+                bestOverlap = overlap;
+                bestIncrease = increase;
+                bestVolume = volume;
+            }
+        }
+        return best;
     }
 
 }
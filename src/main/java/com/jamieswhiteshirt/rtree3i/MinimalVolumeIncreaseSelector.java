@@ -1,7 +1,5 @@
 package com.jamieswhiteshirt.rtree3i;
 
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.List;
 
 /**
@@ -11,7 +9,20 @@ public final class MinimalVolumeIncreaseSelector implements Selector {
 
     @Override
     public <K, V> Node<K, V> select(Box box, List<Node<K, V>> nodes) {
-        Comparator<Box> boxComparator = Comparators.volumeIncreaseComparator(box).thenComparing(Comparators.volumeComparator(box));
-        return Collections.min(nodes, Comparator.comparing(Node::getBox, boxComparator));
+        Node<K, V> best = null;
+        long bestIncrease = Long.MAX_VALUE;
+        long bestVolume = Long.MAX_VALUE;
+        for (int i = 0; i < nodes.size(); i++) {
+            Node<K, V> node = nodes.get(i);
+            Box nodeBox = node.getBox();
+            long volume = Geometry.unionVolume(nodeBox, box);
+            long increase = Geometry.volumeIncrease(nodeBox, box);
+            if (best == null || increase < bestIncrease || increase == bestIncrease && volume < bestVolume) {
+                best = node;
+                bestIncrease = increase;
+                bestVolume = volume;
+            }
+        }
+        return best;
     }
 }
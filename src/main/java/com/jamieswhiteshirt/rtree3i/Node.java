@@ -1,31 +1,43 @@
 package com.jamieswhiteshirt.rtree3i;
 
 import java.util.List;
-import java.util.function.BiFunction;
-import java.util.function.Consumer;
-import java.util.function.Predicate;
 
-interface Node<K, V> {
+interface Node<K, V> extends Searchable<K, V> {
 
-    List<Node<K, V>> put(Box box, Entry<K, V> entry, Configuration configuration);
+    /**
+     * Puts the entry into this node and returns the node, or the nodes it was split into. If reinsertion is not null,
+     * the first overflow at each level removes children for reinsertion instead of splitting.
+     */
+    List<Node<K, V>> put(Box box, K key, V value, Configuration configuration, Reinsertion<K, V> reinsertion);
 
-    List<Node<K, V>> putBucket(Bucket<K, V> bucket, Configuration configuration);
+    List<Node<K, V>> putBucket(Bucket<K, V> bucket, Configuration configuration, Reinsertion<K, V> reinsertion);
 
-    NodeAndEntries<K, V> remove(Box box, Entry<K, V> entry, Configuration configuration);
-
-    NodeAndEntries<K, V> remove(Box box, K key, Configuration configuration);
-
-    Entry<K, V> get(Box box, K key);
+    /**
+     * Puts the node into the descendant branch the height number of levels below this branch.
+     */
+    List<Node<K, V>> putNode(Node<K, V> node, int height, Configuration configuration, Reinsertion<K, V> reinsertion);
 
-    void forEach(Predicate<? super Box> boxPredicate, Consumer<? super Entry<K, V>> action);
+    NodeAndEntries<K, V> remove(Box box, Entry<K, V> entry, Configuration configuration);
 
-    boolean anyMatch(Predicate<? super Box> boxPredicate, Predicate<? super Entry<K, V>> entryPredicate);
+    /**
+     * Moves the entry with the old key, which must be the only entry of its bucket, to a new bucket with the new box
+     * in the same leaf, and returns the node. The leaf may grow by at most the move margin of the configuration on each
+     * side, and its box must stay within the bound unless the bound is null. Returns null if the entry is not found or
+     * cannot be moved in place. Unless it is the old box, the new box must not be the box of any bucket.
+     */
+    Node<K, V> move(Box oldBox, K oldKey, Box newBox, K newKey, V value, Box bound, Configuration configuration);
 
-    boolean allMatch(Predicate<? super Box> boxPredicate, Predicate<? super Entry<K, V>> entryPredicate);
+    NodeAndEntries<K, V> remove(Box box, K key, Configuration configuration);
 
-    <T> T reduce(Predicate<? super Box> boxPredicate, T identity, BiFunction<T, Entry<K, V>, T> operator);
+    /**
+     * Computes the new value of the key with the computation, descending along the path a put of the box would take,
+     * and returns the nodes replacing this node. This node alone is returned if nothing changed. A put may split this
+     * node, and a removal may leave no node, in which case buckets to put again are added to the computation.
+     */
+    List<Node<K, V>> compute(Box box, K key, Computation<K, V> computation, Configuration configuration,
+                             Reinsertion<K, V> reinsertion);
 
-    int count(Predicate<? super Box> boxPredicate, Predicate<? super Entry<K, V>> entryPredicate);
+    Entry<K, V> get(Box box, K key);
 
     boolean contains(Box box, Entry<K, V> entry);
 
@@ -39,6 +51,33 @@ interface Node<K, V> {
 
     boolean isLeaf();
 
+    /**
+     * Returns the number of children of this node, or the number of buckets if this node is a leaf.
+     */
+    int fanout();
+
+    /**
+     * Returns the largest {@link Hilbert} value of the buckets in this node, which is that of its last bucket. Only
+     * meaningful in a Hilbert-ordered tree.
+     */
+    Hilbert.Value hilbertValue();
+
+    /**
+     * Returns the highest {@link Repacker#score} of the branches in the subtree of this node, or 0 if this node is a
+     * leaf. Only the nodes on paths copied by an update compute it again.
+     */
+    double worstScore(Configuration configuration);
+
+    /**
+     * Returns the children of this node, or an empty list if this node is a leaf.
+     */
+    List<Node<K, V>> getChildren();
+
+    /**
+     * Returns the buckets of this node, or an empty list if this node is not a leaf.
+     */
+    List<Bucket<K, V>> getBuckets();
+
     String asString(String margin);
 
 }
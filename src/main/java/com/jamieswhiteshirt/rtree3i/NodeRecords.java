@@ -0,0 +1,128 @@
+package com.jamieswhiteshirt.rtree3i;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The encoding of nodes shared by {@link RTreeMapIO}, {@link PageFile} and {@link SnapshotStore}. A node starts with a
+ * varint of its number of children shifted left by one, with the lowest bit set for leaves. A leaf is followed by the
+ * box, number of entries and encoded entries of each bucket. What follows a branch is up to the format, as each of
+ * them refers to children differently.
+ * <p>
+ * A box with a known parent is written as unsigned varints of the distances of its sides from the sides of the box of
+ * its parent, which are small for deep nodes, and a box without one as zigzag varints of its coordinates.
+ */
+final class NodeRecords {
+
+    private NodeRecords() {
+        // prevent instantiation
+    }
+
+    static void writeHeader(DataOutput out, int count, boolean leaf) throws IOException {
+        Varints.writeUnsigned(out, ((long) count << 1) | (leaf ? 1 : 0));
+    }
+
+    /**
+     * Reads the header of a node, checking that its number of children fits the configuration.
+     */
+    static long readHeader(DataInput in, Configuration configuration) throws IOException {
+        long header = Varints.readUnsigned(in);
+        long count = header >>> 1;
+        if (count == 0 || count > configuration.getMaxChildren()) {
+            throw new IOException("Node with " + count + " children, expected at most "
+                + configuration.getMaxChildren());
+        }
+        return header;
+    }
+
+    static boolean isLeaf(long header) {
+        return (header & 1) != 0;
+    }
+
+    static int count(long header) {
+        return (int) (header >>> 1);
+    }
+
+    /**
+     * Writes the header and buckets of a leaf.
+     */
+    static <K, V> void writeLeaf(Node<K, V> leaf, DataOutput out, Codec<? super K> keyCodec,
+                                 Codec<? super V> valueCodec) throws IOException {
+        Box box = leaf.getBox();
+        List<Bucket<K, V>> buckets = leaf.getBuckets();
+        writeHeader(out, buckets.size(), true);
+        for (Bucket<K, V> bucket : buckets) {
+            writeBox(bucket.getBox(), box, out);
+            List<Entry<K, V>> entries = bucket.getEntries();
+            Varints.writeUnsigned(out, entries.size());
+            for (Entry<K, V> entry : entries) {
+                keyCodec.encode(entry.getKey(), out);
+                valueCodec.encode(entry.getValue(), out);
+            }
+        }
+    }
+
+    /**
+     * Reads the buckets of a leaf after its header.
+     */
+    static <K, V> Node<K, V> readLeaf(long header, Box box, DataInput in, Configuration configuration,
+                                      Codec<K> keyCodec, Codec<V> valueCodec) throws IOException {
+        int count = count(header);
+        List<Bucket<K, V>> buckets = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Box bucketBox = readBox(box, in);
+            long entryCount = Varints.readUnsigned(in);
+            if (entryCount == 0 || entryCount > Integer.MAX_VALUE) {
+                throw new IOException("Bucket with " + entryCount + " entries");
+            }
+            List<Entry<K, V>> entries = new ArrayList<>((int) entryCount);
+            for (int j = 0; j < entryCount; j++) {
+                K key = keyCodec.decode(in);
+                V value = valueCodec.decode(in);
+                entries.add(Entry.of(key, value));
+            }
+            buckets.add(Bucket.of(bucketBox, entries));
+        }
+        return Leaf.containing(buckets, configuration);
+    }
+
+    static void writeBox(Box box, DataOutput out) throws IOException {
+        Varints.writeSigned(out, box.x1());
+        Varints.writeSigned(out, box.y1());
+        Varints.writeSigned(out, box.z1());
+        Varints.writeSigned(out, box.x2());
+        Varints.writeSigned(out, box.y2());
+        Varints.writeSigned(out, box.z2());
+    }
+
+    static Box readBox(DataInput in) throws IOException {
+        return createBox(Varints.readSigned(in), Varints.readSigned(in), Varints.readSigned(in),
+            Varints.readSigned(in), Varints.readSigned(in), Varints.readSigned(in));
+    }
+
+    static void writeBox(Box box, Box parent, DataOutput out) throws IOException {
+        Varints.writeUnsigned(out, (long) box.x1() - parent.x1());
+        Varints.writeUnsigned(out, (long) box.y1() - parent.y1());
+        Varints.writeUnsigned(out, (long) box.z1() - parent.z1());
+        Varints.writeUnsigned(out, (long) parent.x2() - box.x2());
+        Varints.writeUnsigned(out, (long) parent.y2() - box.y2());
+        Varints.writeUnsigned(out, (long) parent.z2() - box.z2());
+    }
+
+    static Box readBox(Box parent, DataInput in) throws IOException {
+        return createBox(parent.x1() + Varints.readUnsigned(in), parent.y1() + Varints.readUnsigned(in),
+            parent.z1() + Varints.readUnsigned(in), parent.x2() - Varints.readUnsigned(in),
+            parent.y2() - Varints.readUnsigned(in), parent.z2() - Varints.readUnsigned(in));
+    }
+
+    private static Box createBox(long x1, long y1, long z1, long x2, long y2, long z2) throws IOException {
+        if (x1 != (int) x1 || y1 != (int) y1 || z1 != (int) z1 || x2 != (int) x2 || y2 != (int) y2 || z2 != (int) z2
+            || x1 > x2 || y1 > y2 || z1 > z2) {
+            throw new IOException("Malformed box");
+        }
+        return Box.create((int) x1, (int) y1, (int) z1, (int) x2, (int) y2, (int) z2);
+    }
+}
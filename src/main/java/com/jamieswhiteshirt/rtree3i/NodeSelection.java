@@ -4,16 +4,17 @@ import java.util.function.*;
 import java.util.stream.Collector;
 
 final class NodeSelection<K, V, T> implements Selection<T> {
-    public static <K, V, T> Selection<T> create(Node<K, V> root, Predicate<? super Box> boxPredicate,
-                                                Function<Entry<K, V>, T> entryMapper) {
+    public static <K, V, T> Selection<T> create(Searchable<K, V> root, Predicate<? super Box> boxPredicate,
+                                                BiFunction<? super K, ? super V, ? extends T> entryMapper) {
         return new NodeSelection<>(root, boxPredicate, entryMapper);
     }
 
-    private final Node<K, V> node;
+    private final Searchable<K, V> node;
     private final Predicate<? super Box> boxPredicate;
-    private final Function<Entry<K, V>, T> entryValueMapper;
+    private final BiFunction<? super K, ? super V, ? extends T> entryValueMapper;
 
-    private NodeSelection(Node<K, V> node, Predicate<? super Box> boxPredicate, Function<Entry<K, V>, T> entryMappper) {
+    private NodeSelection(Searchable<K, V> node, Predicate<? super Box> boxPredicate,
+                          BiFunction<? super K, ? super V, ? extends T> entryMappper) {
         this.node = node;
         this.boxPredicate = boxPredicate;
         this.entryValueMapper = entryMappper;
@@ -26,47 +27,48 @@ final class NodeSelection<K, V, T> implements Selection<T> {
 
     @Override
     public void forEach(Consumer<? super T> action) {
-        node.forEach(boxPredicate, entry -> action.accept(entryValueMapper.apply(entry)));
+        node.forEach(boxPredicate, (key, value) -> action.accept(entryValueMapper.apply(key, value)));
     }
 
     @Override
     public boolean anyMatch(Predicate<? super T> predicate) {
-        return node.anyMatch(boxPredicate, entry -> predicate.test(entryValueMapper.apply(entry)));
+        return node.anyMatch(boxPredicate, (key, value) -> predicate.test(entryValueMapper.apply(key, value)));
     }
 
     @Override
     public boolean allMatch(Predicate<? super T> predicate) {
-        return node.allMatch(boxPredicate, entry -> predicate.test(entryValueMapper.apply(entry)));
+        return node.allMatch(boxPredicate, (key, value) -> predicate.test(entryValueMapper.apply(key, value)));
     }
 
     @Override
     public boolean noneMatch(Predicate<? super T> predicate) {
-        return !node.anyMatch(boxPredicate, entry -> predicate.test(entryValueMapper.apply(entry)));
+        return !node.anyMatch(boxPredicate, (key, value) -> predicate.test(entryValueMapper.apply(key, value)));
     }
 
     @Override
     public T reduce(T identity, BinaryOperator<T> accumulator) {
-        return node.reduce(boxPredicate, identity, (acc, entry) -> accumulator.apply(acc,
-            entryValueMapper.apply(entry)));
+        return node.reduce(boxPredicate, identity, (acc, key, value) -> accumulator.apply(acc,
+            entryValueMapper.apply(key, value)));
     }
 
     @Override
     public <R> R collect(Supplier<R> supplier, BiConsumer<R, ? super T> accumulator, BiConsumer<R, R> combiner) {
         R container = supplier.get();
-        node.forEach(boxPredicate, entry -> accumulator.accept(container, entryValueMapper.apply(entry)));
+        node.forEach(boxPredicate, (key, value) -> accumulator.accept(container, entryValueMapper.apply(key, value)));
         return container;
     }
 
     @Override
     public <R, A> R collect(Collector<? super T, A, R> collector) {
         A container = collector.supplier().get();
-        node.forEach(boxPredicate, entry -> collector.accumulator().accept(container, entryValueMapper.apply(entry)));
+        node.forEach(boxPredicate, (key, value) -> collector.accumulator().accept(container,
+            entryValueMapper.apply(key, value)));
         return collector.finisher().apply(container);
     }
 
     @Override
     public int count() {
-        return node.count(boxPredicate, entry -> true);
+        return node.count(boxPredicate, (key, value) -> true);
     }
 
     @Override
@@ -76,6 +78,6 @@ final class NodeSelection<K, V, T> implements Selection<T> {
 
     @Override
     public boolean isNotEmpty() {
-        return node.anyMatch(boxPredicate, entry -> true);
+        return node.anyMatch(boxPredicate, (key, value) -> true);
     }
 }
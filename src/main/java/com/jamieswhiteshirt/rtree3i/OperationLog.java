@@ -0,0 +1,415 @@
+package com.jamieswhiteshirt.rtree3i;
+
+import com.google.common.base.Preconditions;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only write-ahead log of the operations applied to an R-tree map since its last snapshot, for recovery
+ * after a crash. The holder of the map logs each operation before applying it, and after a restart loads the latest
+ * snapshot and {@link #replay(RTreeMap) replays} the log on top of it. When a snapshot is taken, the holder takes a
+ * {@link #mark() mark} of the log, and once the snapshot has been written the log can be {@link #truncate(long)
+ * truncated} up to the mark. Operations logged after the mark are kept, so other threads can go on logging while the
+ * snapshot is written.
+ * <p>
+ * {@link #put(Object, Object)} and {@link #remove(Object)} return once the operation is durable. Operations logged by
+ * several threads at the same time are written and synced together, so the cost of a sync is shared between them.
+ * <p>
+ * Each record is an int length, a type byte, the encoded key and for puts the encoded value, followed by a CRC32 of
+ * the type, key and value. A torn record at the end of the log, left by a crash during a write, is discarded when the
+ * log is opened.
+ * @param <K> the type of keys maintained by the map
+ * @param <V> the type of mapped values
+ */
+public final class OperationLog<K, V> implements Closeable {
+    private static final byte PUT = 1;
+    private static final byte REMOVE = 2;
+
+    private final Path path;
+    private FileChannel channel;
+    private final Codec<K> keyCodec;
+    private final Codec<V> valueCodec;
+    private final ByteArrayOutputStream record = new ByteArrayOutputStream();
+    private final DataOutputStream recordOut = new DataOutputStream(record);
+    private final CRC32 crc = new CRC32();
+    private ByteArrayOutputStream pending = new ByteArrayOutputStream();
+    private long appended = 0;
+    private long durable = 0;
+    private boolean syncing = false;
+    private IOException failure = null;
+    private long position;
+    private long base = 0;
+    private long syncs = 0;
+
+    /**
+     * Opens a log of a map with {@link Box} keys, creating it if it does not exist.
+     * @param path path of the log
+     * @param valueCodec codec of values
+     * @param <V> the type of mapped values
+     * @return the log
+     * @throws IOException if the log could not be opened
+     */
+    public static <V> OperationLog<Box, V> open(Path path, Codec<V> valueCodec) throws IOException {
+        return open(path, Codecs.box(), valueCodec);
+    }
+
+    /**
+     * Opens a log, creating it if it does not exist.
+     * @param path path of the log
+     * @param keyCodec codec of keys
+     * @param valueCodec codec of values
+     * @param <K> the type of keys maintained by the map
+     * @param <V> the type of mapped values
+     * @return the log
+     * @throws IOException if the log could not be opened
+     */
+    public static <K, V> OperationLog<K, V> open(Path path, Codec<K> keyCodec, Codec<V> valueCodec)
+        throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+            StandardOpenOption.WRITE);
+        try {
+            OperationLog<K, V> log = new OperationLog<>(path, channel, keyCodec, valueCodec);
+            // discard a torn record left by a crash
+            log.position = log.read(null);
+            channel.truncate(log.position);
+            return log;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private OperationLog(Path path, FileChannel channel, Codec<K> keyCodec, Codec<V> valueCodec) {
+        this.path = path;
+        this.channel = channel;
+        this.keyCodec = keyCodec;
+        this.valueCodec = valueCodec;
+    }
+
+    /**
+     * Logs that the key was mapped to the value, and returns once the operation is durable.
+     * @param key key of the mapping
+     * @param value value of the mapping
+     * @throws IOException if the log could not be written to
+     */
+    public void put(K key, V value) throws IOException {
+        awaitDurable(append(PUT, key, value));
+    }
+
+    /**
+     * Logs that the mapping of the key was removed, and returns once the operation is durable.
+     * @param key key of the mapping
+     * @throws IOException if the log could not be written to
+     */
+    public void remove(K key) throws IOException {
+        awaitDurable(append(REMOVE, key, null));
+    }
+
+    private synchronized long append(byte type, K key, V value) throws IOException {
+        if (failure != null) {
+            throw failure;
+        }
+        record.reset();
+        recordOut.writeByte(type);
+        keyCodec.encode(key, recordOut);
+        if (type == PUT) {
+            valueCodec.encode(value, recordOut);
+        }
+        crc.reset();
+        crc.update(record.toByteArray());
+        DataOutputStream out = new DataOutputStream(pending);
+        out.writeInt(record.size());
+        record.writeTo(out);
+        out.writeInt((int) crc.getValue());
+        return ++appended;
+    }
+
+    /**
+     * Waits until the operation with the sequence number is durable. If no other thread is syncing, this thread writes
+     * and syncs everything appended so far on behalf of all waiting threads.
+     */
+    private void awaitDurable(long sequence) throws IOException {
+        ByteArrayOutputStream batch;
+        long batchEnd;
+        long start;
+        synchronized (this) {
+            while (true) {
+                if (failure != null) {
+                    throw failure;
+                }
+                if (durable >= sequence) {
+                    return;
+                }
+                if (!syncing) {
+                    break;
+                }
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while waiting for the log to be synced", e);
+                }
+            }
+            syncing = true;
+            batch = pending;
+            batchEnd = appended;
+            start = position;
+            pending = new ByteArrayOutputStream();
+        }
+        IOException error = null;
+        try {
+            write(channel, ByteBuffer.wrap(batch.toByteArray()), start);
+            channel.force(false);
+        } catch (IOException e) {
+            error = e;
+        }
+        synchronized (this) {
+            syncing = false;
+            if (error != null) {
+                failure = error;
+            } else {
+                position = start + batch.size();
+                durable = batchEnd;
+                syncs++;
+            }
+            notifyAll();
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    private static void write(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position());
+        }
+    }
+
+    /**
+     * Returns the number of times the log has been synced to disk.
+     * @return the number of syncs
+     */
+    public synchronized long getSyncCount() {
+        return syncs;
+    }
+
+    /**
+     * Applies the logged operations to the map. Operations on the same key are coalesced so only the last one is
+     * applied. If the log changes a large part of the map, the map is rebuilt by bulk loading its entries. Otherwise
+     * the removals are applied first, and then the puts in the Hilbert order of their boxes, so the map is shaped as if
+     * the operations had been applied as they were logged.
+     * @param snapshot the map the operations were applied to
+     * @return the map with the logged operations applied
+     * @throws IOException if the log could not be read from
+     */
+    public RTreeMap<K, V> replay(RTreeMap<K, V> snapshot) throws IOException {
+        // the last operation on each key, with null for removals
+        Map<K, Entry<K, V>> operations = new LinkedHashMap<>();
+        synchronized (this) {
+            read(operations);
+        }
+        if (operations.isEmpty()) {
+            return snapshot;
+        }
+        if (operations.size() > snapshot.size() / 2) {
+            Function<? super K, Box> keyBoxMapper = snapshot.getKeyBoxMapper();
+            List<Entry<K, V>> entries = new ArrayList<>(snapshot.size() + operations.size());
+            snapshot.entries().forEach(entry -> {
+                if (!operations.containsKey(entry.getKey())) {
+                    entries.add(entry);
+                }
+            });
+            for (Entry<K, V> operation : operations.values()) {
+                if (operation != null) {
+                    entries.add(operation);
+                }
+            }
+            Node<K, V> root = BulkLoader.load(BulkLoader.buckets(entries, keyBoxMapper), snapshot.getConfiguration());
+            return RTreeMap.create(root, snapshot.getConfiguration(), keyBoxMapper);
+        }
+        RTreeMap<K, V> map = snapshot;
+        List<Entry<K, V>> puts = new ArrayList<>(operations.size());
+        for (Map.Entry<K, Entry<K, V>> operation : operations.entrySet()) {
+            if (operation.getValue() != null) {
+                puts.add(operation.getValue());
+            } else {
+                map = map.remove(operation.getKey());
+            }
+        }
+        // puts of nearby keys descend the same paths, so the nodes of a paged snapshot they read stay cached
+        Function<? super K, Box> keyBoxMapper = snapshot.getKeyBoxMapper();
+        Hilbert.sort(puts, entry -> keyBoxMapper.apply(entry.getKey()));
+        return map.putAll(puts);
+    }
+
+    /**
+     * Reads the complete records of the log into the map of operations if it is not null, and returns the position
+     * after the last complete record.
+     */
+    private long read(Map<K, Entry<K, V>> operations) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(
+            channel.position(0))));
+        long end = 0;
+        long size = channel.size();
+        while (end + 8 <= size) {
+            byte[] bytes;
+            int checksum;
+            try {
+                int length = in.readInt();
+                if (length <= 0 || end + 8 + length > size) {
+                    break;
+                }
+                bytes = new byte[length];
+                in.readFully(bytes);
+                checksum = in.readInt();
+            } catch (EOFException e) {
+                break;
+            }
+            crc.reset();
+            crc.update(bytes);
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+            if (operations != null) {
+                DataInputStream recordIn = new DataInputStream(new ByteArrayInputStream(bytes));
+                byte type = recordIn.readByte();
+                K key = keyCodec.decode(recordIn);
+                // re-insert so the order of the map is the order of the last operations
+                operations.remove(key);
+                operations.put(key, type == PUT ? Entry.of(key, valueCodec.decode(recordIn)) : null);
+            }
+            end += 8 + bytes.length;
+        }
+        return end;
+    }
+
+    /**
+     * Returns a mark of the operations which are durable, which are the operations whose {@link #put(Object, Object)}
+     * or {@link #remove(Object)} has returned. Take the mark together with the snapshot, such that the snapshot contains
+     * exactly the operations which are durable, for example by logging and applying each operation under a read lock
+     * and taking both under the write lock.
+     * @return a mark of the durable operations
+     */
+    public synchronized long mark() {
+        return base + position;
+    }
+
+    /**
+     * Discards the operations which are durable. Operations which are still being logged by other threads are kept, as
+     * their writers have not applied them to the map yet. Equivalent to {@code truncate(mark())}.
+     * @throws IOException if the log could not be truncated
+     */
+    public synchronized void truncate() throws IOException {
+        truncate(mark());
+    }
+
+    /**
+     * Discards the operations logged before the mark. Call once a snapshot containing all of them is durable. The
+     * operations logged after the mark, including those still being logged by other threads, are kept.
+     * @param mark a mark returned by {@link #mark()}
+     * @throws IOException if the log could not be truncated
+     */
+    public synchronized void truncate(long mark) throws IOException {
+        Preconditions.checkArgument(mark <= base + position, "mark is ahead of the durable operations");
+        while (syncing) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for the log to be synced", e);
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        long cut = mark - base;
+        if (cut <= 0) {
+            return;
+        }
+        try {
+            if (cut == position) {
+                channel.truncate(0);
+                channel.force(false);
+            } else {
+                // keep the operations after the mark by atomically replacing the log with a copy of them, so that a
+                // crash leaves either the whole log or the operations after the mark
+                ByteBuffer kept = ByteBuffer.allocate(Math.toIntExact(position - cut));
+                while (kept.hasRemaining()) {
+                    if (channel.read(kept, cut + kept.position()) < 0) {
+                        throw new EOFException();
+                    }
+                }
+                kept.flip();
+                Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+                try (FileChannel out = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                    write(out, kept, 0);
+                    out.force(false);
+                }
+                Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                channel.close();
+                channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            }
+        } catch (IOException e) {
+            failure = e;
+            notifyAll();
+            throw e;
+        }
+        position -= cut;
+        base = mark;
+    }
+
+    /**
+     * Closes the log. Operations which are logged but not yet written are written and synced first, so they are
+     * durable even if the threads logging them have not got around to it yet.
+     * @throws IOException if the pending operations could not be written or the log could not be closed
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            while (syncing) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while waiting for the log to be synced", e);
+                }
+            }
+            if (failure == null && pending.size() > 0) {
+                try {
+                    write(channel, ByteBuffer.wrap(pending.toByteArray()), position);
+                    channel.force(false);
+                } catch (IOException e) {
+                    failure = e;
+                    throw e;
+                }
+                position += pending.size();
+                durable = appended;
+                syncs++;
+                pending = new ByteArrayOutputStream();
+            }
+        } finally {
+            notifyAll();
+            channel.close();
+        }
+    }
+}
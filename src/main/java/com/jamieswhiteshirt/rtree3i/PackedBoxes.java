@@ -0,0 +1,216 @@
+package com.jamieswhiteshirt.rtree3i;
+
+import java.util.function.Function;
+
+/**
+ * The boxes of the children of a node packed into a single primitive array. The plain encoding stores absolute int
+ * coordinates. The compressed encodings store coordinates as unsigned byte or short offsets from the minimum corner of
+ * the node box. If the node is too wide for short offsets, the offsets are quantized by a power of two. Minimums are
+ * rounded down and maximums are rounded up, so the stored boxes only ever grow.
+ * <p>
+ * Tests against a quantized encoding may report false positives. Callers must confirm a positive result against the
+ * exact box unless {@link #isExact()} is true.
+ */
+abstract class PackedBoxes {
+
+    private static final long BYTE_MAX = 0xFF;
+    private static final long SHORT_MAX = 0xFFFF;
+
+    /**
+     * Packs the boxes of the items.
+     * @param items items to pack the boxes of
+     * @param boxMapper box mapper applied to items
+     * @param mbb minimum bounding box of all boxes of the items
+     * @param compress whether to use a compressed encoding
+     */
+    static <T> PackedBoxes pack(T[] items, Function<? super T, Box> boxMapper, Box mbb, boolean compress) {
+        if (!compress) {
+            return new Ints(Boxes.pack(items, boxMapper));
+        }
+        long extent = Math.max((long) mbb.x2() - mbb.x1(),
+            Math.max((long) mbb.y2() - mbb.y1(), (long) mbb.z2() - mbb.z1()));
+        if (extent <= BYTE_MAX) {
+            byte[] data = new byte[items.length * Boxes.STRIDE];
+            for (int i = 0; i < items.length; i++) {
+                Box box = boxMapper.apply(items[i]);
+                int offset = i * Boxes.STRIDE;
+                data[offset] = (byte) (box.x1() - mbb.x1());
+                data[offset + 1] = (byte) (box.y1() - mbb.y1());
+                data[offset + 2] = (byte) (box.z1() - mbb.z1());
+                data[offset + 3] = (byte) (box.x2() - mbb.x1());
+                data[offset + 4] = (byte) (box.y2() - mbb.y1());
+                data[offset + 5] = (byte) (box.z2() - mbb.z1());
+            }
+            return new ByteOffsets(data, mbb.x1(), mbb.y1(), mbb.z1());
+        }
+        int shift = 0;
+        while (ceilShift(extent, shift) > SHORT_MAX) {
+            shift++;
+        }
+        short[] data = new short[items.length * Boxes.STRIDE];
+        for (int i = 0; i < items.length; i++) {
+            Box box = boxMapper.apply(items[i]);
+            int offset = i * Boxes.STRIDE;
+            data[offset] = (short) (((long) box.x1() - mbb.x1()) >> shift);
+            data[offset + 1] = (short) (((long) box.y1() - mbb.y1()) >> shift);
+            data[offset + 2] = (short) (((long) box.z1() - mbb.z1()) >> shift);
+            data[offset + 3] = (short) ceilShift((long) box.x2() - mbb.x1(), shift);
+            data[offset + 4] = (short) ceilShift((long) box.y2() - mbb.y1(), shift);
+            data[offset + 5] = (short) ceilShift((long) box.z2() - mbb.z1(), shift);
+        }
+        return new ShortOffsets(data, mbb.x1(), mbb.y1(), mbb.z1(), shift);
+    }
+
+    private static long ceilShift(long value, int shift) {
+        return (value + (1L << shift) - 1) >> shift;
+    }
+
+    /**
+     * Returns the number of packed boxes.
+     */
+    abstract int size();
+
+    /**
+     * Returns true if the tests of this encoding have no false positives.
+     */
+    abstract boolean isExact();
+
+    /**
+     * Returns true if the packed box at the index may fully contain the box.
+     */
+    abstract boolean mayContain(int index, Box box);
+
+    /**
+     * Returns the index of the first packed box at or after the index which may be equal to the box, or -1 if there
+     * is none.
+     */
+    abstract int indexOf(Box box, int from);
+
+    private static final class Ints extends PackedBoxes {
+        private final int[] data;
+
+        Ints(int[] data) {
+            this.data = data;
+        }
+
+        @Override
+        int size() {
+            return data.length / Boxes.STRIDE;
+        }
+
+        @Override
+        boolean isExact() {
+            return true;
+        }
+
+        @Override
+        boolean mayContain(int index, Box box) {
+            return Boxes.contains(data, index, box);
+        }
+
+        @Override
+        int indexOf(Box box, int from) {
+            return Boxes.indexOf(data, box, from);
+        }
+    }
+
+    private static final class ByteOffsets extends PackedBoxes {
+        private final byte[] data;
+        private final int originX, originY, originZ;
+
+        ByteOffsets(byte[] data, int originX, int originY, int originZ) {
+            this.data = data;
+            this.originX = originX;
+            this.originY = originY;
+            this.originZ = originZ;
+        }
+
+        @Override
+        int size() {
+            return data.length / Boxes.STRIDE;
+        }
+
+        @Override
+        boolean isExact() {
+            return true;
+        }
+
+        @Override
+        boolean mayContain(int index, Box box) {
+            int offset = index * Boxes.STRIDE;
+            long x1 = (long) box.x1() - originX, y1 = (long) box.y1() - originY, z1 = (long) box.z1() - originZ;
+            long x2 = (long) box.x2() - originX, y2 = (long) box.y2() - originY, z2 = (long) box.z2() - originZ;
+            return (data[offset] & 0xFF) <= x1 && (data[offset + 3] & 0xFF) >= x2
+                && (data[offset + 1] & 0xFF) <= y1 && (data[offset + 4] & 0xFF) >= y2
+                && (data[offset + 2] & 0xFF) <= z1 && (data[offset + 5] & 0xFF) >= z2;
+        }
+
+        @Override
+        int indexOf(Box box, int from) {
+            long x1 = (long) box.x1() - originX, y1 = (long) box.y1() - originY, z1 = (long) box.z1() - originZ;
+            long x2 = (long) box.x2() - originX, y2 = (long) box.y2() - originY, z2 = (long) box.z2() - originZ;
+            for (int offset = from * Boxes.STRIDE; offset < data.length; offset += Boxes.STRIDE) {
+                if ((data[offset] & 0xFF) == x1 && (data[offset + 1] & 0xFF) == y1 && (data[offset + 2] & 0xFF) == z1
+                    && (data[offset + 3] & 0xFF) == x2 && (data[offset + 4] & 0xFF) == y2
+                    && (data[offset + 5] & 0xFF) == z2) {
+                    return offset / Boxes.STRIDE;
+                }
+            }
+            return -1;
+        }
+    }
+
+    private static final class ShortOffsets extends PackedBoxes {
+        private final short[] data;
+        private final int originX, originY, originZ;
+        private final int shift;
+
+        ShortOffsets(short[] data, int originX, int originY, int originZ, int shift) {
+            this.data = data;
+            this.originX = originX;
+            this.originY = originY;
+            this.originZ = originZ;
+            this.shift = shift;
+        }
+
+        @Override
+        int size() {
+            return data.length / Boxes.STRIDE;
+        }
+
+        @Override
+        boolean isExact() {
+            return shift == 0;
+        }
+
+        @Override
+        boolean mayContain(int index, Box box) {
+            int offset = index * Boxes.STRIDE;
+            return ((long) (data[offset] & 0xFFFF) << shift) + originX <= box.x1()
+                && ((long) (data[offset + 3] & 0xFFFF) << shift) + originX >= box.x2()
+                && ((long) (data[offset + 1] & 0xFFFF) << shift) + originY <= box.y1()
+                && ((long) (data[offset + 4] & 0xFFFF) << shift) + originY >= box.y2()
+                && ((long) (data[offset + 2] & 0xFFFF) << shift) + originZ <= box.z1()
+                && ((long) (data[offset + 5] & 0xFFFF) << shift) + originZ >= box.z2();
+        }
+
+        @Override
+        int indexOf(Box box, int from) {
+            // quantize the box the same way the packed boxes were quantized
+            long x1 = ((long) box.x1() - originX) >> shift;
+            long y1 = ((long) box.y1() - originY) >> shift;
+            long z1 = ((long) box.z1() - originZ) >> shift;
+            long x2 = ceilShift((long) box.x2() - originX, shift);
+            long y2 = ceilShift((long) box.y2() - originY, shift);
+            long z2 = ceilShift((long) box.z2() - originZ, shift);
+            for (int offset = from * Boxes.STRIDE; offset < data.length; offset += Boxes.STRIDE) {
+                if ((data[offset] & 0xFFFF) == x1 && (data[offset + 1] & 0xFFFF) == y1
+                    && (data[offset + 2] & 0xFFFF) == z1 && (data[offset + 3] & 0xFFFF) == x2
+                    && (data[offset + 4] & 0xFFFF) == y2 && (data[offset + 5] & 0xFFFF) == z2) {
+                    return offset / Boxes.STRIDE;
+                }
+            }
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,390 @@
+package com.jamieswhiteshirt.rtree3i;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.zip.CRC32;
+
+/**
+ * A file of fixed-size pages holding the nodes of an R-tree map, for maps which do not fit in memory. Opened with a
+ * {@link PageFileBuilder}.
+ * <p>
+ * The map returned by {@link #load()} reads its nodes from the file when they are visited, through a bounded cache of
+ * recently used nodes. Its children stay on disk until they are visited themselves. Updates to the map are applied in
+ * memory as usual, copying the path from the root to the updated leaves. {@link #commit(RTreeMap)} writes the copied
+ * nodes to new pages at the end of the file, leaving the pages of the previous version untouched, and returns the
+ * same map reading from the file again. Pages of older versions are not reclaimed.
+ * <p>
+ * The first two pages are header slots, holding the page size, a sequence number, the number of pages in use, a flag
+ * telling if references hold Hilbert values, a reference to the root node, and a CRC32 of the slot in its last four
+ * bytes. A commit writes the header to the slot not holding the latest one, so a crash while writing the header
+ * leaves the previous header intact, and opening the file reads the valid slot with the highest sequence number.
+ * <p>
+ * A node is stored in one or more consecutive pages, encoded as described by {@link NodeRecords}, with the boxes of
+ * the buckets of a leaf relative to the box in its reference. A branch is followed by a reference to each child,
+ * holding its box, first page, number of pages, number of entries, leaf flag, fanout and worst repack score, and in
+ * files of Hilbert-ordered trees its largest Hilbert value.
+ * @param <K> the type of keys maintained by the map
+ * @param <V> the type of mapped values
+ */
+public final class PageFile<K, V> implements Closeable {
+    static final int MIN_PAGE_SIZE = 128;
+    private static final int MAGIC = 0x52334950;
+    private static final int VERSION = 5;
+    private static final int HEADER_PAGES = 2;
+
+    private final FileChannel channel;
+    private final int pageSize;
+    private final int cacheCapacity;
+    private final Configuration configuration;
+    private final Codec<K> keyCodec;
+    private final Codec<V> valueCodec;
+    private final Function<? super K, Box> keyBoxMapper;
+    private final LinkedHashMap<Long, Node<K, V>> cache = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<Long, Integer> cachePageCounts = new LinkedHashMap<>();
+    private int cachedPages = 0;
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+    private boolean hilbertReferences;
+    private long sequence;
+    private long nextPage;
+    private PagedNode<K, V> root;
+
+    static <K, V> PageFile<K, V> open(Path path, int pageSize, int cacheCapacity, Configuration configuration,
+                                      Codec<K> keyCodec, Codec<V> valueCodec, Function<? super K, Box> keyBoxMapper)
+        throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+            StandardOpenOption.WRITE);
+        try {
+            PageFile<K, V> file;
+            if (channel.size() == 0) {
+                file = new PageFile<>(channel, pageSize, cacheCapacity, configuration, keyCodec, valueCodec,
+                    keyBoxMapper);
+                file.nextPage = HEADER_PAGES;
+                file.hilbertReferences = configuration.isHilbertOrdered();
+                // fill both slots, so the page size can always be read from the first
+                file.writeHeader();
+                file.writeHeader();
+            } else {
+                ByteBuffer prefix = ByteBuffer.allocate(12);
+                read(channel, prefix, 0);
+                if (prefix.getInt(0) != MAGIC) {
+                    throw new IOException("Not a page file: " + path);
+                }
+                if (prefix.getInt(4) != VERSION) {
+                    throw new IOException("Unsupported page file version " + prefix.getInt(4) + ": " + path);
+                }
+                file = new PageFile<>(channel, prefix.getInt(8), cacheCapacity, configuration, keyCodec, valueCodec,
+                    keyBoxMapper);
+                file.readHeader();
+            }
+            return file;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private PageFile(FileChannel channel, int pageSize, int cacheCapacity, Configuration configuration,
+                     Codec<K> keyCodec, Codec<V> valueCodec, Function<? super K, Box> keyBoxMapper) {
+        this.channel = channel;
+        this.pageSize = pageSize;
+        this.cacheCapacity = cacheCapacity;
+        this.configuration = configuration;
+        this.keyCodec = keyCodec;
+        this.valueCodec = valueCodec;
+        this.keyBoxMapper = keyBoxMapper;
+    }
+
+    private static void read(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of page file");
+            }
+        }
+    }
+
+    private void write(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position());
+        }
+    }
+
+    private void readHeader() throws IOException {
+        DataInputStream latest = null;
+        for (int slot = 0; slot < HEADER_PAGES; slot++) {
+            DataInputStream in = readHeaderSlot(slot);
+            if (in != null) {
+                long slotSequence = in.readLong();
+                if (latest == null || slotSequence > sequence) {
+                    latest = in;
+                    sequence = slotSequence;
+                }
+            }
+        }
+        if (latest == null) {
+            throw new IOException("No valid page file header");
+        }
+        nextPage = latest.readLong();
+        hilbertReferences = latest.readBoolean();
+        root = latest.readBoolean() ? readReference(latest) : null;
+    }
+
+    /**
+     * Returns a stream of the header slot after the page size, or null if the slot is missing, was not written
+     * completely or belongs to another version.
+     */
+    private DataInputStream readHeaderSlot(int slot) throws IOException {
+        ByteBuffer page = ByteBuffer.allocate(pageSize);
+        long position = (long) slot * pageSize;
+        if (position + pageSize > channel.size()) {
+            return null;
+        }
+        read(channel, page, position);
+        CRC32 crc = new CRC32();
+        crc.update(page.array(), 0, pageSize - 4);
+        if (page.getInt(0) != MAGIC || page.getInt(4) != VERSION || page.getInt(8) != pageSize
+            || page.getInt(pageSize - 4) != (int) crc.getValue()) {
+            return null;
+        }
+        return new DataInputStream(new ByteArrayInputStream(page.array(), 12, pageSize - 16));
+    }
+
+    private void writeHeader() throws IOException {
+        long nextSequence = sequence + 1;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(pageSize);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(pageSize);
+        out.writeLong(nextSequence);
+        out.writeLong(nextPage);
+        out.writeBoolean(hilbertReferences);
+        out.writeBoolean(root != null);
+        if (root != null) {
+            writeReference(root, out);
+        }
+        ByteBuffer page = ByteBuffer.allocate(pageSize);
+        page.put(bytes.toByteArray());
+        CRC32 crc = new CRC32();
+        crc.update(page.array(), 0, pageSize - 4);
+        page.putInt(pageSize - 4, (int) crc.getValue()).clear();
+        write(page, (nextSequence % HEADER_PAGES) * pageSize);
+        sequence = nextSequence;
+    }
+
+    private PagedNode<K, V> readReference(DataInput in) throws IOException {
+        Box box = Box.create(in.readInt(), in.readInt(), in.readInt(), in.readInt(), in.readInt(), in.readInt());
+        long page = in.readLong();
+        int pageCount = in.readInt();
+        int size = in.readInt();
+        boolean leaf = in.readBoolean();
+        int fanout = in.readInt();
+        double worstScore = in.readDouble();
+        Hilbert.Value hilbertValue = hilbertReferences ? new Hilbert.Value(in.readLong(), in.readInt()) : null;
+        return new PagedNode<>(this, page, pageCount, box, size, leaf, fanout, worstScore, hilbertValue);
+    }
+
+    private void writeReference(PagedNode<?, ?> node, DataOutput out) throws IOException {
+        Codecs.box().encode(node.getBox(), out);
+        out.writeLong(node.getPage());
+        out.writeInt(node.getPageCount());
+        out.writeInt(node.size());
+        out.writeBoolean(node.isLeaf());
+        out.writeInt(node.fanout());
+        out.writeDouble(node.worstScore(configuration));
+        if (hilbertReferences) {
+            Hilbert.Value hilbertValue = node.hilbertValue();
+            out.writeLong(hilbertValue.high);
+            out.writeInt(hilbertValue.low);
+        }
+    }
+
+    /**
+     * Returns the map last committed to this file, or an empty map if nothing has been committed yet.
+     * @return the map last committed to this file
+     */
+    public synchronized RTreeMap<K, V> load() {
+        return RTreeMap.create(root, configuration, keyBoxMapper);
+    }
+
+    /**
+     * Writes the nodes of the map which are not yet stored in this file to new pages and makes the map the one
+     * returned by {@link #load()}. Nodes already stored in this file are referenced rather than written again, so
+     * committing a map loaded from this file and then updated writes only the nodes on the paths to the updates.
+     * @param map map to commit
+     * @return the same map, reading its nodes from this file
+     * @throws IOException if the file could not be written to
+     */
+    public synchronized RTreeMap<K, V> commit(RTreeMap<K, V> map) throws IOException {
+        Node<K, V> mapRoot = map.getRoot();
+        root = mapRoot != null ? writeNode(mapRoot) : null;
+        channel.force(true);
+        writeHeader();
+        channel.force(true);
+        return load();
+    }
+
+    private PagedNode<K, V> writeNode(Node<K, V> node) throws IOException {
+        if (node instanceof PagedNode && ((PagedNode<K, V>) node).getFile() == this) {
+            return (PagedNode<K, V>) node;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(pageSize);
+        DataOutputStream out = new DataOutputStream(bytes);
+        if (node.isLeaf()) {
+            NodeRecords.writeLeaf(node, out, keyCodec, valueCodec);
+        } else {
+            List<Node<K, V>> children = node.getChildren();
+            List<PagedNode<K, V>> references = new ArrayList<>(children.size());
+            for (Node<K, V> child : children) {
+                references.add(writeNode(child));
+            }
+            NodeRecords.writeHeader(out, references.size(), false);
+            for (PagedNode<K, V> reference : references) {
+                writeReference(reference, out);
+            }
+        }
+        int pageCount = (bytes.size() + pageSize - 1) / pageSize;
+        long page = nextPage;
+        ByteBuffer pages = allocatePages(pageCount);
+        pages.put(bytes.toByteArray()).clear();
+        write(pages, page * pageSize);
+        nextPage += pageCount;
+        return new PagedNode<>(this, page, pageCount, node.getBox(), node.size(), node.isLeaf(), node.fanout(),
+            node.worstScore(configuration), hilbertReferences ? node.hilbertValue() : null);
+    }
+
+    /**
+     * Returns the node stored in the pages referenced by the paged node, from the cache if possible.
+     */
+    Node<K, V> load(PagedNode<K, V> reference) {
+        Long page = reference.getPage();
+        synchronized (this) {
+            Node<K, V> node = cache.get(page);
+            if (node != null) {
+                hits++;
+                return node;
+            }
+            misses++;
+        }
+        Node<K, V> node;
+        try {
+            node = readNode(reference);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        synchronized (this) {
+            if (cache.put(page, node) == null) {
+                cachePageCounts.put(page, reference.getPageCount());
+                cachedPages += reference.getPageCount();
+                Iterator<Map.Entry<Long, Node<K, V>>> iterator = cache.entrySet().iterator();
+                while (cachedPages > cacheCapacity && cache.size() > 1) {
+                    Long eldest = iterator.next().getKey();
+                    iterator.remove();
+                    cachedPages -= cachePageCounts.remove(eldest);
+                    evictions++;
+                }
+            }
+        }
+        return node;
+    }
+
+    private ByteBuffer allocatePages(int pageCount) throws IOException {
+        try {
+            return ByteBuffer.allocate(Math.multiplyExact(pageCount, pageSize));
+        } catch (ArithmeticException e) {
+            throw new IOException("Node of " + pageCount + " pages is too large", e);
+        }
+    }
+
+    private Node<K, V> readNode(PagedNode<K, V> reference) throws IOException {
+        ByteBuffer buffer = allocatePages(reference.getPageCount());
+        read(channel, buffer, reference.getPage() * pageSize);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(buffer.array()));
+        long header = NodeRecords.readHeader(in, configuration);
+        if (NodeRecords.isLeaf(header)) {
+            return NodeRecords.readLeaf(header, reference.getBox(), in, configuration, keyCodec, valueCodec);
+        } else {
+            int count = NodeRecords.count(header);
+            List<Node<K, V>> children = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                children.add(readReference(in));
+            }
+            return Branch.containing(children, configuration);
+        }
+    }
+
+    /**
+     * Returns the size of a page in bytes.
+     * @return the size of a page in bytes
+     */
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * Returns the number of pages in use, including the header and pages of older versions.
+     * @return the number of pages in use
+     */
+    public synchronized long getPageCount() {
+        return nextPage;
+    }
+
+    /**
+     * Returns the capacity of the node cache in pages.
+     * @return the capacity of the node cache in pages
+     */
+    public int getCacheCapacity() {
+        return cacheCapacity;
+    }
+
+    /**
+     * Returns the number of times a node was found in the cache.
+     * @return the number of cache hits
+     */
+    public synchronized long getCacheHits() {
+        return hits;
+    }
+
+    /**
+     * Returns the number of times a node was read from the file because it was not in the cache.
+     * @return the number of cache misses
+     */
+    public synchronized long getCacheMisses() {
+        return misses;
+    }
+
+    /**
+     * Returns the number of nodes evicted from the cache to make room for other nodes.
+     * @return the number of cache evictions
+     */
+    public synchronized long getCacheEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Closes the file. Maps loaded from the file can no longer read nodes which are not cached.
+     * @throws IOException if the file could not be closed
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,77 @@
+package com.jamieswhiteshirt.rtree3i;
+
+import com.google.common.base.Preconditions;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.function.Function;
+
+/**
+ * A mutable builder for opening a {@link PageFile}.
+ */
+public final class PageFileBuilder {
+    private static final int PAGE_SIZE_DEFAULT = 4096;
+    private static final int CACHE_CAPACITY_DEFAULT = 1024;
+    private int pageSize = PAGE_SIZE_DEFAULT;
+    private int cacheCapacity = CACHE_CAPACITY_DEFAULT;
+
+    /**
+     * Constructs a page file builder.
+     */
+    public PageFileBuilder() {
+    }
+
+    /**
+     * Sets the size of a page in bytes. Nodes which do not fit in a page take up several consecutive pages. The page
+     * size only applies to new files; existing files keep the page size they were created with.
+     * @param pageSize the size of a page in bytes
+     * @return builder
+     */
+    public PageFileBuilder pageSize(int pageSize) {
+        this.pageSize = pageSize;
+        return this;
+    }
+
+    /**
+     * Sets the number of pages the node cache holds before it evicts the least recently used nodes.
+     * @param cacheCapacity the capacity of the node cache in pages
+     * @return builder
+     */
+    public PageFileBuilder cacheCapacity(int cacheCapacity) {
+        this.cacheCapacity = cacheCapacity;
+        return this;
+    }
+
+    /**
+     * Opens a page file of a map with {@link Box} keys, creating it if it does not exist.
+     * @param path path of the page file
+     * @param configuration configuration of the map
+     * @param valueCodec codec of values
+     * @param <V> the type of mapped values
+     * @return the page file
+     * @throws IOException if the file could not be opened or is not a page file
+     */
+    public <V> PageFile<Box, V> open(Path path, Configuration configuration, Codec<V> valueCodec) throws IOException {
+        return open(path, configuration, Codecs.box(), valueCodec, Function.identity());
+    }
+
+    /**
+     * Opens a page file, creating it if it does not exist.
+     * @param path path of the page file
+     * @param configuration configuration of the map
+     * @param keyCodec codec of keys
+     * @param valueCodec codec of values
+     * @param keyBoxMapper key-box mapper
+     * @param <K> the type of keys maintained by the map
+     * @param <V> the type of mapped values
+     * @return the page file
+     * @throws IOException if the file could not be opened or is not a page file
+     */
+    public <K, V> PageFile<K, V> open(Path path, Configuration configuration, Codec<K> keyCodec, Codec<V> valueCodec,
+                                      Function<? super K, Box> keyBoxMapper) throws IOException {
+        Preconditions.checkArgument(pageSize >= PageFile.MIN_PAGE_SIZE, "pageSize must be at least %s",
+            PageFile.MIN_PAGE_SIZE);
+        Preconditions.checkArgument(cacheCapacity > 0, "cacheCapacity must be positive");
+        return PageFile.open(path, pageSize, cacheCapacity, configuration, keyCodec, valueCodec, keyBoxMapper);
+    }
+}
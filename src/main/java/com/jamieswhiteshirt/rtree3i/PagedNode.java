@@ -0,0 +1,213 @@
+package com.jamieswhiteshirt.rtree3i;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.function.BiPredicate;
+import java.util.function.Predicate;
+
+/**
+ * A reference to a node stored in a {@link PageFile}. The box, size and kind of the node are kept in the reference so
+ * a search can skip the node without reading it. The fanout and worst repack score of the node are kept so a repack
+ * can score the branches above the node and skip well shaped subtrees without reading them. In a Hilbert-ordered tree
+ * the largest Hilbert value of the node is kept as well, so a put can choose between the children of a branch without
+ * reading them. All other operations read the node through the cache of the file and delegate to it.
+ */
+final class PagedNode<K, V> implements Node<K, V> {
+    private final PageFile<K, V> file;
+    private final long page;
+    private final int pageCount;
+    private final Box box;
+    private final int size;
+    private final boolean leaf;
+    private final int fanout;
+    private final double worstScore;
+    // stored in the reference by files of Hilbert-ordered trees, otherwise read from the node when first asked for
+    private Hilbert.Value hilbertValue;
+
+    PagedNode(PageFile<K, V> file, long page, int pageCount, Box box, int size, boolean leaf, int fanout,
+              double worstScore, Hilbert.Value hilbertValue) {
+        this.file = file;
+        this.page = page;
+        this.pageCount = pageCount;
+        this.box = box;
+        this.size = size;
+        this.leaf = leaf;
+        this.fanout = fanout;
+        this.worstScore = worstScore;
+        this.hilbertValue = hilbertValue;
+    }
+
+    PageFile<K, V> getFile() {
+        return file;
+    }
+
+    long getPage() {
+        return page;
+    }
+
+    int getPageCount() {
+        return pageCount;
+    }
+
+    private Node<K, V> load() {
+        return file.load(this);
+    }
+
+    @Override
+    public List<Node<K, V>> put(Box box, K key, V value, Configuration configuration,
+                                Reinsertion<K, V> reinsertion) {
+        return load().put(box, key, value, configuration, reinsertion);
+    }
+
+    @Override
+    public List<Node<K, V>> putBucket(Bucket<K, V> bucket, Configuration configuration,
+                                      Reinsertion<K, V> reinsertion) {
+        return load().putBucket(bucket, configuration, reinsertion);
+    }
+
+    @Override
+    public List<Node<K, V>> putNode(Node<K, V> node, int height, Configuration configuration,
+                                    Reinsertion<K, V> reinsertion) {
+        return load().putNode(node, height, configuration, reinsertion);
+    }
+
+    @Override
+    public NodeAndEntries<K, V> remove(Box box, Entry<K, V> entry, Configuration configuration) {
+        Node<K, V> loaded = load();
+        return unchangedIfLoaded(loaded, loaded.remove(box, entry, configuration));
+    }
+
+    @Override
+    public NodeAndEntries<K, V> remove(Box box, K key, Configuration configuration) {
+        Node<K, V> loaded = load();
+        return unchangedIfLoaded(loaded, loaded.remove(box, key, configuration));
+    }
+
+    @Override
+    public List<Node<K, V>> compute(Box box, K key, Computation<K, V> computation, Configuration configuration,
+                                    Reinsertion<K, V> reinsertion) {
+        Node<K, V> loaded = load();
+        List<Node<K, V>> nodes = loaded.compute(box, key, computation, configuration, reinsertion);
+        // keep referring to the stored node if nothing changed
+        return nodes.size() == 1 && nodes.get(0) == loaded ? Collections.singletonList(this) : nodes;
+    }
+
+    @Override
+    public Node<K, V> move(Box oldBox, K oldKey, Box newBox, K newKey, V value, Box bound,
+                           Configuration configuration) {
+        return this.box.contains(oldBox) ? load().move(oldBox, oldKey, newBox, newKey, value, bound, configuration)
+            : null;
+    }
+
+    private NodeAndEntries<K, V> unchangedIfLoaded(Node<K, V> loaded, NodeAndEntries<K, V> result) {
+        // keep referring to the stored node if nothing was removed
+        if (result.getNode() == loaded) {
+            return new NodeAndEntries<>(this, result.getEntriesToAdd(), result.countDeleted());
+        }
+        return result;
+    }
+
+    @Override
+    public Entry<K, V> get(Box box, K key) {
+        return this.box.contains(box) ? load().get(box, key) : null;
+    }
+
+    @Override
+    public boolean contains(Box box, Entry<K, V> entry) {
+        return this.box.contains(box) && load().contains(box, entry);
+    }
+
+    @Override
+    public boolean containsBucket(Box box) {
+        return this.box.contains(box) && load().containsBucket(box);
+    }
+
+    @Override
+    public int calculateDepth() {
+        return load().calculateDepth();
+    }
+
+    @Override
+    public Box getBox() {
+        return box;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isLeaf() {
+        return leaf;
+    }
+
+    @Override
+    public int fanout() {
+        return fanout;
+    }
+
+    @Override
+    public Hilbert.Value hilbertValue() {
+        Hilbert.Value value = hilbertValue;
+        if (value == null) {
+            value = load().hilbertValue();
+            hilbertValue = value;
+        }
+        return value;
+    }
+
+    @Override
+    public double worstScore(Configuration configuration) {
+        return worstScore;
+    }
+
+    @Override
+    public List<Node<K, V>> getChildren() {
+        return load().getChildren();
+    }
+
+    @Override
+    public List<Bucket<K, V>> getBuckets() {
+        return load().getBuckets();
+    }
+
+    @Override
+    public void forEach(Predicate<? super Box> boxPredicate, BiConsumer<? super K, ? super V> action) {
+        if (boxPredicate.test(box)) {
+            load().forEach(boxPredicate, action);
+        }
+    }
+
+    @Override
+    public boolean anyMatch(Predicate<? super Box> boxPredicate, BiPredicate<? super K, ? super V> entryPredicate) {
+        return boxPredicate.test(box) && load().anyMatch(boxPredicate, entryPredicate);
+    }
+
+    @Override
+    public boolean allMatch(Predicate<? super Box> boxPredicate, BiPredicate<? super K, ? super V> entryPredicate) {
+        return !boxPredicate.test(box) || load().allMatch(boxPredicate, entryPredicate);
+    }
+
+    @Override
+    public <T> T reduce(Predicate<? super Box> boxPredicate, T identity,
+                        Accumulator<T, ? super K, ? super V> accumulator) {
+        return boxPredicate.test(box) ? load().reduce(boxPredicate, identity, accumulator) : identity;
+    }
+
+    @Override
+    public int count(Predicate<? super Box> boxPredicate, BiPredicate<? super K, ? super V> entryPredicate) {
+        return boxPredicate.test(box) ? load().count(boxPredicate, entryPredicate) : 0;
+    }
+
+    @Override
+    public String asString(String margin) {
+        return load().asString(margin);
+    }
+
+    @Override
+    public String toString() {
+        return asString("");
+    }
+}
@@ -3,13 +3,11 @@ package com.jamieswhiteshirt.rtree3i;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.function.Function;
-import java.util.stream.Collectors;
 
 import com.google.common.base.Preconditions;
-import com.google.common.collect.Lists;
 
 /**
- * An O(n^4) time splitter with desirable results.
+ * An O(n^2) time splitter with desirable results, after Guttman's quadratic split.
  */
 public final class QuadraticSplitter implements Splitter {
 
@@ -20,79 +18,118 @@ public final class QuadraticSplitter implements Splitter {
         // according to
         // http://en.wikipedia.org/wiki/R-tree#Splitting_an_overflowing_node
 
+        final int n = items.size();
+        final int[] boxes = Boxes.pack(items, boxMapper);
+        final long[] volumes = new long[n];
+        for (int i = 0; i < n; i++) {
+            volumes[i] = Geometry.volume(boxes, i);
+        }
+
         // find the worst combination pairwise in the list and use them to start
         // the two groups
-        final Pair<T> worstCombination = worstCombination(items, boxMapper);
-
-        // worst combination to have in the same node is now e1,e2.
-
-        // establish a group around e1 and another group around e2
-        final List<T> group1 = Lists.newArrayList(worstCombination.getValue1());
-        final List<T> group2 = Lists.newArrayList(worstCombination.getValue2());
-
-        final List<T> remaining = new ArrayList<>(items);
-        remaining.remove(worstCombination.getValue1());
-        remaining.remove(worstCombination.getValue2());
-
-        final int minGroupSize = items.size() / 2;
-
-        // now add the remainder to the groups using least mbb area increase
-        // except in the case where minimumSize would be contradicted
-        while (remaining.size() > 0) {
-            assignRemaining(group1, group2, remaining, minGroupSize, boxMapper);
+        final int[] seeds = worstCombination(boxes, volumes);
+
+        // establish a group around each seed, with the running minimum bounding
+        // box of each group packed at index 0 and 1
+        final List<T> group1 = new ArrayList<>(n - 1);
+        final List<T> group2 = new ArrayList<>(n - 1);
+        group1.add(items.get(seeds[0]));
+        group2.add(items.get(seeds[1]));
+        final int[] mbbs = new int[2 * Boxes.STRIDE];
+        System.arraycopy(boxes, seeds[0] * Boxes.STRIDE, mbbs, 0, Boxes.STRIDE);
+        System.arraycopy(boxes, seeds[1] * Boxes.STRIDE, mbbs, Boxes.STRIDE, Boxes.STRIDE);
+        long volume1 = volumes[seeds[0]];
+        long volume2 = volumes[seeds[1]];
+
+        // the indices of the unassigned items in the first remainingCount slots
+        final int[] remaining = new int[n - 2];
+        int remainingCount = 0;
+        for (int i = 0; i < n; i++) {
+            if (i != seeds[0] && i != seeds[1]) remaining[remainingCount++] = i;
         }
-        return new Groups<>(Group.of(group1, boxMapper), Group.of(group2, boxMapper));
-    }
 
-    private <T> void assignRemaining(final List<T> group1,
-            final List<T> group2, final List<T> remaining, final int minGroupSize, Function<T, Box> key) {
-        final Box mbb1 = Util.mbb(group1.stream().map(key).collect(Collectors.toList()));
-        final Box mbb2 = Util.mbb(group2.stream().map(key).collect(Collectors.toList()));
-        final T item1 = getBestCandidateForGroup(remaining, mbb1, key);
-        final T item2 = getBestCandidateForGroup(remaining, mbb2, key);
-        final boolean volume1LessThanVolume2 = key.apply(item1).add(mbb1).getVolume() <= key.apply(item2)
-                .add(mbb2).getVolume();
+        final int minGroupSize = n / 2;
 
-        if (volume1LessThanVolume2 && (group2.size() + remaining.size() - 1 >= minGroupSize)
-                || !volume1LessThanVolume2 && (group1.size() + remaining.size() == minGroupSize)) {
-            group1.add(item1);
-            remaining.remove(item1);
-        } else {
-            group2.add(item2);
-            remaining.remove(item2);
+        // now add the remainder to the groups using least mbb volume increase
+        // except in the case where minimumSize would be contradicted
+        while (remainingCount > 0) {
+            final int slot;
+            final boolean toGroup1;
+            if (group1.size() + remainingCount <= minGroupSize) {
+                slot = remainingCount - 1;
+                toGroup1 = true;
+            } else if (group2.size() + remainingCount <= minGroupSize) {
+                slot = remainingCount - 1;
+                toGroup1 = false;
+            } else {
+                // pick the item with the greatest preference for one group
+                int bestSlot = 0;
+                long bestDifference = -1;
+                long bestIncrease1 = 0;
+                long bestIncrease2 = 0;
+                for (int j = 0; j < remainingCount; j++) {
+                    final int item = remaining[j];
+                    final long increase1 = Math.max(0L, Geometry.unionVolume(mbbs, 0, boxes, item) - volume1);
+                    final long increase2 = Math.max(0L, Geometry.unionVolume(mbbs, 1, boxes, item) - volume2);
+                    final long difference = Math.abs(increase1 - increase2);
+                    if (difference > bestDifference) {
+                        bestSlot = j;
+                        bestDifference = difference;
+                        bestIncrease1 = increase1;
+                        bestIncrease2 = increase2;
+                    }
+                }
+                slot = bestSlot;
+                if (bestIncrease1 != bestIncrease2) {
+                    toGroup1 = bestIncrease1 < bestIncrease2;
+                } else if (volume1 != volume2) {
+                    toGroup1 = volume1 < volume2;
+                } else {
+                    toGroup1 = group1.size() <= group2.size();
+                }
+            }
+            final int item = remaining[slot];
+            remaining[slot] = remaining[--remainingCount];
+            if (toGroup1) {
+                group1.add(items.get(item));
+                Boxes.union(mbbs, 0, mbbs, 0, boxes, item);
+                volume1 = Geometry.volume(mbbs, 0);
+            } else {
+                group2.add(items.get(item));
+                Boxes.union(mbbs, 1, mbbs, 1, boxes, item);
+                volume2 = Geometry.volume(mbbs, 1);
+            }
         }
+        return new Groups<>(new Group<>(group1, Boxes.get(mbbs, 0)), new Group<>(group2, Boxes.get(mbbs, 1)));
     }
 
-    static <T> T getBestCandidateForGroup(List<T> list, Box groupMbb, Function<T, Box> key) {
-        T minEntry = null;
-        int minVolume = Integer.MAX_VALUE;
-        for (final T entry : list) {
-            final int volume = groupMbb.add(key.apply(entry)).getVolume();
-            if (volume < minVolume) {
-                minVolume = volume;
-                minEntry = entry;
-            }
+    static <T> Pair<T> worstCombination(List<T> items, Function<T, Box> key) {
+        final int[] boxes = Boxes.pack(items, key);
+        final long[] volumes = new long[items.size()];
+        for (int i = 0; i < volumes.length; i++) {
+            volumes[i] = Geometry.volume(boxes, i);
         }
-        return minEntry;
+        final int[] pair = worstCombination(boxes, volumes);
+        return new Pair<>(items.get(pair[0]), items.get(pair[1]));
     }
 
-    static <T> Pair<T> worstCombination(List<T> items, Function<T, Box> key) {
-        T e1 = null;
-        T e2 = null;
-        int maxVolume = Integer.MIN_VALUE;
-        for (final T entry1 : items) {
-            for (final T entry2 : items) {
-                if (entry1 != entry2) {
-                    final int volume = key.apply(entry1).add(key.apply(entry2)).getVolume();
-                    if (volume > maxVolume) {
-                        e1 = entry1;
-                        e2 = entry2;
-                        maxVolume = volume;
-                    }
+    /**
+     * Returns the indices of the pair of packed boxes which would waste the most volume in the same group, which is the
+     * volume of their minimum bounding box not covered by either box. Each unordered pair is evaluated once.
+     */
+    private static int[] worstCombination(int[] boxes, long[] volumes) {
+        final int[] pair = { 0, 1 };
+        long maxWaste = Long.MIN_VALUE;
+        for (int i = 0; i < volumes.length; i++) {
+            for (int j = i + 1; j < volumes.length; j++) {
+                final long waste = Geometry.unionVolume(boxes, i, boxes, j) - volumes[i] - volumes[j];
+                if (waste > maxWaste) {
+                    pair[0] = i;
+                    pair[1] = j;
+                    maxWaste = waste;
                 }
             }
         }
-
-        return e1 != null ? new Pair<>(e1, e2) : new Pair<>(items.get(0), items.get(1));
+        return pair;
     }
 }
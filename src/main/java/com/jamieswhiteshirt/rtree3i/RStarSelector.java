@@ -6,10 +6,32 @@ import java.util.List;
  * Uses a {@link MinimalOverlapVolumeSelector} for leaf nodes and a {@link MinimalVolumeIncreaseSelector} for non-leaf nodes.
  */
 public final class RStarSelector implements Selector {
+    /**
+     * According to the R*-tree paper, limiting the overlap computation to the
+     * 32 nodes with the least volume increase barely affects the tree.
+     */
+    private static final int DEFAULT_CANDIDATES = 32;
 
-    private static Selector overlapVolumeSelector = new MinimalOverlapVolumeSelector();
     private static Selector volumeIncreaseSelector = new MinimalVolumeIncreaseSelector();
 
+    private final Selector overlapVolumeSelector;
+
+    /**
+     * Constructs an R*-tree selector which computes the overlap of the 32 leaf nodes with the least volume increase.
+     */
+    public RStarSelector() {
+        this(DEFAULT_CANDIDATES);
+    }
+
+    /**
+     * Constructs an R*-tree selector which computes the overlap of the candidates leaf nodes with the least volume
+     * increase.
+     * @param candidates the number of leaf nodes to compute the overlap of, at least 1
+     */
+    public RStarSelector(int candidates) {
+        this.overlapVolumeSelector = new MinimalOverlapVolumeSelector(candidates);
+    }
+
     @Override
     public <K, V> Node<K, V> select(Box box, List<Node<K, V>> nodes) {
         boolean leafNodes = nodes.get(0).isLeaf();
@@ -2,90 +2,113 @@ package com.jamieswhiteshirt.rtree3i;
 
 import java.util.*;
 import java.util.function.Function;
-import java.util.function.ToIntFunction;
 
 import com.google.common.base.Preconditions;
 
 /**
  * An R*-tree splitter.
+ * <p>
+ * The items are sorted once by each side of their boxes. For each sort, the bounding boxes of every prefix and every
+ * suffix of the sorted items are accumulated into packed arrays, so every distribution into a prefix and a suffix of at
+ * least minSize items is evaluated in constant time without allocating.
  */
 public final class RStarSplitter implements Splitter {
 
-    private final Comparator<Groups<?>> groupsComparator;
-
     /**
      * Constructs an R*-tree splitter.
      */
     public RStarSplitter() {
-        this.groupsComparator = com.jamieswhiteshirt.rtree3i.Comparators.groupsVolumeComparator.thenComparing(com.jamieswhiteshirt.rtree3i.Comparators.groupsIntersectionVolumeComparator);
     }
 
     @Override
     public <T> Groups<T> split(List<T> items, int minSize, Function<T, Box> boxMapper) {
-        Preconditions.checkArgument(!items.isEmpty());
-        // sort nodes into increasing x, calculate min overlap where both groups
-        // have more than minChildren
-
-        Map<SortType, List<Groups<T>>> map = new EnumMap<>(SortType.class);
+        Preconditions.checkArgument(items.size() >= 2);
+        final int n = items.size();
+        final int[] boxes = Boxes.pack(items, boxMapper);
+        final int groupMin = Math.max(1, Math.min(minSize, n / 2));
+
+        // the sort key of each item in the high 32 bits and its index in the
+        // low 32 bits, so sorting the longs is a stable sort of the indices
+        long[] order = new long[n];
+        long[] bestOrder = new long[n];
+        // prefix[i] bounds the first i + 1 sorted items, suffix[i] bounds the
+        // sorted items from i on
+        final int[] prefix = new int[n * Boxes.STRIDE];
+        final int[] suffix = new int[n * Boxes.STRIDE];
+
+        long bestMarginSum = Long.MAX_VALUE;
+        int bestSplit = -1;
+        Box bestBox1 = null;
+        Box bestBox2 = null;
         for (SortType sortType : SortType.values()) {
-            ToIntFunction<T> accessor = item -> sortType.keyAccessor.applyAsInt(boxMapper.apply(item));
-            Comparator<T> comparator = Comparator.comparingInt(accessor);
-            map.put(sortType, createPairs(minSize, sort(items, comparator), boxMapper));
+            for (int i = 0; i < n; i++) {
+                order[i] = (long) boxes[i * Boxes.STRIDE + sortType.offset] << 32 | i;
+            }
+            Arrays.sort(order);
+            int first = (int) order[0];
+            System.arraycopy(boxes, first * Boxes.STRIDE, prefix, 0, Boxes.STRIDE);
+            for (int i = 1; i < n; i++) {
+                Boxes.union(prefix, i, prefix, i - 1, boxes, (int) order[i]);
+            }
+            int last = (int) order[n - 1];
+            System.arraycopy(boxes, last * Boxes.STRIDE, suffix, (n - 1) * Boxes.STRIDE, Boxes.STRIDE);
+            for (int i = n - 2; i >= 0; i--) {
+                Boxes.union(suffix, i, suffix, i + 1, boxes, (int) order[i]);
+            }
+
+            // compute S the sum of all margin-values of the distributions, and
+            // the distribution with the least overlap then the least volume
+            long marginSum = 0;
+            int split = -1;
+            long minOverlap = Long.MAX_VALUE;
+            long minVolume = Long.MAX_VALUE;
+            for (int i = groupMin; i <= n - groupMin; i++) {
+                marginSum = Geometry.add(marginSum,
+                    Geometry.add(Geometry.margin(prefix, i - 1), Geometry.margin(suffix, i)));
+                long overlap = Geometry.intersectionVolume(prefix, i - 1, suffix, i);
+                long volume = Geometry.add(Geometry.volume(prefix, i - 1), Geometry.volume(suffix, i));
+                if (split == -1 || overlap < minOverlap || overlap == minOverlap && volume < minVolume) {
+                    split = i;
+                    minOverlap = overlap;
+                    minVolume = volume;
+                }
+            }
+
+            // the sort with the least S is then used
+            if (bestSplit == -1 || marginSum < bestMarginSum) {
+                bestMarginSum = marginSum;
+                bestSplit = split;
+                bestBox1 = Boxes.get(prefix, split - 1);
+                bestBox2 = Boxes.get(suffix, split);
+                long[] swap = bestOrder;
+                bestOrder = order;
+                order = swap;
+            }
         }
 
-        // compute S the sum of all margin-values of the lists above
-        // the list with the least S is then used to find minimum overlap
-
-        SortType leastMarginSumSortType = Collections.min(sortTypes, marginSumComparator(map));
-        List<Groups<T>> pairs = map.get(leastMarginSumSortType);
-
-        return Collections.min(pairs, groupsComparator);
-    }
-
-    private enum SortType {
-        X1(Box::x1),
-        X2(Box::x2),
-        Y1(Box::y1),
-        Y2(Box::y2),
-        Z1(Box::z1),
-        Z2(Box::z2);
-
-        final ToIntFunction<Box> keyAccessor;
-
-        SortType(ToIntFunction<Box> keyAccessor) {
-            this.keyAccessor = keyAccessor;
+        List<T> list1 = new ArrayList<>(bestSplit);
+        List<T> list2 = new ArrayList<>(n - bestSplit);
+        for (int i = 0; i < n; i++) {
+            (i < bestSplit ? list1 : list2).add(items.get((int) bestOrder[i]));
         }
+        return new Groups<>(new Group<>(list1, bestBox1), new Group<>(list2, bestBox2));
     }
 
-    private static final List<SortType> sortTypes = Collections
-            .unmodifiableList(Arrays.asList(SortType.values()));
-
-    private static <T> Comparator<SortType> marginSumComparator(final Map<SortType, List<Groups<T>>> map) {
-        return Comparator.comparing(sortType -> marginValueSum(map.get(sortType)));
-    }
-
-    private static <T> int marginValueSum(List<Groups<T>> list) {
-        int sum = 0;
-        for (Groups<T> p : list)
-            sum += p.getMarginSum();
-        return sum;
-    }
-
-    static <T> List<Groups<T>> createPairs(int minSize, List<T> list, Function<T, Box> key) {
-        List<Groups<T>> pairs = new ArrayList<Groups<T>>(list.size() - 2 * minSize + 1);
-        for (int i = minSize; i < list.size() - minSize + 1; i++) {
-            List<T> list1 = list.subList(0, i);
-            List<T> list2 = list.subList(i, list.size());
-            Groups<T> pair = new Groups<>(Group.of(list1, key), Group.of(list2, key));
-            pairs.add(pair);
+    private enum SortType {
+        X1(0),
+        X2(3),
+        Y1(1),
+        Y2(4),
+        Z1(2),
+        Z2(5);
+
+        /**
+         * Offset of the sort key within a packed box.
+         */
+        final int offset;
+
+        SortType(int offset) {
+            this.offset = offset;
         }
-        return pairs;
-    }
-
-    private static <T> List<T> sort(List<T> items, Comparator<T> comparator) {
-        ArrayList<T> list = new ArrayList<>(items);
-        list.sort(comparator);
-        return list;
     }
-
 }
@@ -1,6 +1,10 @@
 package com.jamieswhiteshirt.rtree3i;
 
+import com.google.common.base.Preconditions;
+
+import java.nio.ByteBuffer;
 import java.util.List;
+import java.util.function.BiFunction;
 import java.util.function.Function;
 import java.util.function.Predicate;
 
@@ -34,6 +38,11 @@ public final class RTreeMap<K, V> {
         return new RTreeMap<>(null, configuration, keyBoxMapper);
     }
 
+    static <K, V> RTreeMap<K, V> create(Node<K, V> root, Configuration configuration,
+                                        Function<? super K, Box> keyBoxMapper) {
+        return new RTreeMap<>(root, configuration, keyBoxMapper);
+    }
+
     private final Node<K, V> root;
     private final Configuration configuration;
     private final Function<? super K, Box> keyBoxMapper;
@@ -59,7 +68,7 @@ public final class RTreeMap<K, V> {
      * @return a {@link Selection} of keys matching the given box predicates
      */
     public Selection<K> keys(Predicate<? super Box> boxPredicate) {
-        return root != null ? NodeSelection.create(root, boxPredicate, Entry::getKey) : EmptySelection.create();
+        return root != null ? NodeSelection.create(root, boxPredicate, (key, value) -> key) : EmptySelection.create();
     }
 
     /**
@@ -77,7 +86,7 @@ public final class RTreeMap<K, V> {
      * @return a {@link Selection} of values matching the given box predicates
      */
     public Selection<V> values(Predicate<? super Box> boxPredicate) {
-        return root != null ? NodeSelection.create(root, boxPredicate, Entry::getValue) : EmptySelection.create();
+        return root != null ? NodeSelection.create(root, boxPredicate, (key, value) -> value) : EmptySelection.create();
     }
 
     /**
@@ -95,7 +104,7 @@ public final class RTreeMap<K, V> {
      * @return a {@link Selection} of entries matching the given box predicates
      */
     public Selection<Entry<K, V>> entries(Predicate<? super Box> boxPredicate) {
-        return root != null ? NodeSelection.create(root, boxPredicate, Function.identity()) : EmptySelection.create();
+        return root != null ? NodeSelection.create(root, boxPredicate, Entry::of) : EmptySelection.create();
     }
 
     /**
@@ -118,19 +127,7 @@ public final class RTreeMap<K, V> {
      * @return a copy of the RTreeMap including the given entry
      */
     public RTreeMap<K, V> put(Entry<K, V> entry) {
-        Box box = keyBoxMapper.apply(entry.getKey());
-        if (root != null) {
-            List<Node<K, V>> nodes = root.put(box, entry, configuration);
-            Node<K, V> node;
-            if (nodes.size() == 1)
-                node = nodes.get(0);
-            else {
-                node = Branch.containing(nodes);
-            }
-            return new RTreeMap<>(node, configuration, keyBoxMapper);
-        } else {
-            return new RTreeMap<>(Leaf.containing(Bucket.of(box, entry)), configuration, keyBoxMapper);
-        }
+        return put(entry.getKey(), entry.getValue());
     }
 
     /**
@@ -141,7 +138,75 @@ public final class RTreeMap<K, V> {
      * @return a copy of the RTreeMap that associates the specified value with the specified key
      */
     public RTreeMap<K, V> put(K key, V value) {
-        return put(Entry.of(key, value));
+        Preconditions.checkNotNull(key);
+        return putAt(keyBoxMapper.apply(key), key, value);
+    }
+
+    private RTreeMap<K, V> putAt(Box box, K key, V value) {
+        if (root != null) {
+            Reinsertion<K, V> reinsertion = createReinsertion();
+            return withPut(root.put(box, key, value, configuration, reinsertion), reinsertion);
+        } else {
+            return new RTreeMap<>(Leaf.containing(box, key, value, configuration), configuration, keyBoxMapper);
+        }
+    }
+
+    private Reinsertion<K, V> createReinsertion() {
+        return configuration.getReinsertCount() > 0 ? new Reinsertion<>(root.calculateDepth() - 1) : null;
+    }
+
+    /**
+     * Returns a copy of the RTreeMap with the root made of the nodes a put into the root returned, after putting the
+     * children removed for reinsertion, if any, again.
+     */
+    private RTreeMap<K, V> withPut(List<Node<K, V>> nodes, Reinsertion<K, V> reinsertion) {
+        if (reinsertion != null) {
+            Node<K, V> node = reinsertion.root(nodes, configuration);
+            return new RTreeMap<>(reinsertion.reinsert(node, configuration), configuration, keyBoxMapper);
+        }
+        return new RTreeMap<>(combine(nodes), configuration, keyBoxMapper);
+    }
+
+    /**
+     * Returns the root of the tree made of the nodes a put into the root returned. A root of a Hilbert-ordered tree
+     * which overflows has no sibling to share its children with, so it is split in two.
+     */
+    private Node<K, V> combine(List<Node<K, V>> nodes) {
+        if (nodes.size() != 1) {
+            return Branch.containing(nodes, configuration);
+        }
+        Node<K, V> node = nodes.get(0);
+        if (configuration.isHilbertOrdered() && node.fanout() > configuration.getMaxChildren()) {
+            return Branch.containing(Hilbert.distribute(node, null, 2, configuration), configuration);
+        }
+        return node;
+    }
+
+    /**
+     * Returns a copy of the RTreeMap without the mapping for the old key and with the new key mapped to the value. This
+     * is equivalent to removing the old key and then putting the new key, but if the box of the new key lies within
+     * the {@link Configuration#getMoveMargin() move margin} around the leaf of the old key, the entry is moved within
+     * its leaf and only the nodes on the path to the leaf are copied. This makes it cheap to move entries which change
+     * their box by small steps.
+     * @param oldKey key whose mapping is to be removed
+     * @param newKey key with which the value is to be associated
+     * @param value value to be associated with the new key
+     * @return a copy of the RTreeMap with the entry moved
+     */
+    public RTreeMap<K, V> move(K oldKey, K newKey, V value) {
+        Preconditions.checkNotNull(oldKey);
+        Preconditions.checkNotNull(newKey);
+        Box oldBox = keyBoxMapper.apply(oldKey);
+        Box newBox = keyBoxMapper.apply(newKey);
+        if (root != null) {
+            if (oldBox.equals(newBox) || !root.containsBucket(newBox)) {
+                Node<K, V> node = root.move(oldBox, oldKey, newBox, newKey, value, null, configuration);
+                if (node != null) {
+                    return new RTreeMap<>(node, configuration, keyBoxMapper);
+                }
+            }
+        }
+        return removeAt(oldBox, oldKey).putAt(newBox, newKey, value);
     }
 
     /**
@@ -188,25 +253,7 @@ public final class RTreeMap<K, V> {
      */
     public RTreeMap<K, V> remove(Entry<K, V> entry) {
         if (root != null) {
-            NodeAndEntries<K, V> nodeAndEntries = root.remove(keyBoxMapper.apply(entry.getKey()), entry, configuration);
-            if (nodeAndEntries.getNode() == root) {
-                return this;
-            } else {
-                Node<K, V> node = nodeAndEntries.getNode();
-                for (Bucket<K, V> bucket : nodeAndEntries.getEntriesToAdd()) {
-                    if (node != null) {
-                        List<Node<K, V>> nodes = node.putBucket(bucket, configuration);
-                        if (nodes.size() == 1) {
-                            node = nodes.get(0);
-                        } else {
-                            node = Branch.containing(nodes);
-                        }
-                    } else {
-                        node = Leaf.containing(bucket);
-                    }
-                }
-                return new RTreeMap<>(node, configuration, keyBoxMapper);
-            }
+            return withRemoved(root.remove(keyBoxMapper.apply(entry.getKey()), entry, configuration));
         }
         return this;
     }
@@ -217,28 +264,64 @@ public final class RTreeMap<K, V> {
      * @return a copy of the RTreeMap without the mapping
      */
     public RTreeMap<K, V> remove(K key) {
+        return removeAt(keyBoxMapper.apply(key), key);
+    }
+
+    private RTreeMap<K, V> removeAt(Box box, K key) {
         if (root != null) {
-            NodeAndEntries<K, V> nodeAndEntries = root.remove(keyBoxMapper.apply(key), key, configuration);
-            if (nodeAndEntries.getNode() == root) {
-                return this;
+            return withRemoved(root.remove(box, key, configuration));
+        }
+        return this;
+    }
+
+    /**
+     * Returns a copy of the RTreeMap with the same entries in a tree rebuilt by bulk loading. After long runs of puts
+     * and removes the nodes of the tree are often far from full and overlap a lot, which makes queries slower. The
+     * rebuilt tree has nodes which are as full as possible and overlap little.
+     * @return a copy of the RTreeMap with a rebuilt tree
+     */
+    public RTreeMap<K, V> optimize() {
+        if (root == null) {
+            return this;
+        }
+        return new RTreeMap<>(Repacker.repack(root, configuration), configuration, keyBoxMapper);
+    }
+
+    /**
+     * Returns a copy of the RTreeMap with at most the given number of badly shaped subtrees rebuilt by bulk loading.
+     * A subtree is badly shaped if its nodes are far from full or overlap a lot. The worst shaped subtrees are rebuilt
+     * first, each into a subtree of the same depth, so the rest of the tree is shared with this RTreeMap. Calling this
+     * method now and then restores the query performance of the RTreeMap in bounded steps instead of all at once.
+     * @param maxSubtrees the maximum number of subtrees to rebuild, at least 1
+     * @return a copy of the RTreeMap with the worst shaped subtrees rebuilt, or this RTreeMap if none are badly
+     *         shaped
+     */
+    public RTreeMap<K, V> optimize(int maxSubtrees) {
+        Preconditions.checkArgument(maxSubtrees >= 1);
+        if (root == null) {
+            return this;
+        }
+        Node<K, V> node = Repacker.repack(root, maxSubtrees, configuration);
+        return node != root ? new RTreeMap<>(node, configuration, keyBoxMapper) : this;
+    }
+
+    private RTreeMap<K, V> withRemoved(NodeAndEntries<K, V> nodeAndEntries) {
+        if (nodeAndEntries.getNode() == root) {
+            return this;
+        }
+        Node<K, V> node = nodeAndEntries.getNode();
+        // a root branch left with a single child is replaced by the child
+        while (node != null && !node.isLeaf() && node.fanout() == 1) {
+            node = node.getChildren().get(0);
+        }
+        for (Bucket<K, V> bucket : nodeAndEntries.getEntriesToAdd()) {
+            if (node != null) {
+                node = combine(node.putBucket(bucket, configuration, null));
             } else {
-                Node<K, V> node = nodeAndEntries.getNode();
-                for (Bucket<K, V> bucket : nodeAndEntries.getEntriesToAdd()) {
-                    if (node != null) {
-                        List<Node<K, V>> nodes = node.putBucket(bucket, configuration);
-                        if (nodes.size() == 1) {
-                            node = nodes.get(0);
-                        } else {
-                            node = Branch.containing(nodes);
-                        }
-                    } else {
-                        node = Leaf.containing(bucket);
-                    }
-                }
-                return new RTreeMap<>(node, configuration, keyBoxMapper);
+                node = Leaf.containing(bucket, configuration);
             }
         }
-        return this;
+        return new RTreeMap<>(node, configuration, keyBoxMapper);
     }
 
     /**
@@ -249,12 +332,108 @@ public final class RTreeMap<K, V> {
      *         the key
      */
     public V get(K key) {
-        if (root != null) {
-            Entry<K, V> entry = root.get(keyBoxMapper.apply(key), key);
-            return entry != null ? entry.getValue() : null;
-        } else {
-            return null;
+        Entry<K, V> entry = lookup(keyBoxMapper.apply(key), key);
+        return entry != null ? entry.getValue() : null;
+    }
+
+    /**
+     * Returns a copy of the RTreeMap with the key mapped to the value if it is not already mapped.
+     * @param key key with which the value is to be associated
+     * @param value value to be associated with the key
+     * @return a copy of the RTreeMap with the key mapped to the value, or this RTreeMap if the key is already mapped
+     */
+    public RTreeMap<K, V> putIfAbsent(K key, V value) {
+        Preconditions.checkNotNull(key);
+        return computeAt(keyBoxMapper.apply(key), key, (k, current) -> current != null ? current : value);
+    }
+
+    /**
+     * Returns a copy of the RTreeMap with the key mapped to the value computed by the remapping function from the key
+     * and the value it is currently mapped to, or {@code null} if it is not mapped. If the function returns
+     * {@code null}, the mapping is removed. The tree is descended once, and if the mapping is unchanged, this RTreeMap
+     * is returned, so callers can tell a no-op by identity.
+     * @param key key with which the computed value is to be associated
+     * @param remappingFunction function computing the new value
+     * @return a copy of the RTreeMap with the computed mapping, or this RTreeMap if the mapping is unchanged
+     */
+    public RTreeMap<K, V> compute(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        Preconditions.checkNotNull(key);
+        Preconditions.checkNotNull(remappingFunction);
+        return computeAt(keyBoxMapper.apply(key), key, remappingFunction);
+    }
+
+    /**
+     * Returns a copy of the RTreeMap with the key mapped to the value computed by the mapping function if it is not
+     * already mapped. If the function returns {@code null}, no mapping is added.
+     * @param key key with which the computed value is to be associated
+     * @param mappingFunction function computing the value
+     * @return a copy of the RTreeMap with the computed mapping, or this RTreeMap if the key is already mapped or the
+     *         function returns {@code null}
+     */
+    public RTreeMap<K, V> computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction) {
+        Preconditions.checkNotNull(key);
+        Preconditions.checkNotNull(mappingFunction);
+        return computeAt(keyBoxMapper.apply(key), key,
+            (k, current) -> current != null ? current : mappingFunction.apply(k));
+    }
+
+    /**
+     * Returns a copy of the RTreeMap with the key mapped to the value computed by the remapping function from the key
+     * and its current value if it is mapped. If the function returns {@code null}, the mapping is removed.
+     * @param key key with which the computed value is to be associated
+     * @param remappingFunction function computing the new value
+     * @return a copy of the RTreeMap with the computed mapping, or this RTreeMap if the key is not mapped or the mapping
+     *         is unchanged
+     */
+    public RTreeMap<K, V> computeIfPresent(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        Preconditions.checkNotNull(key);
+        Preconditions.checkNotNull(remappingFunction);
+        return computeAt(keyBoxMapper.apply(key), key,
+            (k, current) -> current != null ? remappingFunction.apply(k, current) : null);
+    }
+
+    /**
+     * Returns a copy of the RTreeMap with the key mapped to the value if it is not mapped, or else to the value
+     * computed by the remapping function from its current value and the value. If the function returns {@code null},
+     * the mapping is removed.
+     * @param key key with which the value is to be associated
+     * @param value value to be associated with the key if it is not mapped, or to be merged with its current value
+     * @param remappingFunction function merging the current value with the value
+     * @return a copy of the RTreeMap with the merged mapping, or this RTreeMap if the mapping is unchanged
+     */
+    public RTreeMap<K, V> merge(K key, V value, BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+        Preconditions.checkNotNull(key);
+        Preconditions.checkNotNull(value);
+        Preconditions.checkNotNull(remappingFunction);
+        return computeAt(keyBoxMapper.apply(key), key,
+            (k, current) -> current != null ? remappingFunction.apply(current, value) : value);
+    }
+
+    private Entry<K, V> lookup(Box box, K key) {
+        return root != null ? root.get(box, key) : null;
+    }
+
+    /**
+     * Returns a copy of the RTreeMap with the key mapped to the value computed by the function from its current value,
+     * or without the key if the function returns null. The leaf holding the key is found, updated and split or
+     * condensed in a single descent. Returns this RTreeMap if nothing changes.
+     */
+    private RTreeMap<K, V> computeAt(Box box, K key, BiFunction<? super K, ? super V, ? extends V> function) {
+        if (root == null) {
+            V value = function.apply(key, null);
+            return value != null ? putAt(box, key, value) : this;
+        }
+        Computation<K, V> computation = new Computation<>(function);
+        Reinsertion<K, V> reinsertion = createReinsertion();
+        List<Node<K, V>> nodes = root.compute(box, key, computation, configuration, reinsertion);
+        if (nodes.size() == 1 && nodes.get(0) == root) {
+            return this;
+        }
+        if (computation.isRemoval()) {
+            return withRemoved(new NodeAndEntries<>(nodes.isEmpty() ? null : nodes.get(0),
+                computation.getEntriesToAdd(), 1));
         }
+        return withPut(nodes, reinsertion);
     }
 
     /**
@@ -263,7 +442,7 @@ public final class RTreeMap<K, V> {
      * @return <tt>true</tt> if this RTreeMap contains a mapping for the specified key
      */
     public boolean containsKey(K key) {
-        return root != null && root.get(keyBoxMapper.apply(key), key) != null;
+        return lookup(keyBoxMapper.apply(key), key) != null;
     }
 
     /**
@@ -293,6 +472,55 @@ public final class RTreeMap<K, V> {
         return root != null ? root.size() : 0;
     }
 
+    /**
+     * Returns statistics on the shape of the tree of the RTreeMap, such as the fill and overlap of the nodes at each
+     * level. All of the statistics are gathered in a single traversal of the tree.
+     * @return statistics on the tree of the RTreeMap
+     */
+    public Statistics statistics() {
+        return Statistics.of(root, configuration);
+    }
+
+    /**
+     * Returns an immutable, query-only snapshot of this RTreeMap with its nodes compiled into flat arrays. The
+     * snapshot answers queries faster and with less memory than the RTreeMap, which is worthwhile for maps that are
+     * queried much more often than they are updated.
+     * @return a query-only snapshot of this RTreeMap
+     */
+    public FrozenRTreeMap<K, V> freeze() {
+        return new FrozenRTreeMap<>(flatten(), keyBoxMapper);
+    }
+
+    /**
+     * Returns an immutable, query-only snapshot of this RTreeMap stored in direct byte buffers outside of the Java
+     * heap. Boxes and the structure of the tree are stored as ints in the buffers, so the garbage collector does not
+     * have to trace the index. Only the keys and values themselves remain on the heap, referenced from the buffers by
+     * index.
+     * @return an off-heap query-only snapshot of this RTreeMap
+     */
+    public FrozenRTreeMap<K, V> freezeOffHeap() {
+        FlatTree<K, V> tree = flatten();
+        if (tree == null) {
+            return new FrozenRTreeMap<>(null, keyBoxMapper);
+        }
+        ByteBuffer[] segments = BufferTree.allocateDirect(BufferTree.sizeOf(tree));
+        ArrayHandles<K, V> handles = new ArrayHandles<>(tree.size());
+        BufferTree.write(tree, segments, handles);
+        return new FrozenRTreeMap<>(new BufferTree<>(segments, handles), keyBoxMapper);
+    }
+
+    Node<K, V> getRoot() {
+        return root;
+    }
+
+    Function<? super K, Box> getKeyBoxMapper() {
+        return keyBoxMapper;
+    }
+
+    FlatTree<K, V> flatten() {
+        return root != null ? FlatTree.of(root) : null;
+    }
+
     /**
      * Returns a {@link Configuration} containing the configuration of the RTreeMap at the time of instantiation.
      * @return the configuration of the RTreeMap at the time of instantiation
@@ -0,0 +1,128 @@
+package com.jamieswhiteshirt.rtree3i;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Writes and reads R-tree maps as a compact binary stream. The tree is written in pre-order, so a map can be streamed
+ * without holding more than a path of the tree in memory beyond the map itself. Reading rebuilds the nodes as they
+ * were written instead of inserting the entries one by one, so it takes time linear in the size of the map.
+ * <p>
+ * The stream starts with a magic number, a version and the number of entries as a varint. A non-empty map is followed
+ * by the box of the root and the root node, encoded as described by {@link NodeRecords}. A branch is followed by the
+ * box and node of each child.
+ * <p>
+ * Streams should be buffered, as values are written and read a few bytes at a time.
+ */
+public final class RTreeMapIO {
+    private static final int MAGIC = 0x52334953;
+    private static final int VERSION = 1;
+
+    private RTreeMapIO() {
+        // prevent instantiation
+    }
+
+    /**
+     * Writes the map to the output.
+     * @param map map to write
+     * @param out output to write to
+     * @param keyCodec codec of keys
+     * @param valueCodec codec of values
+     * @param <K> the type of keys maintained by the map
+     * @param <V> the type of mapped values
+     * @throws IOException if the output could not be written to
+     */
+    public static <K, V> void write(RTreeMap<K, V> map, DataOutput out, Codec<? super K> keyCodec,
+                                    Codec<? super V> valueCodec) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        Varints.writeUnsigned(out, map.size());
+        Node<K, V> root = map.getRoot();
+        if (root != null) {
+            NodeRecords.writeBox(root.getBox(), out);
+            writeNode(root, out, keyCodec, valueCodec);
+        }
+    }
+
+    private static <K, V> void writeNode(Node<K, V> node, DataOutput out, Codec<? super K> keyCodec,
+                                         Codec<? super V> valueCodec) throws IOException {
+        if (node.isLeaf()) {
+            NodeRecords.writeLeaf(node, out, keyCodec, valueCodec);
+        } else {
+            List<Node<K, V>> children = node.getChildren();
+            NodeRecords.writeHeader(out, children.size(), false);
+            for (Node<K, V> child : children) {
+                NodeRecords.writeBox(child.getBox(), node.getBox(), out);
+                writeNode(child, out, keyCodec, valueCodec);
+            }
+        }
+    }
+
+    /**
+     * Reads a map with {@link Box} keys from the input.
+     * @param in input to read from
+     * @param configuration configuration of the map
+     * @param valueCodec codec of values
+     * @param <V> the type of mapped values
+     * @return the map
+     * @throws IOException if the input could not be read from or is malformed
+     */
+    public static <V> RTreeMap<Box, V> read(DataInput in, Configuration configuration, Codec<V> valueCodec)
+        throws IOException {
+        return read(in, configuration, Codecs.box(), valueCodec, Function.identity());
+    }
+
+    /**
+     * Reads a map from the input. The nodes are rebuilt as they were written, so the maximum number of children of
+     * the configuration must be at least that of the configuration of the map that was written. The key-box mapper
+     * must be the one of the map that was written.
+     * @param in input to read from
+     * @param configuration configuration of the map
+     * @param keyCodec codec of keys
+     * @param valueCodec codec of values
+     * @param keyBoxMapper key-box mapper
+     * @param <K> the type of keys maintained by the map
+     * @param <V> the type of mapped values
+     * @return the map
+     * @throws IOException if the input could not be read from or is malformed
+     */
+    public static <K, V> RTreeMap<K, V> read(DataInput in, Configuration configuration, Codec<K> keyCodec,
+                                             Codec<V> valueCodec, Function<? super K, Box> keyBoxMapper)
+        throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a serialized R-tree map");
+        }
+        int version = in.readUnsignedByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported version " + version);
+        }
+        long size = Varints.readUnsigned(in);
+        if (size == 0) {
+            return RTreeMap.create(configuration, keyBoxMapper);
+        }
+        Node<K, V> root = readNode(NodeRecords.readBox(in), in, configuration, keyCodec, valueCodec);
+        if (root.size() != size) {
+            throw new IOException("Expected " + size + " entries, read " + root.size());
+        }
+        return RTreeMap.create(root, configuration, keyBoxMapper);
+    }
+
+    private static <K, V> Node<K, V> readNode(Box box, DataInput in, Configuration configuration, Codec<K> keyCodec,
+                                              Codec<V> valueCodec) throws IOException {
+        long header = NodeRecords.readHeader(in, configuration);
+        if (NodeRecords.isLeaf(header)) {
+            return NodeRecords.readLeaf(header, box, in, configuration, keyCodec, valueCodec);
+        } else {
+            int count = NodeRecords.count(header);
+            List<Node<K, V>> children = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                children.add(readNode(NodeRecords.readBox(box, in), in, configuration, keyCodec, valueCodec));
+            }
+            return Branch.containing(children, configuration);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.jamieswhiteshirt.rtree3i;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * The state of R*-tree forced reinsertion during a single put. The first time a node other than the root overflows at
+ * each level, the children farthest from the centre of the node are removed and put again from the root instead of
+ * splitting the node. Later overflows at the same level split as usual. Levels are counted from the leaves, which are
+ * at level 0.
+ */
+final class Reinsertion<K, V> {
+    private int rootLevel;
+    private long overflowedLevels = 0;
+    private final ArrayDeque<Node<K, V>> nodes = new ArrayDeque<>();
+    private final ArrayDeque<Bucket<K, V>> buckets = new ArrayDeque<>();
+
+    Reinsertion(int rootLevel) {
+        this.rootLevel = rootLevel;
+    }
+
+    /**
+     * Returns true if a node at the level which overflows should remove children for reinsertion, which is only the
+     * case for the first overflow at a level below the root.
+     */
+    boolean overflow(int level) {
+        if (level >= rootLevel || level >= Long.SIZE || (overflowedLevels & 1L << level) != 0) {
+            return false;
+        }
+        overflowedLevels |= 1L << level;
+        return true;
+    }
+
+    void add(Node<K, V> node) {
+        nodes.add(node);
+    }
+
+    void add(Bucket<K, V> bucket) {
+        buckets.add(bucket);
+    }
+
+    /**
+     * Returns the root of the tree made of the nodes a put into the root returned.
+     */
+    Node<K, V> root(List<Node<K, V>> nodes, Configuration configuration) {
+        if (nodes.size() == 1) {
+            return nodes.get(0);
+        }
+        rootLevel++;
+        return Branch.containing(nodes, configuration);
+    }
+
+    /**
+     * Puts all removed children into the tree, and returns the new root.
+     */
+    Node<K, V> reinsert(Node<K, V> root, Configuration configuration) {
+        while (!nodes.isEmpty() || !buckets.isEmpty()) {
+            if (!nodes.isEmpty()) {
+                Node<K, V> node = nodes.poll();
+                int height = rootLevel - node.calculateDepth();
+                root = root(root.putNode(node, height, configuration, this), configuration);
+            } else {
+                root = root(root.putBucket(buckets.poll(), configuration, this), configuration);
+            }
+        }
+        return root;
+    }
+
+    /**
+     * Returns the indices of the count items with the centres farthest from the centre of the box, nearest first.
+     */
+    static <T> int[] farthest(T[] items, Function<? super T, Box> boxMapper, Box box, int count) {
+        double[] distances = new double[items.length];
+        Integer[] order = new Integer[items.length];
+        for (int i = 0; i < items.length; i++) {
+            Box itemBox = boxMapper.apply(items[i]);
+            double dx = ((double) itemBox.x1() + itemBox.x2()) - ((double) box.x1() + box.x2());
+            double dy = ((double) itemBox.y1() + itemBox.y2()) - ((double) box.y1() + box.y2());
+            double dz = ((double) itemBox.z1() + itemBox.z2()) - ((double) box.z1() + box.z2());
+            distances[i] = dx * dx + dy * dy + dz * dz;
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparingDouble(i -> distances[i]));
+        int[] farthest = new int[count];
+        for (int i = 0; i < count; i++) {
+            farthest[i] = order[items.length - count + i];
+        }
+        return farthest;
+    }
+}
@@ -0,0 +1,192 @@
+package com.jamieswhiteshirt.rtree3i;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Repacks trees which have degraded under long runs of puts and removes. A full repack bulk loads all buckets of the
+ * tree into a new tree. An incremental repack only rebuilds the worst shaped subtrees, each into a subtree of the same
+ * depth with the same buckets, so the rest of the tree is kept as it is.
+ * <p>
+ * The shape of a branch is measured by its fill and by the overlap of its children. The fill is the fraction of its
+ * children which would be needed to hold the children of its children if they were packed as full as possible. The
+ * overlap is the total volume of the pairwise intersections of the children relative to the total volume of the
+ * children. A branch is badly shaped if its unused fraction plus its overlap exceeds {@link #THRESHOLD}.
+ * <p>
+ * Every node keeps the worst score in its subtree once computed, so after an update only the copied path is scored
+ * again. An incremental repack searches the tree best first by these scores and stops once it has found enough
+ * subtrees, so it only visits the branches on the paths to the worst subtrees and their children.
+ */
+final class Repacker {
+
+    /**
+     * The score above which a branch is repacked. A bulk loaded branch has full children and little overlap, so it
+     * scores close to 0, while a branch built by splits typically has children about two thirds full.
+     */
+    static final double THRESHOLD = 0.5;
+
+    private static final class Candidate<K, V> {
+        final int[] path;
+        final Node<K, V> node;
+        final double score;
+        // a candidate for the subtree is scored by its worst branch and is expanded when polled, while a candidate for
+        // the branch itself is scored by the branch and is repacked when polled
+        final boolean subtree;
+
+        Candidate(int[] path, Node<K, V> node, double score, boolean subtree) {
+            this.path = path;
+            this.node = node;
+            this.score = score;
+            this.subtree = subtree;
+        }
+    }
+
+    private Repacker() {
+        // prevent instantiation
+    }
+
+    /**
+     * Returns a bulk loaded tree with the buckets of the tree.
+     */
+    static <K, V> Node<K, V> repack(Node<K, V> root, Configuration configuration) {
+        return BulkLoader.load(buckets(root), configuration);
+    }
+
+    /**
+     * Returns the tree with at most the count worst shaped subtrees which score above the threshold repacked. The
+     * repacked subtrees are disjoint, and a repacked subtree only replaces the old one if it scores better.
+     */
+    static <K, V> Node<K, V> repack(Node<K, V> root, int count, Configuration configuration) {
+        PriorityQueue<Candidate<K, V>> candidates = new PriorityQueue<>(
+            Comparator.comparingDouble((Candidate<K, V> candidate) -> candidate.score).reversed());
+        offer(candidates, new int[0], root, configuration);
+        List<int[]> repacked = new ArrayList<>();
+        while (repacked.size() < count && !candidates.isEmpty()) {
+            Candidate<K, V> candidate = candidates.poll();
+            if (repacked.stream().anyMatch(path -> nested(path, candidate.path))) {
+                continue;
+            }
+            if (candidate.subtree) {
+                expand(candidates, candidate, configuration);
+            } else {
+                Node<K, V> node = candidate.node;
+                Node<K, V> replacement = BulkLoader.load(buckets(node), node.calculateDepth(), configuration);
+                // a subtree which is as well shaped as its buckets allow is kept, but still counts against the
+                // number of subtrees to bound the work done
+                if (score(replacement, configuration) < candidate.score) {
+                    root = replace(root, candidate.path, 0, replacement, configuration);
+                }
+                repacked.add(candidate.path);
+            }
+        }
+        return root;
+    }
+
+    /**
+     * Returns the score of the branch, which is 0 for a branch with as few children as could hold their own children
+     * and which do not overlap.
+     */
+    static double score(Node<?, ?> branch, Configuration configuration) {
+        List<? extends Node<?, ?>> children = branch.getChildren();
+        int n = children.size();
+        int used = 0;
+        for (Node<?, ?> child : children) {
+            used += child.fanout();
+        }
+        int maxChildren = configuration.getMaxChildren();
+        int needed = Math.max((used + maxChildren - 1) / maxChildren, Math.min(configuration.getMinChildren(), n));
+        double fill = needed / (double) n;
+        long overlap = 0;
+        long volume = 0;
+        for (int i = 0; i < n; i++) {
+            Box box = children.get(i).getBox();
+            volume = Geometry.add(volume, Geometry.volume(box));
+            for (int j = i + 1; j < n; j++) {
+                overlap = Geometry.add(overlap, Geometry.intersectionVolume(box, children.get(j).getBox()));
+            }
+        }
+        double overlapRatio = volume == 0 ? 0 : Math.min(1.0, overlap / (double) volume);
+        return 1 - fill + overlapRatio;
+    }
+
+    /**
+     * Offers the subtree of the node if it holds a badly shaped branch. Leaves and subtrees of well shaped branches are
+     * never read.
+     */
+    private static <K, V> void offer(PriorityQueue<Candidate<K, V>> candidates, int[] path, Node<K, V> node,
+                                     Configuration configuration) {
+        if (!node.isLeaf()) {
+            double worstScore = node.worstScore(configuration);
+            if (worstScore > THRESHOLD) {
+                candidates.add(new Candidate<>(path, node, worstScore, true));
+            }
+        }
+    }
+
+    /**
+     * Offers the branch of a subtree candidate itself if it is badly shaped, and the subtrees of its children.
+     */
+    private static <K, V> void expand(PriorityQueue<Candidate<K, V>> candidates, Candidate<K, V> candidate,
+                                      Configuration configuration) {
+        Node<K, V> node = candidate.node;
+        double score = score(node, configuration);
+        if (score > THRESHOLD) {
+            candidates.add(new Candidate<>(candidate.path, node, score, false));
+        }
+        List<Node<K, V>> children = node.getChildren();
+        for (int i = 0; i < children.size(); i++) {
+            int[] childPath = Arrays.copyOf(candidate.path, candidate.path.length + 1);
+            childPath[candidate.path.length] = i;
+            offer(candidates, childPath, children.get(i), configuration);
+        }
+    }
+
+    /**
+     * Returns true if either path leads to a descendant of the node the other path leads to, or to the same node.
+     */
+    private static boolean nested(int[] a, int[] b) {
+        for (int i = 0; i < Math.min(a.length, b.length); i++) {
+            if (a[i] != b[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the node with the descendant at the end of the path replaced. The replacement holds the same buckets, so
+     * the boxes and sizes of the nodes along the path are unchanged.
+     */
+    private static <K, V> Node<K, V> replace(Node<K, V> node, int[] path, int level, Node<K, V> replacement,
+                                             Configuration configuration) {
+        if (level == path.length) {
+            return replacement;
+        }
+        List<Node<K, V>> children = new ArrayList<>(node.getChildren());
+        int index = path[level];
+        children.set(index, replace(children.get(index), path, level + 1, replacement, configuration));
+        return Branch.containing(children, configuration);
+    }
+
+    /**
+     * Returns the buckets of the leaves below the node, in order.
+     */
+    static <K, V> List<Bucket<K, V>> buckets(Node<K, V> node) {
+        List<Bucket<K, V>> buckets = new ArrayList<>(node.size());
+        collect(node, buckets);
+        return buckets;
+    }
+
+    private static <K, V> void collect(Node<K, V> node, List<Bucket<K, V>> buckets) {
+        if (node.isLeaf()) {
+            buckets.addAll(node.getBuckets());
+        } else {
+            for (Node<K, V> child : node.getChildren()) {
+                collect(child, buckets);
+            }
+        }
+    }
+}
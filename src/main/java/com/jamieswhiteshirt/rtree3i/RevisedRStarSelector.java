@@ -0,0 +1,102 @@
+package com.jamieswhiteshirt.rtree3i;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A selector after the ChooseSubtree of the revised R*-tree (Beckmann and Seeger, 2009).
+ * <p>
+ * A node which already contains the box is preferred, choosing the one with the least volume. Otherwise the nodes are
+ * ordered by the increase of their perimeter. If enlarging the first node does not make it overlap any other node
+ * more, it is selected. If it does, the candidates are the nodes up to the last one the first node would overlap more,
+ * and the candidate whose enlargement increases its overlap with the other candidates the least is selected. Overlap
+ * is measured by volume, or by perimeter if some enlarged candidate has no volume.
+ */
+public final class RevisedRStarSelector implements Selector {
+
+    @Override
+    public <K, V> Node<K, V> select(Box box, List<Node<K, V>> nodes) {
+        final int n = nodes.size();
+
+        // prefer a node which needs no enlargement
+        Node<K, V> covering = null;
+        long coveringVolume = Long.MAX_VALUE;
+        long coveringPerimeter = Long.MAX_VALUE;
+        for (int i = 0; i < n; i++) {
+            Node<K, V> node = nodes.get(i);
+            Box nodeBox = node.getBox();
+            if (nodeBox.contains(box)) {
+                long volume = Geometry.volume(nodeBox);
+                long perimeter = Geometry.perimeter(nodeBox);
+                if (covering == null || volume < coveringVolume
+                    || volume == coveringVolume && perimeter < coveringPerimeter) {
+                    covering = node;
+                    coveringVolume = volume;
+                    coveringPerimeter = perimeter;
+                }
+            }
+        }
+        if (covering != null) {
+            return covering;
+        }
+
+        // order the nodes by perimeter increase, stably by index, which fits
+        // in the low 20 bits as nodes have far fewer children
+        final long[] order = new long[n];
+        for (int i = 0; i < n; i++) {
+            Box nodeBox = nodes.get(i).getBox();
+            long increase = Geometry.unionPerimeter(nodeBox, box) - Geometry.perimeter(nodeBox);
+            order[i] = increase << 20 | i;
+        }
+        Arrays.sort(order);
+
+        // select the first node if enlarging it does not increase overlap
+        final Box first = nodes.get(index(order[0])).getBox();
+        int last = 0;
+        for (int k = 1; k < n; k++) {
+            Box other = nodes.get(index(order[k])).getBox();
+            if (Geometry.overlapPerimeter(first, box, other) > Geometry.intersectionPerimeter(first, other)) {
+                last = k;
+            }
+        }
+        if (last == 0) {
+            return nodes.get(index(order[0]));
+        }
+
+        boolean byVolume = true;
+        for (int k = 0; k <= last; k++) {
+            if (Geometry.unionVolume(nodes.get(index(order[k])).getBox(), box) == 0) {
+                byVolume = false;
+                break;
+            }
+        }
+
+        // select the candidate with the least overlap increase with the other
+        // candidates
+        int best = 0;
+        long bestIncrease = Long.MAX_VALUE;
+        for (int c = 0; c <= last; c++) {
+            Box candidate = nodes.get(index(order[c])).getBox();
+            long increase = 0;
+            for (int k = 0; k <= last; k++) {
+                if (k == c) continue;
+                Box other = nodes.get(index(order[k])).getBox();
+                increase = Geometry.add(increase, byVolume
+                    ? Geometry.overlapVolume(candidate, box, other) - Geometry.intersectionVolume(candidate, other)
+                    : Geometry.overlapPerimeter(candidate, box, other) - Geometry.intersectionPerimeter(candidate, other));
+            }
+            if (increase == 0) {
+                return nodes.get(index(order[c]));
+            }
+            if (increase < bestIncrease) {
+                best = c;
+                bestIncrease = increase;
+            }
+        }
+        return nodes.get(index(order[best]));
+    }
+
+    private static int index(long sortKey) {
+        return (int) (sortKey & 0xFFFFF);
+    }
+}
@@ -0,0 +1,149 @@
+package com.jamieswhiteshirt.rtree3i;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A splitter after the split of the revised R*-tree (Beckmann and Seeger, 2009).
+ * <p>
+ * The split axis is the one with the least sum of perimeters over all distributions of the items sorted by the low and
+ * by the high sides of their boxes along it. Along that axis, the distribution with the least overlap is chosen, or if
+ * some distributions do not overlap, the one of those with the least perimeter. Either goal is weighted by a bell curve
+ * which is shifted towards the side the node grew on when the item which made it overflow was added, so the items of
+ * the original node tend to stay together.
+ */
+public final class RevisedRStarSplitter implements Splitter {
+    private static final double S = 0.5;
+    private static final double Y1 = Math.exp(-1 / (S * S));
+    private static final double YS = 1 / (1 - Y1);
+
+    @Override
+    public <T> Groups<T> split(List<T> items, int minSize, Function<T, Box> boxMapper) {
+        return split(items, minSize, boxMapper, null);
+    }
+
+    @Override
+    public <T> Groups<T> split(List<T> items, int minSize, Function<T, Box> boxMapper, Box originalBox) {
+        Preconditions.checkArgument(items.size() >= 2);
+        final int n = items.size();
+        final int[] boxes = Boxes.pack(items, boxMapper);
+        final int groupMin = Math.max(1, Math.min(minSize, n / 2));
+        final long[] order = new long[n];
+        final int[] prefix = new int[n * Boxes.STRIDE];
+        final int[] suffix = new int[n * Boxes.STRIDE];
+
+        // choose the axis with the least perimeter sum
+        int axis = 0;
+        long bestPerimeterSum = Long.MAX_VALUE;
+        for (int a = 0; a < 3; a++) {
+            long perimeterSum = 0;
+            for (int side = a; side < Boxes.STRIDE; side += 3) {
+                sweep(boxes, side, order, prefix, suffix);
+                for (int i = groupMin; i <= n - groupMin; i++) {
+                    perimeterSum = Geometry.add(perimeterSum,
+                        Geometry.perimeter(prefix, i - 1) + Geometry.perimeter(suffix, i));
+                }
+            }
+            if (perimeterSum < bestPerimeterSum) {
+                bestPerimeterSum = perimeterSum;
+                axis = a;
+            }
+        }
+
+        // how far the centre moved from the original centre along the axis,
+        // relative to the extent of the new bounding box, from -1 to 1
+        sweep(boxes, axis, order, prefix, suffix);
+        double asym = 0;
+        if (originalBox != null) {
+            double low = prefix[(n - 1) * Boxes.STRIDE + axis];
+            double high = prefix[(n - 1) * Boxes.STRIDE + axis + 3];
+            double originalLow = originalBox.x1();
+            double originalHigh = originalBox.x2();
+            if (axis == 1) {
+                originalLow = originalBox.y1();
+                originalHigh = originalBox.y2();
+            } else if (axis == 2) {
+                originalLow = originalBox.z1();
+                originalHigh = originalBox.z2();
+            }
+            if (high > low) {
+                asym = Math.max(-1, Math.min(1, ((low + high) - (originalLow + originalHigh)) / (high - low)));
+            }
+        }
+        final double mu = (1 - 2.0 * groupMin / n) * asym;
+        final double sigma = S * (1 + Math.abs(mu));
+        final long maxPerimeter = Geometry.multiply(2, Geometry.perimeter(prefix, n - 1));
+
+        int bestSide = -1;
+        int bestSplit = -1;
+        boolean bestOverlapFree = false;
+        double bestWeight = Double.POSITIVE_INFINITY;
+        for (int side = axis; side < Boxes.STRIDE; side += 3) {
+            sweep(boxes, side, order, prefix, suffix);
+            for (int i = groupMin; i <= n - groupMin; i++) {
+                boolean byVolume = Geometry.volume(prefix, i - 1) > 0 && Geometry.volume(suffix, i) > 0;
+                long overlap = byVolume
+                    ? Geometry.intersectionVolume(prefix, i - 1, suffix, i)
+                    : Geometry.intersectionPerimeter(prefix, i - 1, suffix, i);
+                double x = 2.0 * i / n - 1;
+                double weight = Math.max(YS * (Math.exp(-square((x - mu) / sigma)) - Y1), Double.MIN_NORMAL);
+                if (overlap == 0) {
+                    // overlap free distributions beat all others, and among
+                    // them the least perimeter wins
+                    long perimeter = Geometry.perimeter(prefix, i - 1) + Geometry.perimeter(suffix, i);
+                    double goal = (double) (perimeter - maxPerimeter) * weight;
+                    if (!bestOverlapFree || goal < bestWeight) {
+                        bestOverlapFree = true;
+                        bestWeight = goal;
+                        bestSide = side;
+                        bestSplit = i;
+                    }
+                } else if (!bestOverlapFree) {
+                    double goal = overlap / weight;
+                    if (bestSplit == -1 || goal < bestWeight) {
+                        bestWeight = goal;
+                        bestSide = side;
+                        bestSplit = i;
+                    }
+                }
+            }
+        }
+
+        sweep(boxes, bestSide, order, prefix, suffix);
+        List<T> list1 = new ArrayList<>(bestSplit);
+        List<T> list2 = new ArrayList<>(n - bestSplit);
+        for (int i = 0; i < n; i++) {
+            (i < bestSplit ? list1 : list2).add(items.get((int) order[i]));
+        }
+        return new Groups<>(new Group<>(list1, Boxes.get(prefix, bestSplit - 1)),
+            new Group<>(list2, Boxes.get(suffix, bestSplit)));
+    }
+
+    /**
+     * Sorts the indices of the packed boxes by the side at the offset into the low 32 bits of order, and accumulates
+     * the bounding boxes of every prefix and suffix of the sorted boxes.
+     */
+    private static void sweep(int[] boxes, int side, long[] order, int[] prefix, int[] suffix) {
+        int n = order.length;
+        for (int i = 0; i < n; i++) {
+            order[i] = (long) boxes[i * Boxes.STRIDE + side] << 32 | i;
+        }
+        Arrays.sort(order);
+        System.arraycopy(boxes, (int) order[0] * Boxes.STRIDE, prefix, 0, Boxes.STRIDE);
+        for (int i = 1; i < n; i++) {
+            Boxes.union(prefix, i, prefix, i - 1, boxes, (int) order[i]);
+        }
+        System.arraycopy(boxes, (int) order[n - 1] * Boxes.STRIDE, suffix, (n - 1) * Boxes.STRIDE, Boxes.STRIDE);
+        for (int i = n - 2; i >= 0; i--) {
+            Boxes.union(suffix, i, suffix, i + 1, boxes, (int) order[i]);
+        }
+    }
+
+    private static double square(double x) {
+        return x * x;
+    }
+}
@@ -0,0 +1,33 @@
+package com.jamieswhiteshirt.rtree3i;
+
+import java.util.function.BiConsumer;
+import java.util.function.BiPredicate;
+import java.util.function.Predicate;
+
+/**
+ * The search operations of a tree of entries, which are all a {@link Selection} needs. Entries are passed on as a key
+ * and a value, so that a search only creates an {@link Entry} where one is handed to the caller.
+ *
+ * @param <K> entry key type
+ * @param <V> entry value type
+ */
+interface Searchable<K, V> {
+
+    /**
+     * Folds the key and value of an entry into an accumulated result.
+     */
+    interface Accumulator<T, K, V> {
+        T apply(T acc, K key, V value);
+    }
+
+    void forEach(Predicate<? super Box> boxPredicate, BiConsumer<? super K, ? super V> action);
+
+    boolean anyMatch(Predicate<? super Box> boxPredicate, BiPredicate<? super K, ? super V> entryPredicate);
+
+    boolean allMatch(Predicate<? super Box> boxPredicate, BiPredicate<? super K, ? super V> entryPredicate);
+
+    <T> T reduce(Predicate<? super Box> boxPredicate, T identity, Accumulator<T, ? super K, ? super V> accumulator);
+
+    int count(Predicate<? super Box> boxPredicate, BiPredicate<? super K, ? super V> entryPredicate);
+
+}
@@ -0,0 +1,427 @@
+package com.jamieswhiteshirt.rtree3i;
+
+import com.google.common.collect.MapMaker;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * An append-only store of checkpoints of an R-tree map. Maps are immutable and updates copy only the path to the
+ * updated leaves, so consecutive versions of a map share most of their nodes. A checkpoint writes only the nodes which
+ * have not been written by an earlier checkpoint, followed by a record pointing to the root, so the cost of a
+ * checkpoint is proportional to what changed since the last one rather than to the size of the map.
+ * <p>
+ * Nodes are recognized by identity. The store remembers the position of every node it has written or read for as long
+ * as the node is reachable, so checkpointing a map derived from a map loaded from the store also writes only the
+ * changed nodes.
+ * <p>
+ * The store is a directory holding two files. The node file is a sequence of node records, each an int length followed
+ * by the box of the node and the node encoded as described by {@link NodeRecords}. A branch is followed by the
+ * positions of its children as longs. The checkpoint file is a sequence of fixed-size records
+ * holding the checkpoint number, the position of the root, the number of entries and the length of the node file
+ * after the checkpoint. Anything written after the last complete checkpoint is discarded when the store is opened.
+ * <p>
+ * Old checkpoints can be dropped with {@link #compact(long)}, which copies the nodes reachable from the remaining
+ * checkpoints to a new node file.
+ * @param <K> the type of keys maintained by the map
+ * @param <V> the type of mapped values
+ */
+public final class SnapshotStore<K, V> implements Closeable {
+    private static final String NODES = "nodes";
+    private static final String CHECKPOINTS = "checkpoints";
+    private static final String COMPACT = ".compact";
+    private static final String READY = ".ready";
+    private static final int CHECKPOINT_SIZE = 32;
+    private static final int CHECKPOINT_MAGIC = 0x52334943;
+    private static final long NO_ROOT = -1;
+
+    private static final class Checkpoint {
+        final long id;
+        final long root;
+        final int size;
+        final long end;
+
+        Checkpoint(long id, long root, int size, long end) {
+            this.id = id;
+            this.root = root;
+            this.size = size;
+            this.end = end;
+        }
+    }
+
+    private final Path directory;
+    private final Configuration configuration;
+    private final Codec<K> keyCodec;
+    private final Codec<V> valueCodec;
+    private final Function<? super K, Box> keyBoxMapper;
+    private final Map<Node<K, V>, Long> positions = new MapMaker().weakKeys().makeMap();
+    private final List<Checkpoint> checkpoints = new ArrayList<>();
+    private FileChannel nodes;
+    private FileChannel checkpointFile;
+    private long end;
+
+    /**
+     * Opens a store of maps with {@link Box} keys, creating the directory and files if they do not exist.
+     * @param directory directory of the store
+     * @param configuration configuration of loaded maps
+     * @param valueCodec codec of values
+     * @param <V> the type of mapped values
+     * @return the store
+     * @throws IOException if the store could not be opened
+     */
+    public static <V> SnapshotStore<Box, V> open(Path directory, Configuration configuration, Codec<V> valueCodec)
+        throws IOException {
+        return open(directory, configuration, Codecs.box(), valueCodec, Function.identity());
+    }
+
+    /**
+     * Opens a store, creating the directory and files if they do not exist.
+     * @param directory directory of the store
+     * @param configuration configuration of loaded maps
+     * @param keyCodec codec of keys
+     * @param valueCodec codec of values
+     * @param keyBoxMapper key-box mapper of loaded maps
+     * @param <K> the type of keys maintained by the map
+     * @param <V> the type of mapped values
+     * @return the store
+     * @throws IOException if the store could not be opened
+     */
+    public static <K, V> SnapshotStore<K, V> open(Path directory, Configuration configuration, Codec<K> keyCodec,
+                                                  Codec<V> valueCodec, Function<? super K, Box> keyBoxMapper)
+        throws IOException {
+        Files.createDirectories(directory);
+        SnapshotStore<K, V> store = new SnapshotStore<>(directory, configuration, keyCodec, valueCodec, keyBoxMapper);
+        try {
+            store.openFiles();
+        } catch (IOException | RuntimeException e) {
+            store.close();
+            throw e;
+        }
+        return store;
+    }
+
+    private SnapshotStore(Path directory, Configuration configuration, Codec<K> keyCodec, Codec<V> valueCodec,
+                          Function<? super K, Box> keyBoxMapper) {
+        this.directory = directory;
+        this.configuration = configuration;
+        this.keyCodec = keyCodec;
+        this.valueCodec = valueCodec;
+        this.keyBoxMapper = keyBoxMapper;
+    }
+
+    private void openFiles() throws IOException {
+        finishCompaction();
+        nodes = FileChannel.open(directory.resolve(NODES), StandardOpenOption.CREATE, StandardOpenOption.READ,
+            StandardOpenOption.WRITE);
+        checkpointFile = FileChannel.open(directory.resolve(CHECKPOINTS), StandardOpenOption.CREATE,
+            StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long count = checkpointFile.size() / CHECKPOINT_SIZE;
+        ByteBuffer record = ByteBuffer.allocate(CHECKPOINT_SIZE);
+        for (long i = 0; i < count; i++) {
+            record.clear();
+            read(checkpointFile, record, i * CHECKPOINT_SIZE);
+            if (record.getInt(28) != CHECKPOINT_MAGIC) {
+                count = i;
+                break;
+            }
+            checkpoints.add(new Checkpoint(record.getLong(0), record.getLong(8), record.getInt(24),
+                record.getLong(16)));
+        }
+        // discard anything written after the last complete checkpoint
+        checkpointFile.truncate(count * CHECKPOINT_SIZE);
+        end = checkpoints.isEmpty() ? 0 : checkpoints.get(checkpoints.size() - 1).end;
+        nodes.truncate(end);
+    }
+
+    /**
+     * Completes or rolls back a compaction interrupted by a crash. A compaction takes effect once the compacted
+     * checkpoint file has been renamed to be ready.
+     */
+    private void finishCompaction() throws IOException {
+        Path ready = directory.resolve(CHECKPOINTS + READY);
+        Path compactedNodes = directory.resolve(NODES + COMPACT);
+        if (Files.exists(ready)) {
+            if (Files.exists(compactedNodes)) {
+                Files.move(compactedNodes, directory.resolve(NODES), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            }
+            Files.move(ready, directory.resolve(CHECKPOINTS), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        } else {
+            Files.deleteIfExists(compactedNodes);
+            Files.deleteIfExists(directory.resolve(CHECKPOINTS + COMPACT));
+        }
+    }
+
+    private static void read(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of file");
+            }
+        }
+    }
+
+    private static void write(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position());
+        }
+    }
+
+    /**
+     * Writes a checkpoint of the map. Only nodes which this store has not written before are written.
+     * @param map map to checkpoint
+     * @return the number of the checkpoint
+     * @throws IOException if the store could not be written to
+     */
+    public synchronized long checkpoint(RTreeMap<K, V> map) throws IOException {
+        Node<K, V> root = map.getRoot();
+        long rootPosition = root != null ? writeNode(root) : NO_ROOT;
+        nodes.force(false);
+        long id = checkpoints.isEmpty() ? 0 : checkpoints.get(checkpoints.size() - 1).id + 1;
+        Checkpoint checkpoint = new Checkpoint(id, rootPosition, map.size(), end);
+        writeCheckpoint(checkpointFile, checkpoint, (long) checkpoints.size() * CHECKPOINT_SIZE);
+        checkpointFile.force(false);
+        checkpoints.add(checkpoint);
+        return id;
+    }
+
+    private static void writeCheckpoint(FileChannel channel, Checkpoint checkpoint, long position)
+        throws IOException {
+        ByteBuffer record = ByteBuffer.allocate(CHECKPOINT_SIZE);
+        record.putLong(0, checkpoint.id);
+        record.putLong(8, checkpoint.root);
+        record.putLong(16, checkpoint.end);
+        record.putInt(24, checkpoint.size);
+        record.putInt(28, CHECKPOINT_MAGIC);
+        write(channel, record, position);
+    }
+
+    private long writeNode(Node<K, V> node) throws IOException {
+        Long existing = positions.get(node);
+        if (existing != null) {
+            return existing;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0);
+        NodeRecords.writeBox(node.getBox(), out);
+        if (node.isLeaf()) {
+            NodeRecords.writeLeaf(node, out, keyCodec, valueCodec);
+        } else {
+            List<Node<K, V>> children = node.getChildren();
+            long[] childPositions = new long[children.size()];
+            for (int i = 0; i < childPositions.length; i++) {
+                childPositions[i] = writeNode(children.get(i));
+            }
+            NodeRecords.writeHeader(out, childPositions.length, false);
+            for (long childPosition : childPositions) {
+                out.writeLong(childPosition);
+            }
+        }
+        ByteBuffer record = ByteBuffer.wrap(bytes.toByteArray());
+        record.putInt(0, record.capacity() - 4);
+        long position = end;
+        write(nodes, record, position);
+        end += record.capacity();
+        positions.put(node, position);
+        return position;
+    }
+
+    private byte[] readRecord(FileChannel channel, long position) throws IOException {
+        ByteBuffer length = ByteBuffer.allocate(4);
+        read(channel, length, position);
+        ByteBuffer record = ByteBuffer.allocate(length.getInt(0));
+        read(channel, record, position + 4);
+        return record.array();
+    }
+
+    private Node<K, V> readNode(long position) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(readRecord(nodes, position)));
+        Box box = NodeRecords.readBox(in);
+        long header = NodeRecords.readHeader(in, configuration);
+        Node<K, V> node;
+        if (NodeRecords.isLeaf(header)) {
+            node = NodeRecords.readLeaf(header, box, in, configuration, keyCodec, valueCodec);
+        } else {
+            int count = NodeRecords.count(header);
+            long[] childPositions = new long[count];
+            for (int i = 0; i < count; i++) {
+                childPositions[i] = in.readLong();
+            }
+            List<Node<K, V>> children = new ArrayList<>(count);
+            for (long childPosition : childPositions) {
+                children.add(readNode(childPosition));
+            }
+            node = Branch.containing(children, configuration);
+        }
+        positions.put(node, position);
+        return node;
+    }
+
+    /**
+     * Returns the numbers of the checkpoints in the store, oldest first.
+     * @return the numbers of the checkpoints in the store
+     */
+    public synchronized List<Long> getCheckpoints() {
+        List<Long> ids = new ArrayList<>(checkpoints.size());
+        for (Checkpoint checkpoint : checkpoints) {
+            ids.add(checkpoint.id);
+        }
+        return Collections.unmodifiableList(ids);
+    }
+
+    /**
+     * Returns the number of bytes of nodes in the store.
+     * @return the number of bytes of nodes in the store
+     */
+    public synchronized long getNodeBytes() {
+        return end;
+    }
+
+    /**
+     * Loads the map of the latest checkpoint, or an empty map if there are no checkpoints.
+     * @return the map of the latest checkpoint
+     * @throws IOException if the store could not be read from
+     */
+    public synchronized RTreeMap<K, V> load() throws IOException {
+        return checkpoints.isEmpty()
+            ? RTreeMap.create(configuration, keyBoxMapper)
+            : load(checkpoints.get(checkpoints.size() - 1));
+    }
+
+    /**
+     * Loads the map of a checkpoint.
+     * @param checkpoint number of the checkpoint
+     * @return the map of the checkpoint
+     * @throws IOException if the store could not be read from
+     * @throws IllegalArgumentException if the store does not have the checkpoint
+     */
+    public synchronized RTreeMap<K, V> load(long checkpoint) throws IOException {
+        return load(find(checkpoint));
+    }
+
+    private Checkpoint find(long id) {
+        for (Checkpoint checkpoint : checkpoints) {
+            if (checkpoint.id == id) {
+                return checkpoint;
+            }
+        }
+        throw new IllegalArgumentException("No checkpoint " + id);
+    }
+
+    private RTreeMap<K, V> load(Checkpoint checkpoint) throws IOException {
+        Node<K, V> root = checkpoint.root != NO_ROOT ? readNode(checkpoint.root) : null;
+        return RTreeMap.create(root, configuration, keyBoxMapper);
+    }
+
+    /**
+     * Drops all checkpoints older than the given checkpoint and reclaims the space of the nodes only they reach. The
+     * nodes reachable from the remaining checkpoints are copied to a new node file, which then replaces the old one.
+     * @param oldest number of the oldest checkpoint to keep
+     * @throws IOException if the store could not be compacted
+     * @throws IllegalArgumentException if the store does not have the checkpoint
+     */
+    public synchronized void compact(long oldest) throws IOException {
+        int first = checkpoints.indexOf(find(oldest));
+        List<Checkpoint> retained = new ArrayList<>(checkpoints.subList(first, checkpoints.size()));
+        Path compactedNodes = directory.resolve(NODES + COMPACT);
+        Path compactedCheckpoints = directory.resolve(CHECKPOINTS + COMPACT);
+        Map<Long, Long> moved = new HashMap<>();
+        List<Checkpoint> compacted = new ArrayList<>(retained.size());
+        try (FileChannel nodesOut = FileChannel.open(compactedNodes, StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+             FileChannel checkpointsOut = FileChannel.open(compactedCheckpoints, StandardOpenOption.CREATE,
+                 StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long[] compactedEnd = { 0 };
+            for (int i = 0; i < retained.size(); i++) {
+                Checkpoint checkpoint = retained.get(i);
+                long root = checkpoint.root != NO_ROOT ? copy(checkpoint.root, nodesOut, compactedEnd, moved) : NO_ROOT;
+                Checkpoint copy = new Checkpoint(checkpoint.id, root, checkpoint.size, compactedEnd[0]);
+                writeCheckpoint(checkpointsOut, copy, (long) i * CHECKPOINT_SIZE);
+                compacted.add(copy);
+            }
+            nodesOut.force(true);
+            checkpointsOut.force(true);
+        }
+        // the compaction takes effect here, and is completed on open if interrupted after this point
+        Files.move(compactedCheckpoints, directory.resolve(CHECKPOINTS + READY), StandardCopyOption.ATOMIC_MOVE);
+        nodes.close();
+        checkpointFile.close();
+        finishCompaction();
+        checkpoints.clear();
+        checkpoints.addAll(compacted);
+        for (Map.Entry<Node<K, V>, Long> entry : positions.entrySet()) {
+            Long position = moved.get(entry.getValue());
+            if (position != null) {
+                positions.put(entry.getKey(), position);
+            } else {
+                positions.remove(entry.getKey());
+            }
+        }
+        nodes = FileChannel.open(directory.resolve(NODES), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        checkpointFile = FileChannel.open(directory.resolve(CHECKPOINTS), StandardOpenOption.READ,
+            StandardOpenOption.WRITE);
+        end = compacted.get(compacted.size() - 1).end;
+    }
+
+    private long copy(long position, FileChannel out, long[] outEnd, Map<Long, Long> moved) throws IOException {
+        Long existing = moved.get(position);
+        if (existing != null) {
+            return existing;
+        }
+        ByteBuffer record = ByteBuffer.wrap(readRecord(nodes, position));
+        ByteBuffer children = record.duplicate();
+        DataInput in = new ByteBufferInput(children);
+        NodeRecords.readBox(in);
+        long header = NodeRecords.readHeader(in, configuration);
+        if (!NodeRecords.isLeaf(header)) {
+            // a branch: copy the children first and point to their new positions
+            for (int i = 0; i < NodeRecords.count(header); i++) {
+                int offset = children.position() + i * 8;
+                record.putLong(offset, copy(record.getLong(offset), out, outEnd, moved));
+            }
+        }
+        ByteBuffer length = ByteBuffer.allocate(4);
+        length.putInt(0, record.capacity());
+        long newPosition = outEnd[0];
+        write(out, length, newPosition);
+        write(out, record, newPosition + 4);
+        outEnd[0] += 4 + record.capacity();
+        moved.put(position, newPosition);
+        return newPosition;
+    }
+
+    /**
+     * Closes the store.
+     * @throws IOException if the files could not be closed
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            if (nodes != null) {
+                nodes.close();
+            }
+        } finally {
+            if (checkpointFile != null) {
+                checkpointFile.close();
+            }
+        }
+    }
+}
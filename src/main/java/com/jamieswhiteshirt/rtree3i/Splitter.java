@@ -17,4 +17,18 @@ public interface Splitter {
      * @return groups
      */
     <T> Groups<T> split(List<T> entries, int minSize, Function<T, Box> boxMapper);
+
+    /**
+     * Splits a list of items of a node which overflowed into two groups of at least minSize. Splitters which take the
+     * shape of the node into account can override this; by default the original box is ignored.
+     * @param <T> entry type
+     * @param entries list of items to split
+     * @param minSize min size of each list
+     * @param boxMapper box mapper applied to entries
+     * @param originalBox bounding box of the node before the item which made it overflow was added
+     * @return groups
+     */
+    default <T> Groups<T> split(List<T> entries, int minSize, Function<T, Box> boxMapper, Box originalBox) {
+        return split(entries, minSize, boxMapper);
+    }
 }
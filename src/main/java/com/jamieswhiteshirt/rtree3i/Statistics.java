@@ -0,0 +1,252 @@
+package com.jamieswhiteshirt.rtree3i;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Statistics on the shape of the tree of an {@link RTreeMap}, gathered in a single traversal of the tree. They show how
+ * full the nodes are and how much they overlap at each level, which helps choosing a {@link Splitter}, a
+ * {@link Selector} and the number of children per node for real data.
+ * <p>
+ * Levels are counted from the leaves, which are at level 0, up to the root, which is at level depth - 1. Volumes are
+ * summed as doubles, so totals over large trees do not overflow.
+ */
+public final class Statistics {
+
+    /**
+     * Statistics on the nodes at one level of the tree.
+     */
+    public static final class Level {
+        private final int level;
+        private final int maxChildren;
+        private int nodeCount = 0;
+        private int[] fanoutHistogram = new int[0];
+        private long childCount = 0;
+        private long siblingPairs = 0;
+        private double siblingOverlap = 0;
+        private double deadSpace = 0;
+        private double volumeSum = 0;
+        private double marginSum = 0;
+
+        private Level(int level, int maxChildren) {
+            this.level = level;
+            this.maxChildren = maxChildren;
+        }
+
+        private void add(Box box, int fanout) {
+            nodeCount++;
+            if (fanout >= fanoutHistogram.length) {
+                fanoutHistogram = Arrays.copyOf(fanoutHistogram, Math.max(fanout + 1, maxChildren + 1));
+            }
+            fanoutHistogram[fanout]++;
+            childCount += fanout;
+            volumeSum += Geometry.volume(box);
+            marginSum += Geometry.margin(box);
+        }
+
+        /**
+         * Returns the level, which is 0 for the leaves.
+         * @return the level
+         */
+        public int getLevel() {
+            return level;
+        }
+
+        /**
+         * Returns the number of nodes at this level.
+         * @return the number of nodes
+         */
+        public int getNodeCount() {
+            return nodeCount;
+        }
+
+        /**
+         * Returns the number of nodes at this level by their number of children, or of buckets for leaves.
+         * @return an array holding the number of nodes with each number of children at the index of that number
+         */
+        public int[] getFanoutHistogram() {
+            return fanoutHistogram.clone();
+        }
+
+        /**
+         * Returns the average number of children, or of buckets for leaves, of the nodes at this level.
+         * @return the average number of children
+         */
+        public double getAverageFanout() {
+            return nodeCount != 0 ? childCount / (double) nodeCount : 0;
+        }
+
+        /**
+         * Returns the average fraction of the maximum number of children used by the nodes at this level.
+         * @return the average fill factor
+         */
+        public double getAverageFill() {
+            return getAverageFanout() / maxChildren;
+        }
+
+        /**
+         * Returns the total volume of the intersections of all pairs of nodes at this level with the same parent.
+         * @return the total overlap between siblings
+         */
+        public double getSiblingOverlap() {
+            return siblingOverlap;
+        }
+
+        /**
+         * Returns the average volume of the intersection of a pair of nodes at this level with the same parent.
+         * @return the average overlap between siblings
+         */
+        public double getAverageSiblingOverlap() {
+            return siblingPairs != 0 ? siblingOverlap / siblingPairs : 0;
+        }
+
+        /**
+         * Returns the total volume of the nodes at this level which is not covered by any of their children, or by any
+         * of their buckets for leaves.
+         * @return the total dead space
+         */
+        public double getDeadSpace() {
+            return deadSpace;
+        }
+
+        /**
+         * Returns the total volume of the nodes at this level.
+         * @return the total volume
+         */
+        public double getVolumeSum() {
+            return volumeSum;
+        }
+
+        /**
+         * Returns the total margin, which is the surface area, of the nodes at this level.
+         * @return the total margin
+         */
+        public double getMarginSum() {
+            return marginSum;
+        }
+
+        @Override
+        public String toString() {
+            return "Level{" +
+                "level=" + level +
+                ", nodeCount=" + nodeCount +
+                ", averageFill=" + getAverageFill() +
+                ", averageSiblingOverlap=" + getAverageSiblingOverlap() +
+                ", deadSpace=" + deadSpace +
+                ", marginSum=" + marginSum +
+                '}';
+        }
+    }
+
+    private final int size;
+    private final List<Level> levels;
+    private int bucketCount = 0;
+    private int[] bucketSizeHistogram = new int[2];
+
+    static Statistics of(Node<?, ?> root, Configuration configuration) {
+        int depth = root != null ? root.calculateDepth() : 0;
+        List<Level> levels = new ArrayList<>(depth);
+        for (int i = 0; i < depth; i++) {
+            levels.add(new Level(i, configuration.getMaxChildren()));
+        }
+        Statistics statistics = new Statistics(root != null ? root.size() : 0, levels);
+        if (root != null) {
+            statistics.visit(root, depth - 1);
+        }
+        return statistics;
+    }
+
+    private Statistics(int size, List<Level> levels) {
+        this.size = size;
+        this.levels = Collections.unmodifiableList(levels);
+    }
+
+    private void visit(Node<?, ?> node, int level) {
+        Box[] boxes;
+        if (node.isLeaf()) {
+            List<? extends Bucket<?, ?>> buckets = node.getBuckets();
+            boxes = new Box[buckets.size()];
+            for (int i = 0; i < boxes.length; i++) {
+                Bucket<?, ?> bucket = buckets.get(i);
+                boxes[i] = bucket.getBox();
+                bucketCount++;
+                if (bucket.size() >= bucketSizeHistogram.length) {
+                    bucketSizeHistogram = Arrays.copyOf(bucketSizeHistogram, bucket.size() * 2);
+                }
+                bucketSizeHistogram[bucket.size()]++;
+            }
+        } else {
+            List<? extends Node<?, ?>> children = node.getChildren();
+            boxes = new Box[children.size()];
+            Level childLevel = levels.get(level - 1);
+            for (int i = 0; i < boxes.length; i++) {
+                boxes[i] = children.get(i).getBox();
+                for (int j = 0; j < i; j++) {
+                    childLevel.siblingOverlap += Geometry.intersectionVolume(boxes[j], boxes[i]);
+                }
+                childLevel.siblingPairs += i;
+                visit(children.get(i), level - 1);
+            }
+        }
+        Level nodeLevel = levels.get(level);
+        nodeLevel.add(node.getBox(), boxes.length);
+        nodeLevel.deadSpace += Geometry.volume(node.getBox()) - Geometry.unionVolume(boxes);
+    }
+
+    /**
+     * Returns the depth of the tree, which is 0 for an empty tree and 1 for a tree of a single leaf.
+     * @return the depth of the tree
+     */
+    public int getDepth() {
+        return levels.size();
+    }
+
+    /**
+     * Returns the number of entries in the tree.
+     * @return the number of entries
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Returns the number of buckets in the tree, which is the number of distinct boxes of the entries.
+     * @return the number of buckets
+     */
+    public int getBucketCount() {
+        return bucketCount;
+    }
+
+    /**
+     * Returns the number of buckets by their number of entries.
+     * @return an array holding the number of buckets with each number of entries at the index of that number, which
+     *         ends with the largest bucket
+     */
+    public int[] getBucketSizeHistogram() {
+        int length = bucketSizeHistogram.length;
+        while (length > 2 && bucketSizeHistogram[length - 1] == 0) {
+            length--;
+        }
+        return Arrays.copyOf(bucketSizeHistogram, length);
+    }
+
+    /**
+     * Returns the statistics of each level of the tree, indexed by level from the leaves up to the root.
+     * @return the statistics of each level
+     */
+    public List<Level> getLevels() {
+        return levels;
+    }
+
+    @Override
+    public String toString() {
+        return "Statistics{" +
+            "depth=" + getDepth() +
+            ", size=" + size +
+            ", bucketCount=" + bucketCount +
+            ", levels=" + levels +
+            '}';
+    }
+}
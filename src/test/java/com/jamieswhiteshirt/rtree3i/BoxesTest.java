@@ -0,0 +1,65 @@
+package com.jamieswhiteshirt.rtree3i;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+
+import org.junit.Test;
+
+public class BoxesTest {
+
+    @Test
+    public void testPackAndGet() {
+        List<Box> boxes = Arrays.asList(Box.create(0, 1, 2, 3, 4, 5), Box.create(-5, -4, -3, -2, -1, 0));
+        int[] packed = Boxes.pack(boxes, Function.identity());
+        assertEquals(2 * Boxes.STRIDE, packed.length);
+        assertEquals(boxes.get(0), Boxes.get(packed, 0));
+        assertEquals(boxes.get(1), Boxes.get(packed, 1));
+    }
+
+    @Test
+    public void testContains() {
+        int[] packed = Boxes.pack(Arrays.asList(Box.create(0, 0, 0, 10, 10, 10)), Function.identity());
+        assertTrue(Boxes.contains(packed, 0, Box.create(1, 1, 1, 2, 2, 2)));
+        assertTrue(Boxes.contains(packed, 0, Box.create(0, 0, 0, 10, 10, 10)));
+        assertFalse(Boxes.contains(packed, 0, Box.create(1, 1, 1, 11, 2, 2)));
+    }
+
+    @Test
+    public void testIndexOf() {
+        Box b1 = Box.create(0, 0, 0, 1, 1, 1);
+        Box b2 = Box.create(1, 1, 1, 2, 2, 2);
+        int[] packed = Boxes.pack(Arrays.asList(b1, b2), Function.identity());
+        assertEquals(0, Boxes.indexOf(packed, b1, 0));
+        assertEquals(1, Boxes.indexOf(packed, b2, 0));
+        assertEquals(-1, Boxes.indexOf(packed, b1, 1));
+        assertEquals(-1, Boxes.indexOf(packed, Box.create(0, 0, 0, 2, 2, 2), 0));
+    }
+
+    @Test
+    public void testMbb() {
+        Box b1 = Box.create(-2, 0, 5, 1, 1, 6);
+        Box b2 = Box.create(1, -1, 1, 2, 2, 2);
+        assertEquals(b1.add(b2), Boxes.mbb(new Box[] { b1, b2 }, Function.identity()));
+    }
+
+    @Test
+    public void testUnion() {
+        Box outer = Box.create(0, 0, 0, 10, 10, 10);
+        Box inner = Box.create(1, 1, 1, 2, 2, 2);
+        Box other = Box.create(5, 5, 5, 12, 12, 12);
+        assertSame(outer, Boxes.union(outer, inner));
+        assertSame(outer, Boxes.union(inner, outer));
+        assertEquals(outer.add(other), Boxes.union(outer, other));
+    }
+
+    @Test
+    public void testTouchesFace() {
+        Box outer = Box.create(0, 0, 0, 10, 10, 10);
+        assertFalse(Boxes.touchesFace(Box.create(1, 1, 1, 9, 9, 9), outer));
+        assertTrue(Boxes.touchesFace(Box.create(1, 1, 1, 9, 10, 9), outer));
+        assertTrue(Boxes.touchesFace(Box.create(1, 1, 0, 9, 9, 9), outer));
+    }
+}
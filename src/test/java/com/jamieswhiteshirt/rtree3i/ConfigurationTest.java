@@ -1,5 +1,9 @@
 package com.jamieswhiteshirt.rtree3i;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
 import org.junit.Test;
 
 public class ConfigurationTest {
@@ -33,4 +37,27 @@ public class ConfigurationTest {
     public void testContextSplitterNullThrowsNPE() {
         new Configuration(2, 4, new MinimalVolumeIncreaseSelector(), null);
     }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testContextIllegalReinsertCount() {
+        new Configuration(2, 4, new MinimalVolumeIncreaseSelector(), new QuadraticSplitter(), false, 4);
+    }
+
+    @Test
+    public void testBuilderForcedReinsertion() {
+        Configuration configuration = new ConfigurationBuilder().maxChildren(10).forcedReinsertion(true).build();
+        assertEquals(3, configuration.getReinsertCount());
+        assertEquals(0, new ConfigurationBuilder().maxChildren(10).build().getReinsertCount());
+    }
+
+    @Test
+    public void testBuilderHilbert() {
+        assertTrue(new ConfigurationBuilder().hilbert().build().isHilbertOrdered());
+        assertFalse(new ConfigurationBuilder().build().isHilbertOrdered());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testHilbertWithForcedReinsertion() {
+        new ConfigurationBuilder().hilbert().forcedReinsertion(true).build();
+    }
 }
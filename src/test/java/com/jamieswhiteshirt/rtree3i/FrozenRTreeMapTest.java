@@ -0,0 +1,146 @@
+package com.jamieswhiteshirt.rtree3i;
+
+import static com.jamieswhiteshirt.rtree3i.TestBoxes.randomBox;
+import static org.junit.Assert.*;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+public class FrozenRTreeMapTest {
+
+    @Test
+    public void testFreezeEmptyMap() {
+        FrozenRTreeMap<Box, Integer> frozen = RTreeMap.<Integer>create(new ConfigurationBuilder().build()).freeze();
+        assertTrue(frozen.isEmpty());
+        assertEquals(0, frozen.size());
+        assertEquals(0, frozen.calculateDepth());
+        assertNull(frozen.getMbb());
+        assertNull(frozen.get(Box.create(0, 0, 0, 1, 1, 1)));
+        assertTrue(frozen.entries().isEmpty());
+    }
+
+    @Test
+    public void testFrozenMapMatchesMap() {
+        RTreeMap<Box, Integer> tree = create(new ConfigurationBuilder().maxChildren(6).build(), 1000);
+        assertMatches(tree, tree.freeze());
+    }
+
+    @Test
+    public void testOffHeapMapMatchesMap() {
+        RTreeMap<Box, Integer> tree = create(new ConfigurationBuilder().maxChildren(6).build(), 1000);
+        assertMatches(tree, tree.freezeOffHeap());
+    }
+
+    @Test
+    public void testFreezeEmptyMapOffHeap() {
+        FrozenRTreeMap<Box, Integer> frozen = RTreeMap.<Integer>create(new ConfigurationBuilder().build())
+            .freezeOffHeap();
+        assertTrue(frozen.isEmpty());
+        assertNull(frozen.get(Box.create(0, 0, 0, 1, 1, 1)));
+        assertTrue(frozen.entries().isEmpty());
+    }
+
+    private static void assertMatches(RTreeMap<Box, Integer> tree, FrozenRTreeMap<Box, Integer> frozen) {
+        assertEquals(tree.size(), frozen.size());
+        assertEquals(tree.calculateDepth(), frozen.calculateDepth());
+        assertEquals(tree.getMbb(), frozen.getMbb());
+        tree.entries().forEach(entry -> {
+            assertEquals(entry.getValue(), frozen.get(entry.getKey()));
+            assertTrue(frozen.containsKey(entry.getKey()));
+            assertTrue(frozen.contains(entry));
+            assertFalse(frozen.contains(Entry.of(entry.getKey(), -1)));
+        });
+
+        Random random = new Random(3);
+        for (int i = 0; i < 50; i++) {
+            Box query = randomBox(random, 1000, 200);
+            Predicate<Box> boxPredicate = query::intersectsOpen;
+            Set<Entry<Box, Integer>> expected = tree.entries(boxPredicate).collect(Collectors.toSet());
+            assertEquals(expected, frozen.entries(boxPredicate).collect(Collectors.toSet()));
+            assertEquals(tree.values(boxPredicate).count(), frozen.values(boxPredicate).count());
+            assertEquals(tree.values(boxPredicate).reduce(0, Integer::sum), frozen.values(boxPredicate).reduce(0, Integer::sum));
+            assertEquals(tree.keys(boxPredicate).collect(Collectors.toSet()), frozen.keys(boxPredicate).collect(Collectors.toSet()));
+            Selection<Integer> even = frozen.values(boxPredicate).filter(v -> v % 2 == 0);
+            assertEquals(tree.values(boxPredicate).filter(v -> v % 2 == 0).count(), even.count());
+            assertEquals(tree.values(boxPredicate).anyMatch(v -> v < 10), frozen.values(boxPredicate).anyMatch(v -> v < 10));
+            assertEquals(tree.values(boxPredicate).allMatch(v -> v >= 10), frozen.values(boxPredicate).allMatch(v -> v >= 10));
+            assertEquals(tree.values(boxPredicate).noneMatch(v -> v < 10), frozen.values(boxPredicate).noneMatch(v -> v < 10));
+            Set<Entry<Box, Integer>> visited = new HashSet<>();
+            frozen.forEach(boxPredicate, (key, value) -> assertTrue(visited.add(Entry.of(key, value))));
+            assertEquals(expected, visited);
+            BoxPredicate coordinates = BoxPredicate.intersectsOpen(query);
+            assertEquals(expected, frozen.entries(coordinates).collect(Collectors.toSet()));
+            assertEquals(tree.values(query::intersectsClosed).count(),
+                frozen.values(BoxPredicate.intersectsClosed(query)).count());
+        }
+        Map<Box, Integer> all = new HashMap<>();
+        frozen.forEach(all::put);
+        assertEquals(tree.size(), all.size());
+    }
+
+    @Test
+    public void testFrozenMapOfSingleLeaf() {
+        RTreeMap<Box, Integer> tree = create(new ConfigurationBuilder().build(), 3);
+        FrozenRTreeMap<Box, Integer> frozen = tree.freeze();
+        assertEquals(1, frozen.calculateDepth());
+        assertEquals(3, frozen.entries().count());
+    }
+
+    @Test
+    public void testQueriesCreateNoObjectPerEntry() {
+        FrozenRTreeMap<Box, Integer> frozen = create(new ConfigurationBuilder().build(), 10000).freeze();
+        Box query = Box.create(0, 0, 0, 2000, 2000, 2000);
+        assertCreatesNoObjectPerEntry(frozen, query::intersectsOpen);
+    }
+
+    @Test
+    public void testOffHeapQueriesCreateNoObjectPerEntry() {
+        FrozenRTreeMap<Box, Integer> frozen = create(new ConfigurationBuilder().build(), 10000).freezeOffHeap();
+        Box query = Box.create(0, 0, 0, 2000, 2000, 2000);
+        assertCreatesNoObjectPerEntry(frozen, BoxPredicate.intersectsOpen(query));
+    }
+
+    private static void assertCreatesNoObjectPerEntry(FrozenRTreeMap<Box, Integer> frozen,
+                                                      Predicate<? super Box> boxPredicate) {
+        long[] sum = new long[1];
+        Runnable queries = () -> {
+            assertEquals(frozen.size(), frozen.values(boxPredicate).count());
+            frozen.forEach(boxPredicate, (key, value) -> sum[0] += value);
+        };
+        // load the classes involved before measuring
+        queries.run();
+        long allocated = allocatedBytes(queries);
+        // a box or an entry for each entry would take more than 16 bytes each
+        assertTrue("allocated " + allocated + " bytes", allocated < frozen.size());
+    }
+
+    private static long allocatedBytes(Runnable action) {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+        long id = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(id);
+        action.run();
+        return threads.getThreadAllocatedBytes(id) - before;
+    }
+
+    private static RTreeMap<Box, Integer> create(Configuration configuration, int n) {
+        Random random = new Random(4);
+        RTreeMap<Box, Integer> tree = RTreeMap.create(configuration);
+        for (int i = 0; i < n; i++) {
+            tree = tree.put(randomBox(random, 1000, 10), i);
+        }
+        return tree;
+    }
+}
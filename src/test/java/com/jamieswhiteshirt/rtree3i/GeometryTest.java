@@ -0,0 +1,95 @@
+package com.jamieswhiteshirt.rtree3i;
+
+import static com.jamieswhiteshirt.rtree3i.TestBoxes.randomBox;
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class GeometryTest {
+
+    @Test
+    public void testMatchesBoxComposition() {
+        Random random = new Random(1);
+        for (int i = 0; i < 1000; i++) {
+            Box a = randomBox(random, 100, 20);
+            Box b = randomBox(random, 100, 20);
+            Box c = randomBox(random, 100, 20);
+            assertEquals(a.add(b).getVolume(), Geometry.unionVolume(a, b));
+            assertEquals(a.add(b).getVolume() - a.getVolume(), Geometry.volumeIncrease(a, b));
+            assertEquals(a.add(b).intersectionVolume(c), Geometry.overlapVolume(a, b, c));
+        }
+    }
+
+    @Test
+    public void testIntersectionVolume() {
+        Box a = Box.create(0, 0, 0, 4, 4, 4);
+        assertEquals(8, Geometry.intersectionVolume(a, Box.create(2, 2, 2, 6, 6, 6)));
+        assertEquals(0, Geometry.intersectionVolume(a, Box.create(4, 0, 0, 6, 4, 4)));
+        assertEquals(0, Geometry.intersectionVolume(a, Box.create(1, 1, 1, 3, 3, 1)));
+    }
+
+    @Test
+    public void testUnionVolumeOfMany() {
+        Box a = Box.create(0, 0, 0, 4, 4, 4);
+        assertEquals(0, Geometry.unionVolume(new Box[0]));
+        assertEquals(64, Geometry.unionVolume(new Box[] { a }));
+        assertEquals(64 + 8, Geometry.unionVolume(new Box[] { a, Box.create(10, 10, 10, 12, 12, 12) }));
+        assertEquals(64 + 64 - 8, Geometry.unionVolume(new Box[] { a, Box.create(2, 2, 2, 6, 6, 6) }));
+        assertEquals(64, Geometry.unionVolume(new Box[] { a, Box.create(1, 1, 1, 3, 3, 3), a }));
+        assertEquals(64 + 32, Geometry.unionVolume(new Box[] { a, Box.create(4, 0, 0, 6, 4, 4) }));
+        assertEquals(0, Geometry.unionVolume(new Box[] { Box.create(0, 0, 0, 4, 4, 0) }));
+    }
+
+    @Test
+    public void testUnionVolumeOfManyMatchesGridCount() {
+        Random random = new Random(2);
+        for (int round = 0; round < 50; round++) {
+            Box[] boxes = new Box[1 + random.nextInt(8)];
+            for (int i = 0; i < boxes.length; i++) {
+                int x = random.nextInt(10) - 5, y = random.nextInt(10) - 5, z = random.nextInt(10) - 5;
+                boxes[i] = Box.create(x, y, z, x + random.nextInt(6), y + random.nextInt(6), z + random.nextInt(6));
+            }
+            long expected = 0;
+            for (int x = -5; x < 10; x++) {
+                for (int y = -5; y < 10; y++) {
+                    for (int z = -5; z < 10; z++) {
+                        Box cell = Box.create(x, y, z, x + 1, y + 1, z + 1);
+                        for (Box box : boxes) {
+                            if (box.contains(cell)) {
+                                expected++;
+                                break;
+                            }
+                        }
+                    }
+                }
+            }
+            assertEquals(expected, Geometry.unionVolume(boxes));
+        }
+    }
+
+    @Test
+    public void testMargin() {
+        assertEquals(2 * (2 * 3 + 3 * 4 + 2 * 4), Geometry.margin(Box.create(0, 0, 0, 2, 3, 4)));
+    }
+
+    @Test
+    public void testLargeBoxesDoNotOverflow() {
+        Box world = Box.create(-30000000, 0, -30000000, 30000000, 256, 30000000);
+        assertEquals(60000000L * 256 * 60000000L, Geometry.volume(world));
+        assertEquals(2 * (60000000L * 256 + 256 * 60000000L + 60000000L * 60000000L), Geometry.margin(world));
+        Box half = Box.create(0, 0, 0, 30000000, 256, 30000000);
+        assertEquals(Geometry.volume(half), Geometry.intersectionVolume(world, half));
+        assertEquals(Geometry.volume(world) - Geometry.volume(half), Geometry.volumeIncrease(half, world));
+    }
+
+    @Test
+    public void testSaturatesAtMaxValue() {
+        Box full = Box.create(Integer.MIN_VALUE, Integer.MIN_VALUE, Integer.MIN_VALUE,
+            Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE);
+        assertEquals(Long.MAX_VALUE, Geometry.volume(full));
+        assertEquals(Long.MAX_VALUE, Geometry.margin(full));
+        assertEquals(Long.MAX_VALUE, Geometry.add(Long.MAX_VALUE, 1));
+    }
+}
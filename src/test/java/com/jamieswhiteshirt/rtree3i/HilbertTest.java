@@ -0,0 +1,54 @@
+package com.jamieswhiteshirt.rtree3i;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class HilbertTest {
+
+    @Test
+    public void testConsecutiveCellsAreAdjacent() {
+        List<Box> cells = new ArrayList<>();
+        for (int x = 0; x < 8; x++) {
+            for (int y = 0; y < 8; y++) {
+                for (int z = 0; z < 8; z++) {
+                    cells.add(Box.create(x, y, z, x, y, z));
+                }
+            }
+        }
+        Hilbert.sort(cells, b -> b);
+        for (int i = 1; i < cells.size(); i++) {
+            Box a = cells.get(i - 1);
+            Box b = cells.get(i);
+            int distance = Math.abs(a.x1() - b.x1()) + Math.abs(a.y1() - b.y1()) + Math.abs(a.z1() - b.z1());
+            assertEquals(1, distance);
+        }
+    }
+
+    @Test
+    public void testValuesAreDistinctForDistinctCentres() {
+        Box a = Box.create(0, 0, 0, 0, 0, 0);
+        Box b = Box.create(0, 0, 1, 0, 0, 1);
+        assertNotEquals(0, Hilbert.of(a).compareTo(Hilbert.of(b)));
+        Box c = Box.create(-1, -1, -1, 1, 1, 1);
+        assertEquals(0, Hilbert.of(a).compareTo(Hilbert.of(c)));
+    }
+
+    @Test
+    public void testCompareIsUnsigned() {
+        assertTrue(Hilbert.compare(-1L, 0, 1L, 0) > 0);
+        assertTrue(Hilbert.compare(0L, -1, 0L, 1) > 0);
+        assertTrue(Hilbert.compare(0L, 5, 1L, 0) < 0);
+    }
+
+    @Test
+    public void testExtremeCoordinates() {
+        Box min = Box.create(Integer.MIN_VALUE, Integer.MIN_VALUE, Integer.MIN_VALUE,
+            Integer.MIN_VALUE, Integer.MIN_VALUE, Integer.MIN_VALUE);
+        assertEquals(0L, Hilbert.of(min).high);
+        assertEquals(0, Hilbert.of(min).low);
+    }
+}
@@ -0,0 +1,101 @@
+package com.jamieswhiteshirt.rtree3i;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class IndexFileTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testWriteAndOpen() throws IOException {
+        Random random = new Random(5);
+        RTreeMap<Box, String> tree = RTreeMap.create(new ConfigurationBuilder().maxChildren(6).build());
+        for (int i = 0; i < 1000; i++) {
+            int x = random.nextInt(1000), y = random.nextInt(1000), z = random.nextInt(1000);
+            tree = tree.put(Box.create(x, y, z, x + random.nextInt(10), y + random.nextInt(10), z + random.nextInt(10)),
+                "value" + i);
+        }
+        Path path = folder.newFile().toPath();
+        IndexFile.write(tree, path, Codecs.box(), Codecs.string());
+        FrozenRTreeMap<Box, String> opened = IndexFile.open(path, Codecs.string());
+
+        assertEquals(tree.size(), opened.size());
+        assertEquals(tree.calculateDepth(), opened.calculateDepth());
+        assertEquals(tree.getMbb(), opened.getMbb());
+        tree.entries().forEach(entry -> assertEquals(entry.getValue(), opened.get(entry.getKey())));
+        for (int i = 0; i < 50; i++) {
+            int x = random.nextInt(1000), y = random.nextInt(1000), z = random.nextInt(1000);
+            Box query = Box.create(x, y, z, x + random.nextInt(200), y + random.nextInt(200), z + random.nextInt(200));
+            Predicate<Box> boxPredicate = query::intersectsOpen;
+            Set<Entry<Box, String>> expected = tree.entries(boxPredicate).collect(Collectors.toSet());
+            assertEquals(expected, opened.entries(boxPredicate).collect(Collectors.toSet()));
+        }
+    }
+
+    @Test
+    public void testWriteAndOpenEmptyMap() throws IOException {
+        Path path = folder.newFile().toPath();
+        IndexFile.write(RTreeMap.<Integer>create(new ConfigurationBuilder().build()), path, Codecs.box(),
+            Codecs.integer());
+        FrozenRTreeMap<Box, Integer> opened = IndexFile.open(path, Codecs.integer());
+        assertTrue(opened.isEmpty());
+        assertNull(opened.get(Box.create(0, 0, 0, 1, 1, 1)));
+    }
+
+    @Test(expected = IOException.class)
+    public void testOpenRejectsOtherFiles() throws IOException {
+        Path path = folder.newFile().toPath();
+        Files.write(path, new byte[64]);
+        IndexFile.open(path, Codecs.integer());
+    }
+
+    @Test
+    public void testOpenRejectsTruncatedAndCorruptFiles() throws IOException {
+        RTreeMap<Box, Integer> tree = RTreeMap.create(new ConfigurationBuilder().maxChildren(4).build());
+        for (int i = 0; i < 100; i++) {
+            tree = tree.put(Box.create(i, i, i, i + 1, i + 1, i + 1), i);
+        }
+        Path path = folder.newFile().toPath();
+        IndexFile.write(tree, path, Codecs.box(), Codecs.integer());
+        byte[] bytes = Files.readAllBytes(path);
+        long recordsSize = BufferTree.sizeOf(tree.flatten());
+        // within the records, within the data, and short of the last value
+        for (long length : new long[] { recordsSize - 1, recordsSize + 100, bytes.length - 1 }) {
+            Files.write(path, Arrays.copyOf(bytes, (int) length));
+            assertRejected(path);
+        }
+        // a node count past the end of the file
+        byte[] corrupt = bytes.clone();
+        corrupt[8] = 0x7f;
+        Files.write(path, corrupt);
+        assertRejected(path);
+        // a handle which does not point at the data of the first entry
+        corrupt = bytes.clone();
+        corrupt[BufferTree.HEADER_SIZE + tree.flatten().nodeCount() * BufferTree.RECORD_SIZE + 31]++;
+        Files.write(path, corrupt);
+        assertRejected(path);
+    }
+
+    private static void assertRejected(Path path) {
+        try {
+            IndexFile.open(path, Codecs.integer());
+            fail("opened " + path);
+        } catch (IOException e) {
+            // expected
+        }
+    }
+}
@@ -1,9 +1,16 @@
 package com.jamieswhiteshirt.rtree3i;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.Collectors;
 
 import org.junit.Test;
 
@@ -20,7 +27,70 @@ public class LeafTest {
         Box r2 = Box.create(1, 2, 0, 4, 6, 1);
         @SuppressWarnings("unchecked")
         Box r = Leaf.containing(Arrays.asList(Bucket.of(r1, Entry.of(r1, new Object())),
-                Bucket.of(r2, Entry.of(r2, new Object())))).getBox();
+                Bucket.of(r2, Entry.of(r2, new Object()))), new ConfigurationBuilder().build()).getBox();
         assertEquals(r1.add(r2), r);
     }
+
+    @Test
+    public void testKeysSharingBox() {
+        Box b = Box.create(0, 0, 0, 1, 1, 1);
+        Configuration configuration = new ConfigurationBuilder().build();
+        RTreeMap<String, Integer> tree = RTreeMap.<String, Integer>create(configuration, key -> b)
+                .put("a", 1).put("b", 2).put("c", 3);
+        assertEquals(3, tree.size());
+        assertEquals(Integer.valueOf(2), tree.get("b"));
+        tree = tree.remove("b");
+        assertEquals(2, tree.size());
+        assertEquals(null, tree.get("b"));
+        tree = tree.remove("c").put("a", 4);
+        assertEquals(1, tree.size());
+        assertEquals(Integer.valueOf(4), tree.get("a"));
+        assertEquals(Collections.singletonList(Entry.of("a", 4)), tree.entries().collect(Collectors.toList()));
+    }
+
+    @Test
+    public void testSearchVisitsKeysAndValues() {
+        Box b1 = Box.create(0, 0, 0, 1, 1, 1);
+        Box b2 = Box.create(2, 0, 0, 3, 1, 1);
+        @SuppressWarnings("unchecked")
+        Leaf<String, Integer> leaf = Leaf.containing(Arrays.asList(Bucket.of(b1, Entry.of("a", 1)),
+                Bucket.of(b2, Arrays.asList(Entry.of("b", 2), Entry.of("c", 3)))), new ConfigurationBuilder().build());
+        Map<String, Integer> visited = new HashMap<>();
+        leaf.forEach(box -> true, visited::put);
+        assertEquals(3, visited.size());
+        assertEquals(Integer.valueOf(1), visited.get("a"));
+        assertEquals(Integer.valueOf(3), visited.get("c"));
+        assertEquals(2, leaf.count(b2::intersectsClosed, (key, value) -> true));
+        assertEquals(Integer.valueOf(6), leaf.reduce(box -> true, 0, (acc, key, value) -> acc + value));
+        assertTrue(leaf.anyMatch(b1::intersectsClosed, (key, value) -> key.equals("a")));
+        assertFalse(leaf.allMatch(box -> true, (key, value) -> value < 3));
+    }
+
+    @Test
+    public void testMoveGrowsLeafByAtMostMargin() {
+        Configuration configuration = new ConfigurationBuilder().moveMargin(2).build();
+        Box r1 = Box.create(0, 0, 0, 10, 10, 10);
+        Box r2 = Box.create(20, 0, 0, 30, 10, 10);
+        @SuppressWarnings("unchecked")
+        Leaf<Box, Integer> leaf = Leaf.containing(Arrays.asList(Bucket.of(r1, Entry.of(r1, 1)),
+                Bucket.of(r2, Entry.of(r2, 2))), configuration);
+        Box within = Box.create(22, 0, 0, 32, 10, 10);
+        Leaf<Box, Integer> moved = leaf.move(r2, r2, within, within, 2, null, configuration);
+        assertEquals(Box.create(0, 0, 0, 32, 10, 10), moved.getBox());
+        assertEquals(Entry.of(within, 2), moved.get(within, within));
+        Box beyond = Box.create(23, 0, 0, 33, 10, 10);
+        assertNull(leaf.move(r2, r2, beyond, beyond, 2, null, configuration));
+        // the box of the leaf stays within the bound regardless of the margin
+        assertNull(leaf.move(r2, r2, within, within, 2, Box.create(0, 0, 0, 30, 10, 10), configuration));
+    }
+
+    @Test
+    public void testRemoveOfAbsentKeyWithSharedBoxReturnsSameMap() {
+        Box b = Box.create(0, 0, 0, 1, 1, 1);
+        RTreeMap<String, Integer> tree = RTreeMap.<String, Integer>create(new ConfigurationBuilder().build(), key -> b)
+                .put("a", 1);
+        assertSame(tree, tree.remove("b"));
+        tree = tree.put("b", 2);
+        assertSame(tree, tree.remove("c"));
+    }
 }
@@ -0,0 +1,87 @@
+package com.jamieswhiteshirt.rtree3i;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Function;
+
+import org.junit.Test;
+
+import com.google.common.collect.Sets;
+
+public class LinearSplitterTest {
+
+    @Test
+    public void testPickSeeds() {
+        Box[] boxes = { r(2), r(1), r(50), r(100) };
+        assertArrayEquals(new int[] { 1, 3 }, LinearSplitter.pickSeeds(boxes));
+    }
+
+    @Test
+    public void testPickSeedsOfIdenticalBoxes() {
+        Box[] boxes = { r(1), r(1) };
+        int[] seeds = LinearSplitter.pickSeeds(boxes);
+        assertTrue(seeds[0] != seeds[1]);
+    }
+
+    @Test
+    public void testSplit() {
+        final LinearSplitter l = new LinearSplitter();
+        final Box r1 = r(1);
+        final Box r2 = r(2);
+        final Box r3 = r(100);
+        final Box r4 = r(101);
+        final Groups<Box> pair = l.split(Arrays.asList(r1, r2, r3, r4), 2, Function.identity());
+        assertEquals(Sets.newHashSet(r1, r2), Sets.newHashSet(pair.getGroup1().getEntries()));
+        assertEquals(Sets.newHashSet(r3, r4), Sets.newHashSet(pair.getGroup2().getEntries()));
+        assertEquals(r1.add(r2), pair.getGroup1().getBox());
+        assertEquals(r3.add(r4), pair.getGroup2().getBox());
+    }
+
+    @Test
+    public void testSplitRespectsMinSize() {
+        final LinearSplitter l = new LinearSplitter();
+        final List<Box> boxes = new ArrayList<>();
+        for (int i = 0; i < 9; i++) {
+            boxes.add(r(i));
+        }
+        boxes.add(r(1000));
+        final Groups<Box> pair = l.split(boxes, 4, Function.identity());
+        assertTrue(pair.getGroup1().getEntries().size() >= 4);
+        assertTrue(pair.getGroup2().getEntries().size() >= 4);
+    }
+
+    @Test
+    public void testSplitKeepsAllItems() {
+        final LinearSplitter l = new LinearSplitter();
+        final Random random = new Random(2);
+        final List<Box> boxes = new ArrayList<>();
+        for (int i = 0; i < 33; i++) {
+            boxes.add(r(random.nextInt(1000)));
+        }
+        final Groups<Box> pair = l.split(boxes, 13, Function.identity());
+        final List<Box> all = new ArrayList<>(pair.getGroup1().getEntries());
+        all.addAll(pair.getGroup2().getEntries());
+        assertEquals(boxes.size(), all.size());
+        assertTrue(all.containsAll(boxes));
+        assertEquals(Util.mbb(pair.getGroup1().getEntries()), pair.getGroup1().getBox());
+        assertEquals(Util.mbb(pair.getGroup2().getEntries()), pair.getGroup2().getBox());
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testExceptionForSplitEmptyList() {
+        final LinearSplitter l = new LinearSplitter();
+        l.split(Collections.emptyList(), 3, Function.identity());
+    }
+
+    private static Box r(int n) {
+        return Box.create(n, n, 0, n + 1, n + 1, 1);
+    }
+
+}
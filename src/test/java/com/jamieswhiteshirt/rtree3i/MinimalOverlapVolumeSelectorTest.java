@@ -0,0 +1,65 @@
+package com.jamieswhiteshirt.rtree3i;
+
+import static com.jamieswhiteshirt.rtree3i.TestBoxes.randomBox;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class MinimalOverlapVolumeSelectorTest {
+    private static final Configuration CONFIGURATION = new ConfigurationBuilder().build();
+
+    @Test
+    public void testCandidatesCoveringAllNodesMatchesExhaustive() {
+        Random random = new Random(8);
+        MinimalOverlapVolumeSelector exhaustive = new MinimalOverlapVolumeSelector();
+        MinimalOverlapVolumeSelector limited = new MinimalOverlapVolumeSelector(64);
+        for (int round = 0; round < 100; round++) {
+            List<Node<Box, Integer>> nodes = randomNodes(random, 64);
+            Box box = randomBox(random, 100, 20);
+            assertSame(exhaustive.select(box, nodes), limited.select(box, nodes));
+        }
+    }
+
+    @Test
+    public void testSingleCandidateSelectsLeastVolumeIncrease() {
+        Random random = new Random(9);
+        MinimalVolumeIncreaseSelector volumeIncrease = new MinimalVolumeIncreaseSelector();
+        MinimalOverlapVolumeSelector limited = new MinimalOverlapVolumeSelector(1);
+        for (int round = 0; round < 100; round++) {
+            List<Node<Box, Integer>> nodes = randomNodes(random, 64);
+            Box box = randomBox(random, 100, 20);
+            assertSame(volumeIncrease.select(box, nodes), limited.select(box, nodes));
+        }
+    }
+
+    @Test
+    public void testSelectsFromCandidatesOnly() {
+        // the overlap of far is least, but it is not among the 2 candidates
+        List<Node<Box, Integer>> nodes = new ArrayList<>();
+        Node<Box, Integer> a = leaf(Box.create(0, 0, 0, 10, 10, 10));
+        Node<Box, Integer> b = leaf(Box.create(5, 5, 5, 15, 15, 15));
+        Node<Box, Integer> far = leaf(Box.create(100, 100, 100, 101, 101, 101));
+        nodes.add(a);
+        nodes.add(b);
+        nodes.add(far);
+        Box box = Box.create(11, 11, 11, 12, 12, 12);
+        assertSame(far, new MinimalOverlapVolumeSelector().select(box, nodes));
+        assertSame(b, new MinimalOverlapVolumeSelector(2).select(box, nodes));
+    }
+
+    private static List<Node<Box, Integer>> randomNodes(Random random, int count) {
+        List<Node<Box, Integer>> nodes = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            nodes.add(leaf(randomBox(random, 100, 20)));
+        }
+        return nodes;
+    }
+
+    private static Node<Box, Integer> leaf(Box box) {
+        return Leaf.containing(box, box, 0, CONFIGURATION);
+    }
+}
@@ -0,0 +1,229 @@
+package com.jamieswhiteshirt.rtree3i;
+
+import static com.jamieswhiteshirt.rtree3i.TestBoxes.randomBox;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class OperationLogTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final Configuration configuration = new ConfigurationBuilder().maxChildren(8).build();
+
+    @Test
+    public void testReplayOntoSnapshot() throws IOException {
+        Path path = folder.newFile().toPath();
+        Random random = new Random(11);
+        RTreeMap<Box, Integer> snapshot = RTreeMap.create(configuration);
+        for (int i = 0; i < 1000; i++) {
+            snapshot = snapshot.put(randomBox(random, 1000, 10), i);
+        }
+        RTreeMap<Box, Integer> expected = snapshot;
+        List<Box> keys = snapshot.keys().collect(Collectors.toList());
+        try (OperationLog<Box, Integer> log = OperationLog.open(path, Codecs.integer())) {
+            for (int i = 0; i < 100; i++) {
+                Box box = randomBox(random, 1000, 10);
+                log.put(box, -i);
+                expected = expected.put(box, -i);
+                Box removed = keys.get(i);
+                log.remove(removed);
+                expected = expected.remove(removed);
+            }
+            // later operations on a key win
+            log.put(keys.get(0), 42);
+            expected = expected.put(keys.get(0), 42);
+        }
+        try (OperationLog<Box, Integer> log = OperationLog.open(path, Codecs.integer())) {
+            assertMapsEqual(expected, log.replay(snapshot));
+            // a large log is bulk loaded onto an empty snapshot: 100 random puts and the put of the first key
+            assertEquals(101, log.replay(RTreeMap.create(configuration)).size());
+        }
+    }
+
+    @Test
+    public void testTornRecordIsDiscarded() throws IOException {
+        Path path = folder.newFile().toPath();
+        Box a = Box.create(0, 0, 0, 1, 1, 1);
+        Box b = Box.create(2, 2, 2, 3, 3, 3);
+        try (OperationLog<Box, Integer> log = OperationLog.open(path, Codecs.integer())) {
+            log.put(a, 1);
+            log.put(b, 2);
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 3);
+        }
+        try (OperationLog<Box, Integer> log = OperationLog.open(path, Codecs.integer())) {
+            RTreeMap<Box, Integer> map = log.replay(RTreeMap.create(configuration));
+            assertEquals(1, map.size());
+            assertEquals(Integer.valueOf(1), map.get(a));
+            log.put(b, 3);
+        }
+        try (OperationLog<Box, Integer> log = OperationLog.open(path, Codecs.integer())) {
+            assertEquals(Integer.valueOf(3), log.replay(RTreeMap.create(configuration)).get(b));
+            log.truncate();
+            assertTrue(log.replay(RTreeMap.create(configuration)).isEmpty());
+        }
+    }
+
+    @Test
+    public void testConcurrentWritersShareSyncs() throws Exception {
+        Path path = folder.newFile().toPath();
+        int threads = 8;
+        int operations = 50;
+        Map<Box, Integer> expected = new HashMap<>();
+        try (OperationLog<Box, Integer> log = OperationLog.open(path, Codecs.integer())) {
+            List<Thread> writers = new ArrayList<>();
+            List<Exception> errors = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int thread = t;
+                for (int i = 0; i < operations; i++) {
+                    expected.put(Box.create(thread, i, 0, thread, i, 0), i);
+                }
+                writers.add(new Thread(() -> {
+                    try {
+                        for (int i = 0; i < operations; i++) {
+                            log.put(Box.create(thread, i, 0, thread, i, 0), i);
+                        }
+                    } catch (IOException e) {
+                        synchronized (errors) {
+                            errors.add(e);
+                        }
+                    }
+                }));
+            }
+            writers.forEach(Thread::start);
+            for (Thread writer : writers) {
+                writer.join();
+            }
+            assertTrue(errors.isEmpty());
+            assertTrue(log.getSyncCount() <= threads * operations);
+            RTreeMap<Box, Integer> map = log.replay(RTreeMap.create(configuration));
+            assertEquals(expected.size(), map.size());
+            for (Map.Entry<Box, Integer> entry : expected.entrySet()) {
+                assertEquals(entry.getValue(), map.get(entry.getKey()));
+            }
+        }
+    }
+
+    @Test
+    public void testTruncateKeepsOperationsAfterMark() throws Exception {
+        Path path = folder.newFile().toPath();
+        int threads = 4;
+        int operations = 200;
+        // operations are logged and applied under the read lock, snapshots are taken under the write lock
+        ReadWriteLock lock = new ReentrantReadWriteLock();
+        Map<Box, Integer> applied = new ConcurrentHashMap<>();
+        try (OperationLog<Box, Integer> log = OperationLog.open(path, Codecs.integer())) {
+            List<Thread> writers = new ArrayList<>();
+            List<Exception> errors = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int thread = t;
+                writers.add(new Thread(() -> {
+                    try {
+                        for (int i = 0; i < operations; i++) {
+                            Box box = Box.create(thread, i % 20, 0, thread, i % 20, 0);
+                            lock.readLock().lock();
+                            try {
+                                log.put(box, i);
+                                applied.put(box, i);
+                            } finally {
+                                lock.readLock().unlock();
+                            }
+                        }
+                    } catch (IOException e) {
+                        synchronized (errors) {
+                            errors.add(e);
+                        }
+                    }
+                }));
+            }
+            writers.forEach(Thread::start);
+            Map<Box, Integer> snapshot = new HashMap<>();
+            while (writers.stream().anyMatch(Thread::isAlive)) {
+                long mark;
+                lock.writeLock().lock();
+                try {
+                    snapshot = new HashMap<>(applied);
+                    mark = log.mark();
+                } finally {
+                    lock.writeLock().unlock();
+                }
+                // writers go on logging while the log is truncated
+                log.truncate(mark);
+            }
+            for (Thread writer : writers) {
+                writer.join();
+            }
+            assertTrue(errors.isEmpty());
+            RTreeMap<Box, Integer> map = RTreeMap.create(configuration);
+            for (Map.Entry<Box, Integer> entry : snapshot.entrySet()) {
+                map = map.put(entry.getKey(), entry.getValue());
+            }
+            map = log.replay(map);
+            assertEquals(applied.size(), map.size());
+            for (Map.Entry<Box, Integer> entry : applied.entrySet()) {
+                assertEquals(entry.getValue(), map.get(entry.getKey()));
+            }
+        }
+    }
+
+    @Test
+    public void testCloseKeepsDurableOperations() throws Exception {
+        Path path = folder.newFile().toPath();
+        int threads = 4;
+        Map<Box, Integer> durable = new ConcurrentHashMap<>();
+        OperationLog<Box, Integer> log = OperationLog.open(path, Codecs.integer());
+        List<Thread> writers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            writers.add(new Thread(() -> {
+                try {
+                    for (int i = 0; ; i++) {
+                        Box box = Box.create(thread, i, 0, thread, i, 0);
+                        log.put(box, i);
+                        durable.put(box, i);
+                    }
+                } catch (IOException e) {
+                    // the log was closed
+                }
+            }));
+        }
+        writers.forEach(Thread::start);
+        while (durable.size() < 100) {
+            Thread.yield();
+        }
+        log.close();
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        try (OperationLog<Box, Integer> reopened = OperationLog.open(path, Codecs.integer())) {
+            RTreeMap<Box, Integer> map = reopened.replay(RTreeMap.create(configuration));
+            for (Map.Entry<Box, Integer> entry : durable.entrySet()) {
+                assertEquals(entry.getValue(), map.get(entry.getKey()));
+            }
+        }
+    }
+
+    private static void assertMapsEqual(RTreeMap<Box, Integer> expected, RTreeMap<Box, Integer> actual) {
+        assertEquals(expected.size(), actual.size());
+        assertEquals(expected.entries().collect(Collectors.toSet()), actual.entries().collect(Collectors.toSet()));
+    }
+}
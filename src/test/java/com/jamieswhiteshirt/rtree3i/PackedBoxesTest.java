@@ -0,0 +1,75 @@
+package com.jamieswhiteshirt.rtree3i;
+
+import static com.jamieswhiteshirt.rtree3i.TestBoxes.randomBox;
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Function;
+
+import org.junit.Test;
+
+public class PackedBoxesTest {
+
+    @Test
+    public void testSmallExtentIsExact() {
+        Box[] boxes = { Box.create(10, 10, 10, 20, 20, 20), Box.create(100, 50, 10, 200, 60, 11) };
+        PackedBoxes packed = PackedBoxes.pack(boxes, Function.identity(), Boxes.mbb(boxes, Function.identity()), true);
+        assertTrue(packed.isExact());
+        assertEquals(2, packed.size());
+        assertEquals(0, packed.indexOf(boxes[0], 0));
+        assertEquals(1, packed.indexOf(boxes[1], 0));
+        assertEquals(-1, packed.indexOf(Box.create(10, 10, 10, 20, 20, 21), 0));
+        assertTrue(packed.mayContain(0, Box.create(11, 11, 11, 12, 12, 12)));
+        assertFalse(packed.mayContain(0, Box.create(9, 11, 11, 12, 12, 12)));
+    }
+
+    @Test
+    public void testWideExtentHasNoFalseNegatives() {
+        Random random = new Random(1);
+        Box[] boxes = new Box[64];
+        for (int i = 0; i < boxes.length; i++) {
+            boxes[i] = randomBox(random, Integer.MIN_VALUE / 2, Integer.MAX_VALUE / 2, 1000);
+        }
+        Box mbb = Boxes.mbb(boxes, Function.identity());
+        PackedBoxes packed = PackedBoxes.pack(boxes, Function.identity(), mbb, true);
+        assertFalse(packed.isExact());
+        for (int i = 0; i < boxes.length; i++) {
+            assertTrue(packed.mayContain(i, boxes[i]));
+            int index = packed.indexOf(boxes[i], 0);
+            while (index != -1 && !boxes[index].equals(boxes[i])) {
+                index = packed.indexOf(boxes[i], index + 1);
+            }
+            assertEquals(i, index);
+        }
+    }
+
+    @Test
+    public void testCompressedTreeMatchesMap() {
+        Random random = new Random(2);
+        RTreeMap<Box, Integer> tree = RTreeMap.create(new ConfigurationBuilder().maxChildren(8).boxCompression(true)
+            .build());
+        Map<Box, Integer> map = new HashMap<>();
+        for (int i = 0; i < 2000; i++) {
+            Box box = randomBox(random, -1000000, 1000000, 1000);
+            tree = tree.put(box, i);
+            map.put(box, i);
+        }
+        int i = 0;
+        for (Box box : map.keySet()) {
+            if (i++ % 2 == 0) {
+                tree = tree.remove(box);
+            }
+        }
+        i = 0;
+        for (Map.Entry<Box, Integer> entry : map.entrySet()) {
+            if (i++ % 2 == 0) {
+                assertFalse(tree.containsKey(entry.getKey()));
+            } else {
+                assertEquals(entry.getValue(), tree.get(entry.getKey()));
+            }
+        }
+        assertEquals(map.size() / 2, tree.size());
+    }
+}
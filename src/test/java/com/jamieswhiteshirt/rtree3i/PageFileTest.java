@@ -0,0 +1,184 @@
+package com.jamieswhiteshirt.rtree3i;
+
+import static com.jamieswhiteshirt.rtree3i.TestBoxes.randomBox;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class PageFileTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final Configuration configuration = new ConfigurationBuilder().maxChildren(8).build();
+
+    @Test
+    public void testCommitAndReopen() throws IOException {
+        Path path = folder.newFile().toPath();
+        Random random = new Random(7);
+        RTreeMap<Box, Integer> tree = RTreeMap.create(configuration);
+        for (int i = 0; i < 2000; i++) {
+            tree = tree.put(randomBox(random, 1000, 10), i);
+        }
+        try (PageFile<Box, Integer> file = new PageFileBuilder().pageSize(256).cacheCapacity(16)
+            .open(path, configuration, Codecs.integer())) {
+            assertTrue(file.load().isEmpty());
+            file.commit(tree);
+        }
+        try (PageFile<Box, Integer> file = new PageFileBuilder().cacheCapacity(16)
+            .open(path, configuration, Codecs.integer())) {
+            assertEquals(256, file.getPageSize());
+            RTreeMap<Box, Integer> loaded = file.load();
+            assertEquals(tree.size(), loaded.size());
+            assertEquals(tree.calculateDepth(), loaded.calculateDepth());
+            tree.entries().forEach(entry -> assertEquals(entry.getValue(), loaded.get(entry.getKey())));
+            for (int i = 0; i < 50; i++) {
+                Box query = randomBox(random, 1000, 10).add(randomBox(random, 1000, 10));
+                Predicate<Box> boxPredicate = query::intersectsOpen;
+                Set<Entry<Box, Integer>> expected = tree.entries(boxPredicate).collect(Collectors.toSet());
+                assertEquals(expected, loaded.entries(boxPredicate).collect(Collectors.toSet()));
+            }
+            assertTrue(file.getCacheMisses() > 0);
+            assertTrue(file.getCacheHits() > 0);
+            assertTrue(file.getCacheEvictions() > 0);
+        }
+    }
+
+    @Test
+    public void testCopyOnWriteUpdates() throws IOException {
+        Path path = folder.newFile().toPath();
+        Random random = new Random(8);
+        Map<Box, Integer> map = new HashMap<>();
+        try (PageFile<Box, Integer> file = new PageFileBuilder().pageSize(512).cacheCapacity(8)
+            .open(path, configuration, Codecs.integer())) {
+            RTreeMap<Box, Integer> tree = file.load();
+            for (int round = 0; round < 5; round++) {
+                for (int i = 0; i < 200; i++) {
+                    Box box = randomBox(random, 1000, 10);
+                    tree = tree.put(box, i);
+                    map.put(box, i);
+                }
+                int removed = 0;
+                for (Box box : map.keySet().toArray(new Box[0])) {
+                    if (removed++ % 3 == 0) {
+                        tree = tree.remove(box);
+                        map.remove(box);
+                    }
+                }
+                long pages = file.getPageCount();
+                tree = file.commit(tree);
+                assertTrue(file.getPageCount() > pages);
+                // committing an unchanged map writes nothing
+                pages = file.getPageCount();
+                tree = file.commit(tree);
+                assertEquals(pages, file.getPageCount());
+                assertSame(tree, tree.remove(Box.create(-1, -1, -1, -1, -1, -1)));
+            }
+        }
+        try (PageFile<Box, Integer> file = new PageFileBuilder().open(path, configuration, Codecs.integer())) {
+            RTreeMap<Box, Integer> loaded = file.load();
+            assertEquals(map.size(), loaded.size());
+            for (Map.Entry<Box, Integer> entry : map.entrySet()) {
+                assertEquals(entry.getValue(), loaded.get(entry.getKey()));
+            }
+        }
+    }
+
+    @Test
+    public void testHilbertPutReadsOnlyItsPath() throws IOException {
+        Path path = folder.newFile().toPath();
+        Configuration hilbert = new ConfigurationBuilder().maxChildren(8).hilbert().build();
+        Random random = new Random(9);
+        RTreeMap<Box, Integer> tree = RTreeMap.create(hilbert);
+        for (int i = 0; i < 2000; i++) {
+            tree = tree.put(randomBox(random, 1000, 10), i);
+        }
+        try (PageFile<Box, Integer> file = new PageFileBuilder().open(path, hilbert, Codecs.integer())) {
+            file.commit(tree);
+        }
+        try (PageFile<Box, Integer> file = new PageFileBuilder().cacheCapacity(1024)
+            .open(path, hilbert, Codecs.integer())) {
+            RTreeMap<Box, Integer> loaded = file.load();
+            Box box = randomBox(random, 1000, 10);
+            loaded = loaded.put(box, -1);
+            // the path to the leaf, and at most a cooperating sibling on each level
+            assertTrue(file.getCacheMisses() <= 2 * tree.calculateDepth());
+            assertEquals(Integer.valueOf(-1), loaded.get(box));
+            assertEquals(tree.size() + 1, loaded.size());
+        }
+    }
+
+    @Test
+    public void testOptimizeReadsOnlyWorstSubtrees() throws IOException {
+        Path path = folder.newFile().toPath();
+        Random random = new Random(10);
+        RTreeMap<Box, Integer> tree = RTreeMap.create(configuration);
+        for (int i = 0; i < 4000; i++) {
+            tree = tree.put(randomBox(random, 1000, 10), i);
+        }
+        try (PageFile<Box, Integer> file = new PageFileBuilder().open(path, configuration, Codecs.integer())) {
+            file.commit(tree);
+        }
+        try (PageFile<Box, Integer> file = new PageFileBuilder().cacheCapacity(4096)
+            .open(path, configuration, Codecs.integer())) {
+            RTreeMap<Box, Integer> loaded = file.load();
+            RTreeMap<Box, Integer> optimized = loaded.optimize(1);
+            assertNotSame(loaded, optimized);
+            // the worst subtree and the branches leading to it are read, not every node
+            assertTrue(file.getCacheMisses() < file.getPageCount() / 2);
+            assertEquals(tree.size(), optimized.size());
+            tree.entries().forEach(entry -> assertEquals(entry.getValue(), optimized.get(entry.getKey())));
+        }
+    }
+
+    @Test
+    public void testTornHeaderFallsBackToPreviousCommit() throws IOException {
+        Path path = folder.newFile().toPath();
+        Random random = new Random(11);
+        RTreeMap<Box, Integer> first = RTreeMap.create(configuration);
+        for (int i = 0; i < 100; i++) {
+            first = first.put(randomBox(random, 1000, 10), i);
+        }
+        int pageSize;
+        try (PageFile<Box, Integer> file = new PageFileBuilder().open(path, configuration, Codecs.integer())) {
+            pageSize = file.getPageSize();
+            file.commit(first);
+            file.commit(first.put(randomBox(random, 1000, 10), -1));
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            // creating the file writes both slots, so the first commit went to the second slot and the second commit
+            // to the first slot, which is torn after its prefix here
+            channel.write(ByteBuffer.wrap(new byte[] { 1, 2, 3, 4 }), 20);
+        }
+        try (PageFile<Box, Integer> file = new PageFileBuilder().open(path, configuration, Codecs.integer())) {
+            assertEquals(pageSize, file.getPageSize());
+            RTreeMap<Box, Integer> loaded = file.load();
+            assertEquals(first.size(), loaded.size());
+            first.entries().forEach(entry -> assertEquals(entry.getValue(), loaded.get(entry.getKey())));
+        }
+    }
+
+    @Test
+    public void testReopenWithoutCommit() throws IOException {
+        Path path = folder.newFile().toPath();
+        new PageFileBuilder().open(path, configuration, Codecs.integer()).close();
+        try (PageFile<Box, Integer> file = new PageFileBuilder().open(path, configuration, Codecs.integer())) {
+            assertTrue(file.load().isEmpty());
+            assertEquals(2, file.getPageCount());
+        }
+    }
+}
@@ -1,10 +1,13 @@
 package com.jamieswhiteshirt.rtree3i;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Random;
 import java.util.function.Function;
 
 import org.junit.Test;
@@ -44,35 +47,14 @@ public class QuadraticSplitterTest {
     }
 
     @Test
-    public void testGetBestCandidateForGroup1() {
-        final Box r1 = r(1);
-        final Box r2 = r(2);
-        final List<Box> list = Collections.singletonList(r1);
-        final List<Box> group = Collections.singletonList(r2);
-        final Box r = QuadraticSplitter.getBestCandidateForGroup(list, Util.mbb(group), Function.identity());
-        assertEquals(r1, r);
-    }
-
-    @Test
-    public void testGetBestCandidateForGroup2() {
-        final Box r1 = r(1);
-        final Box r2 = r(2);
-        final Box r3 = r(10);
-        final List<Box> list = Collections.singletonList(r1);
-        final List<Box> group = Arrays.asList(r2, r3);
-        final Box r = QuadraticSplitter.getBestCandidateForGroup(list, Util.mbb(group), Function.identity());
-        assertEquals(r1, r);
-    }
-
-    @Test
-    public void testGetBestCandidateForGroup3() {
+    public void testSplitAddsToGroupWithLeastVolumeIncrease() {
+        final QuadraticSplitter q = new QuadraticSplitter();
         final Box r1 = r(1);
-        final Box r2 = r(2);
-        final Box r3 = r(10);
-        final List<Box> list = Arrays.asList(r1, r2);
-        final List<Box> group = Collections.singletonList(r3);
-        final Box r = QuadraticSplitter.getBestCandidateForGroup(list, Util.mbb(group), Function.identity());
-        assertEquals(r2, r);
+        final Box r2 = r(10);
+        final Box r3 = r(100);
+        final Groups<Box> pair = q.split(Arrays.asList(r1, r3, r2), 1, Function.identity());
+        assertEquals(Sets.newHashSet(r1, r2), Sets.newHashSet(pair.getGroup1().getEntries()));
+        assertEquals(Collections.singletonList(r3), pair.getGroup2().getEntries());
     }
 
     @Test
@@ -114,6 +96,26 @@ public class QuadraticSplitterTest {
         assertEquals(Sets.newHashSet(r4, r5, r6), Sets.newHashSet(pair.getGroup2().getEntries()));
     }
 
+    @Test
+    public void testSplitKeepsAllItemsBalanced() {
+        final QuadraticSplitter q = new QuadraticSplitter();
+        final Random random = new Random(4);
+        final List<Box> boxes = new ArrayList<>();
+        for (int i = 0; i < 65; i++) {
+            int x = random.nextInt(1000), y = random.nextInt(1000), z = random.nextInt(1000);
+            boxes.add(Box.create(x, y, z, x + random.nextInt(50), y + random.nextInt(50), z + random.nextInt(50)));
+        }
+        final Groups<Box> pair = q.split(boxes, 26, Function.identity());
+        final List<Box> all = new ArrayList<>(pair.getGroup1().getEntries());
+        all.addAll(pair.getGroup2().getEntries());
+        assertEquals(boxes.size(), all.size());
+        assertTrue(all.containsAll(boxes));
+        assertTrue(pair.getGroup1().getEntries().size() >= 32);
+        assertTrue(pair.getGroup2().getEntries().size() >= 32);
+        assertEquals(Util.mbb(pair.getGroup1().getEntries()), pair.getGroup1().getBox());
+        assertEquals(Util.mbb(pair.getGroup2().getEntries()), pair.getGroup2().getBox());
+    }
+
     @Test(expected = RuntimeException.class)
     public void testExceptionForSplitEmptyList() {
         final QuadraticSplitter q = new QuadraticSplitter();
@@ -1,10 +1,15 @@
 package com.jamieswhiteshirt.rtree3i;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Random;
 import java.util.function.Function;
+import java.util.function.ToIntFunction;
 
 import org.junit.Test;
 
@@ -13,8 +18,7 @@ import com.google.common.collect.Lists;
 public class RStarSplitterTest {
 
     @Test
-    public void testGetPairs() {
-
+    public void testSplitKeepsMinSize() {
         int minSize = 2;
         List<Box> list = Lists.newArrayList();
         list.add(point(1, 1));
@@ -22,8 +26,12 @@ public class RStarSplitterTest {
         list.add(point(3, 3));
         list.add(point(4, 4));
         list.add(point(5, 5));
-        List<Groups<Box>> pairs = RStarSplitter.createPairs(minSize, list, Function.identity());
-        assertEquals(2, pairs.size());
+        Groups<Box> groups = new RStarSplitter().split(list, minSize, Function.identity());
+        assertTrue(groups.getGroup1().getEntries().size() >= minSize);
+        assertTrue(groups.getGroup2().getEntries().size() >= minSize);
+        assertEquals(list.size(), groups.getGroup1().getEntries().size() + groups.getGroup2().getEntries().size());
+        // the points lie on a diagonal, so the groups are a prefix and a suffix of it
+        assertEquals(groups.getGroup1().getEntries(), list.subList(0, groups.getGroup1().getEntries().size()));
     }
 
     @Test(expected = IllegalArgumentException.class)
@@ -32,6 +40,52 @@ public class RStarSplitterTest {
         spl.split(Collections.emptyList(), 4, Function.identity());
     }
 
+    @Test
+    public void testSplitMatchesExhaustiveSearch() {
+        Random random = new Random(3);
+        RStarSplitter spl = new RStarSplitter();
+        for (int round = 0; round < 50; round++) {
+            int n = 5 + random.nextInt(124);
+            int minSize = 1 + random.nextInt(n / 2);
+            List<Box> boxes = new ArrayList<>();
+            for (int i = 0; i < n; i++) {
+                int x = random.nextInt(1000), y = random.nextInt(1000), z = random.nextInt(1000);
+                boxes.add(Box.create(x, y, z, x + random.nextInt(50), y + random.nextInt(50), z + random.nextInt(50)));
+            }
+            Groups<Box> expected = exhaustiveSplit(boxes, minSize);
+            Groups<Box> actual = spl.split(boxes, minSize, Function.identity());
+            assertEquals(expected.getGroup1().getEntries(), actual.getGroup1().getEntries());
+            assertEquals(expected.getGroup2().getEntries(), actual.getGroup2().getEntries());
+            assertEquals(expected.getGroup1().getBox(), actual.getGroup1().getBox());
+            assertEquals(expected.getGroup2().getBox(), actual.getGroup2().getBox());
+        }
+    }
+
+    private static Groups<Box> exhaustiveSplit(List<Box> boxes, int minSize) {
+        List<ToIntFunction<Box>> keys = Lists.newArrayList(Box::x1, Box::x2, Box::y1, Box::y2, Box::z1, Box::z2);
+        List<Groups<Box>> best = null;
+        long bestMarginSum = Long.MAX_VALUE;
+        for (ToIntFunction<Box> key : keys) {
+            List<Box> sorted = new ArrayList<>(boxes);
+            sorted.sort(Comparator.comparingInt(key));
+            List<Groups<Box>> pairs = new ArrayList<>();
+            for (int i = minSize; i <= sorted.size() - minSize; i++) {
+                pairs.add(new Groups<>(Group.of(sorted.subList(0, i), Function.identity()),
+                    Group.of(sorted.subList(i, sorted.size()), Function.identity())));
+            }
+            long marginSum = 0;
+            for (Groups<Box> pair : pairs) {
+                marginSum += pair.getMarginSum();
+            }
+            if (marginSum < bestMarginSum) {
+                bestMarginSum = marginSum;
+                best = pairs;
+            }
+        }
+        return Collections.min(best, Comparators.groupsVolumeComparator
+            .thenComparing(Comparators.groupsIntersectionVolumeComparator));
+    }
+
     private static Box point(int x, int y) {
         return Box.create(x, y, 0, x, y, 0);
     }
@@ -0,0 +1,77 @@
+package com.jamieswhiteshirt.rtree3i;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+public class RTreeMapIOTest {
+
+    @Test
+    public void testRoundTripPreservesStructure() throws IOException {
+        Configuration configuration = new ConfigurationBuilder().maxChildren(6).build();
+        Random random = new Random(6);
+        RTreeMap<Box, Integer> tree = RTreeMap.create(configuration);
+        for (int i = 0; i < 1000; i++) {
+            int x = random.nextInt(2000) - 1000, y = random.nextInt(2000) - 1000, z = random.nextInt(2000) - 1000;
+            tree = tree.put(Box.create(x, y, z, x + random.nextInt(10), y + random.nextInt(10), z + random.nextInt(10)),
+                i);
+        }
+        RTreeMap<Box, Integer> read = RTreeMapIO.read(roundTrip(tree, Codecs.box(), Codecs.integer()), configuration,
+            Codecs.integer());
+        assertEquals(tree.size(), read.size());
+        assertEquals(tree.calculateDepth(), read.calculateDepth());
+        assertEquals(tree.toString(), read.toString());
+        assertEquals(tree.entries().collect(Collectors.toSet()), read.entries().collect(Collectors.toSet()));
+
+        // the map read is an ordinary map
+        Box box = Box.create(5000, 5000, 5000, 5001, 5001, 5001);
+        read = read.put(box, -1);
+        assertEquals(Integer.valueOf(-1), read.get(box));
+    }
+
+    @Test
+    public void testRoundTripKeysSharingBox() throws IOException {
+        Box b = Box.create(0, 0, 0, 1, 1, 1);
+        Configuration configuration = new ConfigurationBuilder().build();
+        RTreeMap<String, Integer> tree = RTreeMap.<String, Integer>create(configuration, key -> b)
+                .put("a", 1).put("b", 2).put("c", 3);
+        RTreeMap<String, Integer> read = RTreeMapIO.read(roundTrip(tree, Codecs.string(), Codecs.integer()),
+            configuration, Codecs.string(), Codecs.integer(), key -> b);
+        assertEquals(3, read.size());
+        assertEquals(Integer.valueOf(2), read.get("b"));
+        assertEquals(2, read.remove("b").size());
+    }
+
+    @Test
+    public void testRoundTripEmptyMap() throws IOException {
+        Configuration configuration = new ConfigurationBuilder().build();
+        RTreeMap<Box, Integer> read = RTreeMapIO.read(roundTrip(RTreeMap.create(configuration), Codecs.box(),
+            Codecs.integer()), configuration, Codecs.integer());
+        assertTrue(read.isEmpty());
+    }
+
+    @Test(expected = IOException.class)
+    public void testReadRejectsNodesLargerThanConfiguration() throws IOException {
+        RTreeMap<Box, Integer> tree = RTreeMap.create(new ConfigurationBuilder().maxChildren(8).build());
+        for (int i = 0; i < 8; i++) {
+            tree = tree.put(Box.create(i, i, i, i, i, i), i);
+        }
+        RTreeMapIO.read(roundTrip(tree, Codecs.box(), Codecs.integer()),
+            new ConfigurationBuilder().maxChildren(4).build(), Codecs.integer());
+    }
+
+    private static <K, V> DataInputStream roundTrip(RTreeMap<K, V> tree, Codec<K> keyCodec, Codec<V> valueCodec)
+        throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        RTreeMapIO.write(tree, new DataOutputStream(bytes), keyCodec, valueCodec);
+        return new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+    }
+}
@@ -8,6 +8,7 @@ import java.util.*;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
+import static com.jamieswhiteshirt.rtree3i.TestBoxes.randomBox;
 import static java.util.Arrays.asList;
 import static org.junit.Assert.*;
 
@@ -204,6 +205,489 @@ public class RTreeMapTest {
         testBuiltTree(tree);
     }
 
+    @Test
+    public void testBuilderLinearSplitter() {
+        RTreeMap<Box, Object> tree = RTreeMap.create(new ConfigurationBuilder().minChildren(4).maxChildren(16)
+                .splitter(new LinearSplitter()).build());
+        testBuiltTree(tree);
+    }
+
+    @Test
+    public void testForcedReinsertion() {
+        Configuration configuration = new ConfigurationBuilder().star().maxChildren(8).forcedReinsertion(true)
+                .build();
+        Map<Box, Integer> expected = new HashMap<>();
+        RTreeMap<Box, Integer> tree = putAndRemove(configuration, expected);
+        assertEquals(expected.size(), tree.size());
+        for (Map.Entry<Box, Integer> entry : expected.entrySet()) {
+            assertEquals(entry.getValue(), tree.get(entry.getKey()));
+        }
+        assertValidStructure(tree.getRoot(), configuration, true, tree.calculateDepth());
+
+        // the same operations without reinsertion split every overflowing node, which leaves more, emptier nodes
+        RTreeMap<Box, Integer> split = putAndRemove(new ConfigurationBuilder().star().maxChildren(8).build(),
+                new HashMap<>());
+        assertEquals(tree.size(), split.size());
+        assertTrue(countNodes(tree.getRoot()) < countNodes(split.getRoot()));
+    }
+
+    private static RTreeMap<Box, Integer> putAndRemove(Configuration configuration, Map<Box, Integer> expected) {
+        Random random = new Random(5);
+        RTreeMap<Box, Integer> tree = RTreeMap.create(configuration);
+        for (int i = 0; i < 3000; i++) {
+            int x = random.nextInt(200), y = random.nextInt(200), z = random.nextInt(200);
+            Box key = Box.create(x, y, z, x + random.nextInt(5), y + random.nextInt(5), z + random.nextInt(5));
+            tree = tree.put(key, i);
+            expected.put(key, i);
+            if (i % 3 == 0) {
+                Box removed = expected.keySet().iterator().next();
+                tree = tree.remove(removed);
+                expected.remove(removed);
+            }
+        }
+        return tree;
+    }
+
+    @Test
+    public void testRevisedStar() {
+        Configuration configuration = new ConfigurationBuilder().revisedStar().maxChildren(16).build();
+        Random random = new Random(7);
+        RTreeMap<Box, Integer> tree = RTreeMap.create(configuration);
+        List<Box> keys = new ArrayList<>();
+        for (int i = 0; i < 3000; i++) {
+            int x = random.nextInt(1000), y = random.nextInt(1000), z = random.nextInt(1000);
+            Box key = Box.create(x, y, z, x + random.nextInt(20), y + random.nextInt(20), z + random.nextInt(20));
+            tree = tree.put(key, i);
+            keys.add(key);
+        }
+        assertValidStructure(tree.getRoot(), configuration, true, tree.calculateDepth());
+        Box query = Box.create(200, 200, 200, 500, 500, 500);
+        long expected = keys.stream().distinct().filter(query::intersectsOpen).count();
+        assertEquals(expected, tree.entries(query::intersectsOpen).count());
+    }
+
+    @Test
+    public void testHilbert() {
+        Configuration configuration = new ConfigurationBuilder().hilbert().maxChildren(16).build();
+        Random random = new Random(9);
+        RTreeMap<Box, Integer> tree = RTreeMap.create(configuration);
+        List<Box> keys = new ArrayList<>();
+        for (int i = 0; i < 3000; i++) {
+            int x = random.nextInt(100), y = random.nextInt(100), z = random.nextInt(100);
+            Box key = Box.create(x, y, z, x + 1, y + 1, z + 1);
+            tree = tree.put(key, i);
+            keys.add(key);
+        }
+        assertValidStructure(tree.getRoot(), configuration, true, tree.calculateDepth());
+        assertHilbertOrdered(tree.getRoot());
+        List<Node<Box, Integer>> leaves = new ArrayList<>();
+        collectLeaves(tree.getRoot(), leaves);
+        int buckets = leaves.stream().mapToInt(leaf -> leaf.getBuckets().size()).sum();
+        assertTrue(buckets > 0.7 * leaves.size() * configuration.getMaxChildren());
+        Box query = Box.create(20, 20, 20, 50, 50, 50);
+        long expected = keys.stream().distinct().filter(query::intersectsOpen).count();
+        assertEquals(expected, tree.entries(query::intersectsOpen).count());
+
+        for (int i = 0; i < 2000; i++) {
+            tree = tree.remove(keys.get(i));
+        }
+        assertValidStructure(tree.getRoot(), configuration, true, tree.calculateDepth());
+        assertHilbertOrdered(tree.getRoot());
+        assertEquals(keys.subList(2000, 3000).stream().distinct().count(), tree.size());
+    }
+
+    @Test
+    public void testRemoveMergesUnderflowingNodes() {
+        for (Configuration configuration : asList(new ConfigurationBuilder().maxChildren(6).build(),
+                new ConfigurationBuilder().star().maxChildren(10).build())) {
+            Random random = new Random(13);
+            RTreeMap<Box, Integer> tree = RTreeMap.create(configuration);
+            List<Box> keys = new ArrayList<>();
+            for (int i = 0; i < 2000; i++) {
+                int x = random.nextInt(1000), y = random.nextInt(1000), z = random.nextInt(1000);
+                Box key = Box.create(x, y, z, x + 10, y + 10, z + 10);
+                tree = tree.put(key, i);
+                keys.add(key);
+            }
+            Collections.shuffle(keys, random);
+            for (int i = 0; i < 1990; i++) {
+                tree = tree.remove(keys.get(i));
+                if (i % 100 == 0) {
+                    assertValidStructure(tree.getRoot(), configuration, true, tree.calculateDepth());
+                }
+            }
+            assertValidStructure(tree.getRoot(), configuration, true, tree.calculateDepth());
+            assertEquals(new HashSet<>(keys.subList(1990, 2000)), tree.keys().collect(Collectors.toSet()));
+        }
+    }
+
+    @Test
+    public void testMove() {
+        for (Configuration configuration : asList(new ConfigurationBuilder().maxChildren(8).build(),
+                new ConfigurationBuilder().hilbert().maxChildren(8).build())) {
+            Random random = new Random(17);
+            RTreeMap<Integer, Integer> tree = RTreeMap.create(configuration, key -> point(key % 1000, key / 1000));
+            Map<Integer, Integer> expected = new HashMap<>();
+            for (int i = 0; i < 1000; i++) {
+                int key = random.nextInt(1000) + 1000 * random.nextInt(1000);
+                tree = tree.put(key, i);
+                expected.put(key, i);
+            }
+            List<Integer> keys = new ArrayList<>(expected.keySet());
+            for (int i = 0; i < 3000; i++) {
+                int index = random.nextInt(keys.size());
+                int oldKey = keys.get(index);
+                // mostly small steps, which can be moved in place, and now and then a jump
+                int step = i % 10 == 0
+                    ? random.nextInt(1000000) - oldKey
+                    : random.nextInt(3) - 1 + 1000 * (random.nextInt(3) - 1);
+                int newKey = Math.floorMod(oldKey + step, 1000000);
+                if (newKey != oldKey && expected.containsKey(newKey)) continue;
+                tree = tree.move(oldKey, newKey, i);
+                expected.remove(oldKey);
+                expected.put(newKey, i);
+                keys.set(index, newKey);
+            }
+            assertValidStructure(tree.getRoot(), configuration, true, tree.calculateDepth());
+            assertEquals(expected.size(), tree.size());
+            for (Map.Entry<Integer, Integer> entry : expected.entrySet()) {
+                assertEquals(entry.getValue(), tree.get(entry.getKey()));
+            }
+        }
+    }
+
+    @Test
+    public void testMoveInPlaceSharesUnchangedNodes() {
+        RTreeMap<Box, Integer> tree = RTreeMap.create(new ConfigurationBuilder().maxChildren(4).build());
+        for (int i = 0; i < 100; i++) {
+            tree = tree.put(point(i * 10, 0), i);
+        }
+        RTreeMap<Box, Integer> moved = tree.move(point(500, 0), point(501, 0), 50);
+        assertEquals(Integer.valueOf(50), moved.get(point(501, 0)));
+        assertNull(moved.get(point(500, 0)));
+        assertEquals(tree.size(), moved.size());
+        long shared = tree.getRoot().getChildren().stream()
+            .filter(child -> moved.getRoot().getChildren().contains(child)).count();
+        assertEquals(tree.getRoot().getChildren().size() - 1, shared);
+    }
+
+    @Test
+    public void testMoveAbsentKeyPuts() {
+        RTreeMap<Box, Integer> tree = RTreeMap.<Integer>create(new ConfigurationBuilder().build()).put(point(1, 1), 1);
+        RTreeMap<Box, Integer> moved = tree.move(point(2, 2), point(3, 3), 3);
+        assertEquals(2, moved.size());
+        assertEquals(Integer.valueOf(3), moved.get(point(3, 3)));
+    }
+
+    @Test
+    public void testCompute() {
+        RTreeMap<Box, Integer> tree = RTreeMap.<Integer>create(new ConfigurationBuilder().build()).put(point(1, 1), 1);
+        RTreeMap<Box, Integer> computed = tree.compute(point(1, 1), (key, value) -> value + 1);
+        assertEquals(Integer.valueOf(2), computed.get(point(1, 1)));
+        assertEquals(Integer.valueOf(5), tree.compute(point(2, 2), (key, value) -> value == null ? 5 : 6)
+            .get(point(2, 2)));
+        assertEquals(0, tree.compute(point(1, 1), (key, value) -> null).size());
+        assertSame(tree, tree.compute(point(2, 2), (key, value) -> null));
+        assertSame(tree, tree.compute(point(1, 1), (key, value) -> value));
+    }
+
+    @Test
+    public void testComputeSplitsAndCondenses() {
+        for (Configuration configuration : asList(new ConfigurationBuilder().maxChildren(6).build(),
+                new ConfigurationBuilder().star().maxChildren(10).build(),
+                new ConfigurationBuilder().maxChildren(6).hilbert().build())) {
+            Random random = new Random(17);
+            RTreeMap<Box, Integer> tree = RTreeMap.create(configuration);
+            Map<Box, Integer> map = new HashMap<>();
+            for (int i = 0; i < 4000; i++) {
+                int x = random.nextInt(100), y = random.nextInt(100), z = random.nextInt(100);
+                Box key = Box.create(x, y, z, x + 10, y + 10, z + 10);
+                int delta = random.nextInt(3) - 1;
+                tree = tree.merge(key, delta, (a, b) -> a + b == 0 ? null : a + b);
+                map.merge(key, delta, (a, b) -> a + b == 0 ? null : a + b);
+                if (i % 500 == 0) {
+                    assertValidStructure(tree.getRoot(), configuration, true, tree.calculateDepth());
+                }
+            }
+            for (Box key : new ArrayList<>(map.keySet())) {
+                if (random.nextBoolean()) {
+                    tree = tree.computeIfPresent(key, (k, value) -> null);
+                    map.remove(key);
+                }
+            }
+            assertValidStructure(tree.getRoot(), configuration, true, tree.calculateDepth());
+            assertEquals(map.size(), tree.size());
+            for (Map.Entry<Box, Integer> entry : map.entrySet()) {
+                assertEquals(entry.getValue(), tree.get(entry.getKey()));
+            }
+        }
+    }
+
+    @Test
+    public void testComputeIfAbsent() {
+        RTreeMap<Box, Integer> tree = RTreeMap.<Integer>create(new ConfigurationBuilder().build()).put(point(1, 1), 1);
+        assertSame(tree, tree.computeIfAbsent(point(1, 1), key -> {
+            throw new AssertionError();
+        }));
+        assertSame(tree, tree.computeIfAbsent(point(2, 2), key -> null));
+        assertEquals(Integer.valueOf(2), tree.computeIfAbsent(point(2, 2), key -> 2).get(point(2, 2)));
+    }
+
+    @Test
+    public void testComputeIfPresent() {
+        RTreeMap<Box, Integer> tree = RTreeMap.<Integer>create(new ConfigurationBuilder().build()).put(point(1, 1), 1);
+        assertSame(tree, tree.computeIfPresent(point(2, 2), (key, value) -> {
+            throw new AssertionError();
+        }));
+        assertEquals(Integer.valueOf(3), tree.computeIfPresent(point(1, 1), (key, value) -> value + 2)
+            .get(point(1, 1)));
+        assertTrue(tree.computeIfPresent(point(1, 1), (key, value) -> null).isEmpty());
+    }
+
+    @Test
+    public void testMerge() {
+        RTreeMap<Box, Integer> tree = RTreeMap.<Integer>create(new ConfigurationBuilder().build()).put(point(1, 1), 1);
+        assertEquals(Integer.valueOf(3), tree.merge(point(1, 1), 2, Integer::sum).get(point(1, 1)));
+        assertEquals(Integer.valueOf(2), tree.merge(point(2, 2), 2, Integer::sum).get(point(2, 2)));
+        assertTrue(tree.merge(point(1, 1), 2, (a, b) -> null).isEmpty());
+        assertSame(tree, tree.merge(point(1, 1), 2, (a, b) -> a));
+    }
+
+    @Test
+    public void testPutIfAbsent() {
+        RTreeMap<Box, Integer> tree = RTreeMap.<Integer>create(new ConfigurationBuilder().build()).put(point(1, 1), 1);
+        assertSame(tree, tree.putIfAbsent(point(1, 1), 2));
+        RTreeMap<Box, Integer> put = tree.putIfAbsent(point(2, 2), 2);
+        assertEquals(2, put.size());
+        assertEquals(Integer.valueOf(2), put.get(point(2, 2)));
+    }
+
+    @Test
+    public void testOptimize() {
+        Configuration configuration = new ConfigurationBuilder().maxChildren(8).build();
+        Random random = new Random(11);
+        RTreeMap<Box, Integer> tree = RTreeMap.create(configuration);
+        List<Box> keys = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            int x = random.nextInt(1000), y = random.nextInt(1000), z = random.nextInt(1000);
+            Box key = Box.create(x, y, z, x + 5, y + 5, z + 5);
+            tree = tree.put(key, i);
+            keys.add(key);
+        }
+        Collections.shuffle(keys, random);
+        for (int i = 0; i < 4000; i++) {
+            tree = tree.remove(keys.get(i));
+        }
+        Set<Entry<Box, Integer>> entries = tree.entries().collect(Collectors.toSet());
+
+        RTreeMap<Box, Integer> optimized = tree.optimize();
+        assertEquals(entries, optimized.entries().collect(Collectors.toSet()));
+        assertEquals(tree.size(), optimized.size());
+        assertEquals(tree.getMbb(), optimized.getMbb());
+        assertValidStructure(optimized.getRoot(), configuration, true, optimized.calculateDepth());
+        assertTrue(countNodes(optimized.getRoot()) < countNodes(tree.getRoot()));
+
+        RTreeMap<Box, Integer> repacked = tree.optimize(3);
+        assertNotSame(tree, repacked);
+        assertEquals(entries, repacked.entries().collect(Collectors.toSet()));
+        assertEquals(tree.calculateDepth(), repacked.calculateDepth());
+        assertEquals(tree.getMbb(), repacked.getMbb());
+        assertTrue(countBadlyShaped(repacked.getRoot(), configuration)
+            < countBadlyShaped(tree.getRoot(), configuration));
+    }
+
+    @Test
+    public void testOptimizeKeepsLeavesWithinStrips() {
+        Configuration configuration = new ConfigurationBuilder().maxChildren(8).build();
+        int n = 1001;
+        List<Integer> ys = new ArrayList<>();
+        List<Integer> zs = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            ys.add(i);
+            zs.add(i);
+        }
+        Random random = new Random(3);
+        Collections.shuffle(ys, random);
+        Collections.shuffle(zs, random);
+        RTreeMap<Box, Integer> tree = RTreeMap.create(configuration);
+        for (int i = 0; i < n; i++) {
+            tree = tree.put(Box.create(i, ys.get(i), zs.get(i), i, ys.get(i), zs.get(i)), i);
+        }
+
+        List<Node<Box, Integer>> leaves = new ArrayList<>();
+        collectLeaves(tree.optimize().getRoot(), leaves);
+        for (int i = 0; i < leaves.size(); i++) {
+            for (int j = i + 1; j < leaves.size(); j++) {
+                assertFalse(leaves.get(i).getBox().intersectsClosed(leaves.get(j).getBox()));
+            }
+        }
+    }
+
+    @Test
+    public void testOptimizeKeepsNodesFilled() {
+        Configuration configuration = new ConfigurationBuilder().maxChildren(8).minChildren(4).build();
+        // large boxes make leaves which overlap a lot, so even small trees are repacked
+        for (int seed = 0; seed < 50; seed++) {
+            Random random = new Random(seed);
+            for (int n = 9; n <= 40; n++) {
+                RTreeMap<Box, Integer> tree = RTreeMap.create(configuration);
+                for (int i = 0; i < n; i++) {
+                    tree = tree.put(randomBox(random, 100, 100), i);
+                }
+                RTreeMap<Box, Integer> repacked = tree.optimize(Integer.MAX_VALUE);
+                assertValidStructure(repacked.getRoot(), configuration, true, tree.calculateDepth());
+                RTreeMap<Box, Integer> optimized = tree.optimize();
+                assertValidStructure(optimized.getRoot(), configuration, true, optimized.calculateDepth());
+            }
+        }
+    }
+
+    @Test
+    public void testOptimizeEmpty() {
+        RTreeMap<Box, Integer> tree = RTreeMap.create(new ConfigurationBuilder().build());
+        assertSame(tree, tree.optimize());
+        assertSame(tree, tree.optimize(1));
+    }
+
+    @Test
+    public void testStatistics() {
+        Configuration configuration = new ConfigurationBuilder().maxChildren(4).build();
+        RTreeMap<Integer, Integer> tree = RTreeMap.create(configuration, key -> point(key % 50, key % 7));
+        for (int i = 0; i < 500; i++) {
+            tree = tree.put(i, i);
+        }
+        Statistics statistics = tree.statistics();
+        assertEquals(tree.calculateDepth(), statistics.getDepth());
+        assertEquals(500, statistics.getSize());
+        assertEquals(350, statistics.getBucketCount());
+        // keys 0 to 349 are alone in their boxes, keys 350 to 499 share them with another key
+        assertArrayEquals(new int[] { 0, 200, 150 }, statistics.getBucketSizeHistogram());
+
+        List<Statistics.Level> levels = statistics.getLevels();
+        assertEquals(statistics.getDepth(), levels.size());
+        assertEquals(1, levels.get(levels.size() - 1).getNodeCount());
+        assertEquals(countNodes(tree.getRoot()), levels.stream().mapToInt(Statistics.Level::getNodeCount).sum());
+        for (int i = 0; i < levels.size(); i++) {
+            Statistics.Level level = levels.get(i);
+            assertEquals(i, level.getLevel());
+            int[] histogram = level.getFanoutHistogram();
+            int nodes = 0;
+            int children = 0;
+            for (int fanout = 0; fanout < histogram.length; fanout++) {
+                nodes += histogram[fanout];
+                children += histogram[fanout] * fanout;
+            }
+            assertEquals(level.getNodeCount(), nodes);
+            int expectedChildren = i == 0 ? statistics.getBucketCount() : levels.get(i - 1).getNodeCount();
+            assertEquals(expectedChildren, children);
+            assertEquals(children / (double) nodes / 4, level.getAverageFill(), 1e-9);
+            assertTrue(level.getAverageFill() <= 1);
+            assertTrue(level.getDeadSpace() >= 0);
+            assertTrue(level.getDeadSpace() <= level.getVolumeSum());
+        }
+        // all entries are points in the plane z = 0, so every box is flat
+        assertEquals(0, levels.get(0).getVolumeSum(), 0);
+        assertEquals(0, levels.get(0).getSiblingOverlap(), 0);
+    }
+
+    @Test
+    public void testStatisticsOfSmallTree() {
+        Configuration configuration = new ConfigurationBuilder().maxChildren(4).build();
+        RTreeMap<Box, Integer> tree = RTreeMap.create(configuration);
+        tree = tree.put(Box.create(0, 0, 0, 2, 2, 2), 1);
+        tree = tree.put(Box.create(1, 1, 1, 4, 4, 4), 2);
+        Statistics statistics = tree.statistics();
+        assertEquals(1, statistics.getDepth());
+        assertEquals(2, statistics.getSize());
+        assertEquals(2, statistics.getBucketCount());
+        Statistics.Level leaves = statistics.getLevels().get(0);
+        assertEquals(1, leaves.getNodeCount());
+        assertEquals(1, leaves.getFanoutHistogram()[2]);
+        assertEquals(0.5, leaves.getAverageFill(), 0);
+        assertEquals(64, leaves.getVolumeSum(), 0);
+        assertEquals(6 * 16, leaves.getMarginSum(), 0);
+        // the union of the buckets is 8 + 27 - 1
+        assertEquals(64 - 34, leaves.getDeadSpace(), 0);
+        assertEquals(0, leaves.getSiblingOverlap(), 0);
+    }
+
+    @Test
+    public void testStatisticsEmpty() {
+        Statistics statistics = RTreeMap.create(new ConfigurationBuilder().build()).statistics();
+        assertEquals(0, statistics.getDepth());
+        assertEquals(0, statistics.getSize());
+        assertEquals(0, statistics.getBucketCount());
+        assertTrue(statistics.getLevels().isEmpty());
+    }
+
+    private static int countNodes(Node<?, ?> node) {
+        int count = 1;
+        for (Node<?, ?> child : node.getChildren()) {
+            count += countNodes(child);
+        }
+        return count;
+    }
+
+    private static int countBadlyShaped(Node<?, ?> node, Configuration configuration) {
+        if (node.isLeaf()) {
+            return 0;
+        }
+        int count = Repacker.score(node, configuration) > Repacker.THRESHOLD ? 1 : 0;
+        for (Node<?, ?> child : node.getChildren()) {
+            count += countBadlyShaped(child, configuration);
+        }
+        return count;
+    }
+
+    private static void assertHilbertOrdered(Node<?, ?> root) {
+        List<Node<Box, Integer>> leaves = new ArrayList<>();
+        collectLeaves(root, leaves);
+        Box previous = null;
+        for (Node<?, ?> leaf : leaves) {
+            for (Bucket<?, ?> bucket : leaf.getBuckets()) {
+                Box box = bucket.getBox();
+                if (previous != null) {
+                    assertTrue(Hilbert.of(previous).compareTo(Hilbert.of(box)) <= 0);
+                }
+                previous = box;
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <K, V> void collectLeaves(Node<?, ?> node, List<Node<K, V>> leaves) {
+        if (node.isLeaf()) {
+            leaves.add((Node<K, V>) node);
+        } else {
+            for (Node<?, ?> child : node.getChildren()) {
+                collectLeaves(child, leaves);
+            }
+        }
+    }
+
+    private static void assertValidStructure(Node<?, ?> node, Configuration configuration, boolean root,
+                                             int depth) {
+        assertEquals(depth, node.calculateDepth());
+        int children = node.isLeaf() ? node.getBuckets().size() : node.getChildren().size();
+        assertTrue(children <= configuration.getMaxChildren());
+        if (!root) {
+            assertTrue(children >= configuration.getMinChildren());
+        }
+        if (node.isLeaf()) {
+            assertEquals(Util.mbb(node.getBuckets().stream().map(Bucket::getBox).collect(Collectors.toList())),
+                    node.getBox());
+        } else {
+            assertEquals(Util.mbb(node.getChildren().stream().map(Node::getBox).collect(Collectors.toList())),
+                    node.getBox());
+            int size = 0;
+            for (Node<?, ?> child : node.getChildren()) {
+                assertValidStructure(child, configuration, false, depth - 1);
+                size += child.size();
+            }
+            assertEquals(size, node.size());
+        }
+    }
+
     private void testBuiltTree(RTreeMap<Box, Object> tree) {
         for (int i = 1; i <= 1000; i++) {
             tree = tree.put(point(i, i), i);
@@ -372,6 +856,27 @@ public class RTreeMapTest {
         assertEquals(Box.create(1, 1, 0, 2, 2, 0), r);
     }
 
+    @Test
+    public void testAllMatchIgnoresEntriesOutsideBoxPredicate() {
+        RTreeMap<Box, Integer> tree = RTreeMap.create(new ConfigurationBuilder().maxChildren(3).build());
+        for (int i = 0; i < 20; i++) {
+            tree = tree.put(point(i, i), i);
+        }
+        Box r = box(0, 0, 4, 4);
+        assertTrue(tree.values(r::intersectsOpen).allMatch(v -> v <= 4));
+        assertFalse(tree.values(r::intersectsOpen).allMatch(v -> v < 4));
+    }
+
+    @Test
+    public void testFilteredNoneMatch() {
+        RTreeMap<Box, Integer> tree = RTreeMap.create(new ConfigurationBuilder().build());
+        for (int i = 0; i < 10; i++) {
+            tree = tree.put(point(i, i), i);
+        }
+        assertTrue(tree.values().filter(v -> v % 2 == 0).noneMatch(v -> v == 3));
+        assertFalse(tree.values().filter(v -> v % 2 == 0).noneMatch(v -> v == 4));
+    }
+
     private static Box point(int x, int y) {
         return Box.create(x, y, 0, x, y, 0);
     }
@@ -0,0 +1,43 @@
+package com.jamieswhiteshirt.rtree3i;
+
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class RevisedRStarSelectorTest {
+    private static final Configuration CONFIGURATION = new ConfigurationBuilder().build();
+
+    @Test
+    public void testSelectsSmallestCoveringNode() {
+        Node<Box, Integer> large = leaf(Box.create(0, 0, 0, 100, 100, 100));
+        Node<Box, Integer> small = leaf(Box.create(0, 0, 0, 10, 10, 10));
+        List<Node<Box, Integer>> nodes = Arrays.asList(large, small);
+        assertSame(small, new RevisedRStarSelector().select(Box.create(1, 1, 1, 2, 2, 2), nodes));
+    }
+
+    @Test
+    public void testSelectsLeastPerimeterIncreaseWithoutOverlap() {
+        Node<Box, Integer> near = leaf(Box.create(0, 0, 0, 10, 10, 10));
+        Node<Box, Integer> far = leaf(Box.create(50, 0, 0, 60, 10, 10));
+        List<Node<Box, Integer>> nodes = Arrays.asList(far, near);
+        assertSame(near, new RevisedRStarSelector().select(Box.create(12, 0, 0, 13, 1, 1), nodes));
+    }
+
+    @Test
+    public void testAvoidsOverlapIncrease() {
+        // enlarging a towards the box would make it overlap b, enlarging c does
+        // not overlap anything
+        Node<Box, Integer> a = leaf(Box.create(0, 0, 0, 10, 10, 10));
+        Node<Box, Integer> b = leaf(Box.create(11, 0, 0, 20, 10, 10));
+        Node<Box, Integer> c = leaf(Box.create(22, 0, 0, 24, 10, 10));
+        List<Node<Box, Integer>> nodes = Arrays.asList(a, b, c);
+        assertSame(c, new RevisedRStarSelector().select(Box.create(21, 0, 0, 22, 1, 1), nodes));
+    }
+
+    private static Node<Box, Integer> leaf(Box box) {
+        return Leaf.containing(box, box, 0, CONFIGURATION);
+    }
+}
@@ -0,0 +1,78 @@
+package com.jamieswhiteshirt.rtree3i;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Function;
+
+import org.junit.Test;
+
+import com.google.common.collect.Sets;
+
+public class RevisedRStarSplitterTest {
+
+    @Test
+    public void testSplitSeparatedClusters() {
+        final RevisedRStarSplitter s = new RevisedRStarSplitter();
+        final Box r1 = r(1);
+        final Box r2 = r(2);
+        final Box r3 = r(100);
+        final Box r4 = r(101);
+        final Box r5 = r(103);
+        final Groups<Box> pair = s.split(Arrays.asList(r3, r1, r5, r2, r4), 2, Function.identity());
+        assertEquals(Sets.newHashSet(r1, r2), Sets.newHashSet(pair.getGroup1().getEntries()));
+        assertEquals(Sets.newHashSet(r3, r4, r5), Sets.newHashSet(pair.getGroup2().getEntries()));
+    }
+
+    @Test
+    public void testSplitKeepsOriginalItemsTogether() {
+        final RevisedRStarSplitter s = new RevisedRStarSplitter();
+        final List<Box> boxes = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            boxes.add(r(i * 10));
+        }
+        final Box original = Util.mbb(boxes);
+        final Box added = r(100);
+        boxes.add(added);
+        final Groups<Box> pair = s.split(boxes, 2, Function.identity(), original);
+        // the node grew to the high side, so the split moves towards that side
+        assertTrue(pair.getGroup2().getEntries().size() < pair.getGroup1().getEntries().size());
+        assertTrue(pair.getGroup2().getEntries().contains(added));
+    }
+
+    @Test
+    public void testSplitKeepsAllItems() {
+        final RevisedRStarSplitter s = new RevisedRStarSplitter();
+        final Random random = new Random(6);
+        for (int round = 0; round < 20; round++) {
+            final List<Box> boxes = new ArrayList<>();
+            for (int i = 0; i < 33; i++) {
+                int x = random.nextInt(1000), y = random.nextInt(1000), z = random.nextInt(1000);
+                boxes.add(Box.create(x, y, z, x + random.nextInt(50), y + random.nextInt(50), z + random.nextInt(50)));
+            }
+            final Groups<Box> pair = s.split(boxes, 13, Function.identity(), Util.mbb(boxes.subList(1, 33)));
+            final List<Box> all = new ArrayList<>(pair.getGroup1().getEntries());
+            all.addAll(pair.getGroup2().getEntries());
+            assertEquals(boxes.size(), all.size());
+            assertTrue(all.containsAll(boxes));
+            assertTrue(pair.getGroup1().getEntries().size() >= 13);
+            assertTrue(pair.getGroup2().getEntries().size() >= 13);
+            assertEquals(Util.mbb(pair.getGroup1().getEntries()), pair.getGroup1().getBox());
+            assertEquals(Util.mbb(pair.getGroup2().getEntries()), pair.getGroup2().getBox());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testExceptionForSplitEmptyList() {
+        new RevisedRStarSplitter().split(Collections.emptyList(), 3, Function.identity());
+    }
+
+    private static Box r(int n) {
+        return Box.create(n, n, 0, n + 1, n + 1, 1);
+    }
+}
@@ -0,0 +1,91 @@
+package com.jamieswhiteshirt.rtree3i;
+
+import static com.jamieswhiteshirt.rtree3i.TestBoxes.randomBox;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SnapshotStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final Configuration configuration = new ConfigurationBuilder().maxChildren(8).build();
+
+    @Test
+    public void testCheckpointsWriteOnlyChangedNodes() throws IOException {
+        Path directory = folder.newFolder().toPath();
+        Random random = new Random(9);
+        RTreeMap<Box, Integer> tree = RTreeMap.create(configuration);
+        for (int i = 0; i < 5000; i++) {
+            tree = tree.put(randomBox(random, 1000, 10), i);
+        }
+        RTreeMap<Box, Integer> first = tree;
+        try (SnapshotStore<Box, Integer> store = SnapshotStore.open(directory, configuration, Codecs.integer())) {
+            assertTrue(store.load().isEmpty());
+            assertEquals(0, store.checkpoint(tree));
+            long full = store.getNodeBytes();
+            // an unchanged map costs nothing but the checkpoint record
+            assertEquals(1, store.checkpoint(tree));
+            assertEquals(full, store.getNodeBytes());
+
+            for (int i = 0; i < 10; i++) {
+                tree = tree.put(randomBox(random, 1000, 10), -i);
+            }
+            store.checkpoint(tree);
+            assertTrue(store.getNodeBytes() - full < full / 10);
+        }
+        try (SnapshotStore<Box, Integer> store = SnapshotStore.open(directory, configuration, Codecs.integer())) {
+            assertEquals(Arrays.asList(0L, 1L, 2L), store.getCheckpoints());
+            assertEquals(tree.entries().collect(Collectors.toSet()),
+                store.load().entries().collect(Collectors.toSet()));
+            assertEquals(first.entries().collect(Collectors.toSet()),
+                store.load(0).entries().collect(Collectors.toSet()));
+
+            // maps loaded from the store are checkpointed incrementally too
+            long before = store.getNodeBytes();
+            store.checkpoint(store.load().put(randomBox(random, 1000, 10), 1));
+            assertTrue(store.getNodeBytes() - before < before / 10);
+        }
+    }
+
+    @Test
+    public void testCompactDropsOldCheckpoints() throws IOException {
+        Path directory = folder.newFolder().toPath();
+        Random random = new Random(10);
+        RTreeMap<Box, Integer> tree = RTreeMap.create(configuration);
+        try (SnapshotStore<Box, Integer> store = SnapshotStore.open(directory, configuration, Codecs.integer())) {
+            long last = 0;
+            for (int round = 0; round < 5; round++) {
+                // replace the whole map each round, so old checkpoints share nothing with the latest
+                tree = RTreeMap.create(configuration);
+                for (int i = 0; i < 500; i++) {
+                    tree = tree.put(randomBox(random, 1000, 10), i);
+                }
+                last = store.checkpoint(tree);
+            }
+            long before = store.getNodeBytes();
+            store.compact(last);
+            assertEquals(Arrays.asList(last), store.getCheckpoints());
+            assertTrue(store.getNodeBytes() < before / 4);
+            assertEquals(tree.entries().collect(Collectors.toSet()),
+                store.load().entries().collect(Collectors.toSet()));
+
+            long compacted = store.getNodeBytes();
+            store.checkpoint(tree);
+            assertEquals(compacted, store.getNodeBytes());
+        }
+        try (SnapshotStore<Box, Integer> store = SnapshotStore.open(directory, configuration, Codecs.integer())) {
+            assertEquals(2, store.getCheckpoints().size());
+            assertEquals(tree.size(), store.load().size());
+        }
+    }
+}
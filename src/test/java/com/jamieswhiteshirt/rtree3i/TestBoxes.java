@@ -0,0 +1,30 @@
+package com.jamieswhiteshirt.rtree3i;
+
+import java.util.Random;
+
+/**
+ * Random boxes for tests.
+ */
+final class TestBoxes {
+
+    private TestBoxes() {
+        // prevent instantiation
+    }
+
+    /**
+     * Returns a box with its minimum corner in [0, range) and extents in [0, maxSize) along each axis.
+     */
+    static Box randomBox(Random random, int range, int maxSize) {
+        return randomBox(random, 0, range, maxSize);
+    }
+
+    /**
+     * Returns a box with its minimum corner in [min, max) and extents in [0, maxSize) along each axis.
+     */
+    static Box randomBox(Random random, int min, int max, int maxSize) {
+        int x = min + random.nextInt(max - min);
+        int y = min + random.nextInt(max - min);
+        int z = min + random.nextInt(max - min);
+        return Box.create(x, y, z, x + random.nextInt(maxSize), y + random.nextInt(maxSize), z + random.nextInt(maxSize));
+    }
+}